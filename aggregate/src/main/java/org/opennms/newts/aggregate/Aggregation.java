@@ -19,22 +19,21 @@ package org.opennms.newts.aggregate;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.Collection;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.Accumulator;
+import org.opennms.newts.api.query.Accumulators;
 import org.opennms.newts.api.query.Datasource;
 import org.opennms.newts.api.query.ResultDescriptor;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 
 
 /**
@@ -44,42 +43,158 @@ import com.google.common.collect.Multimap;
  */
 class Aggregation implements Iterable<Row<Measurement>>, Iterator<Row<Measurement>> {
 
-    private final ResultDescriptor m_resultDescriptor;
+    /**
+     * Primary data points, read an interval at a time, by datasource index.
+     */
+    private static abstract class Input {
+
+        abstract boolean hasNext();
+
+        /**
+         * Advances to the next interval.
+         *
+         * @return the interval's timestamp, in milliseconds
+         */
+        abstract long next();
+
+        abstract double getValue(int datasource);
+
+        abstract Map<String, String> getAttributes(int datasource);
+
+    }
+
+    private static class PrimaryDataInput extends Input {
+
+        private final PrimaryData m_input;
+        private final int[] m_sources;
+
+        private PrimaryDataInput(PrimaryData input, Datasource[] datasources) {
+            m_input = checkNotNull(input, "input argument");
+            m_sources = new int[datasources.length];
+
+            for (int i = 0; i < datasources.length; i++) {
+                m_sources[i] = m_input.indexOf(datasources[i].getSource());
+            }
+        }
+
+        @Override
+        boolean hasNext() {
+            return m_input.hasNext();
+        }
+
+        @Override
+        long next() {
+            return m_input.nextInterval().asMillis();
+        }
+
+        @Override
+        double getValue(int datasource) {
+            return m_input.getValue(m_sources[datasource]);
+        }
+
+        @Override
+        Map<String, String> getAttributes(int datasource) {
+            return m_input.getAttributes(m_sources[datasource]);
+        }
+
+    }
+
+    private static class RowInput extends Input {
+
+        private final Iterator<Row<Measurement>> m_input;
+        private final Datasource[] m_datasources;
+        private Row<Measurement> m_current;
+
+        private RowInput(Iterator<Row<Measurement>> input, Datasource[] datasources) {
+            m_input = checkNotNull(input, "input argument");
+            m_datasources = datasources;
+        }
+
+        @Override
+        boolean hasNext() {
+            return m_input.hasNext();
+        }
+
+        @Override
+        long next() {
+            m_current = m_input.next();
+            return m_current.getTimestamp().asMillis();
+        }
+
+        @Override
+        double getValue(int datasource) {
+            Measurement metric = m_current.getElement(m_datasources[datasource].getSource());
+            return metric != null ? metric.getValue() : Double.NaN;
+        }
+
+        @Override
+        Map<String, String> getAttributes(int datasource) {
+            Measurement metric = m_current.getElement(m_datasources[datasource].getSource());
+            return metric != null ? metric.getAttributes() : null;
+        }
+
+    }
+
     private final Resource m_resource;
     private final Iterator<Timestamp> m_timestamps;
-    private final Duration m_resolution;
-    private final Iterator<Row<Measurement>> m_input;
+    private final long m_resolution;
+    private final Input m_input;
     private final double m_intervalsPer;
+    private final Datasource[] m_datasources;
+
+    // Aggregates the primary data point values, by datasource, of the output row being aggregated
+    private final Accumulator[] m_accumulators;
 
-    private Row<Measurement> m_working;
+    private boolean m_hasWorking;
+    private long m_working;
     private Row<Measurement> m_nextOut;
 
     Aggregation(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Duration resolution, Iterator<Row<Measurement>> input) {
-        m_resultDescriptor = checkNotNull(resultDescriptor, "result descriptor argument");
+        this(resource, start, end, resultDescriptor, resolution, new RowInput(input, getDatasources(resultDescriptor)));
+    }
+
+    Aggregation(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Duration resolution, PrimaryData input) {
+        this(resource, start, end, resultDescriptor, resolution, new PrimaryDataInput(input, getDatasources(resultDescriptor)));
+    }
+
+    private Aggregation(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Duration resolution, Input input) {
         m_resource = checkNotNull(resource, "resource argument");
         checkNotNull(start, "start argument");
         checkNotNull(end, "end argument");
-        m_resolution = checkNotNull(resolution, "resolution argument");
-        m_input = checkNotNull(input, "input argument");
+        checkNotNull(resolution, "resolution argument");
+        m_input = input;
+        m_datasources = getDatasources(resultDescriptor);
 
         Duration interval = resultDescriptor.getInterval();
         checkArgument(resolution.isMultiple(interval), "resolution must be a multiple of interval");
 
-        m_timestamps = new IntervalGenerator(start.stepFloor(m_resolution), end.stepCeiling(m_resolution), m_resolution);
+        m_timestamps = new IntervalGenerator(start.stepFloor(resolution), end.stepCeiling(resolution), resolution);
+        m_resolution = resolution.asMillis();
         m_intervalsPer = (double) resolution.divideBy(interval);
+        m_accumulators = new Accumulator[m_datasources.length];
 
-        m_working = m_input.hasNext() ? m_input.next() : null;
+        for (int ds = 0; ds < m_datasources.length; ds++) {
+            m_accumulators[ds] = Accumulators.newAccumulator(m_datasources[ds].getAggregationFuction());
+        }
+
+        nextWorking();
         m_nextOut = m_timestamps.hasNext() ? new Row<Measurement>(m_timestamps.next(), m_resource) : null;
 
         // If the input stream contains any Samples earlier than what's relevant, iterate past them.
         if (m_nextOut != null) {
-            while (m_working != null && m_working.getTimestamp().lte(m_nextOut.getTimestamp().minus(m_resolution))) {
-                m_working = nextWorking();
+            long rangeLower = m_nextOut.getTimestamp().asMillis() - m_resolution;
+            while (m_hasWorking && m_working <= rangeLower) {
+                nextWorking();
             }
         }
 
     }
 
+    private static Datasource[] getDatasources(ResultDescriptor resultDescriptor) {
+        checkNotNull(resultDescriptor, "result descriptor argument");
+        return resultDescriptor.getDatasources().values().toArray(new Datasource[0]);
+    }
+
     @Override
     public boolean hasNext() {
         return m_nextOut != null;
@@ -90,34 +205,42 @@ class Aggregation implements Iterable<Row<Measurement>>, Iterator<Row<Measuremen
 
         if (!hasNext()) throw new NoSuchElementException();
 
-        Multimap<String, Double> values = ArrayListMultimap.create();
-        Map<String, Map<String, String>> aggregatedAttrs = Maps.newHashMap();
+        int count = 0;
+        Map<?, ?>[] aggregatedAttrs = new Map<?, ?>[m_datasources.length];
+
+        for (int ds = 0; ds < m_datasources.length; ds++) {
+            m_accumulators[ds].reset();
+        }
 
         while (inRange()) {
             // accumulate
-            for (Datasource ds : getDatasources()) {
-                Measurement metric = m_working.getElement(ds.getSource());
-                values.put(ds.getLabel(), metric != null ? metric.getValue() : Double.NaN);
+            for (int ds = 0; ds < m_datasources.length; ds++) {
+                m_accumulators[ds].accept(m_input.getValue(ds));
 
-                Map<String, String> metricAttrs = aggregatedAttrs.get(ds.getLabel());
+                @SuppressWarnings("unchecked")
+                Map<String, String> metricAttrs = (Map<String, String>) aggregatedAttrs[ds];
                 if (metricAttrs == null) {
                     metricAttrs = Maps.newHashMap();
-                    aggregatedAttrs.put(ds.getLabel(), metricAttrs);
+                    aggregatedAttrs[ds] = metricAttrs;
                 }
 
-                if (metric != null && metric.getAttributes() != null) {
-                    metricAttrs.putAll(metric.getAttributes());
+                Map<String, String> attributes = m_input.getAttributes(ds);
+                if (attributes != null) {
+                    metricAttrs.putAll(attributes);
                 }
 
             }
 
-            m_working = nextWorking();
+            count++;
+            nextWorking();
         }
 
-        for (Datasource ds : getDatasources()) {
-            Double v = aggregate(ds, values.get(ds.getLabel()));
-            Map<String, String> attrs = aggregatedAttrs.get(ds.getLabel());
-            m_nextOut.addElement(new Measurement(m_nextOut.getTimestamp(), m_resource, ds.getLabel(), v, attrs));
+        for (int ds = 0; ds < m_datasources.length; ds++) {
+            double v = aggregate(ds, count);
+
+            @SuppressWarnings("unchecked")
+            Map<String, String> attrs = (Map<String, String>) aggregatedAttrs[ds];
+            m_nextOut.addElement(new Measurement(m_nextOut.getTimestamp(), m_resource, m_datasources[ds].getLabel(), v, attrs));
         }
 
         try {
@@ -130,28 +253,27 @@ class Aggregation implements Iterable<Row<Measurement>>, Iterator<Row<Measuremen
 
     // Return the result of this Datasource's aggregation function if the number of values
     // is within XFF, otherwise return NaN.
-    private Double aggregate(Datasource ds, Collection<Double> values) {
-        return ((values.size() / m_intervalsPer) > ds.getXff()) ? ds.getAggregationFuction().apply(values) : Double.NaN;
+    private double aggregate(int ds, int count) {
+        return ((count / m_intervalsPer) > m_datasources[ds].getXff()) ? m_accumulators[ds].result() : Double.NaN;
     }
 
-    // true if the working input Row is within the Range of the next output Row; false otherwise
+    // true if the working input interval is within the Range of the next output Row; false otherwise
     private boolean inRange() {
-        if (m_working == null || m_nextOut == null) {
+        if (!m_hasWorking || m_nextOut == null) {
             return false;
         }
 
-        Timestamp rangeUpper = m_nextOut.getTimestamp();
-        Timestamp rangeLower = m_nextOut.getTimestamp().minus(m_resolution);
+        long rangeUpper = m_nextOut.getTimestamp().asMillis();
+        long rangeLower = rangeUpper - m_resolution;
 
-        return m_working.getTimestamp().lte(rangeUpper) && m_working.getTimestamp().gt(rangeLower);
+        return m_working <= rangeUpper && m_working > rangeLower;
     }
 
-    private Row<Measurement> nextWorking() {
-        return m_input.hasNext() ? m_input.next() : null;
-    }
-
-    private Collection<Datasource> getDatasources() {
-        return m_resultDescriptor.getDatasources().values();
+    private void nextWorking() {
+        m_hasWorking = m_input.hasNext();
+        if (m_hasWorking) {
+            m_working = m_input.next();
+        }
     }
 
     @Override
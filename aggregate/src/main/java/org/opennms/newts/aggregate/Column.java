@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ * The timestamps (in milliseconds), values, and attributes of a single metric's samples, stored as
+ * parallel arrays. Samples are appended at the end, and discarded from the front once consumed;
+ * Indexes are relative to the first sample retained.
+ */
+class Column {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] m_timestamps = new long[INITIAL_CAPACITY];
+    private double[] m_values = new double[INITIAL_CAPACITY];
+    private Object[] m_attributes = new Object[INITIAL_CAPACITY];
+    private int m_start = 0;
+    private int m_end = 0;
+
+    void add(long timestamp, double value, Map<String, String> attributes) {
+        if (m_end == m_timestamps.length) {
+            makeRoom();
+        }
+
+        m_timestamps[m_end] = timestamp;
+        m_values[m_end] = value;
+        m_attributes[m_end] = attributes;
+        m_end++;
+    }
+
+    int size() {
+        return m_end - m_start;
+    }
+
+    boolean isEmpty() {
+        return m_end == m_start;
+    }
+
+    long getTimestamp(int index) {
+        return m_timestamps[m_start + index];
+    }
+
+    long getLastTimestamp() {
+        checkState(!isEmpty(), "empty column");
+        return m_timestamps[m_end - 1];
+    }
+
+    double getValue(int index) {
+        return m_values[m_start + index];
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> getAttributes(int index) {
+        return (Map<String, String>) m_attributes[m_start + index];
+    }
+
+    /**
+     * Discards the first {@code count} samples.
+     */
+    void discard(int count) {
+        checkArgument(count >= 0 && count <= size(), "invalid count: %s", count);
+
+        Arrays.fill(m_attributes, m_start, m_start + count, null);
+        m_start += count;
+
+        if (m_start == m_end) {
+            m_start = m_end = 0;
+        }
+    }
+
+    // Compact the arrays if at least half of their capacity has been discarded, grow them otherwise.
+    private void makeRoom() {
+        int size = size();
+        int capacity = (m_start >= m_timestamps.length / 2) ? m_timestamps.length : m_timestamps.length * 2;
+
+        long[] timestamps = (capacity == m_timestamps.length) ? m_timestamps : new long[capacity];
+        double[] values = (capacity == m_values.length) ? m_values : new double[capacity];
+        Object[] attributes = (capacity == m_attributes.length) ? m_attributes : new Object[capacity];
+
+        System.arraycopy(m_timestamps, m_start, timestamps, 0, size);
+        System.arraycopy(m_values, m_start, values, 0, size);
+        System.arraycopy(m_attributes, m_start, attributes, 0, size);
+
+        if (attributes == m_attributes) {
+            Arrays.fill(m_attributes, size, m_end, null);
+        }
+
+        m_timestamps = timestamps;
+        m_values = values;
+        m_attributes = attributes;
+        m_start = 0;
+        m_end = size;
+    }
+
+}
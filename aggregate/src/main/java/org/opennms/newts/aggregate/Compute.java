@@ -18,30 +18,102 @@ package org.opennms.newts.aggregate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Results.Row;
-import org.opennms.newts.api.query.ResultDescriptor;
 import org.opennms.newts.api.query.Calculation;
+import org.opennms.newts.api.query.CalculationFunction;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.VectorCalculationFunction;
 
-import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 
+/**
+ * Applies the calculations of a result descriptor to rows of measurements, (a block of rows at a
+ * time); The arguments of each calculation are resolved to columns up front, and a
+ * {@link VectorCalculationFunction} is applied to the whole of each column, (others by row).
+ */
 class Compute implements Iterator<Row<Measurement>>, Iterable<Row<Measurement>> {
 
-    private final ResultDescriptor m_resultDescriptor;
+    /** The (most) rows computed at a time. */
+    static final int BLOCK_ROWS = 256;
+
     private final Iterator<Row<Measurement>> m_input;
+    private final Calculation[] m_calculations;
+
+    // The labels of the columns read from the input, (by column)
+    private final String[] m_inputs;
+    // The columns of the arguments of each calculation, and of its result
+    private final int[][] m_arguments;
+    private final int[] m_results;
+    private final double[][] m_columns;
+
+    private final List<Row<Measurement>> m_block = Lists.newArrayListWithCapacity(BLOCK_ROWS);
+    private int m_position = 0;
 
     Compute(ResultDescriptor resultDescriptor, Iterator<Row<Measurement>> input) {
-        m_resultDescriptor = checkNotNull(resultDescriptor, "result descriptor argument");
+        checkNotNull(resultDescriptor, "result descriptor argument");
         m_input = checkNotNull(input, "input argument");
+
+        m_calculations = resultDescriptor.getCalculations().values().toArray(new Calculation[0]);
+        m_arguments = new int[m_calculations.length][];
+        m_results = new int[m_calculations.length];
+
+        Map<String, Integer> columns = Maps.newHashMap();
+        Map<Integer, Double> constants = Maps.newHashMap();
+        List<String> inputs = Lists.newArrayList();
+
+        for (int i = 0; i < m_calculations.length; i++) {
+            String[] args = m_calculations[i].getArgs();
+            m_arguments[i] = new int[args.length];
+
+            for (int j = 0; j < args.length; j++) {
+                Integer column = columns.get(args[j]);
+
+                if (column == null) {
+                    column = columns.size();
+                    columns.put(args[j], column);
+
+                    Double constant = parseDouble(args[j]);
+
+                    if (constant != null) {
+                        constants.put(column, constant);
+                    }
+                    else {
+                        inputs.add(args[j]);
+                    }
+                }
+
+                m_arguments[i][j] = column;
+            }
+
+            // Calculations are of distinct labels, that no argument preceding them refers to
+            m_results[i] = columns.size();
+            columns.put(m_calculations[i].getLabel(), m_results[i]);
+        }
+
+        m_columns = new double[columns.size()][BLOCK_ROWS];
+        m_inputs = new String[columns.size()];
+
+        for (String label : inputs) {
+            m_inputs[columns.get(label)] = label;
+        }
+
+        for (Map.Entry<Integer, Double> constant : constants.entrySet()) {
+            Arrays.fill(m_columns[constant.getKey()], constant.getValue());
+        }
     }
 
     @Override
     public boolean hasNext() {
-        return m_input.hasNext();
+        return m_position < m_block.size() || m_input.hasNext();
     }
 
     @Override
@@ -49,33 +121,75 @@ class Compute implements Iterator<Row<Measurement>>, Iterable<Row<Measurement>>
 
         if (!hasNext()) throw new NoSuchElementException();
 
-        Row<Measurement> row = m_input.next();
-
-        for (Calculation calc : m_resultDescriptor.getCalculations().values()) {
-            double v = calc.getCalculationFunction().apply(getValues(row, calc.getArgs()));
-            row.addElement(new Measurement(row.getTimestamp(), row.getResource(), calc.getLabel(), v));
+        if (m_position == m_block.size()) {
+            computeBlock();
         }
 
-        return row;
+        return m_block.get(m_position++);
     }
 
-    private double[] getValues(Row<Measurement> row, String[] names) {
-        double[] values = new double[names.length];
+    private void computeBlock() {
+        m_block.clear();
+        m_position = 0;
+
+        while (m_block.size() < BLOCK_ROWS && m_input.hasNext()) {
+            m_block.add(m_input.next());
+        }
+
+        int length = m_block.size();
+
+        for (int column = 0; column < m_inputs.length; column++) {
+            if (m_inputs[column] == null) {
+                continue;
+            }
+
+            double[] values = m_columns[column];
 
-        for (int i = 0; i < names.length; i++) {
-            String name = names[i];
-            Optional<Double> d = parseDouble(name);
-            values[i] = d.isPresent() ? d.get() : checkNotNull(row.getElement(name), "Missing measurement; Upstream iterator is bugged").getValue();
+            for (int i = 0; i < length; i++) {
+                values[i] = checkNotNull(m_block.get(i).getElement(m_inputs[column]), "Missing measurement; Upstream iterator is bugged").getValue();
+            }
         }
 
-        return values;
+        for (int c = 0; c < m_calculations.length; c++) {
+            CalculationFunction function = m_calculations[c].getCalculationFunction();
+            double[][] args = new double[m_arguments[c].length][];
+
+            for (int j = 0; j < args.length; j++) {
+                args[j] = m_columns[m_arguments[c][j]];
+            }
+
+            double[] result = m_columns[m_results[c]];
+
+            if (function instanceof VectorCalculationFunction) {
+                ((VectorCalculationFunction) function).apply(args, length, result);
+                continue;
+            }
+
+            for (int i = 0; i < length; i++) {
+                double[] values = new double[args.length];
+
+                for (int j = 0; j < args.length; j++) {
+                    values[j] = args[j][i];
+                }
+
+                result[i] = function.apply(values);
+            }
+        }
+
+        for (int i = 0; i < length; i++) {
+            Row<Measurement> row = m_block.get(i);
+
+            for (int c = 0; c < m_calculations.length; c++) {
+                row.addElement(new Measurement(row.getTimestamp(), row.getResource(), m_calculations[c].getLabel(), m_columns[m_results[c]][i]));
+            }
+        }
     }
-    
-    Optional<Double> parseDouble(String maybeNum) {
+
+    private static Double parseDouble(String maybeNum) {
         try {
-            return Optional.of(Double.parseDouble(maybeNum));
+            return Double.parseDouble(maybeNum);
         } catch (NumberFormatException e) {
-            return Optional.absent();
+            return null;
         }
     }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opennms.newts.api.query.AccumulatingAggregationFunction;
+import org.opennms.newts.api.query.Accumulator;
+import org.opennms.newts.api.query.PercentileFunction;
+import org.opennms.newts.api.query.SeriesAggregation;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+
+
+/**
+ * The partial {@link SeriesAggregation} of a sequence of values, (ignoring NaNs); Percentiles are
+ * estimated with the {@link Accumulator} of a {@link PercentileFunction}, so that the values
+ * themselves need not be retained.
+ */
+class PartialAggregate {
+
+    private final Accumulator m_accumulator;
+
+    private double m_min = Double.POSITIVE_INFINITY;
+
+    PartialAggregate(SeriesAggregation aggregation) {
+        m_accumulator = functionOf(checkNotNull(aggregation, "aggregation argument")).newAccumulator();
+    }
+
+    void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        m_accumulator.accept(value);
+        m_min = Math.min(m_min, value);
+    }
+
+    /**
+     * @return the least value added so far, (or positive infinity if none)
+     */
+    double getMin() {
+        return m_min;
+    }
+
+    /**
+     * @return the aggregate of the values added so far, (or NaN if none)
+     */
+    double get() {
+        return m_accumulator.result();
+    }
+
+    private static AccumulatingAggregationFunction functionOf(SeriesAggregation aggregation) {
+        switch (aggregation.getFunction()) {
+            case SUM:
+                return StandardAggregationFunctions.SUM;
+            case AVERAGE:
+                return StandardAggregationFunctions.AVERAGE;
+            case MIN:
+                return StandardAggregationFunctions.MIN;
+            case MAX:
+                return StandardAggregationFunctions.MAX;
+            case PERCENTILE:
+                return new PercentileFunction(aggregation.getPercentile());
+            default:
+                throw new IllegalArgumentException(String.format("unknown aggregation %s", aggregation));
+        }
+    }
+
+}
@@ -18,112 +18,130 @@ package org.opennms.newts.aggregate;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
-import org.opennms.newts.api.Sample;
-import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Results;
 import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.Timestamp;
-import org.opennms.newts.api.ValueType;
 import org.opennms.newts.api.query.Datasource;
 import org.opennms.newts.api.query.ResultDescriptor;
 
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 
 /**
  * Generate primary data point measurements from a stream of samples.
+ * <p>
+ * Samples are read from {@link Rate} as they are needed; To produce an interval, the samples of
+ * each source are read up to the first sample beyond the interval. Only the samples that can still
+ * contribute to the next interval are retained. Timestamps are compared with millisecond
+ * precision.
+ * </p>
+ * <p>
+ * In addition to iterating over rows of measurements, the values of each interval can be read by
+ * source index (see {@link #nextInterval()}).
+ * </p>
  *
  * @author eevans
  */
 class PrimaryData implements Iterator<Row<Measurement>>, Iterable<Row<Measurement>> {
 
-    private static class Accumulation {
-        private long m_known, m_unknown;
-        private ValueType<?> m_value;
-        private Map<String, String> m_attributes = Maps.newHashMap();
+    private final Resource m_resource;
+    private final Iterator<Timestamp> m_timestamps;
+    private final Rate m_input;
 
-        private Accumulation() {
-            reset();
-        }
+    // Distinct sources, and their columns of samples
+    private final List<String> m_sources = Lists.newArrayList();
+    private final Column[] m_columns;
 
-        private Accumulation accumulateValue(Duration elapsedWithinInterval, Duration elapsedBetweenSamples, Duration heartbeat, ValueType<?> value) {
-            if (elapsedBetweenSamples.lt(heartbeat)) {
-                m_known += elapsedWithinInterval.asMillis();
-                m_value = m_value.plus(value.times(elapsedWithinInterval.asMillis()));
-            }
-            else {
-                m_unknown += elapsedWithinInterval.asMillis();
-            }
-            return this;
-        }
+    // The source index and heartbeat of each datasource
+    private final int[] m_datasourceSources;
+    private final long[] m_heartbeats;
 
-        private Accumulation accumlateAttrs(Map<String, String> attributes) {
-            if (attributes != null) m_attributes.putAll(attributes);
-            return this;
-        }
+    // The primary data point of each source for the current interval
+    private final double[] m_values;
+    private final Map<?, ?>[] m_attributes;
 
-        private Double getAverage() {
-            return isValid() ? m_value.divideBy(m_known).doubleValue() : Double.NaN;
-        }
+    // The first sample of each column still needed by the next interval
+    private final int[] m_retainFrom;
 
-        private long getKnown() {
-            return m_known;
-        }
+    private long m_lastIntervalCeiling = Long.MIN_VALUE;
 
-        private long getUnknown() {
-            return m_unknown;
-        }
+    /**
+     * Creates a new {@link PrimaryData} from {@code input}, which must be ordered by timestamp (as
+     * {@link Results} are). The values of counter types are converted to rates.
+     */
+    PrimaryData(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Iterator<Row<Sample>> input) {
+        this(resource, start, end, resultDescriptor, new Rate(input, checkNotNull(resultDescriptor, "result descriptor argument").getSourceNames()));
+    }
 
-        private double getElapsed() {
-            return getKnown() + getUnknown();
-        }
+    PrimaryData(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Rate input) {
+        checkNotNull(resultDescriptor, "result descriptor argument");
+        m_resource = checkNotNull(resource, "resource argument");
+        checkNotNull(start, "start argument");
+        checkNotNull(end, "end argument");
+        m_input = checkNotNull(input, "input argument");
 
-        private boolean isValid() {
-            return getUnknown() < (getElapsed() / 2);
-        }
+        Duration interval = resultDescriptor.getInterval();
+        m_timestamps = new IntervalGenerator(start.stepFloor(interval), end.stepCeiling(interval), interval);
+
+        Datasource[] datasources = resultDescriptor.getDatasources().values().toArray(new Datasource[0]);
+        m_datasourceSources = new int[datasources.length];
+        m_heartbeats = new long[datasources.length];
+
+        for (int i = 0; i < datasources.length; i++) {
+            String source = datasources[i].getSource();
+
+            // Datasources that share a source also share its column of samples.
+            if (!m_sources.contains(source)) {
+                m_sources.add(source);
+            }
 
-        private void reset() {
-            m_known = m_unknown = 0;
-            m_value = ValueType.compose(0, MetricType.GAUGE);
-            m_attributes = Maps.newHashMap();
+            m_datasourceSources[i] = m_sources.indexOf(source);
+            m_heartbeats[i] = datasources[i].getHeartbeat().asMillis();
         }
 
-        private Map<String, String> getAttributes() {
-            return m_attributes;
+        m_columns = new Column[m_sources.size()];
+        for (int i = 0; i < m_columns.length; i++) {
+            m_columns[i] = m_input.getColumn(m_sources.get(i));
         }
 
+        m_values = new double[m_sources.size()];
+        m_attributes = new Map<?, ?>[m_sources.size()];
+        m_retainFrom = new int[m_sources.size()];
     }
 
-    private final ResultDescriptor m_resultDescriptor;
-    private final Resource m_resource;
-    private final Iterator<Timestamp> m_timestamps;
-    private final Duration m_interval;
-    private Timestamp lastIntervalCeiling = null;
-    private final ArrayList<Row<Sample>> m_samples = Lists.newArrayList();
-    private final Map<String, Integer> m_lastSampleIndex = Maps.newHashMap();
-    private final Map<String, Accumulation> m_accumulation = Maps.newHashMap();
-
-    PrimaryData(Resource resource, Timestamp start, Timestamp end, ResultDescriptor resultDescriptor, Iterator<Row<Sample>> input) {
-        m_resultDescriptor = checkNotNull(resultDescriptor, "result descriptor argument");
-        m_resource = checkNotNull(resource, "resource argument");
-        checkNotNull(start, "start argument");
-        checkNotNull(end, "end argument");
-        m_interval = resultDescriptor.getInterval();
+    /**
+     * @return the index of {@code source}, or -1 if it is not the source of any datasource
+     */
+    int indexOf(String source) {
+        return m_sources.indexOf(source);
+    }
 
-        m_timestamps = new IntervalGenerator(start.stepFloor(m_interval), end.stepCeiling(m_interval), m_interval);
+    /**
+     * @return the value of the source at {@code index}, for the interval last returned by
+     *         {@link #nextInterval()}
+     */
+    double getValue(int index) {
+        return m_values[index];
+    }
 
-        // Gather the whole collection of rows.
-        // We need these since the next sample for a given metric may only appear a few rows ahead
-        Iterators.addAll(m_samples, checkNotNull(input, "input argument"));
+    /**
+     * @return the attributes of the source at {@code index}, for the interval last returned by
+     *         {@link #nextInterval()}
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, String> getAttributes(int index) {
+        return (Map<String, String>) m_attributes[index];
     }
 
     @Override
@@ -133,90 +151,109 @@ class PrimaryData implements Iterator<Row<Measurement>>, Iterable<Row<Measuremen
 
     @Override
     public Row<Measurement> next() {
-        if (!hasNext()) throw new NoSuchElementException();
-
-        Timestamp intervalCeiling = m_timestamps.next();
+        Timestamp intervalCeiling = nextInterval();
         Row<Measurement> output = new Row<>(intervalCeiling, m_resource);
 
-        for (Datasource ds : m_resultDescriptor.getDatasources().values()) {
-            Accumulation accumulation = getOrCreateAccumulation(ds.getSource());
-            accumulation.reset();
+        for (int i = 0; i < m_sources.size(); i++) {
+            output.addElement(new Measurement(intervalCeiling, m_resource, m_sources.get(i), getValue(i), getAttributes(i)));
+        }
 
-            int lastSampleIdx = 0;
-            if (m_lastSampleIndex.containsKey(ds.getSource())) {
-                lastSampleIdx = m_lastSampleIndex.get(ds.getSource());
-            }
+        return output;
+    }
 
-            Sample last = null;
-            for (int sampleIdx = lastSampleIdx; sampleIdx < m_samples.size(); sampleIdx++) {
-                Row<Sample> row = m_samples.get(sampleIdx);
-                Sample current;
+    /**
+     * Computes the values of the next interval.
+     *
+     * @return the timestamp of the interval
+     */
+    Timestamp nextInterval() {
+        if (!hasNext()) throw new NoSuchElementException();
 
-                current = row.getElement(ds.getSource());
+        Timestamp intervalCeiling = m_timestamps.next();
+        long ceiling = intervalCeiling.asMillis();
 
-                // Skip the row if it does not contain a sample for the current datasource
-                if (current == null) {
-                    continue;
-                }
+        fill(ceiling);
 
-                if (last == null) {
-                    last = current;
-                    lastSampleIdx = sampleIdx;
-                    continue;
-                }
+        for (int ds = 0; ds < m_datasourceSources.length; ds++) {
+            int source = m_datasourceSources[ds];
+            Column column = m_columns[source];
+
+            long known = 0, unknown = 0;
+            double value = 0.0d;
+            Map<String, String> attributes = null;
+
+            // The first sample of the last pair accumulated; The next interval starts over from there.
+            int retainFrom = 0;
+            int size = column.size();
+            long last = size > 0 ? column.getTimestamp(0) : 0;
 
+            for (int i = 1; i < size; i++) {
                 // Accumulate nothing when samples are beyond this interval
-                if (intervalCeiling.lt(last.getTimestamp())) {
+                if (ceiling < last) {
                     break;
                 }
 
-                Timestamp lowerBound = last.getTimestamp();
-                if (lastIntervalCeiling != null && lastIntervalCeiling.gt(lowerBound)) {
-                    lowerBound = lastIntervalCeiling;
-                }
+                long current = column.getTimestamp(i);
 
-                Timestamp upperBound = current.getTimestamp();
-                if (intervalCeiling.lt(upperBound)) {
-                    upperBound = intervalCeiling;
-                }
-                if (lowerBound.gt(upperBound)) {
+                long lowerBound = Math.max(last, m_lastIntervalCeiling);
+                long upperBound = Math.min(current, ceiling);
+                if (lowerBound > upperBound) {
                     lowerBound = upperBound;
                 }
 
-                Duration elapsedWithinInterval = upperBound.minus(lowerBound);
-                Duration elapsedBetweenSamples = current.getTimestamp().minus(last.getTimestamp());
+                long elapsedWithinInterval = upperBound - lowerBound;
 
-                m_lastSampleIndex.put(ds.getSource(), lastSampleIdx);
-                accumulation.accumulateValue(elapsedWithinInterval, elapsedBetweenSamples,
-                        ds.getHeartbeat(), current.getValue())
-                    .accumlateAttrs(current.getAttributes());
+                if ((current - last) < m_heartbeats[ds]) {
+                    known += elapsedWithinInterval;
+                    value += column.getValue(i) * elapsedWithinInterval;
+                }
+                else {
+                    unknown += elapsedWithinInterval;
+                }
 
+                Map<String, String> sampleAttributes = column.getAttributes(i);
+                if (sampleAttributes != null) {
+                    if (attributes == null) attributes = Maps.newHashMap();
+                    attributes.putAll(sampleAttributes);
+                }
+
+                retainFrom = i - 1;
                 last = current;
-                lastSampleIdx = sampleIdx;
             }
 
-            // Add sample with accumulated value to output row
-            output.addElement(new Measurement(
-                    output.getTimestamp(),
-                    output.getResource(),
-                    ds.getSource(),
-                    accumulation.getAverage(),
-                    accumulation.getAttributes()));
+            m_retainFrom[source] = retainFrom;
+
+            // The last of the datasources sharing a source determines its value
+            m_values[source] = (unknown < ((double) (known + unknown) / 2)) ? value / known : Double.NaN;
+            m_attributes[source] = (attributes != null) ? attributes : Collections.<String, String>emptyMap();
         }
 
-        lastIntervalCeiling = intervalCeiling;
-        return output;
-    }
+        // Only once every datasource sharing a column has read it
+        for (int source = 0; source < m_columns.length; source++) {
+            m_columns[source].discard(m_retainFrom[source]);
+        }
 
-    private Accumulation getOrCreateAccumulation(String name) {
-        Accumulation result = m_accumulation.get(name);
+        m_lastIntervalCeiling = ceiling;
+        return intervalCeiling;
+    }
 
-        if (result == null) {
-            result = new Accumulation();
-            m_accumulation.put(name, result);
+    /**
+     * Reads rows from the input until every source has a sample beyond {@code intervalCeiling},
+     * (or the input is exhausted).
+     */
+    private void fill(long intervalCeiling) {
+        while (m_input.hasNext() && !covers(intervalCeiling)) {
+            m_input.next();
         }
+    }
 
-        return result;
+    private boolean covers(long intervalCeiling) {
+        for (Column column : m_columns) {
+            if (column.isEmpty() || column.getLastTimestamp() <= intervalCeiling) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
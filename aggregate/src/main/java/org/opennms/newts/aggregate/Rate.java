@@ -17,7 +17,6 @@ package org.opennms.newts.aggregate;
 
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static org.opennms.newts.api.MetricType.GAUGE;
 
 import java.util.EnumSet;
 import java.util.Iterator;
@@ -25,86 +24,84 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
-import org.opennms.newts.api.Gauge;
 import org.opennms.newts.api.MetricType;
 import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Sample;
-import org.opennms.newts.api.ValueType;
 
 import com.google.common.collect.Maps;
 
 
 /**
- * Conditionally calculate rate (per-second) on samples.
+ * Demultiplex rows of samples into a {@link Column} per metric, conditionally calculating rate
+ * (per-second).
  * 
  * @author eevans
  */
-class Rate implements Iterator<Row<Sample>>, Iterable<Row<Sample>> {
+class Rate {
 
-    private static final Gauge NAN = new Gauge(Double.NaN);
     private static final EnumSet<MetricType> COUNTERS = EnumSet.of(MetricType.COUNTER, MetricType.ABSOLUTE, MetricType.DERIVE);
 
     private final Iterator<Row<Sample>> m_input;
-    private final Set<String> m_metrics;
+    private final Map<String, Column> m_columns;
     private final Map<String, Sample> m_prevSamples;
 
     Rate(Iterator<Row<Sample>> input, Set<String> metrics) {
         m_input = checkNotNull(input, "input argument");
-        m_metrics = checkNotNull(metrics, "metrics argument");
-        m_prevSamples = Maps.newHashMapWithExpectedSize(m_metrics.size());
+        checkNotNull(metrics, "metrics argument");
+        m_columns = Maps.newHashMapWithExpectedSize(metrics.size());
+        m_prevSamples = Maps.newHashMapWithExpectedSize(metrics.size());
+
+        for (String metric : metrics) {
+            m_columns.put(metric, new Column());
+        }
     }
 
-    @Override
-    public boolean hasNext() {
+    /**
+     * @return the column of samples for {@code metric}
+     */
+    Column getColumn(String metric) {
+        Column column = m_columns.get(metric);
+        if (column == null) throw new IllegalArgumentException(String.format("no such metric: %s", metric));
+        return column;
+    }
+
+    boolean hasNext() {
         return m_input.hasNext();
     }
 
-    @Override
-    public Row<Sample> next() {
+    /**
+     * Reads the next row, appending its samples to their columns.
+     */
+    void next() {
 
         if (!hasNext()) throw new NoSuchElementException();
 
-        Row<Sample> working = m_input.next();
-        Row<Sample> result = new Row<>(working.getTimestamp(), working.getResource());
-
-        for (String metricName : m_metrics) {
-            Sample sample = working.getElement(metricName);
+        for (Sample sample : m_input.next().getElements()) {
+            Column column = m_columns.get(sample.getName());
 
-            if (sample == null) {
+            if (column == null) {
                 continue;
             }
 
             // Use rate as result if one of counter types, else pass through as-is.
-            result.addElement(COUNTERS.contains(sample.getType()) ? getRate(sample) : sample);
+            double value = COUNTERS.contains(sample.getType()) ? getRate(sample) : sample.getValue().doubleValue();
+            column.add(sample.getTimestamp().asMillis(), value, sample.getAttributes());
 
             m_prevSamples.put(sample.getName(), sample);
 
         }
 
-        return result;
     }
 
-    private Sample getRate(Sample sample) {
-
-        ValueType<?> value = NAN;
+    private double getRate(Sample sample) {
         Sample previous = m_prevSamples.get(sample.getName());
 
-        if (previous != null) {
-            long elapsed = sample.getTimestamp().asSeconds() - previous.getTimestamp().asSeconds();
-            value = new Gauge(sample.getValue().delta(previous.getValue()).doubleValue() / elapsed);
+        if (previous == null) {
+            return Double.NaN;
         }
 
-        return new Sample(sample.getTimestamp(), sample.getResource(), sample.getName(), GAUGE, value, sample.getAttributes());
-    }
-
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public Iterator<Row<Sample>> iterator() {
-        return this;
+        long elapsed = sample.getTimestamp().asSeconds() - previous.getTimestamp().asSeconds();
+        return sample.getValue().delta(previous.getValue()).doubleValue() / elapsed;
     }
 
 }
@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
 
+import org.opennms.newts.api.ColumnarResults;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
@@ -48,22 +49,43 @@ public class ResultProcessor {
     }
 
     public Results<Measurement> process(Iterator<Row<Sample>> samples) {
+        return processAggregates(aggregate(samples));
+    }
+
+    /**
+     * Aggregates samples (by datasource label) to the resolution, without applying calculations or
+     * exports.
+     */
+    public Iterator<Row<Measurement>> aggregate(Iterator<Row<Sample>> samples) {
         checkNotNull(samples, "samples argument");
 
-        // Build chain of iterators to process results as a stream
+        // Build chain of iterators to process results as a stream; Samples are demultiplexed into
+        // per-metric columns (by Rate), and primary data is aggregated by index from there.
         Rate rate = new Rate(samples, m_resultDescriptor.getSourceNames());
         PrimaryData primaryData = new PrimaryData(m_resource, m_start.minus(m_resolution), m_end, m_resultDescriptor, rate);
-        Aggregation aggregation = new Aggregation(m_resource, m_start, m_end, m_resultDescriptor, m_resolution, primaryData);
-        Compute compute = new Compute(m_resultDescriptor, aggregation);
+
+        return new Aggregation(m_resource, m_start, m_end, m_resultDescriptor, m_resolution, primaryData);
+    }
+
+    /**
+     * Processes measurements that have already been aggregated (by datasource label) to the
+     * resolution, applying only calculations and exports.
+     *
+     * @return the exported measurements, (as {@link ColumnarResults})
+     */
+    public Results<Measurement> processAggregates(Iterator<Row<Measurement>> aggregates) {
+        checkNotNull(aggregates, "aggregates argument");
+
+        Compute compute = new Compute(m_resultDescriptor, aggregates);
         Export exports = new Export(m_resultDescriptor.getExports(), compute);
 
-        Results<Measurement> measurements = new Results<>();
+        ColumnarResults.Builder measurements = new ColumnarResults.Builder(m_resource, m_resultDescriptor.getExports());
 
         for (Row<Measurement> row : exports) {
-            measurements.addRow(row);
+            measurements.row(row);
         }
 
-        return measurements;
+        return measurements.build();
     }
 
 }
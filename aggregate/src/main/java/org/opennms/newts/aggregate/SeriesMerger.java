@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+/**
+ * Merges the measurements of many resources, (selected with the same descriptor, range and
+ * resolution), into one series, combining those of each row and name using a
+ * {@link SeriesAggregation}.
+ * <p>
+ * Each series is merged (in timestamp order) into the partial aggregates of the rows as it is
+ * given, so that only the partial aggregates, (and not each series), need be held; Series can be
+ * merged concurrently, and in any order.
+ * </p>
+ */
+public class SeriesMerger {
+
+    private final Resource m_resource;
+    private final SeriesAggregation m_aggregation;
+
+    // In timestamp order
+    private final LinkedList<PartialRow> m_rows = new LinkedList<>();
+
+    /**
+     * @param resource
+     *            the resource of the merged measurements
+     * @param aggregation
+     *            how the measurements of each series are combined
+     */
+    public SeriesMerger(Resource resource, SeriesAggregation aggregation) {
+        m_resource = checkNotNull(resource, "resource argument");
+        m_aggregation = checkNotNull(aggregation, "aggregation argument");
+    }
+
+    /**
+     * Merges the rows of a series, (in timestamp order).
+     */
+    public synchronized void merge(Iterator<Row<Measurement>> series) {
+        checkNotNull(series, "series argument");
+
+        ListIterator<PartialRow> rows = m_rows.listIterator();
+        PartialRow current = rows.hasNext() ? rows.next() : null;
+
+        while (series.hasNext()) {
+            Row<Measurement> row = series.next();
+
+            while (current != null && current.timestamp.lt(row.getTimestamp())) {
+                current = rows.hasNext() ? rows.next() : null;
+            }
+
+            // A row not in any series merged so far
+            if (current == null || current.timestamp.gt(row.getTimestamp())) {
+                PartialRow added = new PartialRow(row.getTimestamp());
+
+                if (current != null) {
+                    rows.previous();
+                    rows.add(added);
+                    rows.next();
+                }
+                else {
+                    rows.add(added);
+                }
+
+                added.add(row);
+            }
+            else {
+                current.add(row);
+            }
+        }
+    }
+
+    /**
+     * @return the merged measurements of the series merged so far
+     */
+    public synchronized Results<Measurement> getResults() {
+        Results<Measurement> results = new Results<>();
+
+        for (PartialRow partial : m_rows) {
+            Row<Measurement> row = new Row<>(partial.timestamp, m_resource);
+
+            for (Map.Entry<String, PartialAggregate> cell : partial.cells.entrySet()) {
+                row.addElement(new Measurement(partial.timestamp, m_resource, cell.getKey(), cell.getValue().get()));
+            }
+
+            results.addRow(row);
+        }
+
+        return results;
+    }
+
+    /**
+     * Merges each of the series as it is selected.
+     *
+     * @return the merged measurements, once all of the series are merged; Fails if any series does
+     */
+    public static ListenableFuture<Results<Measurement>> mergeAsync(Resource resource, SeriesAggregation aggregation, Iterable<? extends ListenableFuture<Results<Measurement>>> series) {
+        final SeriesMerger merger = new SeriesMerger(resource, aggregation);
+        final SettableFuture<Results<Measurement>> merged = SettableFuture.create();
+        final AtomicInteger remaining = new AtomicInteger(Iterables.size(series));
+
+        if (remaining.get() == 0) {
+            merged.set(merger.getResults());
+        }
+
+        for (ListenableFuture<Results<Measurement>> future : series) {
+            Futures.addCallback(future, new FutureCallback<Results<Measurement>>() {
+
+                @Override
+                public void onSuccess(Results<Measurement> result) {
+                    merger.merge(result.iterator());
+
+                    if (remaining.decrementAndGet() == 0) {
+                        merged.set(merger.getResults());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    merged.setException(t);
+                }
+            });
+        }
+
+        return merged;
+    }
+
+    private class PartialRow {
+        private final Timestamp timestamp;
+        private final Map<String, PartialAggregate> cells = Maps.newHashMap();
+
+        private PartialRow(Timestamp timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        private void add(Row<Measurement> row) {
+            for (Measurement measurement : row.getElements()) {
+                PartialAggregate partial = cells.get(measurement.getName());
+
+                if (partial == null) {
+                    partial = new PartialAggregate(m_aggregation);
+                    cells.put(measurement.getName(), partial);
+                }
+
+                partial.add(measurement.getValue());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+/**
+ * Ranks the measurements of many resources by the aggregate of one of them, (over all rows),
+ * retaining only the series of the top {@code count}.
+ * <p>
+ * Series are ranked as they are given, (concurrently, and in any order), using a bounded heap; A
+ * series that does not rank is released at once, and the aggregation of a series stops as soon as
+ * it can no longer rank, (for aggregates that only fall as rows are added, i.e. minimums).
+ * Resources whose aggregate is NaN are not ranked.
+ * </p>
+ */
+public class SeriesRanker {
+
+    private static final Comparator<RankedResource> ASCENDING = new Comparator<RankedResource>() {
+
+        @Override
+        public int compare(RankedResource o1, RankedResource o2) {
+            return Double.compare(o1.getValue(), o2.getValue());
+        }
+    };
+
+    private final String m_metric;
+    private final SeriesAggregation m_aggregation;
+    private final int m_count;
+
+    // The least ranked at the head
+    private final PriorityQueue<RankedResource> m_top;
+
+    /**
+     * @param metric
+     *            the name of the measurement ranked by
+     * @param aggregation
+     *            the aggregate of its rows ranked by
+     * @param count
+     *            the number of resources ranked
+     */
+    public SeriesRanker(String metric, SeriesAggregation aggregation, int count) {
+        m_metric = checkNotNull(metric, "metric argument");
+        m_aggregation = checkNotNull(aggregation, "aggregation argument");
+        checkArgument(count > 0, "count must be greater than zero");
+        m_count = count;
+        m_top = new PriorityQueue<>(count, ASCENDING);
+    }
+
+    /**
+     * Ranks the measurements of a resource.
+     *
+     * @return true if they rank among the top so far
+     */
+    public boolean offer(Resource resource, Results<Measurement> series) {
+        checkNotNull(resource, "resource argument");
+        checkNotNull(series, "series argument");
+
+        double value = aggregate(series, getThreshold());
+
+        if (Double.isNaN(value)) {
+            return false;
+        }
+
+        synchronized (m_top) {
+            if (m_top.size() < m_count) {
+                m_top.add(new RankedResource(resource, value, series));
+                return true;
+            }
+
+            if (value > m_top.peek().getValue()) {
+                m_top.poll();
+                m_top.add(new RankedResource(resource, value, series));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the top ranked resources so far, (greatest first)
+     */
+    public List<RankedResource> getTop() {
+        List<RankedResource> top;
+
+        synchronized (m_top) {
+            top = Lists.newArrayList(m_top);
+        }
+
+        Collections.sort(top, Collections.reverseOrder(ASCENDING));
+
+        return top;
+    }
+
+    /**
+     * Ranks the measurements of each resource as they are selected.
+     *
+     * @return the top ranked resources, (greatest first), once all are ranked; Fails if any
+     *         selection does
+     */
+    public static ListenableFuture<List<RankedResource>> rankAsync(String metric, SeriesAggregation aggregation, int count, Map<Resource, ? extends ListenableFuture<Results<Measurement>>> series) {
+        final SeriesRanker ranker = new SeriesRanker(metric, aggregation, count);
+        final SettableFuture<List<RankedResource>> ranked = SettableFuture.create();
+        final AtomicInteger remaining = new AtomicInteger(series.size());
+
+        if (remaining.get() == 0) {
+            ranked.set(ranker.getTop());
+        }
+
+        for (Map.Entry<Resource, ? extends ListenableFuture<Results<Measurement>>> entry : series.entrySet()) {
+            final Resource resource = entry.getKey();
+
+            Futures.addCallback(entry.getValue(), new FutureCallback<Results<Measurement>>() {
+
+                @Override
+                public void onSuccess(Results<Measurement> result) {
+                    ranker.offer(resource, result);
+
+                    if (remaining.decrementAndGet() == 0) {
+                        ranked.set(ranker.getTop());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    ranked.setException(t);
+                }
+            });
+        }
+
+        return ranked;
+    }
+
+    /** The aggregate a resource must exceed to rank, (negative infinity until there are enough). */
+    private double getThreshold() {
+        synchronized (m_top) {
+            return m_top.size() < m_count ? Double.NEGATIVE_INFINITY : m_top.peek().getValue();
+        }
+    }
+
+    /**
+     * @return the aggregate of the metric, or NaN if there is none (or it cannot exceed the
+     *         threshold)
+     */
+    private double aggregate(Results<Measurement> series, double threshold) {
+        PartialAggregate aggregate = new PartialAggregate(m_aggregation);
+        boolean falling = m_aggregation.getFunction() == SeriesAggregation.Function.MIN;
+
+        for (Row<Measurement> row : series) {
+            Measurement measurement = row.getElement(m_metric);
+
+            if (measurement == null) {
+                continue;
+            }
+
+            aggregate.add(measurement.getValue());
+
+            // Cut off
+            if (falling && aggregate.getMin() <= threshold) {
+                return Double.NaN;
+            }
+        }
+
+        return aggregate.get();
+    }
+
+}
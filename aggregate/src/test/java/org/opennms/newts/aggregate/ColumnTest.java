@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+public class ColumnTest {
+
+    @Test
+    public void test() {
+        Column column = new Column();
+
+        for (int i = 0; i < 100; i++) {
+            column.add(i * 1000, i, (i % 10 == 0) ? Collections.singletonMap("i", Integer.toString(i)) : null);
+        }
+
+        assertEquals(100, column.size());
+        assertEquals(99000, column.getLastTimestamp());
+        assertEquals("10", column.getAttributes(10).get("i"));
+        assertNull(column.getAttributes(11));
+
+        // Indexes are relative to the first retained sample
+        column.discard(10);
+
+        assertEquals(90, column.size());
+        assertEquals(10000, column.getTimestamp(0));
+        assertEquals(10.0d, column.getValue(0), 0.0d);
+        assertEquals("10", column.getAttributes(0).get("i"));
+
+        column.discard(90);
+
+        assertTrue(column.isEmpty());
+    }
+
+    @Test
+    public void testCompact() {
+        Column column = new Column();
+        long next = 0, first = 0;
+
+        // Consume as fast as we append, so that the column compacts rather than grows
+        for (int i = 0; i < 10000; i++) {
+            column.add(next, next, null);
+            next++;
+
+            if (column.size() > 5) {
+                column.discard(3);
+                first += 3;
+            }
+
+            assertEquals(first, column.getTimestamp(0));
+            assertEquals(next - 1, column.getLastTimestamp());
+            assertEquals((double) first, column.getValue(0), 0.0d);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDiscardTooMany() {
+        Column column = new Column();
+        column.add(0, 0.0d, null);
+        column.discard(2);
+    }
+
+}
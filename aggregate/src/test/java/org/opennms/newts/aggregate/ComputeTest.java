@@ -131,4 +131,25 @@ public class ComputeTest {
         assertRowsEqual(expected, compute);
 
     }
+
+    @Test
+    public void testBlocks() {
+        MeasurementRowsBuilder input = new MeasurementRowsBuilder(new Resource("localhost"));
+        MeasurementRowsBuilder output = new MeasurementRowsBuilder(new Resource("localhost"));
+
+        // Spanning several blocks, (the last partial)
+        for (int i = 1; i <= Compute.BLOCK_ROWS * 2 + 10; i++) {
+            input.row(i * 300).element("in", i).element("out", 1);
+            output.row(i * 300).element("in", i).element("out", 1).element("total", i + 1).element("scaled", (i + 1) * 8);
+        }
+
+        ResultDescriptor rDescriptor = new ResultDescriptor()
+            .datasource("in", AVERAGE)
+            .datasource("out", AVERAGE)
+            .calculate("total", PLUS, "in", "out")
+            .expression("scaled", "total * 8");
+
+        assertRowsEqual(output.build(), new Compute(rDescriptor, input.build()));
+    }
+
 }
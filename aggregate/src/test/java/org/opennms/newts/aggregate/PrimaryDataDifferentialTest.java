@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+import org.opennms.newts.api.query.Datasource;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Verifies that {@link PrimaryData} produces output identical to that of the fully buffered
+ * {@link BufferedPrimaryData}, for randomly generated inputs, and that {@link Aggregation} does
+ * likewise reading from either.
+ * <p>
+ * Datasources that share a source each read all of its samples in {@link PrimaryData}, while in
+ * {@link BufferedPrimaryData} each reads on from where the previous one left off; The output of the
+ * former is that of the latter given only the last datasource of each source, (which determines
+ * the source's value).
+ * </p>
+ */
+public class PrimaryDataDifferentialTest {
+
+    private static final Resource RESOURCE = new Resource("localhost");
+    private static final String[] SOURCES = { "m0", "m1", "m2", "m3" };
+    private static final int ITERATIONS = 500;
+
+    @Test
+    public void test() {
+        for (int seed = 0; seed < ITERATIONS; seed++) {
+            verify(seed);
+        }
+    }
+
+    private static void verify(long seed) {
+        Random random = new Random(seed);
+
+        long step = 60 + random.nextInt(600);
+        long start = 900000000 + random.nextInt(3600);
+        long end = start + step * (1 + random.nextInt(100));
+
+        ResultDescriptor descriptor = new ResultDescriptor(Duration.seconds(step));
+        int datasources = 1 + random.nextInt(5);
+
+        for (int i = 0; i < datasources; i++) {
+            // Sources are chosen at random, so datasources sometimes share them
+            String source = SOURCES[random.nextInt(SOURCES.length)];
+            Duration heartbeat = Duration.seconds(step * (1 + random.nextInt(4)));
+            descriptor.datasource("ds" + i, source, heartbeat, StandardAggregationFunctions.values()[random.nextInt(3)]);
+        }
+
+        List<Row<Sample>> rows = getRows(random, start - step * 5, end + step * 5, step);
+
+        ResultDescriptor reference = lastOfEachSource(descriptor);
+
+        Iterator<Row<Measurement>> expected = new BufferedPrimaryData(RESOURCE, Timestamp.fromEpochSeconds(start),
+                Timestamp.fromEpochSeconds(end), reference, getRates(rows));
+        Iterator<Row<Measurement>> actual = new PrimaryData(RESOURCE, Timestamp.fromEpochSeconds(start),
+                Timestamp.fromEpochSeconds(end), descriptor, rows.iterator());
+
+        assertIdentical("seed " + seed, expected, actual);
+
+        Duration resolution = Duration.seconds(step * (1 + random.nextInt(12)));
+
+        expected = new Aggregation(RESOURCE, Timestamp.fromEpochSeconds(start), Timestamp.fromEpochSeconds(end), descriptor, resolution,
+                new BufferedPrimaryData(RESOURCE, Timestamp.fromEpochSeconds(start), Timestamp.fromEpochSeconds(end), reference, getRates(rows)));
+        actual = new Aggregation(RESOURCE, Timestamp.fromEpochSeconds(start), Timestamp.fromEpochSeconds(end), descriptor, resolution,
+                new PrimaryData(RESOURCE, Timestamp.fromEpochSeconds(start), Timestamp.fromEpochSeconds(end), descriptor, rows.iterator()));
+
+        assertIdentical("seed " + seed + " (aggregated)", expected, actual);
+    }
+
+    // The descriptor whose output by BufferedPrimaryData is that of descriptor by PrimaryData.
+    private static ResultDescriptor lastOfEachSource(ResultDescriptor descriptor) {
+        Map<String, Datasource> last = Maps.newHashMap();
+
+        for (Datasource ds : descriptor.getDatasources().values()) {
+            last.put(ds.getSource(), ds);
+        }
+
+        ResultDescriptor reference = new ResultDescriptor(descriptor.getInterval());
+
+        for (Datasource ds : last.values()) {
+            reference.datasource(ds.getLabel(), ds.getSource(), ds.getHeartbeat(), ds.getXff(), ds.getAggregationFuction());
+        }
+
+        return reference;
+    }
+
+    // The input of BufferedPrimaryData, which (unlike PrimaryData) does not calculate rates itself.
+    private static Iterator<Row<Sample>> getRates(List<Row<Sample>> rows) {
+        List<Row<Sample>> rates = Lists.newArrayList();
+        Map<String, Sample> previous = Maps.newHashMap();
+
+        for (Row<Sample> row : rows) {
+            Row<Sample> rate = new Row<>(row.getTimestamp(), row.getResource());
+
+            for (Sample sample : row.getElements()) {
+                if (sample.getType() == MetricType.GAUGE) {
+                    rate.addElement(sample);
+                }
+                else {
+                    Sample prev = previous.get(sample.getName());
+                    double value = (prev == null) ? Double.NaN : sample.getValue().delta(prev.getValue()).doubleValue()
+                            / (sample.getTimestamp().asSeconds() - prev.getTimestamp().asSeconds());
+                    rate.addElement(new Sample(sample.getTimestamp(), sample.getResource(), sample.getName(), MetricType.GAUGE,
+                            new Gauge(value), sample.getAttributes()));
+                }
+                previous.put(sample.getName(), sample);
+            }
+
+            rates.add(rate);
+        }
+
+        return rates.iterator();
+    }
+
+    private static List<Row<Sample>> getRows(Random random, long first, long last, long step) {
+        List<Row<Sample>> rows = Lists.newArrayList();
+        MetricType type = random.nextBoolean() ? MetricType.GAUGE : MetricType.COUNTER;
+
+        // Samples are taken at irregular intervals, (sometimes far apart), and omit sources at random
+        long timestamp = first + random.nextInt((int) step);
+
+        while (timestamp < last) {
+            Row<Sample> row = new Row<>(Timestamp.fromEpochSeconds(timestamp), RESOURCE);
+
+            for (String source : SOURCES) {
+                if (random.nextInt(4) == 0) {
+                    continue;
+                }
+
+                double value = (type == MetricType.GAUGE && random.nextInt(20) == 0) ? Double.NaN : random.nextInt(10000);
+                Map<String, String> attributes = (random.nextInt(10) == 0) ? ImmutableMap.of("a", Long.toString(timestamp)) : null;
+
+                row.addElement(new Sample(row.getTimestamp(), RESOURCE, source, type, ValueType.compose(value, type), attributes));
+            }
+
+            rows.add(row);
+            timestamp += 1 + (random.nextInt(10) == 0 ? random.nextInt((int) step * 6) : random.nextInt((int) step * 2));
+        }
+
+        return rows;
+    }
+
+    private static void assertIdentical(String message, Iterator<Row<Measurement>> expectedRows, Iterator<Row<Measurement>> actualRows) {
+        while (expectedRows.hasNext()) {
+            assertTrue(message + ": missing result row(s)", actualRows.hasNext());
+
+            Row<Measurement> expected = expectedRows.next(), actual = actualRows.next();
+
+            assertEquals(message, expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(message, expected.getElements().size(), actual.getElements().size());
+
+            for (Measurement m : expected.getElements()) {
+                Measurement a = actual.getElement(m.getName());
+                assertNotNull(message + ": missing measurement " + m.getName(), a);
+                assertEquals(message, Double.doubleToRawLongBits(m.getValue()), Double.doubleToRawLongBits(a.getValue()));
+                assertEquals(message, m.getAttributes(), a.getAttributes());
+            }
+        }
+
+        assertFalse(message + ": extraneous result row(s)", actualRows.hasNext());
+    }
+
+}
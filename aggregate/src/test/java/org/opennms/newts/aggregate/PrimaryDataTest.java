@@ -69,6 +69,39 @@ public class PrimaryDataTest {
 
     }
 
+    @Test
+    public void testSharedSource() {
+
+        // Datasources sharing a source read the same samples
+        Iterator<Row<Sample>> testData = new SampleRowsBuilder(new Resource("localhost"), MetricType.GAUGE)
+                .row(900000000).element("m0", 1)
+                .row(900000300).element("m0", 2)
+                .row(900000600).element("m0", 3)
+                .row(900000900).element("m0", 4)
+                .build();
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+                .datasource("m0-avg", "m0", Duration.seconds(600), null)
+                .datasource("m0-max", "m0", Duration.seconds(600), null);
+
+        // Expected results
+        Iterator<Row<Measurement>> expected = new MeasurementRowsBuilder(new Resource("localhost"))
+                .row(900000300).element("m0", 2)
+                .row(900000600).element("m0", 3)
+                .row(900000900).element("m0", 4)
+                .build();
+
+        PrimaryData primaryData = new PrimaryData(
+                new Resource("localhost"),
+                Timestamp.fromEpochSeconds(900000300),
+                Timestamp.fromEpochSeconds(900000900),
+                rDescriptor,
+                testData);
+
+        assertRowsEqual(expected, primaryData);
+
+    }
+
     @Test
     public void testShortSamples() {
 
@@ -17,22 +17,17 @@ package org.opennms.newts.aggregate;
 
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.opennms.newts.api.MetricType.COUNTER;
-import static org.opennms.newts.api.MetricType.GAUGE;
 
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Set;
 
 import org.junit.Test;
-import org.opennms.newts.aggregate.Rate;
 import org.opennms.newts.aggregate.Utils.SampleRowsBuilder;
 import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
-import org.opennms.newts.api.Gauge;
 import org.opennms.newts.api.MetricType;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
@@ -76,23 +71,30 @@ public class RateTest {
         input.addElement(new Sample(start.plus(step.times(3)), m_resource, m_metrics[0], COUNTER, new Counter(300)));
         input.addElement(new Sample(start.plus(step.times(3)), m_resource, m_metrics[1], COUNTER, new Counter(300)));
 
-        Iterator<Results.Row<Sample>> output = new Rate(input.iterator(), getMetrics(2)).iterator();
+        Rate rate = new Rate(input.iterator(), getMetrics(2));
+        Column output = rate.getColumn(m_metrics[0]);
 
         // result_1 is always null
-        assertTrue(output.hasNext());
-        assertEquals(new Gauge(Double.NaN), output.next().getElement(m_metrics[0]).getValue());
+        assertTrue(rate.hasNext());
+        rate.next();
+        assertTrue(Double.isNaN(output.getValue(0)));
 
         // result_2, rate 100
-        assertTrue(output.hasNext());
-        assertEquals(100.0d, output.next().getElement(m_metrics[0]).getValue().doubleValue(), 0.0d);
+        assertTrue(rate.hasNext());
+        rate.next();
+        assertEquals(100.0d, output.getValue(1), 0.0d);
 
         // result_3, missing because sample in row_3 is missing
-        assertTrue(output.hasNext());
-        assertNull(output.next().getElement(m_metrics[0]));
+        assertTrue(rate.hasNext());
+        rate.next();
+        assertEquals(2, output.size());
 
         // result_4, rate of 100 calculated between row_4 and row_2 
-        assertTrue(output.hasNext());
-        assertEquals(100.0d, output.next().getElement(m_metrics[0]).getValue().doubleValue(), 0.0d);
+        assertTrue(rate.hasNext());
+        rate.next();
+        assertEquals(3, output.size());
+        assertEquals(start.plus(step.times(3)).asMillis(), output.getTimestamp(2));
+        assertEquals(100.0d, output.getValue(2), 0.0d);
 
     }
 
@@ -110,27 +112,24 @@ public class RateTest {
             }
         }
 
-        Iterator<Results.Row<Sample>> output = new Rate(input.iterator(), getMetrics(cols)).iterator();
+        Rate rates = new Rate(input.iterator(), getMetrics(cols));
 
-        for (int i = 1; i <= rows; i++) {
-            assertTrue("Insufficient number of results", output.hasNext());
-
-            Results.Row<Sample> row = output.next();
+        while (rates.hasNext()) {
+            rates.next();
+        }
 
-            assertEquals("Unexpected row timestamp", Timestamp.fromEpochMillis(i * 1000), row.getTimestamp());
-            assertEquals("Unexpected row resource", m_resource, row.getResource());
-            assertEquals("Unexpected number of columns", cols, row.getElements().size());
+        for (int j = 0; j < cols; j++) {
+            String name = m_metrics[j];
+            Column output = rates.getColumn(name);
 
-            for (int j = 0; j < cols; j++) {
-                String name = m_metrics[j];
+            assertEquals("Unexpected number of samples for " + name, rows, output.size());
 
-                assertNotNull("Missing sample" + name, row.getElement(name));
-                assertEquals("Unexpected sample name", name, row.getElement(name).getName());
-                assertEquals("Unexpected sample type", GAUGE, row.getElement(name).getType());
+            for (int i = 1; i <= rows; i++) {
+                assertEquals("Unexpected sample timestamp", i * 1000, output.getTimestamp(i - 1));
 
                 // Samples in the first row are null, this is normal.
                 if (i != 1) {
-                    assertEquals("Incorrect rate value", 100.0d, row.getElement(name).getValue().doubleValue(), 0.0d);
+                    assertEquals("Incorrect rate value", 100.0d, output.getValue(i - 1), 0.0d);
                 }
             }
         }
@@ -154,7 +153,11 @@ public class RateTest {
                 .row(1414623600).element("m1", 9223372034642181100.00)
                 .build();
 
-        Iterator<Results.Row<Sample>> output = new Rate(samples, Sets.newHashSet("m1")).iterator();
+        Rate rate = new Rate(samples, Sets.newHashSet("m1"));
+
+        while (rate.hasNext()) {
+            rate.next();
+        }
 
         double expectedRates[] = new double[] {
                 Double.NaN,
@@ -167,8 +170,10 @@ public class RateTest {
                 276.480000
         };
 
+        assertEquals(expectedRates.length, rate.getColumn("m1").size());
+
         for (int i = 0; i < expectedRates.length; i++) {
-            double actualRate = output.next().getElement("m1").getValue().doubleValue();
+            double actualRate = rate.getColumn("m1").getValue(i);
             assertEquals(expectedRates[i], actualRate, 0.0001);
         }
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.opennms.newts.aggregate.Utils.assertRowsEqual;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+import org.opennms.newts.aggregate.Utils.MeasurementRowsBuilder;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.query.QuantileSketch;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+public class SeriesMergerTest {
+
+    private static final Resource MERGED = new Resource("merged");
+
+    @Test
+    public void testSum() {
+        SeriesMerger merger = new SeriesMerger(MERGED, SeriesAggregation.SUM);
+
+        merger.merge(new MeasurementRowsBuilder(new Resource("a"))
+                .row(300).element("m0", 1).element("m1", 10)
+                .row(600).element("m0", 2).element("m1", Double.NaN)
+                .build());
+        // Rows before, between and after those of the first
+        merger.merge(new MeasurementRowsBuilder(new Resource("b"))
+                .row(  0).element("m0", 5).element("m1", 5)
+                .row(600).element("m0", 3).element("m1", Double.NaN)
+                .row(900).element("m0", 4).element("m1", 4)
+                .build());
+        merger.merge(new MeasurementRowsBuilder(new Resource("c"))
+                .row(450).element("m0", 7).element("m1", 7)
+                .build());
+
+        Iterator<Row<Measurement>> expected = new MeasurementRowsBuilder(MERGED)
+                .row(  0).element("m0", 5).element("m1", 5)
+                .row(300).element("m0", 1).element("m1", 10)
+                .row(450).element("m0", 7).element("m1", 7)
+                .row(600).element("m0", 5).element("m1", Double.NaN)
+                .row(900).element("m0", 4).element("m1", 4)
+                .build();
+
+        assertRowsEqual(expected, merger.getResults().iterator());
+    }
+
+    @Test
+    public void testAggregations() {
+        assertMerged(SeriesAggregation.AVERAGE, 2.5d);
+        assertMerged(SeriesAggregation.MIN, 1.0d);
+        assertMerged(SeriesAggregation.MAX, 4.0d);
+        // Estimated (to within the accuracy of a sketch), but for the extremes
+        assertMerged(SeriesAggregation.percentile(50), 2.0d, 2.0d * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        assertMerged(SeriesAggregation.percentile(100), 4.0d);
+        assertMerged(SeriesAggregation.percentile(0), 1.0d);
+    }
+
+    @Test
+    public void testMergeAsync() throws Exception {
+        SettableFuture<Results<Measurement>> pending = SettableFuture.create();
+
+        ListenableFuture<Results<Measurement>> merged = SeriesMerger.mergeAsync(MERGED, SeriesAggregation.SUM, ImmutableList.<ListenableFuture<Results<Measurement>>> of(
+                pending,
+                Futures.immediateFuture(results(new Resource("a"), 1.0d))));
+
+        pending.set(results(new Resource("b"), 2.0d));
+
+        assertRowsEqual(new MeasurementRowsBuilder(MERGED).row(300).element("m0", 3).build(), merged.get().iterator());
+
+        // Fails with any series
+        RuntimeException failure = new RuntimeException();
+        merged = SeriesMerger.mergeAsync(MERGED, SeriesAggregation.SUM, ImmutableList.<ListenableFuture<Results<Measurement>>> of(
+                Futures.immediateFuture(results(new Resource("a"), 1.0d)),
+                Futures.<Results<Measurement>> immediateFailedFuture(failure)));
+
+        try {
+            merged.get();
+            fail("Expected failure");
+        }
+        catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private static void assertMerged(SeriesAggregation aggregation, double value) {
+        assertMerged(aggregation, value, 0.0d);
+    }
+
+    private static void assertMerged(SeriesAggregation aggregation, double value, double delta) {
+        SeriesMerger merger = new SeriesMerger(MERGED, aggregation);
+
+        for (double d : new double[] { 4, Double.NaN, 1, 3, 2 }) {
+            merger.merge(results(new Resource(String.valueOf(d)), d).iterator());
+        }
+
+        Results<Measurement> results = merger.getResults();
+
+        assertEquals(1, results.getRows().size());
+        assertEquals(value, results.iterator().next().getElement("m0").getValue().doubleValue(), delta);
+    }
+
+    private static Results<Measurement> results(Resource resource, double value) {
+        Results<Measurement> results = new Results<>();
+        Iterator<Row<Measurement>> rows = new MeasurementRowsBuilder(resource).row(300).element("m0", value).build();
+
+        while (rows.hasNext()) {
+            results.addRow(rows.next());
+        }
+
+        return results;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.aggregate;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.newts.aggregate.Utils.MeasurementRowsBuilder;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+public class SeriesRankerTest {
+
+    @Test
+    public void testTop() {
+        SeriesRanker ranker = new SeriesRanker("m0", SeriesAggregation.AVERAGE, 2);
+
+        assertTrue(ranker.offer(new Resource("a"), results("a", 1, 3)));
+        assertTrue(ranker.offer(new Resource("b"), results("b", 5, 7)));
+        // Displaces "a"
+        assertTrue(ranker.offer(new Resource("c"), results("c", 3, 5)));
+        assertFalse(ranker.offer(new Resource("d"), results("d", 0, 2)));
+        // Not ranked
+        assertFalse(ranker.offer(new Resource("e"), results("e", Double.NaN, Double.NaN)));
+
+        List<RankedResource> top = ranker.getTop();
+
+        assertEquals(2, top.size());
+        assertEquals(new Resource("b"), top.get(0).getResource());
+        assertEquals(6.0d, top.get(0).getValue(), 0.0d);
+        assertEquals(new Resource("c"), top.get(1).getResource());
+        assertEquals(4.0d, top.get(1).getValue(), 0.0d);
+        assertEquals(2, top.get(1).getMeasurements().getRows().size());
+    }
+
+    @Test
+    public void testCutOff() {
+        SeriesRanker ranker = new SeriesRanker("m0", SeriesAggregation.MIN, 1);
+
+        assertTrue(ranker.offer(new Resource("a"), results("a", 5, 6)));
+        // Its first row already falls short
+        assertFalse(ranker.offer(new Resource("b"), results("b", 4, 9)));
+        assertTrue(ranker.offer(new Resource("c"), results("c", 7, 8)));
+
+        assertEquals(new Resource("c"), ranker.getTop().get(0).getResource());
+        assertEquals(7.0d, ranker.getTop().get(0).getValue(), 0.0d);
+    }
+
+    @Test
+    public void testRankAsync() throws Exception {
+        Map<Resource, ListenableFuture<Results<Measurement>>> series = Maps.newLinkedHashMap();
+        series.put(new Resource("a"), Futures.immediateFuture(results("a", 1, 2)));
+        series.put(new Resource("b"), Futures.immediateFuture(results("b", 3, 4)));
+
+        List<RankedResource> top = SeriesRanker.rankAsync("m0", SeriesAggregation.MAX, 1, series).get();
+
+        assertEquals(1, top.size());
+        assertEquals(new Resource("b"), top.get(0).getResource());
+        assertEquals(4.0d, top.get(0).getValue(), 0.0d);
+    }
+
+    private static Results<Measurement> results(String resource, double first, double second) {
+        Results<Measurement> results = new Results<>();
+        Iterator<Row<Measurement>> rows = new MeasurementRowsBuilder(new Resource(resource))
+                .row(300).element("m0", first).element("m1", 100)
+                .row(600).element("m0", second).element("m1", 100)
+                .build();
+
+        while (rows.hasNext()) {
+            results.addRow(rows.next());
+        }
+
+        return results;
+    }
+
+}
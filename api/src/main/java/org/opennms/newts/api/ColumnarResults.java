@@ -0,0 +1,246 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+
+
+/**
+ * The measurements of a single resource, stored by column: a timestamp per row, and a value per row
+ * of each label, (with attributes kept only for the columns that have any).
+ * <p>
+ * The rows of {@link Results} are a view of the columns, built on first use; Changes to them are
+ * not reflected in the columns. Rows (and elements) can be added, which materializes the view, and
+ * leaves the results {@link #isModified() modified}.
+ * </p>
+ */
+public class ColumnarResults extends Results<Measurement> {
+    private static final long serialVersionUID = 7468920186358441029L;
+
+    private final Resource m_resource;
+    private final long[] m_timestamps;
+    private final List<String> m_labels;
+    private final double[][] m_values;
+    // By column, (null for columns without attributes)
+    private final Map<?, ?>[][] m_attributes;
+    // Whether each column's measurements have attributes, (empty where none are kept)
+    private final boolean[] m_attributed;
+
+    private boolean m_viewed = false;
+    private boolean m_modified = false;
+
+    private ColumnarResults(Resource resource, long[] timestamps, List<String> labels, double[][] values, Map<?, ?>[][] attributes, boolean[] attributed) {
+        m_resource = resource;
+        m_timestamps = timestamps;
+        m_labels = labels;
+        m_values = values;
+        m_attributes = attributes;
+        m_attributed = attributed;
+    }
+
+    public Resource getResource() {
+        return m_resource;
+    }
+
+    /** The number of rows. */
+    public int size() {
+        return m_timestamps.length;
+    }
+
+    /** The labels, (in the order of their columns). */
+    public List<String> getLabels() {
+        return m_labels;
+    }
+
+    /** The timestamp of a row, (in milliseconds). */
+    public long getTimestamp(int row) {
+        return m_timestamps[row];
+    }
+
+    public double getValue(int column, int row) {
+        return m_values[column][row];
+    }
+
+    /**
+     * @return the attributes of a measurement; Those of a column whose measurements have none are
+     *         null, and otherwise those without any are empty
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getAttributes(int column, int row) {
+        Map<String, String> attributes = (m_attributes[column] != null) ? (Map<String, String>) m_attributes[column][row] : null;
+
+        if (attributes == null && m_attributed[column]) {
+            return Collections.emptyMap();
+        }
+
+        return attributes;
+    }
+
+    /**
+     * @return results of the same columns, (which are not copied), with a row view of their own;
+     *         Those sharing results can each change the rows of a view without affecting the others.
+     */
+    public ColumnarResults view() {
+        return new ColumnarResults(m_resource, m_timestamps, m_labels, m_values, m_attributes, m_attributed);
+    }
+
+    /**
+     * @return true if rows (or elements) have been added, in which case the columns no longer
+     *         describe the rows, and only the row view should be read
+     */
+    public synchronized boolean isModified() {
+        return m_modified;
+    }
+
+    @Override
+    public synchronized void addElement(Measurement sample) {
+        m_modified = true;
+        super.addElement(sample);
+    }
+
+    @Override
+    public synchronized void addRow(Row<Measurement> row) {
+        m_modified = true;
+        super.addRow(row);
+    }
+
+    @Override
+    synchronized Map<Timestamp, Row<Measurement>> rows() {
+        Map<Timestamp, Row<Measurement>> rows = super.rows();
+
+        if (!m_viewed) {
+            for (int i = 0; i < m_timestamps.length; i++) {
+                Timestamp timestamp = Timestamp.fromEpochMillis(m_timestamps[i]);
+                Row<Measurement> row = new Row<>(timestamp, m_resource);
+
+                for (int j = 0; j < m_labels.size(); j++) {
+                    row.addElement(new Measurement(timestamp, m_resource, m_labels.get(j), m_values[j][i], getAttributes(j, i)));
+                }
+
+                rows.put(timestamp, row);
+            }
+
+            m_viewed = true;
+        }
+
+        return rows;
+    }
+
+    /** Builds results a row at a time. */
+    public static class Builder {
+
+        private final Resource m_resource;
+        private final List<String> m_labels;
+
+        private long[] m_timestamps = new long[16];
+        private final double[][] m_values;
+        private final Map<?, ?>[][] m_attributes;
+        private final boolean[] m_attributed;
+        private int m_size = 0;
+
+        public Builder(Resource resource, Collection<String> labels) {
+            m_resource = checkNotNull(resource, "resource argument");
+            m_labels = ImmutableList.copyOf(checkNotNull(labels, "labels argument"));
+            m_values = new double[m_labels.size()][m_timestamps.length];
+            m_attributes = new Map<?, ?>[m_labels.size()][];
+            m_attributed = new boolean[m_labels.size()];
+        }
+
+        /**
+         * Adds a row of the measurements of each label, (NaN where missing).
+         *
+         * @throws IllegalArgumentException
+         *             if the row does not follow the last
+         */
+        public Builder row(Row<Measurement> row) {
+            long timestamp = row.getTimestamp().asMillis();
+            checkArgument(m_size == 0 || timestamp > m_timestamps[m_size - 1], "rows must be added in timestamp order");
+
+            if (m_size == m_timestamps.length) {
+                grow();
+            }
+
+            m_timestamps[m_size] = timestamp;
+
+            for (int j = 0; j < m_labels.size(); j++) {
+                Measurement measurement = row.getElement(m_labels.get(j));
+
+                if (measurement == null) {
+                    m_values[j][m_size] = Double.NaN;
+                    continue;
+                }
+
+                m_values[j][m_size] = measurement.getValue();
+
+                Map<String, String> attributes = measurement.getAttributes();
+
+                if (attributes == null) {
+                    continue;
+                }
+
+                m_attributed[j] = true;
+
+                if (!attributes.isEmpty()) {
+                    if (m_attributes[j] == null) {
+                        m_attributes[j] = new Map<?, ?>[m_timestamps.length];
+                    }
+                    m_attributes[j][m_size] = attributes;
+                }
+            }
+
+            m_size += 1;
+
+            return this;
+        }
+
+        private void grow() {
+            int capacity = m_timestamps.length * 2;
+            m_timestamps = Arrays.copyOf(m_timestamps, capacity);
+
+            for (int j = 0; j < m_labels.size(); j++) {
+                m_values[j] = Arrays.copyOf(m_values[j], capacity);
+
+                if (m_attributes[j] != null) {
+                    m_attributes[j] = Arrays.copyOf(m_attributes[j], capacity);
+                }
+            }
+        }
+
+        public ColumnarResults build() {
+            double[][] values = new double[m_labels.size()][];
+            Map<?, ?>[][] attributes = new Map<?, ?>[m_labels.size()][];
+
+            for (int j = 0; j < m_labels.size(); j++) {
+                values[j] = Arrays.copyOf(m_values[j], m_size);
+                attributes[j] = (m_attributes[j] != null) ? Arrays.copyOf(m_attributes[j], m_size) : null;
+            }
+
+            return new ColumnarResults(m_resource, Arrays.copyOf(m_timestamps, m_size), m_labels, values, attributes, m_attributed.clone());
+        }
+
+    }
+
+}
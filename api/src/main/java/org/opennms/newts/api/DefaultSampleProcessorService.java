@@ -79,6 +79,43 @@ public class DefaultSampleProcessorService implements SampleProcessorService  {
         }
     }
 
+    /**
+     * Submits a batch of samples to each of the underlying {@link SampleProcessor}s. Batches are
+     * converted to samples (once) only if there are processors that do not implement
+     * {@link SampleBatchProcessor}.
+     *
+     * @param batch
+     */
+    public void submit(final SampleBatch batch) {
+        Collection<Sample> samples = null;
+
+        for (final SampleProcessor processor : m_processors) {
+            if (processor instanceof SampleBatchProcessor) {
+                m_executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ((SampleBatchProcessor) processor).submit(batch);
+                    }
+                });
+                continue;
+            }
+
+            if (samples == null) {
+                samples = batch.toSamples();
+            }
+
+            final Collection<Sample> converted = samples;
+            m_executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    processor.submit(converted);
+                }
+            });
+        }
+    }
+
     /** Calls <code>shutdown()</code> on the underlying thread pool executor. */
     public void shutdown() throws InterruptedException {
         LOG.info("Shutting down thread pool executor");
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+
+
+/**
+ * A resource ranked by the aggregate of one of its measurements, (with its measurements).
+ */
+public class RankedResource implements Serializable {
+    private static final long serialVersionUID = -1883542710693718541L;
+
+    private final Resource m_resource;
+    private final double m_value;
+    private final Results<Measurement> m_measurements;
+
+    public RankedResource(Resource resource, double value, Results<Measurement> measurements) {
+        m_resource = checkNotNull(resource, "resource argument");
+        m_value = value;
+        m_measurements = checkNotNull(measurements, "measurements argument");
+    }
+
+    public Resource getResource() {
+        return m_resource;
+    }
+
+    /**
+     * @return the aggregate the resource is ranked by
+     */
+    public double getValue() {
+        return m_value;
+    }
+
+    public Results<Measurement> getMeasurements() {
+        return m_measurements;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[resource=%s, value=%s]", getClass().getSimpleName(), getResource(), getValue());
+    }
+
+}
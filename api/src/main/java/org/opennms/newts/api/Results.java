@@ -92,11 +92,16 @@ public class Results<T extends Element<?>> implements Iterable<Results.Row<T>>,
         }
     }
 
-    Map<Timestamp, Row<T>> m_rows = Maps.newTreeMap();
+    private final Map<Timestamp, Row<T>> m_rows = Maps.newTreeMap();
+
+    /** The rows, by timestamp. */
+    Map<Timestamp, Row<T>> rows() {
+        return m_rows;
+    }
 
     public void addElement(T sample) {
 
-        Row<T> row = m_rows.get(sample.getTimestamp());
+        Row<T> row = rows().get(sample.getTimestamp());
 
         if (row == null) {
             row = new Row<>(sample.getTimestamp(), sample.getResource());
@@ -108,11 +113,11 @@ public class Results<T extends Element<?>> implements Iterable<Results.Row<T>>,
     }
 
     public void addRow(Row<T> row) {
-        m_rows.put(row.getTimestamp(), row);
+        rows().put(row.getTimestamp(), row);
     }
 
     public Collection<Row<T>> getRows() {
-        return m_rows.values();
+        return rows().values();
     }
 
     @Override
@@ -127,14 +132,13 @@ public class Results<T extends Element<?>> implements Iterable<Results.Row<T>>,
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) return false;
-        if (getClass() != obj.getClass()) return false;
+        if (!(obj instanceof Results)) return false;
         final Results<?> other = (Results<?>) obj;
-        return Objects.equal(this.m_rows, other.m_rows);
+        return Objects.equal(this.rows(), other.rows());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(this.m_rows);
+        return Objects.hashCode(this.rows());
     }
 }
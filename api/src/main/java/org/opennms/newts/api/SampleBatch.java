@@ -0,0 +1,390 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * A columnar, immutable batch of samples. Timestamps (milliseconds since the epoch), values and
+ * metric types are stored in primitive arrays, and contexts, resources and metric names are
+ * dictionary encoded, so that a batch of samples is a handful of objects rather than several per
+ * sample.
+ * <p>
+ * Values are stored as 64 bits; The raw bits of the {@code double} for gauges, and the (unsigned)
+ * {@code long} for all other types. Attributes are stored sparsely, and are null for samples that
+ * have none.
+ * </p>
+ * <p>
+ * Batches are created using a {@link Builder}, or converted from samples with
+ * {@link #of(Collection)}.
+ * </p>
+ */
+public class SampleBatch {
+
+    private final List<Context> m_contexts;
+    private final List<Resource> m_resources;
+    private final List<String> m_names;
+
+    private final int m_size;
+    private final long[] m_timestamps;
+    private final long[] m_values;
+    private final byte[] m_types;
+    private final int[] m_contextIds;
+    private final int[] m_resourceIds;
+    private final int[] m_nameIds;
+    private final Map<Integer, Map<String, String>> m_attributes;
+
+    private SampleBatch(Builder builder) {
+        m_contexts = Collections.unmodifiableList(builder.m_contexts);
+        m_resources = Collections.unmodifiableList(builder.m_resources);
+        m_names = Collections.unmodifiableList(builder.m_names);
+        m_size = builder.m_size;
+        m_timestamps = builder.m_timestamps;
+        m_values = builder.m_values;
+        m_types = builder.m_types;
+        m_contextIds = builder.m_contextIds;
+        m_resourceIds = builder.m_resourceIds;
+        m_nameIds = builder.m_nameIds;
+        m_attributes = builder.m_attributes;
+    }
+
+    /**
+     * Converts a collection of samples to a batch.
+     */
+    public static SampleBatch of(Collection<Sample> samples) {
+        checkNotNull(samples, "samples argument");
+
+        Builder builder = new Builder(samples.size());
+        for (Sample sample : samples) {
+            builder.add(sample);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return the number of samples in this batch
+     */
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * @return the distinct contexts of this batch, indexed by {@link #getContextId(int)}
+     */
+    public List<Context> getContexts() {
+        return m_contexts;
+    }
+
+    /**
+     * @return the distinct resources of this batch, indexed by {@link #getResourceId(int)}
+     */
+    public List<Resource> getResources() {
+        return m_resources;
+    }
+
+    /**
+     * @return the distinct metric names of this batch, indexed by {@link #getNameId(int)}
+     */
+    public List<String> getNames() {
+        return m_names;
+    }
+
+    public int getContextId(int index) {
+        checkElementIndex(index, m_size);
+        return m_contextIds[index];
+    }
+
+    public int getResourceId(int index) {
+        checkElementIndex(index, m_size);
+        return m_resourceIds[index];
+    }
+
+    public int getNameId(int index) {
+        checkElementIndex(index, m_size);
+        return m_nameIds[index];
+    }
+
+    public Context getContext(int index) {
+        return m_contexts.get(getContextId(index));
+    }
+
+    public Resource getResource(int index) {
+        return m_resources.get(getResourceId(index));
+    }
+
+    public String getName(int index) {
+        return m_names.get(getNameId(index));
+    }
+
+    public MetricType getType(int index) {
+        checkElementIndex(index, m_size);
+        return MetricType.fromCode(m_types[index]);
+    }
+
+    /**
+     * @return the timestamp of the sample at {@code index}, in milliseconds since the epoch
+     */
+    public long getTimestamp(int index) {
+        checkElementIndex(index, m_size);
+        return m_timestamps[index];
+    }
+
+    /**
+     * @return the 64 bit value of the sample at {@code index}; For gauges, the raw bits of the
+     *         {@code double} value
+     */
+    public long getRawValue(int index) {
+        checkElementIndex(index, m_size);
+        return m_values[index];
+    }
+
+    /**
+     * @return the value of the sample at {@code index}
+     */
+    public ValueType<?> getValue(int index) {
+        return getType(index) == MetricType.GAUGE
+                ? ValueType.compose(Double.longBitsToDouble(getRawValue(index)), MetricType.GAUGE)
+                : ValueType.compose(getRawValue(index), getType(index));
+    }
+
+    /**
+     * @return the attributes of the sample at {@code index}, or null if it has none
+     */
+    public Map<String, String> getAttributes(int index) {
+        checkElementIndex(index, m_size);
+        return m_attributes.get(index);
+    }
+
+    /**
+     * Materializes the sample at {@code index}.
+     */
+    public Sample getSample(int index) {
+        return new Sample(Timestamp.fromEpochMillis(getTimestamp(index)), getContext(index), getResource(index), getName(index),
+                getType(index), getValue(index), getAttributes(index));
+    }
+
+    /**
+     * Materializes the samples of this batch (for consumers that require {@link Sample}s).
+     */
+    public List<Sample> toSamples() {
+        List<Sample> samples = Lists.newArrayListWithCapacity(m_size);
+        for (int i = 0; i < m_size; i++) {
+            samples.add(getSample(i));
+        }
+        return samples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[size=%d, resources=%d, names=%d]", getClass().getSimpleName(), m_size, m_resources.size(), m_names.size());
+    }
+
+    /**
+     * Builds {@link SampleBatch}es. Builders are not thread-safe, and cannot be reused once
+     * {@link #build()} has been called.
+     */
+    public static class Builder {
+
+        private final Map<Context, Integer> m_contextIndex = Maps.newHashMap();
+        private final Map<String, Integer> m_resourceIndex = Maps.newHashMap();
+        private final Map<String, Integer> m_nameIndex = Maps.newHashMap();
+
+        private final List<Context> m_contexts = Lists.newArrayList();
+        private final List<Resource> m_resources = Lists.newArrayList();
+        private final List<String> m_names = Lists.newArrayList();
+
+        private int m_size = 0;
+        private long[] m_timestamps;
+        private long[] m_values;
+        private byte[] m_types;
+        private int[] m_contextIds;
+        private int[] m_resourceIds;
+        private int[] m_nameIds;
+        private Map<Integer, Map<String, String>> m_attributes = Collections.emptyMap();
+
+        private boolean m_isBuilt = false;
+
+        public Builder() {
+            this(16);
+        }
+
+        /**
+         * @param expectedSize
+         *            the expected number of samples, used to size the batch's arrays
+         */
+        public Builder(int expectedSize) {
+            checkArgument(expectedSize >= 0, "expectedSize must be non-negative");
+            int capacity = Math.max(expectedSize, 1);
+            m_timestamps = new long[capacity];
+            m_values = new long[capacity];
+            m_types = new byte[capacity];
+            m_contextIds = new int[capacity];
+            m_resourceIds = new int[capacity];
+            m_nameIds = new int[capacity];
+        }
+
+        /**
+         * Adds a gauge sample.
+         *
+         * @param timestamp
+         *            milliseconds since the epoch
+         */
+        public Builder add(Context context, Resource resource, String name, long timestamp, double value) {
+            return append(context, resource, name, MetricType.GAUGE, timestamp, Double.doubleToRawLongBits(value));
+        }
+
+        /**
+         * Adds a sample of a counter, absolute, or derive type.
+         *
+         * @param timestamp
+         *            milliseconds since the epoch
+         * @param value
+         *            the (unsigned) value
+         */
+        public Builder add(Context context, Resource resource, String name, MetricType type, long timestamp, long value) {
+            checkNotNull(type, "type argument");
+            checkArgument(type != MetricType.GAUGE, "gauge values must be added as double");
+            return append(context, resource, name, type, timestamp, value);
+        }
+
+        public Builder add(Sample sample) {
+            checkNotNull(sample, "sample argument");
+
+            long value = (sample.getType() == MetricType.GAUGE)
+                    ? Double.doubleToRawLongBits(sample.getValue().doubleValue())
+                    : sample.getValue().longValue();
+
+            append(sample.getContext(), sample.getResource(), sample.getName(), sample.getType(), sample.getTimestamp().asMillis(), value);
+
+            if (sample.getAttributes() != null) {
+                withAttributes(sample.getAttributes());
+            }
+
+            return this;
+        }
+
+        /**
+         * Sets the attributes of the most recently added sample.
+         */
+        public Builder withAttributes(Map<String, String> attributes) {
+            checkState(m_size > 0, "no sample has been added");
+            checkNotNull(attributes, "attributes argument");
+
+            if (m_attributes.isEmpty()) {
+                m_attributes = Maps.newHashMap();
+            }
+            m_attributes.put(m_size - 1, attributes);
+
+            return this;
+        }
+
+        public int size() {
+            return m_size;
+        }
+
+        public SampleBatch build() {
+            checkState(!m_isBuilt, "builder has already been used");
+            m_isBuilt = true;
+            return new SampleBatch(this);
+        }
+
+        private Builder append(Context context, Resource resource, String name, MetricType type, long timestamp, long value) {
+            checkState(!m_isBuilt, "builder has already been used");
+            checkNotNull(context, "context argument");
+            checkNotNull(resource, "resource argument");
+            checkNotNull(name, "name argument");
+
+            if (m_size == m_timestamps.length) {
+                grow();
+            }
+
+            m_timestamps[m_size] = timestamp;
+            m_values[m_size] = value;
+            m_types[m_size] = type.getCode();
+            m_contextIds[m_size] = contextId(context);
+            m_resourceIds[m_size] = resourceId(resource);
+            m_nameIds[m_size] = nameId(name);
+            m_size += 1;
+
+            return this;
+        }
+
+        private int contextId(Context context) {
+            Integer id = m_contextIndex.get(context);
+            if (id == null) {
+                id = m_contexts.size();
+                m_contexts.add(context);
+                m_contextIndex.put(context, id);
+            }
+            return id;
+        }
+
+        private int resourceId(Resource resource) {
+            Integer id = m_resourceIndex.get(resource.getId());
+            if (id == null) {
+                id = m_resources.size();
+                m_resources.add(resource);
+                m_resourceIndex.put(resource.getId(), id);
+            }
+            else if (resource.getAttributes().isPresent()) {
+                // Resources are equal by ID; Retain the most recently supplied attributes.
+                m_resources.set(id, resource);
+            }
+            return id;
+        }
+
+        private int nameId(String name) {
+            Integer id = m_nameIndex.get(name);
+            if (id == null) {
+                id = m_names.size();
+                m_names.add(name);
+                m_nameIndex.put(name, id);
+            }
+            return id;
+        }
+
+        private void grow() {
+            int capacity = m_timestamps.length * 2;
+            m_timestamps = Arrays.copyOf(m_timestamps, capacity);
+            m_values = Arrays.copyOf(m_values, capacity);
+            m_types = Arrays.copyOf(m_types, capacity);
+            m_contextIds = Arrays.copyOf(m_contextIds, capacity);
+            m_resourceIds = Arrays.copyOf(m_resourceIds, capacity);
+            m_nameIds = Arrays.copyOf(m_nameIds, capacity);
+        }
+
+    }
+
+}
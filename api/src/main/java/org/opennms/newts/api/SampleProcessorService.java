@@ -23,6 +23,12 @@ public interface SampleProcessorService {
 
     void submit(final Collection<Sample> samples);
 
+    /**
+     * Submits a batch of samples; Processors that implement {@link SampleBatchProcessor} receive
+     * the batch as-is, others the samples it contains.
+     */
+    void submit(final SampleBatch batch);
+
     /** Calls <code>shutdown()</code> on the underlying thread pool executor if any. */
     void shutdown() throws InterruptedException;
 
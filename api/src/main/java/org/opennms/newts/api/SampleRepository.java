@@ -17,10 +17,14 @@ package org.opennms.newts.api;
 
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
 
 
 public interface SampleRepository {
@@ -65,6 +69,73 @@ public interface SampleRepository {
      */
     public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, SampleSelectCallback callback);
 
+    /**
+     * Query measurements asynchronously.
+     *
+     * @param context
+     *            context to query
+     * @param resource
+     *            name of the sampled resource
+     * @param start
+     *            query start time (defaults to 24 hours less than {@code end}, if absent)
+     * @param end
+     *            query end time (defaults to current time if absent)
+     * @param descriptor
+     *            aggregation descriptor
+     * @param resolution
+     *            temporal resolution of results (defaults to a value resulting in 1-10 measurements, if absent)
+     * @return a future of the query results
+     */
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution);
+
+    /**
+     * Query the measurements of many resources asynchronously; Each resource is queried with the
+     * same range, resolution and descriptor.
+     *
+     * @param context
+     *            context to query
+     * @param resources
+     *            names of the sampled resources
+     * @param start
+     *            query start time (defaults to 24 hours less than {@code end}, if absent)
+     * @param end
+     *            query end time (defaults to current time if absent)
+     * @param descriptor
+     *            aggregation descriptor
+     * @param resolution
+     *            temporal resolution of results (defaults to a value resulting in 1-10 measurements, if absent)
+     * @return a future of the query results of each (distinct) resource, in the order given; They
+     *         complete independently, and in any order
+     */
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution);
+
+    /**
+     * Query measurements of many resources, returning those of the resources for which the
+     * aggregate of a measurement, (over all rows), is greatest.
+     *
+     * @param context
+     *            context to query
+     * @param resources
+     *            names of the sampled resources
+     * @param start
+     *            query start time (defaults to 24 hours less than {@code end}, if absent)
+     * @param end
+     *            query end time (defaults to current time if absent)
+     * @param descriptor
+     *            aggregation descriptor
+     * @param resolution
+     *            temporal resolution of results (defaults to a value resulting in 1-10 measurements, if absent)
+     * @param metric
+     *            name of the (exported) measurement to rank by
+     * @param aggregation
+     *            aggregate of the measurement's rows to rank by
+     * @param count
+     *            number of resources to return
+     * @return a future of the top ranked resources, greatest first, (excluding those whose
+     *         aggregate is NaN)
+     */
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count);
+
     /**
      * Read stored samples.
      *
@@ -80,6 +151,21 @@ public interface SampleRepository {
      */
     public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end);
 
+    /**
+     * Read stored samples asynchronously.
+     *
+     * @param context
+     *            context to query
+     * @param resource
+     *            name of the sampled resource
+     * @param start
+     *            query start time (defaults to 24 hours less than {@code end}, if absent)
+     * @param end
+     *            query end time (defaults to current time if absent)
+     * @return a future of the query results
+     */
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end);
+
     /**
      * Write (store) samples.
      *
@@ -98,6 +184,64 @@ public interface SampleRepository {
      */
     public void insert(Collection<Sample> samples, boolean calculateTimeToLive);
 
+    /**
+     * Write (store) a batch of samples.
+     *
+     * @param batch
+     *            samples to insert
+     */
+    public void insert(SampleBatch batch);
+
+    /**
+     * Write (store) a batch of samples.
+     *
+     * @param batch
+     *            samples to insert
+     * @param calculateTimeToLive
+     *            true if the effective TTL should be calculated using the sample timestamps
+     */
+    public void insert(SampleBatch batch, boolean calculateTimeToLive);
+
+    /**
+     * Write (store) samples asynchronously.
+     *
+     * @param samples
+     *            samples to insert
+     * @return a future that completes once the samples have been written
+     */
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples);
+
+    /**
+     * Write (store) samples asynchronously.
+     *
+     * @param samples
+     *            samples to insert
+     * @param calculateTimeToLive
+     *            true if the effective TTL should be calculated using the sample timestamps
+     * @return a future that completes once the samples have been written
+     */
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples, boolean calculateTimeToLive);
+
+    /**
+     * Write (store) a batch of samples asynchronously.
+     *
+     * @param batch
+     *            samples to insert
+     * @return a future that completes once the samples have been written
+     */
+    public ListenableFuture<Void> insertAsync(SampleBatch batch);
+
+    /**
+     * Write (store) a batch of samples asynchronously.
+     *
+     * @param batch
+     *            samples to insert
+     * @param calculateTimeToLive
+     *            true if the effective TTL should be calculated using the sample timestamps
+     * @return a future that completes once the samples have been written
+     */
+    public ListenableFuture<Void> insertAsync(SampleBatch batch, boolean calculateTimeToLive);
+
     /**
      * Delete stored samples.
      *
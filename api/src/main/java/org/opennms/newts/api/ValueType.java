@@ -100,6 +100,17 @@ public abstract class ValueType<T extends Number> extends Number {
         }
     }
 
+    /**
+     * Serializes a value from its 64 bit representation (the raw bits of the {@code double} for
+     * gauges), as {@link #decompose(ValueType)} would the corresponding {@link ValueType}.
+     */
+    public static ByteBuffer decompose(MetricType type, long bits) {
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.put(0, type.getCode());
+        buffer.putLong(1, bits);
+        return buffer;
+    }
+
     public static ByteBuffer decompose(ValueType<?> value) {
         ByteBuffer buffer;
 
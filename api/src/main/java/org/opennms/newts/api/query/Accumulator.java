@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+/**
+ * Aggregates the primary data points of a bucket one at a time, (see
+ * {@link AccumulatingAggregationFunction}).
+ * <p>
+ * Accumulators are reused from one bucket to the next, and are not thread-safe; Like
+ * {@link AggregationFunction}s, they should ignore NaN values as if they were not accepted at all,
+ * and result in NaN if no value was (unless, as for a count, zero is meaningful).
+ * </p>
+ */
+public interface Accumulator {
+
+    /** Discards the values accepted so far. */
+    public void reset();
+
+    public void accept(double value);
+
+    public double result();
+
+    /**
+     * Combines the values accepted by another accumulator of the same function, (as if they had
+     * been accepted by this one after its own).
+     *
+     * @throws IllegalArgumentException
+     *             if the other accumulator is not of the same function
+     */
+    public void merge(Accumulator other);
+
+}
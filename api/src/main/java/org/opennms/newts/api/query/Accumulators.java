@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.google.common.primitives.Doubles;
+
+
+/**
+ * Adapts between {@link AggregationFunction}s and {@link Accumulator}s.
+ */
+public class Accumulators {
+
+    private Accumulators() {}
+
+    /**
+     * @return a new accumulator of the function; Functions that do not accumulate are adapted,
+     *         (retaining the values accepted, and applying the function to them)
+     */
+    public static Accumulator newAccumulator(AggregationFunction function) {
+        checkNotNull(function, "function argument");
+
+        if (function instanceof AccumulatingAggregationFunction) {
+            return ((AccumulatingAggregationFunction) function).newAccumulator();
+        }
+
+        return new AdaptedAccumulator(function);
+    }
+
+    /**
+     * Applies an accumulator to a collection of values, (for
+     * {@link AggregationFunction#apply(Collection)}).
+     */
+    static Double apply(Accumulator accumulator, Collection<Double> input) {
+        for (Double value : input) {
+            accumulator.accept(value);
+        }
+        return accumulator.result();
+    }
+
+    /** Retains the values accepted, for an {@link AggregationFunction} that does not accumulate. */
+    private static class AdaptedAccumulator implements Accumulator {
+
+        private final AggregationFunction m_function;
+
+        private double[] m_values = new double[8];
+        private int m_count = 0;
+
+        private AdaptedAccumulator(AggregationFunction function) {
+            m_function = function;
+        }
+
+        @Override
+        public void reset() {
+            m_count = 0;
+        }
+
+        @Override
+        public void accept(double value) {
+            if (m_count == m_values.length) {
+                m_values = Arrays.copyOf(m_values, m_count * 2);
+            }
+            m_values[m_count++] = value;
+        }
+
+        @Override
+        public double result() {
+            Double result = m_function.apply(Doubles.asList(m_values).subList(0, m_count));
+            return result != null ? result : Double.NaN;
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            checkArgument(other instanceof AdaptedAccumulator && ((AdaptedAccumulator) other).m_function.equals(m_function), "not an accumulator of %s", m_function);
+
+            AdaptedAccumulator adapted = (AdaptedAccumulator) other;
+            for (int i = 0; i < adapted.m_count; i++) {
+                accept(adapted.m_values[i]);
+            }
+        }
+
+    }
+
+}
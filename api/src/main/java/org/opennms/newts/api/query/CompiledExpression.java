@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.newts.api.query.ExpressionNode.BinaryOperator;
+import org.opennms.newts.api.query.ExpressionNode.UnaryOperator;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+
+/**
+ * An arithmetic expression of labels, parsed once and evaluated either row by row, or a column at
+ * a time.
+ * <p>
+ * Expressions are of the JEXL syntax for arithmetic: numbers and labels, the operators
+ * {@code + - * / %}, comparisons ({@code < <= > >= == !=}), logical operators ({@code && || !}),
+ * (and their word forms), parentheses, and the conditional operator {@code ?:}. A label is
+ * matched in full, even where it contains characters that are otherwise operators, (the longest
+ * label where several match). The arguments of the expression are the labels it refers to, in
+ * the order first referred to.
+ * </p>
+ *
+ * @see ExpressionNode for the arithmetic of evaluation
+ */
+public class CompiledExpression implements VectorCalculationFunction {
+    private static final long serialVersionUID = -2290911788016735236L;
+
+    private static final Map<String, BinaryOperator> BINARY_OPERATORS = ImmutableMap.<String, BinaryOperator> builder()
+            .put("+", BinaryOperator.ADD)
+            .put("-", BinaryOperator.SUBTRACT)
+            .put("*", BinaryOperator.MULTIPLY)
+            .put("/", BinaryOperator.DIVIDE)
+            .put("div", BinaryOperator.DIVIDE)
+            .put("%", BinaryOperator.REMAINDER)
+            .put("mod", BinaryOperator.REMAINDER)
+            .put("<", BinaryOperator.LT)
+            .put("lt", BinaryOperator.LT)
+            .put("<=", BinaryOperator.LE)
+            .put("le", BinaryOperator.LE)
+            .put(">", BinaryOperator.GT)
+            .put("gt", BinaryOperator.GT)
+            .put(">=", BinaryOperator.GE)
+            .put("ge", BinaryOperator.GE)
+            .put("==", BinaryOperator.EQ)
+            .put("eq", BinaryOperator.EQ)
+            .put("!=", BinaryOperator.NE)
+            .put("ne", BinaryOperator.NE)
+            .put("&&", BinaryOperator.AND)
+            .put("and", BinaryOperator.AND)
+            .put("||", BinaryOperator.OR)
+            .put("or", BinaryOperator.OR)
+            .build();
+
+    private final String m_expression;
+    private final String[] m_arguments;
+    private final ExpressionNode m_root;
+
+    private CompiledExpression(String expression, String[] arguments, ExpressionNode root) {
+        m_expression = expression;
+        m_arguments = arguments;
+        m_root = root;
+    }
+
+    /**
+     * @param expression
+     *            the expression
+     * @param labels
+     *            the labels the expression may refer to
+     * @return the compiled expression
+     * @throws IllegalArgumentException
+     *             if the expression is malformed, or refers to labels that are not among
+     *             {@code labels}
+     */
+    public static CompiledExpression compile(String expression, Collection<String> labels) {
+        checkNotNull(expression, "expression argument");
+        checkNotNull(labels, "labels argument");
+
+        Parser parser = new Parser(expression, labels);
+        ExpressionNode root = parser.parse();
+
+        return new CompiledExpression(expression, parser.m_arguments.toArray(new String[0]), root);
+    }
+
+    /**
+     * @return the labels the expression refers to, (in the order of their arguments)
+     */
+    public String[] getArguments() {
+        return m_arguments.clone();
+    }
+
+    @Override
+    public double apply(double... ds) {
+        checkArgument(ds.length == m_arguments.length, "expected %s arguments, (but passed %s)", m_arguments.length, ds.length);
+        return m_root.evaluate(ds);
+    }
+
+    @Override
+    public void apply(double[][] args, int length, double[] result) {
+        checkArgument(args.length == m_arguments.length, "expected %s arguments, (but passed %s)", m_arguments.length, args.length);
+        System.arraycopy(m_root.evaluate(args, length), 0, result, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    /** A recursive descent parser, (of the precedence of JEXL). */
+    private static class Parser {
+
+        private final String m_expression;
+        private final List<String> m_labels;
+        private final List<String> m_arguments = Lists.newArrayList();
+
+        private int m_position = 0;
+
+        // The current token, one of a Double, an Integer (argument slot), or a String (operator)
+        private Object m_token;
+
+        private Parser(String expression, Collection<String> labels) {
+            m_expression = expression;
+            m_labels = Lists.newArrayList(labels);
+
+            // Longest first, so that the longest of any labels that match is
+            Collections.sort(m_labels, new Comparator<String>() {
+
+                @Override
+                public int compare(String a, String b) {
+                    return Integer.compare(b.length(), a.length());
+                }
+            });
+        }
+
+        private ExpressionNode parse() {
+            next();
+            ExpressionNode root = conditional();
+
+            if (m_token != null) {
+                throw error("unexpected %s", m_token);
+            }
+
+            return root;
+        }
+
+        private ExpressionNode conditional() {
+            ExpressionNode condition = binary(0);
+
+            if (!accept("?")) {
+                return condition;
+            }
+
+            ExpressionNode then = conditional();
+            expect(":");
+
+            return ExpressionNode.conditional(condition, then, conditional());
+        }
+
+        private static final String[][] PRECEDENCE = {
+            { "||", "or" },
+            { "&&", "and" },
+            { "==", "!=", "eq", "ne" },
+            { "<", "<=", ">", ">=", "lt", "le", "gt", "ge" },
+            { "+", "-" },
+            { "*", "/", "%", "div", "mod" }
+        };
+
+        /** Left associative operators of (and above) a level of precedence. */
+        private ExpressionNode binary(int level) {
+            if (level == PRECEDENCE.length) {
+                return unary();
+            }
+
+            ExpressionNode left = binary(level + 1);
+            String operator;
+
+            while ((operator = acceptAny(PRECEDENCE[level])) != null) {
+                left = ExpressionNode.binary(BINARY_OPERATORS.get(operator), left, binary(level + 1));
+            }
+
+            return left;
+        }
+
+        private ExpressionNode unary() {
+            if (accept("-")) {
+                return ExpressionNode.unary(UnaryOperator.NEGATE, unary());
+            }
+            if (accept("+")) {
+                return unary();
+            }
+            if (accept("!") || accept("not")) {
+                return ExpressionNode.unary(UnaryOperator.NOT, unary());
+            }
+            return primary();
+        }
+
+        private ExpressionNode primary() {
+            Object token = m_token;
+
+            if (accept("(")) {
+                ExpressionNode node = conditional();
+                expect(")");
+                return node;
+            }
+            if (accept("true")) {
+                return new ExpressionNode.Constant(1.0d);
+            }
+            if (accept("false")) {
+                return new ExpressionNode.Constant(0.0d);
+            }
+            if (token instanceof Double) {
+                next();
+                return new ExpressionNode.Constant((Double) token);
+            }
+            if (token instanceof Integer) {
+                next();
+                return new ExpressionNode.Argument((Integer) token);
+            }
+
+            throw error(token == null ? "unexpected end" : "unexpected %s", token);
+        }
+
+        private boolean accept(String operator) {
+            if (operator.equals(m_token)) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        private String acceptAny(String[] operators) {
+            for (String operator : operators) {
+                if (accept(operator)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private void expect(String operator) {
+            if (!accept(operator)) {
+                throw error("expected %s", operator);
+            }
+        }
+
+        /** Reads the next token, (or null at the end). */
+        private void next() {
+            while (m_position < m_expression.length() && Character.isWhitespace(m_expression.charAt(m_position))) {
+                m_position++;
+            }
+
+            if (m_position == m_expression.length()) {
+                m_token = null;
+                return;
+            }
+
+            int start = m_position;
+            char c = m_expression.charAt(start);
+
+            String identifier = null;
+
+            if (Character.isJavaIdentifierStart(c)) {
+                do {
+                    m_position++;
+                }
+                while (m_position < m_expression.length() && Character.isJavaIdentifierPart(m_expression.charAt(m_position)));
+
+                identifier = m_expression.substring(start, m_position);
+                m_position = start;
+            }
+
+            String label = matchLabel(start);
+
+            // Labels take precedence, (but for the words of operators that are not part of one)
+            if (label != null && (identifier == null || label.length() > identifier.length() || !isWord(identifier))) {
+                m_position = start + label.length();
+                int slot = m_arguments.indexOf(label);
+
+                if (slot < 0) {
+                    slot = m_arguments.size();
+                    m_arguments.add(label);
+                }
+
+                m_token = slot;
+                return;
+            }
+
+            if (identifier != null) {
+                if (!isWord(identifier)) {
+                    throw error("No such label(s): [%s]", identifier);
+                }
+
+                m_position = start + identifier.length();
+                m_token = identifier;
+                return;
+            }
+
+            if (Character.isDigit(c) || c == '.') {
+                m_token = number();
+                return;
+            }
+
+            for (String operator : new String[] { "<=", ">=", "==", "!=", "&&", "||" }) {
+                if (m_expression.startsWith(operator, start)) {
+                    m_position += 2;
+                    m_token = operator;
+                    return;
+                }
+            }
+
+            if ("+-*/%<>!?:()".indexOf(c) >= 0) {
+                m_position++;
+                m_token = String.valueOf(c);
+                return;
+            }
+
+            throw error("unexpected character '%s'", c);
+        }
+
+        private static boolean isWord(String identifier) {
+            return BINARY_OPERATORS.containsKey(identifier) || "not".equals(identifier) || "true".equals(identifier) || "false".equals(identifier);
+        }
+
+        /** The longest label at a position, (and not followed by any more of an identifier). */
+        private String matchLabel(int position) {
+            for (String label : m_labels) {
+                int end = position + label.length();
+
+                if (!label.isEmpty() && m_expression.startsWith(label, position)
+                        && (end == m_expression.length() || !Character.isJavaIdentifierPart(m_expression.charAt(end)))) {
+                    return label;
+                }
+            }
+            return null;
+        }
+
+        private Double number() {
+            int start = m_position;
+
+            while (m_position < m_expression.length() && Character.isDigit(m_expression.charAt(m_position))) {
+                m_position++;
+            }
+            if (m_position < m_expression.length() && m_expression.charAt(m_position) == '.') {
+                m_position++;
+                while (m_position < m_expression.length() && Character.isDigit(m_expression.charAt(m_position))) {
+                    m_position++;
+                }
+            }
+            if (m_position < m_expression.length() && Character.toLowerCase(m_expression.charAt(m_position)) == 'e') {
+                int mark = m_position++;
+
+                if (m_position < m_expression.length() && "+-".indexOf(m_expression.charAt(m_position)) >= 0) {
+                    m_position++;
+                }
+                if (m_position < m_expression.length() && Character.isDigit(m_expression.charAt(m_position))) {
+                    while (m_position < m_expression.length() && Character.isDigit(m_expression.charAt(m_position))) {
+                        m_position++;
+                    }
+                }
+                else {
+                    m_position = mark;
+                }
+            }
+
+            try {
+                return Double.parseDouble(m_expression.substring(start, m_position));
+            }
+            catch (NumberFormatException e) {
+                throw error("malformed number %s", m_expression.substring(start, m_position));
+            }
+        }
+
+        private IllegalArgumentException error(String format, Object... args) {
+            return new IllegalArgumentException(String.format("%s at %d of expression \"%s\"", String.format(format, args), m_position, m_expression));
+        }
+
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * A node of a compiled expression, evaluated either of one row of arguments, or of whole columns
+ * of them at a time.
+ * <p>
+ * All values are doubles; Comparisons and logical operators are 1 when true and 0 when false, and
+ * a value is true when it is neither 0 nor NaN. As with the (lenient) JEXL arithmetic expressions
+ * were once evaluated with, division and remainder by zero are 0.
+ * </p>
+ */
+abstract class ExpressionNode implements Serializable {
+    private static final long serialVersionUID = 5064736069226223891L;
+
+    enum UnaryOperator {
+        NEGATE, NOT;
+
+        double apply(double a) {
+            switch (this) {
+                case NEGATE:
+                    return -a;
+                case NOT:
+                    return bool(!truth(a));
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    enum BinaryOperator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, REMAINDER, LT, LE, GT, GE, EQ, NE, AND, OR;
+
+        double apply(double a, double b) {
+            switch (this) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    return b == 0.0d ? 0.0d : a / b;
+                case REMAINDER:
+                    return b == 0.0d ? 0.0d : a % b;
+                case LT:
+                    return bool(a < b);
+                case LE:
+                    return bool(a <= b);
+                case GT:
+                    return bool(a > b);
+                case GE:
+                    return bool(a >= b);
+                case EQ:
+                    return bool(a == b);
+                case NE:
+                    return bool(a != b);
+                case AND:
+                    return bool(truth(a) && truth(b));
+                case OR:
+                    return bool(truth(a) || truth(b));
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    /**
+     * @param args
+     *            the arguments, (by slot)
+     * @return the value
+     */
+    abstract double evaluate(double[] args);
+
+    /**
+     * @param args
+     *            the columns of arguments, (by slot)
+     * @param length
+     *            the number of rows to evaluate
+     * @return a column of values, (that the caller must not modify)
+     */
+    abstract double[] evaluate(double[][] args, int length);
+
+    boolean isConstant() {
+        return false;
+    }
+
+    static boolean truth(double value) {
+        return value != 0.0d && !Double.isNaN(value);
+    }
+
+    static double bool(boolean value) {
+        return value ? 1.0d : 0.0d;
+    }
+
+    static ExpressionNode unary(UnaryOperator operator, ExpressionNode operand) {
+        ExpressionNode node = new Unary(operator, operand);
+        return operand.isConstant() ? new Constant(node.evaluate(new double[0])) : node;
+    }
+
+    static ExpressionNode binary(BinaryOperator operator, ExpressionNode left, ExpressionNode right) {
+        ExpressionNode node = new Binary(operator, left, right);
+        return left.isConstant() && right.isConstant() ? new Constant(node.evaluate(new double[0])) : node;
+    }
+
+    static ExpressionNode conditional(ExpressionNode condition, ExpressionNode then, ExpressionNode otherwise) {
+        if (condition.isConstant()) {
+            return truth(condition.evaluate(new double[0])) ? then : otherwise;
+        }
+        return new Conditional(condition, then, otherwise);
+    }
+
+    static class Constant extends ExpressionNode {
+        private static final long serialVersionUID = -2516981925624409767L;
+
+        private final double m_value;
+
+        Constant(double value) {
+            m_value = value;
+        }
+
+        @Override
+        double evaluate(double[] args) {
+            return m_value;
+        }
+
+        @Override
+        double[] evaluate(double[][] args, int length) {
+            double[] result = new double[length];
+            Arrays.fill(result, m_value);
+            return result;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    static class Argument extends ExpressionNode {
+        private static final long serialVersionUID = 3779716000911932117L;
+
+        private final int m_slot;
+
+        Argument(int slot) {
+            m_slot = slot;
+        }
+
+        @Override
+        double evaluate(double[] args) {
+            return args[m_slot];
+        }
+
+        @Override
+        double[] evaluate(double[][] args, int length) {
+            return args[m_slot];
+        }
+    }
+
+    private static class Unary extends ExpressionNode {
+        private static final long serialVersionUID = -1738546519934380617L;
+
+        private final UnaryOperator m_operator;
+        private final ExpressionNode m_operand;
+
+        private Unary(UnaryOperator operator, ExpressionNode operand) {
+            m_operator = operator;
+            m_operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] args) {
+            return m_operator.apply(m_operand.evaluate(args));
+        }
+
+        @Override
+        double[] evaluate(double[][] args, int length) {
+            double[] operand = m_operand.evaluate(args, length);
+            double[] result = new double[length];
+
+            switch (m_operator) {
+                case NEGATE:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = -operand[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = m_operator.apply(operand[i]);
+                    }
+            }
+
+            return result;
+        }
+    }
+
+    private static class Binary extends ExpressionNode {
+        private static final long serialVersionUID = 7936011466946393880L;
+
+        private final BinaryOperator m_operator;
+        private final ExpressionNode m_left;
+        private final ExpressionNode m_right;
+
+        private Binary(BinaryOperator operator, ExpressionNode left, ExpressionNode right) {
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double evaluate(double[] args) {
+            return m_operator.apply(m_left.evaluate(args), m_right.evaluate(args));
+        }
+
+        @Override
+        double[] evaluate(double[][] args, int length) {
+            double[] left = m_left.evaluate(args, length);
+            double[] right = m_right.evaluate(args, length);
+            double[] result = new double[length];
+
+            // The common arithmetic in loops of their own, (the rest by operator)
+            switch (m_operator) {
+                case ADD:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = left[i] + right[i];
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = left[i] - right[i];
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = left[i] * right[i];
+                    }
+                    break;
+                case DIVIDE:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = right[i] == 0.0d ? 0.0d : left[i] / right[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < length; i++) {
+                        result[i] = m_operator.apply(left[i], right[i]);
+                    }
+            }
+
+            return result;
+        }
+    }
+
+    private static class Conditional extends ExpressionNode {
+        private static final long serialVersionUID = -4350964710539592542L;
+
+        private final ExpressionNode m_condition;
+        private final ExpressionNode m_then;
+        private final ExpressionNode m_otherwise;
+
+        private Conditional(ExpressionNode condition, ExpressionNode then, ExpressionNode otherwise) {
+            m_condition = condition;
+            m_then = then;
+            m_otherwise = otherwise;
+        }
+
+        @Override
+        double evaluate(double[] args) {
+            return truth(m_condition.evaluate(args)) ? m_then.evaluate(args) : m_otherwise.evaluate(args);
+        }
+
+        @Override
+        double[] evaluate(double[][] args, int length) {
+            double[] condition = m_condition.evaluate(args, length);
+            double[] then = m_then.evaluate(args, length);
+            double[] otherwise = m_otherwise.evaluate(args, length);
+            double[] result = new double[length];
+
+            for (int i = 0; i < length; i++) {
+                result[i] = truth(condition[i]) ? then[i] : otherwise[i];
+            }
+
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+
+import com.google.common.base.Objects;
+
+
+/**
+ * Aggregates to a percentile of the values, estimated (to within
+ * {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY} of the true value) from a {@link QuantileSketch},
+ * so that the values themselves need not be retained.
+ */
+public class PercentileFunction implements AccumulatingAggregationFunction {
+    private static final long serialVersionUID = 4262640186207380384L;
+
+    private final double m_percentile;
+
+    /**
+     * @param percentile
+     *            the percentile, (from 0 to 100)
+     */
+    public PercentileFunction(double percentile) {
+        checkArgument(percentile >= 0.0d && percentile <= 100.0d, "percentile must be from 0 to 100");
+        m_percentile = percentile;
+    }
+
+    public double getPercentile() {
+        return m_percentile;
+    }
+
+    @Override
+    public Accumulator newAccumulator() {
+        return new SketchAccumulator(this);
+    }
+
+    @Override
+    public Double apply(Collection<Double> input) {
+        return Accumulators.apply(newAccumulator(), input);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PercentileFunction)) return false;
+        return Double.compare(m_percentile, ((PercentileFunction) obj).m_percentile) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(m_percentile);
+    }
+
+    @Override
+    public String toString() {
+        return "P" + (m_percentile == Math.rint(m_percentile) ? String.valueOf((long) m_percentile) : String.valueOf(m_percentile));
+    }
+
+    private static class SketchAccumulator implements Accumulator {
+
+        private final PercentileFunction m_function;
+        private final QuantileSketch m_sketch = new QuantileSketch();
+
+        private SketchAccumulator(PercentileFunction function) {
+            m_function = function;
+        }
+
+        @Override
+        public void reset() {
+            m_sketch.reset();
+        }
+
+        @Override
+        public void accept(double value) {
+            m_sketch.add(value);
+        }
+
+        @Override
+        public double result() {
+            return m_sketch.getQuantile(m_function.getPercentile() / 100.0d);
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            checkArgument(other instanceof SketchAccumulator && ((SketchAccumulator) other).m_function.equals(m_function), "not an accumulator of %s", m_function);
+            m_sketch.merge(((SketchAccumulator) other).m_sketch);
+        }
+
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+
+
+/**
+ * A compact, mergeable sketch of the distribution of a sequence of values, from which quantiles
+ * are estimated to within a relative accuracy.
+ * <p>
+ * Values are counted in logarithmically sized buckets (each spanning values within a factor of
+ * {@code (1 + accuracy) / (1 - accuracy)} of one another), so that the quantiles estimated are
+ * within {@code accuracy} of the true values, relative to their magnitude; Sketches are merged by
+ * adding their bucket counts, and so exactly. At most {@value #MAX_BUCKETS} buckets are kept of
+ * each sign, after which those of the smallest magnitude are collapsed, (losing accuracy only for
+ * the quantiles nearest zero).
+ * </p>
+ */
+public class QuantileSketch implements Serializable {
+    private static final long serialVersionUID = -6195381418962950215L;
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01d;
+
+    static final int MAX_BUCKETS = 2048;
+
+    private static final int INITIAL_BUCKETS = 32;
+
+    private final double m_relativeAccuracy;
+    private final double m_gamma;
+    private final double m_logGamma;
+
+    private final Buckets m_positive = new Buckets();
+    private final Buckets m_negative = new Buckets();
+    private long m_zeroCount = 0;
+    private long m_count = 0;
+    private double m_min = Double.NaN;
+    private double m_max = Double.NaN;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy
+     *            the accuracy of the quantiles estimated, relative to their magnitude, (greater than 0,
+     *            and less than 1)
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        checkArgument(relativeAccuracy > 0.0d && relativeAccuracy < 1.0d, "relative accuracy must be greater than 0, and less than 1");
+        m_relativeAccuracy = relativeAccuracy;
+        m_gamma = (1.0d + relativeAccuracy) / (1.0d - relativeAccuracy);
+        m_logGamma = Math.log(m_gamma);
+    }
+
+    public double getRelativeAccuracy() {
+        return m_relativeAccuracy;
+    }
+
+    /**
+     * @return the number of values added, (that are not NaN)
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    /** Adds a value, (ignoring NaN). */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        if (value >= Double.MIN_NORMAL) {
+            m_positive.add(index(value), 1);
+        }
+        else if (value <= -Double.MIN_NORMAL) {
+            m_negative.add(index(-value), 1);
+        }
+        else {
+            m_zeroCount += 1;
+        }
+
+        m_min = (m_count == 0) ? value : Math.min(m_min, value);
+        m_max = (m_count == 0) ? value : Math.max(m_max, value);
+        m_count += 1;
+    }
+
+    /**
+     * Adds the values of another sketch.
+     *
+     * @throws IllegalArgumentException
+     *             if the other sketch is not of the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        checkNotNull(other, "other argument");
+        checkArgument(other.m_relativeAccuracy == m_relativeAccuracy, "cannot merge sketches of differing accuracy");
+
+        if (other.m_count == 0) {
+            return;
+        }
+
+        m_positive.merge(other.m_positive);
+        m_negative.merge(other.m_negative);
+        m_zeroCount += other.m_zeroCount;
+        m_min = (m_count == 0) ? other.m_min : Math.min(m_min, other.m_min);
+        m_max = (m_count == 0) ? other.m_max : Math.max(m_max, other.m_max);
+        m_count += other.m_count;
+    }
+
+    /** Discards the values added. */
+    public void reset() {
+        m_positive.reset();
+        m_negative.reset();
+        m_zeroCount = 0;
+        m_count = 0;
+        m_min = Double.NaN;
+        m_max = Double.NaN;
+    }
+
+    /**
+     * @param quantile
+     *            the quantile, (from 0 to 1)
+     * @return the estimated value of the quantile, or NaN if no values were added
+     */
+    public double getQuantile(double quantile) {
+        checkArgument(quantile >= 0.0d && quantile <= 1.0d, "quantile must be from 0 to 1");
+
+        if (m_count == 0) {
+            return Double.NaN;
+        }
+
+        // The extremes are known exactly
+        if (quantile == 0.0d) {
+            return m_min;
+        }
+        if (quantile == 1.0d) {
+            return m_max;
+        }
+
+        double rank = quantile * (m_count - 1);
+        long seen = 0;
+        double value;
+
+        // From the greatest negative magnitude, through zero, to the greatest positive
+        found: {
+            for (int i = m_negative.m_counts.length - 1; i >= 0; i--) {
+                seen += m_negative.m_counts[i];
+                if (seen > rank) {
+                    value = -value(m_negative.m_offset + i);
+                    break found;
+                }
+            }
+
+            seen += m_zeroCount;
+            if (seen > rank) {
+                value = 0.0d;
+                break found;
+            }
+
+            for (int i = 0; i < m_positive.m_counts.length; i++) {
+                seen += m_positive.m_counts[i];
+                if (seen > rank) {
+                    value = value(m_positive.m_offset + i);
+                    break found;
+                }
+            }
+
+            value = m_max;
+        }
+
+        return Math.max(m_min, Math.min(m_max, value));
+    }
+
+    /** The index of the bucket of a (positive) value, spanning (gamma^(index-1), gamma^index]. */
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / m_logGamma);
+    }
+
+    /** The value of a bucket, within the relative accuracy of any it spans. */
+    private double value(int index) {
+        return 2.0d * Math.pow(m_gamma, index) / (m_gamma + 1.0d);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[count=%s, min=%s, median=%s, max=%s]",
+                getClass().getSimpleName(),
+                getCount(),
+                m_min,
+                getQuantile(0.5d),
+                m_max);
+    }
+
+    /** The counts of a contiguous range of bucket indices. */
+    private static class Buckets implements Serializable {
+        private static final long serialVersionUID = 2931736373446315186L;
+
+        private long[] m_counts = new long[0];
+        // The index of the first bucket
+        private int m_offset = 0;
+
+        private void add(int index, long count) {
+            index = reserve(index);
+            m_counts[index - m_offset] += count;
+        }
+
+        private void merge(Buckets other) {
+            for (int i = 0; i < other.m_counts.length; i++) {
+                if (other.m_counts[i] != 0) {
+                    add(other.m_offset + i, other.m_counts[i]);
+                }
+            }
+        }
+
+        private void reset() {
+            m_counts = new long[0];
+            m_offset = 0;
+        }
+
+        /**
+         * Extends the range of buckets to include an index, (collapsing the lowest, if it would
+         * exceed {@link QuantileSketch#MAX_BUCKETS}).
+         *
+         * @return the index of the bucket to count the index in
+         */
+        private int reserve(int index) {
+            if (m_counts.length == 0) {
+                m_counts = new long[INITIAL_BUCKETS];
+                m_offset = index - (INITIAL_BUCKETS / 2);
+                return index;
+            }
+
+            int lower = m_offset;
+            int upper = m_offset + m_counts.length - 1;
+
+            if (index >= lower && index <= upper) {
+                return index;
+            }
+
+            if (index > upper) {
+                int span = index - lower + 1;
+
+                if (span > MAX_BUCKETS) {
+                    relayout(index - MAX_BUCKETS + 1, MAX_BUCKETS);
+                }
+                else {
+                    relayout(lower, Math.min(MAX_BUCKETS, Math.max(span, m_counts.length * 2)));
+                }
+
+                return index;
+            }
+
+            int span = upper - index + 1;
+
+            if (span > MAX_BUCKETS) {
+                if (m_counts.length < MAX_BUCKETS) {
+                    relayout(upper - MAX_BUCKETS + 1, MAX_BUCKETS);
+                }
+                return m_offset;
+            }
+
+            int length = Math.min(MAX_BUCKETS, Math.max(span, m_counts.length * 2));
+            relayout(upper - length + 1, length);
+
+            return index;
+        }
+
+        /** Moves the counts to buckets from {@code offset}, adding any below to the first. */
+        private void relayout(int offset, int length) {
+            long[] counts = new long[length];
+
+            for (int i = 0; i < m_counts.length; i++) {
+                if (m_counts[i] != 0) {
+                    counts[Math.max(m_offset + i, offset) - offset] += m_counts[i];
+                }
+            }
+
+            m_counts = counts;
+            m_offset = offset;
+        }
+    }
+
+}
@@ -24,10 +24,6 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.jexl2.Expression;
-import org.apache.commons.jexl2.JexlContext;
-import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.newts.api.Duration;
 
 import com.google.common.base.Function;
@@ -69,6 +65,8 @@ public class ResultDescriptor implements Serializable {
 
     private final Set<String> m_exports = Sets.newHashSet();
 
+    private boolean m_rollupsAllowed = false;
+
     /**
      * Constructs a new {@link ResultDescriptor} with the default step size.
      */
@@ -132,6 +130,14 @@ public class ResultDescriptor implements Serializable {
         return m_exports;
     }
 
+    /**
+     * @return true if aggregates may be read from pre-aggregated rollups, (where the repository
+     *         maintains them), in place of aggregating samples
+     */
+    public boolean isRollupsAllowed() {
+        return m_rollupsAllowed;
+    }
+
     /**
      * Set the step duration.
      * 
@@ -148,6 +154,16 @@ public class ResultDescriptor implements Serializable {
         return this;
     }
 
+    /**
+     * Allows (or disallows) the aggregates of this descriptor to be read from pre-aggregated
+     * rollups, where the repository maintains them; Rollups are not aggregated as samples are,
+     * (see the repository for how they differ), and so are disallowed by default.
+     */
+    public ResultDescriptor allowRollups(boolean allowed) {
+        m_rollupsAllowed = allowed;
+        return this;
+    }
+
     public ResultDescriptor datasource(String metricName, AggregationFunction aggregationFunction) {
         return datasource(metricName, metricName, aggregationFunction);
     }
@@ -251,35 +267,31 @@ public class ResultDescriptor implements Serializable {
 
     }
     
+    /**
+     * Calculates the value of an expression of the labels (and numbers) that precede it.
+     *
+     * @see CompiledExpression for the syntax of expressions
+     * @throws IllegalArgumentException
+     *             if the expression is malformed, or refers to labels that do not precede it
+     */
     public ResultDescriptor expression(String label, String expression) {
-        final JexlEngine je = new JexlEngine();
-        final Expression expr = je.createExpression(expression);
-        final String[] labels = getLabels().toArray(new String[0]);
-        CalculationFunction evaluate = new CalculationFunction() {
-            private static final long serialVersionUID = -3328049421398096252L;
+        CompiledExpression compiled = CompiledExpression.compile(expression, getLabels());
+        String[] args = compiled.getArguments();
 
-            @Override
-            public double apply(double... ds) {
-                JexlContext jc = new MapContext();
-                for(int i = 0; i < labels.length; i++) {
-                    jc.set(labels[i], ds[i]);
-                }
-                return ((Number)expr.evaluate(jc)).doubleValue();
-                
-            }
-        };
-        return calculate(label, evaluate, labels);
+        // Calculations take one or more arguments, (which constant expressions ignore)
+        return calculate(label, compiled, args.length > 0 ? args : new String[] { "0" });
     }
 
     @Override
     public String toString() {
         return String.format(
-                "%s[interval=%s, datasources=%s, calculations=%s, exports=%s]",
+                "%s[interval=%s, datasources=%s, calculations=%s, exports=%s, rollupsAllowed=%s]",
                 getClass().getSimpleName(),
                 getInterval(),
                 getDatasources().values(),
                 getCalculations().values(),
-                getExports());
+                getExports(),
+                isRollupsAllowed());
     }
 
 }
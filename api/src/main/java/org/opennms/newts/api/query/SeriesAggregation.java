@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+
+import com.google.common.base.Objects;
+
+
+/**
+ * How the measurements of many resources are combined into one series; Each row's measurement of
+ * a given name is the sum (or average, minimum, maximum, or a percentile) of that of each resource,
+ * ignoring NaNs.
+ */
+public final class SeriesAggregation implements Serializable {
+    private static final long serialVersionUID = 2447219403516285612L;
+
+    public static enum Function {
+        SUM, AVERAGE, MIN, MAX, PERCENTILE;
+    }
+
+    public static final SeriesAggregation SUM = new SeriesAggregation(Function.SUM, Double.NaN);
+    public static final SeriesAggregation AVERAGE = new SeriesAggregation(Function.AVERAGE, Double.NaN);
+    public static final SeriesAggregation MIN = new SeriesAggregation(Function.MIN, Double.NaN);
+    public static final SeriesAggregation MAX = new SeriesAggregation(Function.MAX, Double.NaN);
+
+    private final Function m_function;
+    private final double m_percentile;
+
+    private SeriesAggregation(Function function, double percentile) {
+        m_function = checkNotNull(function, "function argument");
+        m_percentile = percentile;
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, (from 0 to 100)
+     */
+    public static SeriesAggregation percentile(double percentile) {
+        checkArgument(percentile >= 0.0d && percentile <= 100.0d, "percentile must be from 0 to 100");
+        return new SeriesAggregation(Function.PERCENTILE, percentile);
+    }
+
+    /**
+     * Parses an aggregation by name; One of <code>sum</code>, <code>avg</code>, <code>min</code>,
+     * <code>max</code>, or <code>p</code> followed by a percentile (e.g. <code>p95</code>).
+     *
+     * @throws IllegalArgumentException
+     *             if the name is not that of an aggregation
+     */
+    public static SeriesAggregation parse(String name) {
+        checkNotNull(name, "name argument");
+
+        switch (name.toLowerCase()) {
+            case "sum":
+                return SUM;
+            case "avg":
+            case "average":
+                return AVERAGE;
+            case "min":
+                return MIN;
+            case "max":
+                return MAX;
+            default:
+                break;
+        }
+
+        if (name.length() > 1 && (name.charAt(0) == 'p' || name.charAt(0) == 'P')) {
+            try {
+                return percentile(Double.parseDouble(name.substring(1)));
+            }
+            catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("unknown aggregation %s", name));
+    }
+
+    public Function getFunction() {
+        return m_function;
+    }
+
+    /**
+     * @return the percentile, (from 0 to 100), if a percentile, and otherwise NaN
+     */
+    public double getPercentile() {
+        return m_percentile;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SeriesAggregation)) return false;
+        SeriesAggregation other = (SeriesAggregation) obj;
+        return m_function == other.m_function && Double.compare(m_percentile, other.m_percentile) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(m_function, m_percentile);
+    }
+
+    @Override
+    public String toString() {
+        if (m_function == Function.PERCENTILE) {
+            return "p" + (m_percentile == Math.rint(m_percentile) ? String.valueOf((long) m_percentile) : String.valueOf(m_percentile));
+        }
+        return m_function.name().toLowerCase();
+    }
+
+}
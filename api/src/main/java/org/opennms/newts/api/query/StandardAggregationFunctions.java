@@ -16,57 +16,273 @@
 package org.opennms.newts.api.query;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.util.Collection;
 
 
-public enum StandardAggregationFunctions implements AggregationFunction {
+public enum StandardAggregationFunctions implements AccumulatingAggregationFunction {
 
     // These function assume that the xff calculation is done elsewhere and that the values that
     // are returned is non sensible if there are more NaN then defined by the xff.
     AVERAGE {
 
         @Override
-        public Double apply(Collection<Double> input) {
-            int count = 0;
-            Double sum = 0.0d;
-            for (Double item : input) {
-                if (!Double.isNaN(item)) {
-                    sum += item;
-                    count++;
-                }
-            }
+        public Accumulator newAccumulator() {
+            return new Moments(this) {
 
-            return sum / count;
+                @Override
+                public double result() {
+                    return m_count > 0 ? m_sum / m_count : Double.NaN;
+                }
+            };
         }
 
     },
     MAX {
 
         @Override
-        public Double apply(Collection<Double> input) {
-            Double max = Double.MIN_VALUE;
-            for (Double item : input) {
-                if (!Double.isNaN(item)) {
-                    double diff = item - max;
-                    max = diff > 0 ? item : max;
+        public Accumulator newAccumulator() {
+            return new Extremes(this) {
+
+                @Override
+                public double result() {
+                    return m_max;
                 }
-            }
-            return max;
+            };
         }
 
     },
     MIN {
 
         @Override
-        public Double apply(Collection<Double> input) {
-            Double min = Double.MAX_VALUE;
-            for (Double item : input) {
-                if (!Double.isNaN(item)) {
-                    double diff = item - min;
-                    min = diff < 0 ? item : min;
+        public Accumulator newAccumulator() {
+            return new Extremes(this) {
+
+                @Override
+                public double result() {
+                    return m_min;
+                }
+            };
+        }
+
+    },
+    SUM {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Moments(this) {
+
+                @Override
+                public double result() {
+                    return m_count > 0 ? m_sum : Double.NaN;
+                }
+            };
+        }
+
+    },
+    /** The number of values, (that are not NaN). */
+    COUNT {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Moments(this) {
+
+                @Override
+                public double result() {
+                    return m_count;
+                }
+            };
+        }
+
+    },
+    /** The first value, (in time). */
+    FIRST {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Extremes(this) {
+
+                @Override
+                public double result() {
+                    return m_first;
                 }
+            };
+        }
+
+    },
+    /** The last value, (in time). */
+    LAST {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Extremes(this) {
+
+                @Override
+                public double result() {
+                    return m_last;
+                }
+            };
+        }
+
+    },
+    /** The (population) standard deviation. */
+    STDDEV {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Moments(this) {
+
+                @Override
+                public double result() {
+                    return m_count > 0 ? Math.sqrt(m_m2 / m_count) : Double.NaN;
+                }
+            };
+        }
+
+    },
+    /** The difference between the greatest and least values. */
+    RANGE {
+
+        @Override
+        public Accumulator newAccumulator() {
+            return new Extremes(this) {
+
+                @Override
+                public double result() {
+                    return m_max - m_min;
+                }
+            };
+        }
+
+    };
+
+    @Override
+    public Double apply(Collection<Double> input) {
+        return Accumulators.apply(newAccumulator(), input);
+    }
+
+    /** The count, sum, mean and sum of squared differences from the mean, of the values accepted. */
+    private static abstract class Moments implements Accumulator {
+
+        private final StandardAggregationFunctions m_function;
+
+        protected long m_count;
+        protected double m_sum;
+        protected double m_mean;
+        protected double m_m2;
+
+        private Moments(StandardAggregationFunctions function) {
+            m_function = function;
+        }
+
+        @Override
+        public void reset() {
+            m_count = 0;
+            m_sum = 0.0d;
+            m_mean = 0.0d;
+            m_m2 = 0.0d;
+        }
+
+        @Override
+        public void accept(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+
+            // Welford's method
+            m_count += 1;
+            m_sum += value;
+            double delta = value - m_mean;
+            m_mean += delta / m_count;
+            m_m2 += delta * (value - m_mean);
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            checkArgument(other instanceof Moments && ((Moments) other).m_function == m_function, "not an accumulator of %s", m_function);
+
+            Moments moments = (Moments) other;
+
+            if (moments.m_count == 0) {
+                return;
+            }
+
+            // Chan et al.'s parallel method
+            long count = m_count + moments.m_count;
+            double delta = moments.m_mean - m_mean;
+
+            m_m2 += moments.m_m2 + delta * delta * ((double) m_count * moments.m_count / count);
+            m_mean += delta * moments.m_count / count;
+            m_sum += moments.m_sum;
+            m_count = count;
+        }
+
+    }
+
+    /** The least, greatest, first and last of the values accepted, (NaN if none were). */
+    private static abstract class Extremes implements Accumulator {
+
+        private final StandardAggregationFunctions m_function;
+
+        protected double m_min;
+        protected double m_max;
+        protected double m_first;
+        protected double m_last;
+
+        private Extremes(StandardAggregationFunctions function) {
+            m_function = function;
+            reset();
+        }
+
+        @Override
+        public void reset() {
+            m_min = Double.NaN;
+            m_max = Double.NaN;
+            m_first = Double.NaN;
+            m_last = Double.NaN;
+        }
+
+        @Override
+        public void accept(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+
+            if (Double.isNaN(m_first)) {
+                m_first = value;
+                m_min = value;
+                m_max = value;
             }
-            return min;
+            else {
+                m_min = Math.min(m_min, value);
+                m_max = Math.max(m_max, value);
+            }
+
+            m_last = value;
+        }
+
+        @Override
+        public void merge(Accumulator other) {
+            checkArgument(other instanceof Extremes && ((Extremes) other).m_function == m_function, "not an accumulator of %s", m_function);
+
+            Extremes extremes = (Extremes) other;
+
+            if (Double.isNaN(extremes.m_first)) {
+                return;
+            }
+
+            if (Double.isNaN(m_first)) {
+                m_first = extremes.m_first;
+                m_min = extremes.m_min;
+                m_max = extremes.m_max;
+            }
+            else {
+                m_min = Math.min(m_min, extremes.m_min);
+                m_max = Math.max(m_max, extremes.m_max);
+            }
+
+            m_last = extremes.m_last;
         }
 
     }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+/**
+ * A {@link CalculationFunction} that can also be applied to whole columns of arguments at a time.
+ */
+public interface VectorCalculationFunction extends CalculationFunction {
+
+    /**
+     * Applies the function to each of {@code length} rows of arguments.
+     *
+     * @param args
+     *            the columns of arguments, (in the order of the calculation's arguments), that are
+     *            not to be modified
+     * @param length
+     *            the number of rows
+     * @param result
+     *            the column to write the results to
+     */
+    void apply(double[][] args, int length, double[] result);
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.newts.api.Results.Row;
+
+
+public class ColumnarResultsTest {
+
+    private static final Resource RESOURCE = new Resource("localhost");
+
+    @Test
+    public void testColumns() {
+        Results<Measurement> rows = rows(100);
+        ColumnarResults columns = columnar(rows);
+
+        assertEquals(100, columns.size());
+        assertEquals(Arrays.asList("a", "b", "c"), columns.getLabels());
+
+        assertEquals(300000L, columns.getTimestamp(0));
+        assertEquals(1.0d, columns.getValue(0, 0), 0.0d);
+        assertEquals(Collections.singletonMap("k", "v"), columns.getAttributes(0, 0));
+
+        // Measurements with empty attributes, and missing ones, (NaN, and without)
+        assertEquals(Collections.emptyMap(), columns.getAttributes(1, 0));
+        assertTrue(Double.isNaN(columns.getValue(2, 0)));
+        assertNull(columns.getAttributes(2, 0));
+
+        // The row view agrees with the rows the columns were built from, (but for those missing)
+        assertEquals(rows.getRows().size(), columns.getRows().size());
+
+        for (Row<Measurement> row : columns) {
+            Row<Measurement> expected = rowsOf(rows, row.getTimestamp());
+            assertEquals(expected.getElement("a"), row.getElement("a"));
+            assertEquals(expected.getElement("b"), row.getElement("b"));
+            assertTrue(Double.isNaN(row.getElement("c").getValue()));
+        }
+    }
+
+    @Test
+    public void testView() {
+        ColumnarResults columns = columnar(rows(2));
+        ColumnarResults view = columns.view();
+
+        Row<Measurement> row = columns.iterator().next();
+        row.addElement(new Measurement(row.getTimestamp(), RESOURCE, "d", 1.0d, null));
+
+        // The rows of each are their own
+        Row<Measurement> other = view.iterator().next();
+        assertNotSame(row, other);
+        assertNull(other.getElement("d"));
+        assertEquals(row.getElement("a"), other.getElement("a"));
+        assertEquals(2, view.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfOrder() {
+        ColumnarResults.Builder builder = new ColumnarResults.Builder(RESOURCE, Arrays.asList("a"));
+        builder.row(new Row<Measurement>(Timestamp.fromEpochSeconds(600), RESOURCE));
+        builder.row(new Row<Measurement>(Timestamp.fromEpochSeconds(300), RESOURCE));
+    }
+
+    @Test
+    public void testAddRow() {
+        ColumnarResults columns = columnar(rows(2));
+        assertFalse(columns.isModified());
+
+        columns.addRow(new Row<Measurement>(Timestamp.fromEpochSeconds(0), RESOURCE));
+        columns.addElement(new Measurement(Timestamp.fromEpochSeconds(900), RESOURCE, "a", 3.0d, null));
+
+        // The view is materialized, (and ordered), before the rows are added
+        assertTrue(columns.isModified());
+        assertEquals(4, columns.getRows().size());
+        assertEquals(Timestamp.fromEpochSeconds(0), columns.iterator().next().getTimestamp());
+        assertEquals(1.0d, rowsOf(columns, Timestamp.fromEpochSeconds(300)).getElement("a").getValue(), 0.0d);
+        assertEquals(3.0d, rowsOf(columns, Timestamp.fromEpochSeconds(900)).getElement("a").getValue(), 0.0d);
+
+        // The columns are unchanged
+        assertEquals(2, columns.size());
+        assertFalse(columns.view().isModified());
+    }
+
+    private static Row<Measurement> rowsOf(Results<Measurement> results, Timestamp timestamp) {
+        for (Row<Measurement> row : results) {
+            if (row.getTimestamp().equals(timestamp)) {
+                return row;
+            }
+        }
+        throw new AssertionError("no row at " + timestamp);
+    }
+
+    private static ColumnarResults columnar(Results<Measurement> rows) {
+        ColumnarResults.Builder builder = new ColumnarResults.Builder(RESOURCE, Arrays.asList("a", "b", "c"));
+
+        for (Row<Measurement> row : rows) {
+            builder.row(row);
+        }
+
+        return builder.build();
+    }
+
+    private static Results<Measurement> rows(int count) {
+        Results<Measurement> results = new Results<>();
+
+        for (int i = 1; i <= count; i++) {
+            Timestamp timestamp = Timestamp.fromEpochSeconds(i * 300);
+            Map<String, String> attributes = (i == 1) ? Collections.singletonMap("k", "v") : Collections.<String, String> emptyMap();
+
+            results.addElement(new Measurement(timestamp, RESOURCE, "a", i, attributes));
+            results.addElement(new Measurement(timestamp, RESOURCE, "b", i * 2, Collections.<String, String> emptyMap()));
+        }
+
+        return results;
+    }
+
+}
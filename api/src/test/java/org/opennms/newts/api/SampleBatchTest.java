@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLong;
+
+
+public class SampleBatchTest {
+
+    private static final Context CONTEXT = new Context("batch");
+
+    @Test
+    public void testBuilder() {
+        Resource r1 = new Resource("r1");
+        Resource r2 = new Resource("r2");
+
+        SampleBatch batch = new SampleBatch.Builder(2)
+                .add(CONTEXT, r1, "in", 1000, 1.5d)
+                .add(CONTEXT, r1, "out", MetricType.COUNTER, 1000, -1L)
+                .withAttributes(ImmutableMap.of("units", "bytes"))
+                .add(CONTEXT, r2, "in", 2000, Double.NaN)
+                .build();
+
+        assertEquals(3, batch.size());
+        assertEquals(Collections.singletonList(CONTEXT), batch.getContexts());
+        assertEquals(Lists.newArrayList(r1, r2), batch.getResources());
+        assertEquals(Lists.newArrayList("in", "out"), batch.getNames());
+
+        assertEquals(0, batch.getNameId(0));
+        assertEquals(1, batch.getNameId(1));
+        assertEquals(0, batch.getNameId(2));
+        assertEquals(1, batch.getResourceId(2));
+
+        assertEquals(MetricType.GAUGE, batch.getType(0));
+        assertEquals(Double.doubleToRawLongBits(1.5d), batch.getRawValue(0));
+        assertEquals(1.5d, batch.getValue(0).doubleValue(), 0.0d);
+
+        // Counters are unsigned
+        assertEquals(MetricType.COUNTER, batch.getType(1));
+        assertEquals(-1L, batch.getRawValue(1));
+        assertEquals(new Counter(-1L), batch.getValue(1));
+        assertEquals("bytes", batch.getAttributes(1).get("units"));
+
+        assertTrue(batch.getValue(2).isNan());
+        assertEquals(2000, batch.getTimestamp(2));
+        assertNull(batch.getAttributes(0));
+        assertNull(batch.getAttributes(2));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, String> attrs = ImmutableMap.of("a", "1");
+        List<Sample> samples = Lists.newArrayList();
+
+        for (int i = 0; i < 100; i++) {
+            Resource resource = new Resource("r" + (i % 7));
+            Timestamp ts = Timestamp.fromEpochSeconds(900000000 + i);
+            samples.add(new Sample(ts, CONTEXT, resource, "g", MetricType.GAUGE, new Gauge(i * 0.5d)));
+            samples.add(new Sample(ts, CONTEXT, resource, "d", MetricType.DERIVE, new Derive(UnsignedLong.fromLongBits(i)), (i % 2 == 0) ? attrs : null));
+        }
+
+        SampleBatch batch = SampleBatch.of(samples);
+
+        assertEquals(200, batch.size());
+        assertEquals(7, batch.getResources().size());
+        assertEquals(2, batch.getNames().size());
+
+        List<Sample> converted = batch.toSamples();
+
+        assertEquals(samples.size(), converted.size());
+
+        for (int i = 0; i < samples.size(); i++) {
+            Sample expected = samples.get(i), actual = converted.get(i);
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getContext(), actual.getContext());
+            assertEquals(expected.getResource(), actual.getResource());
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getValue(), actual.getValue());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        SampleBatch.Builder builder = new SampleBatch.Builder(0);
+
+        for (int i = 0; i < 1000; i++) {
+            builder.add(CONTEXT, new Resource("r"), "m", i, i);
+        }
+
+        SampleBatch batch = builder.build();
+
+        assertEquals(1000, batch.size());
+        assertEquals(999, batch.getTimestamp(999));
+        assertEquals(999.0d, batch.getValue(999).doubleValue(), 0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGaugeAsLong() {
+        new SampleBatch.Builder().add(CONTEXT, new Resource("r"), "m", MetricType.GAUGE, 0, 1L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderReuse() {
+        SampleBatch.Builder builder = new SampleBatch.Builder();
+        builder.build();
+        builder.add(CONTEXT, new Resource("r"), "m", 0, 1.0d);
+    }
+
+}
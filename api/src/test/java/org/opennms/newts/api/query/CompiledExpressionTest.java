@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.junit.Test;
+
+
+public class CompiledExpressionTest {
+
+    private static final List<String> LABELS = Arrays.asList("in", "out", "x_1");
+
+    @Test
+    public void testAgreesWithJexl() {
+        String[] expressions = {
+            "in + out",
+            "in - out * 2",
+            "(in - out) * 2",
+            "-in + -(out)",
+            "in / out",
+            "in / (out - out)",
+            "in % 7",
+            "in * 8 / 1024.0",
+            "x_1 * 1.5e2 - in",
+            "in > out ? in : out",
+            "in >= out && out > 10 ? 1.0 : in < 10 || out <= 10 ? 2.0 : 3.0",
+            "in == out ? x_1 : in != out ? in : out",
+        };
+        Random random = new Random(13);
+        JexlEngine jexl = new JexlEngine();
+
+        for (String expression : expressions) {
+            CompiledExpression compiled = CompiledExpression.compile(expression, LABELS);
+
+            for (int i = 0; i < 100; i++) {
+                JexlContext context = new MapContext();
+                double[] args = new double[compiled.getArguments().length];
+
+                for (String label : LABELS) {
+                    double value = random.nextInt(20);
+                    context.set(label, value);
+
+                    int slot = Arrays.asList(compiled.getArguments()).indexOf(label);
+                    if (slot >= 0) {
+                        args[slot] = value;
+                    }
+                }
+
+                double expected = ((Number) jexl.createExpression(expression).evaluate(context)).doubleValue();
+                assertEquals(expression, expected, compiled.apply(args), 1e-12d);
+            }
+        }
+    }
+
+    @Test
+    public void testColumns() {
+        CompiledExpression compiled = CompiledExpression.compile("out > 0 ? in / out : -1", LABELS);
+
+        // In the order first referred to
+        assertArrayEquals(new String[] { "out", "in" }, compiled.getArguments());
+
+        double[][] args = { { 2, 0, 4, Double.NaN }, { 1, 5, 2, 3 } };
+        double[] result = new double[4];
+
+        compiled.apply(args, 3, result);
+
+        assertArrayEquals(new double[] { 0.5d, -1.0d, 0.5d, 0.0d }, result, 0.0d);
+
+        // The rows agree with their evaluation alone
+        for (int i = 0; i < 3; i++) {
+            assertEquals(result[i], compiled.apply(args[0][i], args[1][i]), 0.0d);
+        }
+    }
+
+    @Test
+    public void testLabels() {
+        // The longest label that matches, (though containing an operator)
+        List<String> labels = Arrays.asList("m", "avg", "m-avg", "m-avg-max");
+
+        assertArrayEquals(new String[] { "m-avg" }, CompiledExpression.compile("m-avg * 2", labels).getArguments());
+        assertArrayEquals(new String[] { "m-avg-max", "m" }, CompiledExpression.compile("m-avg-max-m", labels).getArguments());
+        assertArrayEquals(new String[] { "m", "avg" }, CompiledExpression.compile("m - avg", labels).getArguments());
+
+        assertEquals(6.0d, CompiledExpression.compile("m-avg * 2", labels).apply(3.0d), 0.0d);
+    }
+
+    @Test
+    public void testConstants() {
+        CompiledExpression compiled = CompiledExpression.compile("2 * (3 + 4) mod 5 + (true ? 1 : 0)", LABELS);
+
+        assertEquals(0, compiled.getArguments().length);
+        assertEquals(5.0d, compiled.apply(), 0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLabel() {
+        CompiledExpression.compile("in + nope", LABELS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformed() {
+        CompiledExpression.compile("in + (out", LABELS);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class QuantileSketchTest {
+
+    private static final double ACCURACY = QuantileSketch.DEFAULT_RELATIVE_ACCURACY;
+
+    @Test
+    public void testAccuracy() {
+        Random random = new Random(42);
+        double[] values = new double[10000];
+        QuantileSketch sketch = new QuantileSketch();
+
+        // Spanning several orders of magnitude, and of either sign
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 3) * (i % 5 == 0 ? -1 : 1);
+            sketch.add(values[i]);
+        }
+
+        assertQuantiles(values, sketch);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(7);
+        double[] values = new double[3000];
+        QuantileSketch[] sketches = { new QuantileSketch(), new QuantileSketch(), new QuantileSketch() };
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * (i + 1);
+            sketches[i % 3].add(values[i]);
+        }
+
+        QuantileSketch merged = new QuantileSketch();
+
+        for (QuantileSketch sketch : sketches) {
+            merged.merge(sketch);
+        }
+
+        assertEquals(values.length, merged.getCount());
+        assertQuantiles(values, merged);
+    }
+
+    @Test
+    public void testExtremes() {
+        QuantileSketch sketch = new QuantileSketch();
+
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5d)));
+
+        for (double value : new double[] { 0.0d, 1e-300d, 1.0d, 100.0d, 1e6d, Double.NaN }) {
+            sketch.add(value);
+        }
+
+        // NaN is ignored, and the extremes are exact
+        assertEquals(5, sketch.getCount());
+        assertEquals(0.0d, sketch.getQuantile(0.0d), 0.0d);
+        assertEquals(1e6d, sketch.getQuantile(1.0d), 0.0d);
+        assertEquals(1.0d, sketch.getQuantile(0.5d), ACCURACY);
+
+        // Values of least magnitude are collapsed into the lowest of the buckets kept
+        double collapsed = sketch.getQuantile(0.25d);
+        assertTrue(collapsed > 1e-300d && collapsed < 1e-6d);
+    }
+
+    @Test
+    public void testPercentileFunction() {
+        PercentileFunction p95 = new PercentileFunction(95);
+        Accumulator first = p95.newAccumulator();
+        Accumulator second = p95.newAccumulator();
+
+        for (int i = 1; i <= 100; i++) {
+            (i <= 50 ? first : second).accept(i);
+        }
+
+        first.merge(second);
+
+        assertEquals(95.0d, first.result(), 95.0d * ACCURACY);
+        assertEquals(p95, new PercentileFunction(95.0d));
+        assertEquals("P95", p95.toString());
+        assertEquals("P99.9", new PercentileFunction(99.9d).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeOtherPercentile() {
+        new PercentileFunction(95).newAccumulator().merge(new PercentileFunction(99).newAccumulator());
+    }
+
+    private static void assertQuantiles(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double q : new double[] { 0.0d, 0.01d, 0.25d, 0.5d, 0.75d, 0.95d, 0.99d, 1.0d }) {
+            double expected = sorted[(int) (q * (sorted.length - 1))];
+            assertEquals("q=" + q, expected, sketch.getQuantile(q), Math.abs(expected) * ACCURACY);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+
+public class SeriesAggregationTest {
+
+    @Test
+    public void testParse() {
+        assertSame(SeriesAggregation.SUM, SeriesAggregation.parse("sum"));
+        assertSame(SeriesAggregation.AVERAGE, SeriesAggregation.parse("avg"));
+        assertSame(SeriesAggregation.AVERAGE, SeriesAggregation.parse("AVERAGE"));
+        assertSame(SeriesAggregation.MIN, SeriesAggregation.parse("min"));
+        assertSame(SeriesAggregation.MAX, SeriesAggregation.parse("max"));
+        assertEquals(SeriesAggregation.percentile(95), SeriesAggregation.parse("p95"));
+        assertEquals(SeriesAggregation.percentile(99.9), SeriesAggregation.parse("p99.9"));
+
+        assertEquals("p95", SeriesAggregation.percentile(95).toString());
+        assertEquals("p99.9", SeriesAggregation.percentile(99.9).toString());
+        assertEquals("sum", SeriesAggregation.SUM.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknown() {
+        SeriesAggregation.parse("median");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseOutOfRange() {
+        SeriesAggregation.parse("p101");
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.api.query;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.AVERAGE;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.COUNT;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.FIRST;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.LAST;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.MAX;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.MIN;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.RANGE;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.STDDEV;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.SUM;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Test;
+
+
+public class StandardAggregationFunctionsTest {
+
+    private static final double NAN = Double.NaN;
+
+    @Test
+    public void testFunctions() {
+        double[] values = { NAN, 2, 4, NAN, 4, 4, 5, 5, 7, 9, NAN };
+
+        assertEquals(5.0d, result(AVERAGE, values), 0.0d);
+        assertEquals(2.0d, result(MIN, values), 0.0d);
+        assertEquals(9.0d, result(MAX, values), 0.0d);
+        assertEquals(40.0d, result(SUM, values), 0.0d);
+        assertEquals(8.0d, result(COUNT, values), 0.0d);
+        assertEquals(2.0d, result(FIRST, values), 0.0d);
+        assertEquals(9.0d, result(LAST, values), 0.0d);
+        assertEquals(2.0d, result(STDDEV, values), 1e-12d);
+        assertEquals(7.0d, result(RANGE, values), 0.0d);
+    }
+
+    @Test
+    public void testNegative() {
+        // The greatest of negative values is negative
+        assertEquals(-1.0d, result(MAX, -3, -1, -2), 0.0d);
+        assertEquals(-3.0d, result(MIN, -3, -1, -2), 0.0d);
+    }
+
+    @Test
+    public void testEmpty() {
+        for (StandardAggregationFunctions function : StandardAggregationFunctions.values()) {
+            double expected = function == COUNT ? 0.0d : NAN;
+            assertEquals(function.name(), expected, result(function, NAN, NAN), 0.0d);
+            assertEquals(function.name(), expected, function.apply(Arrays.<Double> asList()), 0.0d);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        Accumulator accumulator = SUM.newAccumulator();
+
+        accumulator.accept(1);
+        accumulator.reset();
+        accumulator.accept(2);
+
+        assertEquals(2.0d, accumulator.result(), 0.0d);
+    }
+
+    @Test
+    public void testMerge() {
+        double[] values = { 1, 3, NAN, 8, -2, 11, 4 };
+
+        for (StandardAggregationFunctions function : StandardAggregationFunctions.values()) {
+            for (int split = 0; split <= values.length; split++) {
+                Accumulator head = accumulate(function, Arrays.copyOfRange(values, 0, split));
+                head.merge(accumulate(function, Arrays.copyOfRange(values, split, values.length)));
+
+                assertEquals(function.name(), result(function, values), head.result(), 1e-12d);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeOtherFunction() {
+        SUM.newAccumulator().merge(STDDEV.newAccumulator());
+    }
+
+    @Test
+    public void testAdapted() {
+        // A function that does not accumulate
+        AggregationFunction median = new AggregationFunction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Double apply(Collection<Double> input) {
+                Double[] sorted = input.toArray(new Double[0]);
+                Arrays.sort(sorted);
+                return sorted[sorted.length / 2];
+            }
+        };
+
+        Accumulator accumulator = Accumulators.newAccumulator(median);
+
+        for (double value : new double[] { 5, 1, 3 }) {
+            accumulator.accept(value);
+        }
+
+        assertEquals(3.0d, accumulator.result(), 0.0d);
+
+        accumulator.reset();
+        accumulator.accept(7);
+        assertEquals(7.0d, accumulator.result(), 0.0d);
+    }
+
+    private static double result(StandardAggregationFunctions function, double... values) {
+        return accumulate(function, values).result();
+    }
+
+    private static Accumulator accumulate(StandardAggregationFunctions function, double... values) {
+        Accumulator accumulator = function.newAccumulator();
+        for (double value : values) {
+            accumulator.accept(value);
+        }
+        return accumulator;
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+/**
+ * Caps the number of operations in flight using an additive-increase/multiplicative-decrease
+ * (AIMD) limit. The limit grows by one each time an operation completes in a timely fashion while
+ * the limit is being put to use, and is reduced by {@link #BACKOFF_RATIO} when an operation is
+ * dropped (fails with an overload/timeout error, or exceeds the latency threshold); Operations
+ * started before the limit was last reduced do not reduce it again, so that it is reduced at most
+ * once per latency window, (and a burst of timeouts reduces it once, rather than once per timeout).
+ * <p>
+ * Permits are acquired without blocking; Callers that find the limit reached are queued, and are
+ * handed permits, in the order queued, as operations complete. Those that have waited longer than
+ * their maximum wait are failed with a {@link TimeoutException} instead, (as of the next acquire
+ * or release).
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    private final int m_minLimit;
+    private final int m_maxLimit;
+    private final long m_latencyThresholdNanos;
+    private final Ticker m_ticker;
+
+    // Guarded by this
+    private final Queue<Waiter> m_waiters = new ArrayDeque<>();
+    private double m_limit;
+    private int m_inFlight = 0;
+    private long m_lastBackoff;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, TimeUnit unit) {
+        this(initialLimit, minLimit, maxLimit, latencyThreshold, unit, Ticker.systemTicker());
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold, TimeUnit unit, Ticker ticker) {
+        checkArgument(minLimit > 0, "minLimit must be greater than zero");
+        checkArgument(maxLimit >= minLimit, "maxLimit must be greater than or equal to minLimit");
+        checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "initialLimit must be between minLimit and maxLimit");
+        checkArgument(latencyThreshold > 0, "latencyThreshold must be greater than zero");
+
+        m_minLimit = minLimit;
+        m_maxLimit = maxLimit;
+        m_latencyThresholdNanos = unit.toNanos(latencyThreshold);
+        m_ticker = checkNotNull(ticker, "ticker argument");
+        m_limit = initialLimit;
+        m_lastBackoff = ticker.read();
+    }
+
+    /**
+     * Acquire a permit, without blocking.
+     *
+     * @param maxWait
+     *            the maximum time to wait for a permit, (if zero, a permit is acquired only if one
+     *            is available immediately)
+     * @return a future that completes once a permit is acquired, (immediately, if one is
+     *         available), or fails with a {@link TimeoutException} if none was within
+     *         {@code maxWait}; Cancelling it before it completes gives up the place in the queue
+     */
+    public ListenableFuture<Void> acquire(long maxWait, TimeUnit unit) {
+        SettableFuture<Void> permit = SettableFuture.create();
+        List<Waiter> ready = Lists.newArrayList();
+        List<Waiter> expired = Lists.newArrayList();
+
+        synchronized (this) {
+            long now = m_ticker.read();
+
+            dispatch(now, ready, expired);
+
+            if (m_waiters.isEmpty() && m_inFlight < getLimit()) {
+                m_inFlight += 1;
+                permit.set(null);
+            }
+            else if (maxWait <= 0) {
+                permit.setException(new TimeoutException());
+            }
+            else {
+                m_waiters.add(new Waiter(permit, now + unit.toNanos(maxWait)));
+            }
+        }
+
+        complete(ready, expired);
+
+        return permit;
+    }
+
+    /**
+     * Release a permit, adjusting the limit according to the outcome of the operation.
+     *
+     * @param latencyNanos
+     *            time the operation spent in flight
+     * @param dropped
+     *            true if the operation failed as a result of overload
+     */
+    public void release(long latencyNanos, boolean dropped) {
+        List<Waiter> ready = Lists.newArrayList();
+        List<Waiter> expired = Lists.newArrayList();
+
+        synchronized (this) {
+            long now = m_ticker.read();
+
+            if (dropped || latencyNanos > m_latencyThresholdNanos) {
+                // Operations started before the last decrease were sent under a higher limit
+                if (now - latencyNanos - m_lastBackoff >= 0) {
+                    m_limit = Math.max(m_minLimit, m_limit * BACKOFF_RATIO);
+                    m_lastBackoff = now;
+                }
+            }
+            else if (m_inFlight * 2 >= getLimit()) {
+                // Only probe for more capacity when the current limit is actually being used
+                m_limit = Math.min(m_maxLimit, m_limit + 1);
+            }
+
+            m_inFlight -= 1;
+            dispatch(now, ready, expired);
+        }
+
+        complete(ready, expired);
+    }
+
+    /** @return the current limit */
+    public synchronized int getLimit() {
+        return (int) m_limit;
+    }
+
+    /** @return the number of operations in flight */
+    public synchronized int getInFlight() {
+        return m_inFlight;
+    }
+
+    /** @return the number of callers waiting for a permit */
+    public synchronized int getQueueDepth() {
+        return m_waiters.size();
+    }
+
+    /**
+     * Removes waiters from the queue, (guarded by this); Those that have given up or waited too
+     * long, and then as many as there are permits for.
+     */
+    private void dispatch(long now, List<Waiter> ready, List<Waiter> expired) {
+        while (!m_waiters.isEmpty()) {
+            Waiter waiter = m_waiters.peek();
+
+            if (waiter.permit.isDone()) {
+                m_waiters.remove();
+            }
+            else if (now - waiter.deadline > 0) {
+                m_waiters.remove();
+                expired.add(waiter);
+            }
+            else if (m_inFlight < getLimit()) {
+                m_waiters.remove();
+                m_inFlight += 1;
+                ready.add(waiter);
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Completes dispatched waiters, (outside of the lock, since listeners run as they complete),
+     * returning the permits of any cancelled in the meantime.
+     */
+    private void complete(List<Waiter> ready, List<Waiter> expired) {
+        while (true) {
+            int unused = 0;
+
+            for (Waiter waiter : expired) {
+                waiter.permit.setException(new TimeoutException());
+            }
+            for (Waiter waiter : ready) {
+                if (!waiter.permit.set(null)) {
+                    unused += 1;
+                }
+            }
+
+            expired.clear();
+            ready.clear();
+
+            if (unused == 0) {
+                return;
+            }
+
+            synchronized (this) {
+                m_inFlight -= unused;
+                dispatch(m_ticker.read(), ready, expired);
+            }
+        }
+    }
+
+    private static class Waiter {
+
+        private final SettableFuture<Void> permit;
+        private final long deadline;
+
+        private Waiter(SettableFuture<Void> permit, long deadline) {
+            this.permit = permit;
+            this.deadline = deadline;
+        }
+
+    }
+
+}
@@ -20,6 +20,10 @@ public class CassandraException extends RuntimeException {
 
     private static final long serialVersionUID = 580764518584168297L;
 
+    public CassandraException(String message) {
+        super(message);
+    }
+
     public CassandraException(Throwable cause) {
         super(cause);
     }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+/**
+ * Thrown (or used to fail a future) when a statement could not be executed because the number of
+ * statements in flight had reached the current concurrency limit.
+ */
+public class ConcurrencyLimitExceededException extends CassandraException {
+
+    private static final long serialVersionUID = -2416096233491318752L;
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+
+}
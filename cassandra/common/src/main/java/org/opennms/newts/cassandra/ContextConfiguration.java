@@ -13,13 +13,20 @@ public class ContextConfiguration {
     private final Duration m_resourceShard;
     private final ConsistencyLevel m_readConsistency;
     private final ConsistencyLevel m_writeConsistency;
+    private final StorageEngine m_storageEngine;
 
     public ContextConfiguration(Context context, Duration resourceShard,
             ConsistencyLevel readConsistency, ConsistencyLevel writeConsistency) {
+        this(context, resourceShard, readConsistency, writeConsistency, StorageEngine.ROWS);
+    }
+
+    public ContextConfiguration(Context context, Duration resourceShard,
+            ConsistencyLevel readConsistency, ConsistencyLevel writeConsistency, StorageEngine storageEngine) {
         m_context = checkNotNull(context, "context argument");
         m_resourceShard = checkNotNull(resourceShard, "resourceShard argument");
         m_readConsistency = checkNotNull(readConsistency, "readConsistency argument");
         m_writeConsistency = checkNotNull(writeConsistency, "writeConsistency argument");
+        m_storageEngine = checkNotNull(storageEngine, "storageEngine argument");
     }
 
     public Context getContext() { 
@@ -37,4 +44,8 @@ public class ContextConfiguration {
     public ConsistencyLevel getWriteConsistency() {
         return m_writeConsistency;
     }
+
+    public StorageEngine getStorageEngine() {
+        return m_storageEngine;
+    }
 }
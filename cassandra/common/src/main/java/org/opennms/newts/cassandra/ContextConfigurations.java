@@ -17,6 +17,8 @@ public class ContextConfigurations {
 
     private static final ConsistencyLevel DEFAULT_WRITE_CONSISTENCY = ConsistencyLevel.ANY;
 
+    private static final StorageEngine DEFAULT_STORAGE_ENGINE = StorageEngine.ROWS;
+
     private final Map<Context, ContextConfiguration> m_contexts = Maps.newHashMap();
 
     public ContextConfigurations() { }
@@ -39,6 +41,13 @@ public class ContextConfigurations {
         return this;
     }
 
+    public ContextConfigurations addContextConfig(Context context, Duration resourceShard,
+            ConsistencyLevel readConsistencyLevel, ConsistencyLevel writeConsistencyLevel, StorageEngine storageEngine) {
+        m_contexts.put(context, new ContextConfiguration(context, resourceShard,
+                readConsistencyLevel, writeConsistencyLevel, storageEngine));
+        return this;
+    }
+
     public Duration getResourceShard(Context context) {
         ContextConfiguration configConfig = m_contexts.get(context);
         if (configConfig != null) {
@@ -65,4 +74,28 @@ public class ContextConfigurations {
             return DEFAULT_WRITE_CONSISTENCY;
         }
     }
+
+    public StorageEngine getStorageEngine(Context context) {
+        ContextConfiguration configConfig = m_contexts.get(context);
+        if (configConfig != null) {
+            return configConfig.getStorageEngine();
+        } else {
+            return DEFAULT_STORAGE_ENGINE;
+        }
+    }
+
+    /**
+     * @return true if any of the configured contexts use {@code storageEngine}
+     */
+    public boolean isStorageEngineInUse(StorageEngine storageEngine) {
+        if (storageEngine == DEFAULT_STORAGE_ENGINE) {
+            return true;
+        }
+        for (ContextConfiguration contextConfig : m_contexts.values()) {
+            if (contextConfig.getStorageEngine() == storageEngine) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyConnectionException;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * A {@link CassandraSession} that bounds the number of statements in flight using an
+ * {@link AdaptiveConcurrencyLimiter}. Once the limit is reached, statements are queued, and
+ * executed (in the order queued) as those in flight complete; Statements queued for longer than
+ * the configured maximum wait are rejected with a {@link ConcurrencyLimitExceededException}
+ * (returned as a failed future from {@link #executeAsync(Statement)}).
+ * <p>
+ * {@link #executeAsync(Statement)} never blocks; Queued statements are executed by the thread
+ * completing the statement whose permit they are handed. {@link #execute(Statement)} blocks while
+ * its statement is queued, as it does while it executes.
+ * </p>
+ */
+public class LimitingCassandraSession implements CassandraSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LimitingCassandraSession.class);
+
+    private final CassandraSession m_delegate;
+    private final AdaptiveConcurrencyLimiter m_limiter;
+    private final long m_maxWaitNanos;
+
+    private final Timer m_latency;
+    private final Meter m_rejected;
+    private final Meter m_dropped;
+
+    @Inject
+    public LimitingCassandraSession(CassandraSessionImpl delegate, @Named("cassandra.limiter.initial-limit") int initialLimit,
+            @Named("cassandra.limiter.min-limit") int minLimit, @Named("cassandra.limiter.max-limit") int maxLimit,
+            @Named("cassandra.limiter.latency-threshold") long latencyThresholdMillis, @Named("cassandra.limiter.max-wait") long maxWaitMillis,
+            MetricRegistry registry) {
+        this(delegate, new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyThresholdMillis, TimeUnit.MILLISECONDS),
+                maxWaitMillis, TimeUnit.MILLISECONDS, registry);
+    }
+
+    public LimitingCassandraSession(CassandraSession delegate, final AdaptiveConcurrencyLimiter limiter, long maxWait, TimeUnit unit, MetricRegistry registry) {
+        m_delegate = checkNotNull(delegate, "delegate argument");
+        m_limiter = checkNotNull(limiter, "limiter argument");
+        checkArgument(maxWait >= 0, "maxWait must be non-negative");
+        checkNotNull(registry, "registry argument");
+
+        m_maxWaitNanos = unit.toNanos(maxWait);
+
+        m_latency = registry.timer(name("cassandra", "limiter", "latency"));
+        m_rejected = registry.meter(name("cassandra", "limiter", "rejected"));
+        m_dropped = registry.meter(name("cassandra", "limiter", "dropped"));
+
+        registry.register(name("cassandra", "limiter", "limit"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getLimit();
+            }
+        });
+        registry.register(name("cassandra", "limiter", "in-flight"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getInFlight();
+            }
+        });
+        registry.register(name("cassandra", "limiter", "queue-depth"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return limiter.getQueueDepth();
+            }
+        });
+    }
+
+    @Override
+    public PreparedStatement prepare(String statement) {
+        return m_delegate.prepare(statement);
+    }
+
+    @Override
+    public PreparedStatement prepare(RegularStatement statement) {
+        return m_delegate.prepare(statement);
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(final Statement statement) {
+        ListenableFuture<Void> permit = m_limiter.acquire(m_maxWaitNanos, TimeUnit.NANOSECONDS);
+
+        if (permit.isDone()) {
+            if (!isAcquired(permit)) {
+                return new RejectedResultSetFuture(rejected());
+            }
+            return executeAcquired(statement);
+        }
+
+        final QueuedResultSetFuture queued = new QueuedResultSetFuture(permit);
+
+        Futures.addCallback(permit, new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                ResultSetFuture future;
+
+                try {
+                    future = executeAcquired(statement);
+                }
+                catch (RuntimeException e) {
+                    queued.fail(e);
+                    return;
+                }
+
+                queued.forward(future);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Cancelled, (along with the queued statement), or timed out
+                if (t instanceof TimeoutException) {
+                    queued.fail(rejected());
+                }
+            }
+        });
+
+        return queued;
+    }
+
+    @Override
+    public ResultSet execute(Statement statement) {
+
+        if (!isAcquired(m_limiter.acquire(m_maxWaitNanos, TimeUnit.NANOSECONDS))) {
+            throw rejected();
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            ResultSet result = m_delegate.execute(statement);
+            release(start, null);
+            return result;
+        }
+        catch (RuntimeException e) {
+            release(start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ResultSet execute(String statement) {
+        return execute(new SimpleStatement(statement));
+    }
+
+    @Override
+    public Future<Void> shutdown() {
+        return m_delegate.shutdown();
+    }
+
+    /** Executes a statement for which a permit has been acquired. */
+    private ResultSetFuture executeAcquired(Statement statement) {
+        final long start = System.nanoTime();
+        ResultSetFuture future;
+
+        try {
+            future = m_delegate.executeAsync(statement);
+        }
+        catch (RuntimeException e) {
+            release(start, e);
+            throw e;
+        }
+
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+            @Override
+            public void onSuccess(ResultSet result) {
+                release(start, null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                release(start, t);
+            }
+        });
+
+        return future;
+    }
+
+    /** Waits for a permit, (if it is not already acquired or rejected). */
+    private static boolean isAcquired(ListenableFuture<Void> permit) {
+        try {
+            Uninterruptibles.getUninterruptibly(permit);
+            return true;
+        }
+        catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private void release(long start, Throwable failure) {
+        long latency = System.nanoTime() - start;
+        boolean dropped = failure != null && isOverloaded(failure);
+
+        if (dropped) {
+            m_dropped.mark();
+        }
+
+        m_latency.update(latency, TimeUnit.NANOSECONDS);
+        m_limiter.release(latency, dropped);
+    }
+
+    private ConcurrencyLimitExceededException rejected() {
+        m_rejected.mark();
+        LOG.debug("Rejecting statement; {} statements in flight (limit {})", m_limiter.getInFlight(), m_limiter.getLimit());
+        return new ConcurrencyLimitExceededException(String.format("Concurrency limit (%d) exceeded", m_limiter.getLimit()));
+    }
+
+    /** @return true if the failure indicates that the cluster (or client) is overloaded */
+    private static boolean isOverloaded(Throwable failure) {
+        Throwable t = (failure instanceof CassandraException && failure.getCause() != null) ? failure.getCause() : failure;
+
+        return t instanceof OverloadedException
+                || t instanceof OperationTimedOutException
+                || t instanceof ReadTimeoutException
+                || t instanceof WriteTimeoutException
+                || t instanceof BusyConnectionException
+                || t instanceof NoHostAvailableException;
+    }
+
+    /** A statement queued for a permit, and then the statement executed. */
+    private static class QueuedResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private final ListenableFuture<Void> m_permit;
+        private volatile ResultSetFuture m_future;
+
+        private QueuedResultSetFuture(ListenableFuture<Void> permit) {
+            m_permit = permit;
+        }
+
+        private void forward(final ResultSetFuture future) {
+            m_future = future;
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+                @Override
+                public void onSuccess(ResultSet result) {
+                    set(result);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    setException(t);
+                }
+            });
+
+            if (isCancelled()) {
+                future.cancel(false);
+            }
+        }
+
+        private void fail(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+
+            m_permit.cancel(false);
+
+            ResultSetFuture future = m_future;
+            if (future != null) {
+                future.cancel(mayInterruptIfRunning);
+            }
+
+            return true;
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return Uninterruptibles.getUninterruptibly(this);
+            }
+            catch (ExecutionException e) {
+                throw propagate(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+            try {
+                return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+            }
+            catch (ExecutionException e) {
+                throw propagate(e.getCause());
+            }
+        }
+
+        /** @return the failure of a statement, to be thrown as the driver's futures do */
+        private static RuntimeException propagate(Throwable cause) {
+            if (cause instanceof DriverException) {
+                return ((DriverException) cause).copy();
+            }
+            if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            }
+            return new CassandraException(cause);
+        }
+
+    }
+
+    private static class RejectedResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private final ConcurrencyLimitExceededException m_cause;
+
+        private RejectedResultSetFuture(ConcurrencyLimitExceededException cause) {
+            m_cause = cause;
+            setException(cause);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            throw m_cause;
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw m_cause;
+        }
+
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+/**
+ * The on-disk representation used to store the samples of a context.
+ */
+public enum StorageEngine {
+
+    /** One row per sample and metric (the {@code samples} table). */
+    ROWS,
+
+    /** Compressed chunks of samples, one or more per metric and time window (the {@code sample_chunks} table). */
+    CHUNKS;
+
+}
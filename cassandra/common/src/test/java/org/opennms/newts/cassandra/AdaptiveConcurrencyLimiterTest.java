@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(12);
+
+    private final FakeTicker m_ticker = new FakeTicker();
+
+    private AdaptiveConcurrencyLimiter newLimiter(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimiter(initial, min, max, 100, TimeUnit.MILLISECONDS, m_ticker);
+    }
+
+    @Test
+    public void testRejectsWhenLimitReached() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(2, 1, 2);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertTimedOut(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+
+        limiter.release(FAST, false);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAdditiveIncrease() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(4, 1, 5);
+
+        for (int i = 0; i < 4; i++) {
+            assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        }
+
+        limiter.release(FAST, false);
+        assertEquals(5, limiter.getLimit());
+
+        // Capped at the maximum
+        limiter.release(FAST, false);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void testNoIncreaseWhenUnderutilized() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(10, 1, 20);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.release(FAST, false);
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(100, 50, 200);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        m_ticker.advance(FAST);
+        limiter.release(FAST, true);
+        assertEquals(90, limiter.getLimit());
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        m_ticker.advance(SLOW);
+        limiter.release(SLOW, false);
+        assertEquals(81, limiter.getLimit());
+
+        // Floored at the minimum
+        for (int i = 0; i < 10; i++) {
+            assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+            m_ticker.advance(SLOW);
+            limiter.release(SLOW, false);
+        }
+        assertEquals(50, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testTimeoutBurst() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(100, 10, 200);
+
+        for (int i = 0; i < 100; i++) {
+            assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        }
+
+        // All time out together, but back off once
+        m_ticker.advance(TIMEOUT);
+        for (int i = 0; i < 100; i++) {
+            limiter.release(TIMEOUT, true);
+        }
+        assertEquals(90, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+
+        // Operations started since then back off again
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        m_ticker.advance(TIMEOUT);
+        limiter.release(TIMEOUT, true);
+        limiter.release(TIMEOUT, true);
+        assertEquals(81, limiter.getLimit());
+    }
+
+    @Test
+    public void testQueuedUntilRelease() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(1, 1, 1);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+
+        // Queued without blocking, and acquired in the order queued
+        ListenableFuture<Void> first = limiter.acquire(10, TimeUnit.SECONDS);
+        ListenableFuture<Void> second = limiter.acquire(10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        assertEquals(2, limiter.getQueueDepth());
+
+        limiter.release(FAST, false);
+
+        assertAcquired(first);
+        assertFalse(second.isDone());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(1, limiter.getQueueDepth());
+
+        limiter.release(FAST, false);
+
+        assertAcquired(second);
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testQueuedTimeout() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(1, 1, 1);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        ListenableFuture<Void> queued = limiter.acquire(1, TimeUnit.SECONDS);
+
+        m_ticker.advance(TimeUnit.SECONDS.toNanos(2));
+        limiter.release(TimeUnit.SECONDS.toNanos(2), false);
+
+        // Waited longer than its maximum, so not handed the permit released
+        assertTimedOut(queued);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    @Test
+    public void testQueuedCancelled() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(1, 1, 1);
+
+        assertAcquired(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        List<ListenableFuture<Void>> queued = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            queued.add(limiter.acquire(10, TimeUnit.SECONDS));
+        }
+
+        queued.get(0).cancel(false);
+        queued.get(1).cancel(false);
+        limiter.release(FAST, false);
+
+        assertAcquired(queued.get(2));
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueueDepth());
+    }
+
+    private static void assertAcquired(ListenableFuture<Void> permit) throws Exception {
+        assertTrue("permit not acquired", permit.isDone());
+        permit.get();
+    }
+
+    private static void assertTimedOut(ListenableFuture<Void> permit) throws Exception {
+        assertTrue("permit not rejected", permit.isDone());
+
+        try {
+            permit.get();
+            fail("permit acquired");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long m_nanos = 0;
+
+        @Override
+        public long read() {
+            return m_nanos;
+        }
+
+        private void advance(long nanos) {
+            m_nanos += nanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.AbstractFuture;
+
+
+public class LimitingCassandraSessionTest {
+
+    private final CassandraSession m_delegate = mock(CassandraSession.class);
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    @Test
+    public void testQueued() throws Exception {
+        PendingResultSetFuture first = new PendingResultSetFuture();
+        PendingResultSetFuture second = new PendingResultSetFuture();
+        when(m_delegate.executeAsync(any(Statement.class))).thenReturn(first, second);
+
+        LimitingCassandraSession session = newSession(10, TimeUnit.SECONDS);
+
+        ResultSetFuture running = session.executeAsync(new SimpleStatement("first"));
+        ResultSetFuture queued = session.executeAsync(new SimpleStatement("second"));
+
+        // Queued without blocking, and executed once the first completes
+        assertFalse(queued.isDone());
+        verify(m_delegate, times(1)).executeAsync(any(Statement.class));
+
+        ResultSet result = mock(ResultSet.class);
+        first.complete(result);
+        assertSame(result, running.get());
+        verify(m_delegate, times(2)).executeAsync(any(Statement.class));
+
+        second.complete(result);
+        assertSame(result, queued.getUninterruptibly());
+        assertEquals(0, m_registry.getGauges().get("cassandra.limiter.in-flight").getValue());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        when(m_delegate.executeAsync(any(Statement.class))).thenReturn(new PendingResultSetFuture());
+
+        LimitingCassandraSession session = newSession(0, TimeUnit.SECONDS);
+
+        session.executeAsync(new SimpleStatement("first"));
+        ResultSetFuture rejected = session.executeAsync(new SimpleStatement("second"));
+
+        assertTrue(rejected.isDone());
+        try {
+            rejected.getUninterruptibly();
+            fail("statement executed");
+        }
+        catch (ConcurrencyLimitExceededException e) {
+            assertEquals(1, m_registry.meter("cassandra.limiter.rejected").getCount());
+        }
+    }
+
+    private LimitingCassandraSession newSession(long maxWait, TimeUnit unit) {
+        return new LimitingCassandraSession(m_delegate, new AdaptiveConcurrencyLimiter(1, 1, 1, 1, TimeUnit.SECONDS), maxWait, unit, m_registry);
+    }
+
+    private static class PendingResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private void complete(ResultSet result) {
+            set(result);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -23,6 +23,7 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.unloggedBatch;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,7 @@ import javax.inject.Named;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
 import org.opennms.newts.api.search.Indexer;
 import org.opennms.newts.cassandra.CassandraSession;
 import org.opennms.newts.cassandra.ContextConfigurations;
@@ -113,6 +115,45 @@ public class CassandraIndexer implements Indexer {
             maybeAddMetricName(cacheQueue, generators, sample.getContext(), sample.getResource(), sample.getName());
         }
 
+        execute(generators, cacheQueue, ctx);
+    }
+
+    /**
+     * Indexes a batch of samples; Each distinct context, resource, and metric name is considered
+     * once, regardless of the number of samples.
+     */
+    public void update(SampleBatch batch) {
+
+        Timer.Context ctx = m_updateTimer.time();
+
+        Set<StatementGenerator> generators = Sets.newHashSet();
+        Map<Context, Map<Resource, ResourceMetadata>> cacheQueue = Maps.newHashMap();
+
+        // Metric names seen, by context and resource
+        int numResources = batch.getResources().size();
+        BitSet[] seen = new BitSet[batch.getContexts().size() * numResources];
+
+        for (int i = 0; i < batch.size(); i++) {
+            int key = batch.getContextId(i) * numResources + batch.getResourceId(i);
+            Context context = batch.getContext(i);
+            Resource resource = batch.getResource(i);
+
+            if (seen[key] == null) {
+                seen[key] = new BitSet();
+                maybeIndexResource(cacheQueue, generators, context, resource);
+                maybeIndexResourceAttributes(cacheQueue, generators, context, resource);
+            }
+
+            if (!seen[key].get(batch.getNameId(i))) {
+                seen[key].set(batch.getNameId(i));
+                maybeAddMetricName(cacheQueue, generators, context, resource, batch.getName(i));
+            }
+        }
+
+        execute(generators, cacheQueue, ctx);
+    }
+
+    private void execute(Set<StatementGenerator> generators, Map<Context, Map<Resource, ResourceMetadata>> cacheQueue, Timer.Context ctx) {
         try {
             if (!generators.isEmpty()) {
                 synchronized(statementsInFlight) {
@@ -23,13 +23,14 @@ import java.util.Collection;
 import javax.inject.Inject;
 
 import org.opennms.newts.api.Sample;
-import org.opennms.newts.api.SampleProcessor;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleBatchProcessor;
 import org.opennms.newts.cassandra.CassandraException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-public class CassandraIndexerSampleProcessor implements SampleProcessor {
+public class CassandraIndexerSampleProcessor implements SampleBatchProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(CassandraIndexerSampleProcessor.class);
 
@@ -46,4 +47,10 @@ public class CassandraIndexerSampleProcessor implements SampleProcessor {
         catch (CassandraException e) { LOG.error("failed to index samples", e); }
     }
 
+    @Override
+    public void submit(SampleBatch batch) {
+        try                          { m_indexer.update(batch);}
+        catch (CassandraException e) { LOG.error("failed to index samples", e); }
+    }
+
 }
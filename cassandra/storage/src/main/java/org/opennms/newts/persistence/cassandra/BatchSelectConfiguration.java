@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+
+/**
+ * Settings for the selection of the measurements of many resources at once.
+ * <p>
+ * At most {@code maxConcurrentResources} resources of each selection are queried at a time (each
+ * reading up to the select window of partitions concurrently), and their samples are aggregated
+ * and processed by a pool of {@code threads} threads, shared by all asynchronous selections, (and
+ * by those read from rollups or caches).
+ * </p>
+ */
+public class BatchSelectConfiguration {
+
+    public static final int DEFAULT_MAX_CONCURRENT_RESOURCES = 16;
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final int m_maxConcurrentResources;
+    private final int m_threads;
+
+    public BatchSelectConfiguration() {
+        this(DEFAULT_MAX_CONCURRENT_RESOURCES, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param maxConcurrentResources
+     *            the maximum number of resources of a selection queried at a time
+     * @param threads
+     *            the number of threads that aggregate and process measurements
+     */
+    public BatchSelectConfiguration(int maxConcurrentResources, int threads) {
+        checkArgument(maxConcurrentResources > 0, "maxConcurrentResources must be greater than zero");
+        checkArgument(threads > 0, "threads must be greater than zero");
+        m_maxConcurrentResources = maxConcurrentResources;
+        m_threads = threads;
+    }
+
+    public int getMaxConcurrentResources() {
+        return m_maxConcurrentResources;
+    }
+
+    public int getThreads() {
+        return m_threads;
+    }
+
+}
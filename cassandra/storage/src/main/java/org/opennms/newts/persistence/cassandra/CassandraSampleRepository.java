@@ -19,45 +19,69 @@ package org.opennms.newts.persistence.cassandra;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.querybuilder.Batch;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.querybuilder.Delete;
 import com.datastax.driver.core.querybuilder.Insert;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.opennms.newts.aggregate.IntervalGenerator;
 import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.aggregate.SeriesRanker;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
 import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
 import org.opennms.newts.api.SampleProcessorService;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.ValueType;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
 import org.opennms.newts.cassandra.CassandraSession;
 import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.cassandra.StorageEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
@@ -66,24 +90,38 @@ import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
 import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.unloggedBatch;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.getStep;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.lower;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.selectEach;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.upper;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.validate;
 
 
 public class CassandraSampleRepository implements SampleRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(CassandraSampleRepository.class);
 
-    // Used to calculate the duration when the duration is not specified
-    private static final int TARGET_NUMBER_OF_STEPS = 10;
     private static final int DELETION_INTERVAL = 360;
 
+    // Maximum number of inserts grouped into a single (per-partition) batch
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+    // Maximum number of partitions queried concurrently by a select, and rows fetched per page
+    public static final int DEFAULT_SELECT_WINDOW = 8;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     private final CassandraSession m_session;
     private final int m_ttl;
+    private final int m_maxBatchSize;
+    private final int m_selectWindow;
+    private final int m_fetchSize;
     private final SampleProcessorService m_processorService;
     private final PreparedStatement m_selectStatement;
     private final PreparedStatement m_deleteStatement;
+    private final PreparedStatement m_insertStatement;
+    private final PreparedStatement m_insertWithAttributesStatement;
 
     private final Timer m_sampleSelectTimer;
     private final Timer m_measurementSelectTimer;
@@ -93,13 +131,40 @@ public class CassandraSampleRepository implements SampleRepository {
 
     private final ContextConfigurations m_contextConfigurations;
 
+    // Only present if one or more contexts are stored as chunks
+    private final SampleChunkStore m_chunkStore;
+
+    // Only present if enabled
+    private final SamplePartitionIndex m_partitionIndex;
+    // Partitions before (and including) that of this time are not indexed
+    private final Optional<Timestamp> m_indexedSince;
+
+    // Only present if enabled
+    private final SampleRollupStore m_rollupStore;
+
+    // Aggregates and processes the measurements of asynchronous selections, (and completes
+    // asynchronous inserts), so that none of that is done on a driver I/O thread
+    private final int m_maxConcurrentResources;
+    private final ForkJoinPool m_aggregationPool;
+
+    public CassandraSampleRepository(CassandraSession session, int ttl, MetricRegistry registry, SampleProcessorService processorService, ContextConfigurations contextConfigurations) {
+        this(session, registry, processorService, contextConfigurations, new CassandraSampleRepositoryOptions.Builder().withTimeToLive(ttl).build());
+    }
+
+    /**
+     * @param options
+     *            the settings of the repository (see {@link CassandraSampleRepositoryOptions})
+     */
     @Inject
-    public CassandraSampleRepository(CassandraSession session, @Named("samples.cassandra.time-to-live") int ttl, MetricRegistry registry, SampleProcessorService processorService, ContextConfigurations contextConfigurations) {
+    public CassandraSampleRepository(CassandraSession session, MetricRegistry registry, SampleProcessorService processorService, ContextConfigurations contextConfigurations, CassandraSampleRepositoryOptions options) {
 
         m_session = checkNotNull(session, "session argument");
-        checkArgument(ttl >= 0, "Negative Cassandra column TTL");
+        checkNotNull(options, "options argument");
 
-        m_ttl = ttl;
+        m_ttl = options.getTimeToLive();
+        m_maxBatchSize = options.getMaxBatchSize();
+        m_selectWindow = options.getSelectWindow();
+        m_fetchSize = options.getFetchSize();
 
         checkNotNull(registry, "metric registry argument");
         m_processorService = processorService;
@@ -123,16 +188,46 @@ public class CassandraSampleRepository implements SampleRepository {
 
         m_deleteStatement = m_session.prepare(delete.toString());
 
+        // Inserting a column with a null value inserts a tombstone (a deletion marker), so samples
+        // that have not specified attributes use a statement that omits them altogether.
+        m_insertStatement = m_session.prepare(insertStatement(false).toString());
+        m_insertWithAttributesStatement = m_session.prepare(insertStatement(true).toString());
+
         m_sampleSelectTimer = registry.timer(metricName("sample-select-timer"));
         m_measurementSelectTimer = registry.timer(metricName("measurement-select-timer"));
         m_insertTimer = registry.timer(metricName("insert-timer"));
         m_samplesInserted = registry.meter(metricName("samples-inserted"));
         m_samplesSelected = registry.meter(metricName("samples-selected"));
+
+        if (m_contextConfigurations.isStorageEngineInUse(StorageEngine.CHUNKS)) {
+            m_chunkStore = new SampleChunkStore(m_session, m_ttl, m_contextConfigurations, options.getChunkConfiguration(), m_selectWindow, m_fetchSize, registry);
+        }
+        else {
+            m_chunkStore = null;
+        }
+
+        if (options.getPartitionIndexConfiguration().isEnabled()) {
+            m_partitionIndex = new SamplePartitionIndex(m_session, m_ttl, m_contextConfigurations, options.getPartitionIndexConfiguration(), registry);
+        }
+        else {
+            m_partitionIndex = null;
+        }
+        m_indexedSince = options.getPartitionIndexConfiguration().getIndexedSince();
+
+        if (options.getRollupConfiguration().isEnabled()) {
+            m_rollupStore = new SampleRollupStore(m_session, m_contextConfigurations, options.getRollupConfiguration(), m_selectWindow, m_fetchSize, registry);
+        }
+        else {
+            m_rollupStore = null;
+        }
+
+        m_maxConcurrentResources = options.getBatchSelectConfiguration().getMaxConcurrentResources();
+        // Worker threads are daemons, started only as needed
+        m_aggregationPool = new ForkJoinPool(options.getBatchSelectConfiguration().getThreads());
     }
 
     public Iterable<Results.Row<Sample>> select(Context context, Resource resource, Timestamp start, Timestamp end, ResultDescriptor descriptor, Duration step) {
-        return new DriverAdapter(cassandraSelect(context, resource, start.minus(step), end),
-                descriptor.getSourceNames());
+        return selectStoredRows(context, resource, start.minus(step), end, descriptor.getSourceNames());
     }
 
     @Override
@@ -145,38 +240,30 @@ public class CassandraSampleRepository implements SampleRepository {
 
         Timer.Context timer = m_measurementSelectTimer.time();
 
-        validateSelect(start, end);
+        validate(start, end);
 
-        Timestamp upper = end.isPresent() ? end.get() : Timestamp.now();
-        Timestamp lower = start.isPresent() ? start.get() : upper.minus(Duration.seconds(86400));
-        Duration step;
-        if (resolution.isPresent()) {
-            step = resolution.get();
-        } else {
-            // Determine the ideal step size, splitting the interval evenly into N slices
-            long stepMillis = upper.minus(lower).asMillis() / TARGET_NUMBER_OF_STEPS;
-
-            // But every step must be a multiple of the interval
-            long intervalMillis = descriptor.getInterval().asMillis();
-
-            // If the interval is greater than the target step, use the 2 * interval as the step
-            if (intervalMillis >= stepMillis) {
-                step = descriptor.getInterval().times(2);
-            } else {
-                // Otherwise, round stepMillkeyis up to the closest multiple of intervalMillis
-                long remainderMillis = stepMillis % intervalMillis;
-                if (remainderMillis != 0) {
-                    stepMillis = stepMillis + intervalMillis - remainderMillis;
-                }
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+        Duration step = getStep(lower, upper, descriptor, resolution);
 
-                step = Duration.millis(stepMillis);
+        // Aggregates read from rollups are combined (asynchronously) before processing
+        if (selectRollup(descriptor, lower, upper, step).isPresent()) {
+            callback.beforeProcess();
+            try {
+                return Uninterruptibles.getUninterruptibly(selectMeasurementsAsync(context, resource, lower, upper, descriptor, step));
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            finally {
+                callback.afterProcess();
+                timer.stop();
             }
         }
 
         LOG.debug("Querying database for resource {}, from {} to {}", resource, lower.minus(step), upper);
 
-        DriverAdapter driverAdapter = new DriverAdapter(cassandraSelect(context, resource, lower.minus(step), upper),
-                    descriptor.getSourceNames());
+        SampleRowIterator driverAdapter = selectStoredRows(context, resource, lower.minus(step), upper, descriptor.getSourceNames());
 
         Results<Measurement> results;
         callback.beforeProcess();
@@ -197,20 +284,180 @@ public class CassandraSampleRepository implements SampleRepository {
 
     }
 
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+
+        Timer.Context timer = m_measurementSelectTimer.time();
+
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+        Duration step = getStep(lower, upper, descriptor, resolution);
+
+        return stopOnCompletion(selectMeasurementsAsync(context, resource, lower, upper, descriptor, step), timer);
+    }
+
+    @Override
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(final Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, final ResultDescriptor descriptor, Optional<Duration> resolution) {
+        checkNotNull(resources, "resources argument");
+
+        validate(start, end);
+
+        final Timestamp upper = upper(end);
+        final Timestamp lower = lower(start, upper);
+        final Duration step = getStep(lower, upper, descriptor, resolution);
+
+        return selectEach(resources, m_maxConcurrentResources, new Function<Resource, ListenableFuture<Results<Measurement>>>() {
+
+            @Override
+            public ListenableFuture<Results<Measurement>> apply(Resource resource) {
+                return stopOnCompletion(selectMeasurementsAsync(context, resource, lower, upper, descriptor, step), m_measurementSelectTimer.time());
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count) {
+        checkNotNull(metric, "metric argument");
+        checkNotNull(aggregation, "aggregation argument");
+        checkArgument(count > 0, "count must be greater than zero");
+
+        return SeriesRanker.rankAsync(metric, aggregation, count, selectAsync(context, resources, start, end, descriptor, resolution));
+    }
+
+    /**
+     * Selects the aggregates of a query, and applies its calculations and exports.
+     */
+    private ListenableFuture<Results<Measurement>> selectMeasurementsAsync(Context context, final Resource resource, final Timestamp lower, final Timestamp upper, final ResultDescriptor descriptor, final Duration step) {
+        ListenableFuture<Results<Measurement>> aggregates = selectAggregatesAsync(context, resource, lower, upper, descriptor, step);
+
+        return Futures.transform(aggregates, new Function<Results<Measurement>, Results<Measurement>>() {
+
+            @Override
+            public Results<Measurement> apply(Results<Measurement> input) {
+                return new ResultProcessor(resource, lower, upper, descriptor, step).processAggregates(input.iterator());
+            }
+        }, m_aggregationPool);
+    }
+
+    /**
+     * Selects the aggregates of a query from a rollup, where possible, and from samples otherwise.
+     */
+    private ListenableFuture<Results<Measurement>> selectAggregatesAsync(Context context, Resource resource, Timestamp lower, Timestamp upper, ResultDescriptor descriptor, Duration step) {
+        Optional<SampleRollupStore.Selection> rollup = selectRollup(descriptor, lower, upper, step);
+
+        if (rollup.isPresent()) {
+            return selectWithRollup(context, resource, lower, upper, descriptor, step, rollup.get());
+        }
+
+        return selectSampleAggregatesAsync(context, resource, lower, upper, descriptor, step);
+    }
+
+    /**
+     * Selects the samples of a query, and aggregates them.
+     */
+    private ListenableFuture<Results<Measurement>> selectSampleAggregatesAsync(Context context, final Resource resource, final Timestamp lower, final Timestamp upper, final ResultDescriptor descriptor, final Duration step) {
+
+        LOG.debug("Querying database for resource {}, from {} to {}", resource, lower.minus(step), upper);
+
+        ListenableFuture<Results<Measurement>> future = Futures.transform(
+                selectStoredRowsAsync(context, resource, lower.minus(step), upper, descriptor.getSourceNames()),
+                new Function<SampleRowIterator, Results<Measurement>>() {
+
+                    @Override
+                    public Results<Measurement> apply(SampleRowIterator driverAdapter) {
+                        Results<Measurement> aggregates = new Results<>();
+                        Iterator<Row<Measurement>> rows = new ResultProcessor(resource, lower, upper, descriptor, step).aggregate(driverAdapter);
+
+                        while (rows.hasNext()) {
+                            aggregates.addRow(rows.next());
+                        }
+
+                        LOG.debug("{} results returned from database", driverAdapter.getResultCount());
+                        m_samplesSelected.mark(driverAdapter.getResultCount());
+
+                        return aggregates;
+                    }
+                }, m_aggregationPool);
+
+        return future;
+    }
+
+    private Optional<SampleRollupStore.Selection> selectRollup(ResultDescriptor descriptor, Timestamp lower, Timestamp upper, Duration step) {
+        if (m_rollupStore == null) {
+            return Optional.absent();
+        }
+        return m_rollupStore.choose(descriptor, lower, upper, step);
+    }
+
+    /**
+     * Selects the aggregates of a query from a rollup, where it holds them, and those of rows that
+     * precede or follow them from samples. The entire query is answered from samples if the rollup
+     * holds no data for it.
+     */
+    private ListenableFuture<Results<Measurement>> selectWithRollup(final Context context, final Resource resource, final Timestamp lower, final Timestamp upper, final ResultDescriptor descriptor, final Duration step, final SampleRollupStore.Selection rollup) {
+
+        LOG.debug("Querying rollup of {} for resource {}, from {} to {}", rollup.getRollup().getStep(), resource, rollup.getFirst(), rollup.getLast());
+
+        ListenableFuture<Optional<Results<Measurement>>> rolledUp = m_rollupStore.selectAsync(context, resource, descriptor, step, rollup);
+
+        return Futures.transform(rolledUp, new AsyncFunction<Optional<Results<Measurement>>, Results<Measurement>>() {
+
+            @Override
+            public ListenableFuture<Results<Measurement>> apply(Optional<Results<Measurement>> input) {
+                if (!input.isPresent()) {
+                    return selectSampleAggregatesAsync(context, resource, lower, upper, descriptor, step);
+                }
+
+                final Results<Measurement> middle = input.get();
+                Timestamp headEnd = middle.iterator().next().getTimestamp().minus(step);
+                Timestamp tailStart = rollup.getLast().plus(step);
+
+                ListenableFuture<Results<Measurement>> head = Futures.immediateFuture(new Results<Measurement>());
+                ListenableFuture<Results<Measurement>> tail = Futures.immediateFuture(new Results<Measurement>());
+
+                if (!headEnd.lt(lower.stepFloor(step))) {
+                    head = selectSampleAggregatesAsync(context, resource, lower, headEnd, descriptor, step);
+                }
+                if (!tailStart.gt(upper.stepCeiling(step))) {
+                    tail = selectSampleAggregatesAsync(context, resource, tailStart, upper, descriptor, step);
+                }
+
+                return Futures.transform(Futures.allAsList(head, tail), new Function<List<Results<Measurement>>, Results<Measurement>>() {
+
+                    @Override
+                    public Results<Measurement> apply(List<Results<Measurement>> input) {
+                        Results<Measurement> results = input.get(0);
+
+                        for (Row<Measurement> row : middle) {
+                            results.addRow(row);
+                        }
+                        for (Row<Measurement> row : input.get(1)) {
+                            results.addRow(row);
+                        }
+
+                        return results;
+                    }
+                });
+            }
+        }, m_aggregationPool);
+    }
+
     @Override
     public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
 
         Timer.Context timer = m_sampleSelectTimer.time();
 
-        validateSelect(start, end);
+        validate(start, end);
 
-        Timestamp upper = end.isPresent() ? end.get() : Timestamp.now();
-        Timestamp lower = start.isPresent() ? start.get() : upper.minus(Duration.seconds(86400));
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
 
         LOG.debug("Querying database for resource {}, from {} to {}", resource, lower, upper);
 
         Results<Sample> samples = new Results<>();
-        DriverAdapter driverAdapter = new DriverAdapter(cassandraSelect(context, resource, lower, upper));
+        SampleRowIterator driverAdapter = selectStoredRows(context, resource, lower, upper, Collections.<String> emptySet());
 
         for (Row<Sample> row : driverAdapter) {
             samples.addRow(row);
@@ -226,6 +473,40 @@ public class CassandraSampleRepository implements SampleRepository {
         }
     }
 
+    @Override
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+
+        Timer.Context timer = m_sampleSelectTimer.time();
+
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+
+        LOG.debug("Querying database for resource {}, from {} to {}", resource, lower, upper);
+
+        ListenableFuture<Results<Sample>> future = Futures.transform(
+                selectStoredRowsAsync(context, resource, lower, upper, Collections.<String> emptySet()),
+                new Function<SampleRowIterator, Results<Sample>>() {
+
+                    @Override
+                    public Results<Sample> apply(SampleRowIterator driverAdapter) {
+                        Results<Sample> samples = new Results<>();
+
+                        for (Row<Sample> row : driverAdapter) {
+                            samples.addRow(row);
+                        }
+
+                        LOG.debug("{} results returned from database", driverAdapter.getResultCount());
+                        m_samplesSelected.mark(driverAdapter.getResultCount());
+
+                        return samples;
+                    }
+                }, m_aggregationPool);
+
+        return stopOnCompletion(future, timer);
+    }
+
     @Override
     public void insert(Collection<Sample> samples) {
         insert(samples, false);
@@ -235,11 +516,153 @@ public class CassandraSampleRepository implements SampleRepository {
     public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
 
         Timer.Context timer = m_insertTimer.time();
+
+        try {
+            for (ResultSetFuture future : executeInserts(samples, calculateTimeToLive)) {
+                future.getUninterruptibly();
+            }
+
+            if (m_processorService != null) {
+                m_processorService.submit(samples);
+            }
+
+            m_samplesInserted.mark(samples.size());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Override
+    public void insert(SampleBatch batch) {
+        insert(batch, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Statements are bound directly from the batch's columns; {@link Sample}s are materialized only
+     * for samples of contexts using {@link StorageEngine#CHUNKS chunked} storage.
+     * </p>
+     */
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+
+        Timer.Context timer = m_insertTimer.time();
+
+        try {
+            for (ResultSetFuture future : executeInserts(batch, calculateTimeToLive)) {
+                future.getUninterruptibly();
+            }
+
+            if (m_processorService != null) {
+                m_processorService.submit(batch);
+            }
+
+            m_samplesInserted.mark(batch.size());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples) {
+        return insertAsync(samples, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The samples are submitted to the {@link SampleProcessorService} once the inserts have
+     * completed, (as they are by {@link #insert(Collection, boolean)}), from the pool that
+     * aggregates asynchronous selections rather than a driver I/O thread, since submission blocks
+     * while the service is saturated.
+     * </p>
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(final Collection<Sample> samples, boolean calculateTimeToLive) {
+
+        Timer.Context timer = m_insertTimer.time();
+
+        List<ResultSetFuture> futures;
+        try {
+            futures = executeInserts(samples, calculateTimeToLive);
+        }
+        catch (RuntimeException e) {
+            timer.stop();
+            return Futures.immediateFailedFuture(e);
+        }
+
+        ListenableFuture<Void> future = Futures.transform(Futures.allAsList(futures), new Function<List<ResultSet>, Void>() {
+
+            @Override
+            public Void apply(List<ResultSet> input) {
+                if (m_processorService != null) {
+                    m_processorService.submit(samples);
+                }
+                m_samplesInserted.mark(samples.size());
+                return null;
+            }
+        }, m_aggregationPool);
+
+        return stopOnCompletion(future, timer);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch) {
+        return insertAsync(batch, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Statements are bound directly from the batch's columns, (as they are by
+     * {@link #insert(SampleBatch, boolean)}), and the batch is submitted to the
+     * {@link SampleProcessorService} as by {@link #insertAsync(Collection, boolean)}.
+     * </p>
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(final SampleBatch batch, boolean calculateTimeToLive) {
+
+        Timer.Context timer = m_insertTimer.time();
+
+        List<ResultSetFuture> futures;
+        try {
+            futures = executeInserts(batch, calculateTimeToLive);
+        }
+        catch (RuntimeException e) {
+            timer.stop();
+            return Futures.immediateFailedFuture(e);
+        }
+
+        ListenableFuture<Void> future = Futures.transform(Futures.allAsList(futures), new Function<List<ResultSet>, Void>() {
+
+            @Override
+            public Void apply(List<ResultSet> input) {
+                if (m_processorService != null) {
+                    m_processorService.submit(batch);
+                }
+                m_samplesInserted.mark(batch.size());
+                return null;
+            }
+        }, m_aggregationPool);
+
+        return stopOnCompletion(future, timer);
+    }
+
+    private List<ResultSetFuture> executeInserts(Collection<Sample> samples, boolean calculateTimeToLive) {
+
         Timestamp now = Timestamp.now();
 
-        Batch batch = unloggedBatch();
+        // Group the inserts by partition key, so that each batch is confined to a single partition
+        Map<PartitionKey, List<Statement>> statementsByPartition = Maps.newHashMap();
+        List<Sample> chunked = Lists.newArrayList();
 
         for (Sample m : samples) {
+            if (isChunked(m.getContext())) {
+                chunked.add(m);
+                continue;
+            }
+
             int ttl = m_ttl;
             if (calculateTimeToLive) {
                 ttl -= (int) (now.asSeconds() - m.getTimestamp().asSeconds());
@@ -250,42 +673,201 @@ public class CassandraSampleRepository implements SampleRepository {
             }
 
             Duration resourceShard = m_contextConfigurations.getResourceShard(m.getContext());
+            PartitionKey key = new PartitionKey(m.getContext(), (int) m.getTimestamp().stepFloor(resourceShard).asSeconds(), m.getResource().getId());
 
-            Insert insert = insertInto(SchemaConstants.T_SAMPLES)
-                    .value(SchemaConstants.F_CONTEXT, m.getContext().getId())
-                    .value(SchemaConstants.F_PARTITION, m.getTimestamp().stepFloor(resourceShard).asSeconds())
-                    .value(SchemaConstants.F_RESOURCE, m.getResource().getId())
-                    .value(SchemaConstants.F_COLLECTED, m.getTimestamp().asMillis())
-                    .value(SchemaConstants.F_METRIC_NAME, m.getName())
-                    .value(SchemaConstants.F_VALUE, ValueType.decompose(m.getValue()));
-
-            // Inserting a column with a null value inserts a tombstone (a deletion marker); Skip the attributes
-            // for any sample that has not specified them.
-            if (m.getAttributes() != null) {
-                insert.value(SchemaConstants.F_ATTRIBUTES, m.getAttributes());
+            List<Statement> statements = statementsByPartition.get(key);
+            if (statements == null) {
+                statements = Lists.newArrayList();
+                statementsByPartition.put(key, statements);
             }
+            statements.add(bindInsert(key, m, ttl));
+        }
 
+        // Asynchronously execute the (size-capped) batches
+        List<ResultSetFuture> futures = Lists.newArrayList();
+        for (Map.Entry<PartitionKey, List<Statement>> entry : statementsByPartition.entrySet()) {
             // Use the context specific consistency level
-            insert.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(m.getContext()));
+            ConsistencyLevel consistency = m_contextConfigurations.getWriteConsistency(entry.getKey().getContext());
 
-            batch.add(insert.using(ttl(ttl)));
+            for (List<Statement> partition : Lists.partition(entry.getValue(), m_maxBatchSize)) {
+                futures.add(m_session.executeAsync(toStatement(partition).setConsistencyLevel(consistency)));
+            }
         }
 
-        try {
-            m_session.execute(batch);
+        if (m_partitionIndex != null) {
+            futures.addAll(m_partitionIndex.index(statementsByPartition.keySet()));
+        }
 
-            if (m_processorService != null) {
-                m_processorService.submit(samples);
+        if (!chunked.isEmpty()) {
+            futures.addAll(m_chunkStore.append(chunked, calculateTimeToLive));
+        }
+
+        return futures;
+    }
+
+    private List<ResultSetFuture> executeInserts(SampleBatch batch, boolean calculateTimeToLive) {
+
+        long nowSeconds = Timestamp.now().asSeconds();
+
+        Map<PartitionKey, List<Statement>> statementsByPartition = Maps.newHashMap();
+        List<Sample> chunked = Lists.newArrayList();
+
+        // Resource shards (in seconds), by context ID
+        long[] shards = new long[batch.getContexts().size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = m_contextConfigurations.getResourceShard(batch.getContexts().get(i)).asSeconds();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            Context context = batch.getContext(i);
+
+            if (isChunked(context)) {
+                chunked.add(batch.getSample(i));
+                continue;
             }
 
-            m_samplesInserted.mark(samples.size());
-        } finally {
-            timer.stop();
+            long seconds = batch.getTimestamp(i) / 1000;
+
+            int ttl = m_ttl;
+            if (calculateTimeToLive) {
+                ttl -= (int) (nowSeconds - seconds);
+                if (ttl <= 0) {
+                    LOG.debug("Skipping expired sample at index {} of {}", i, batch);
+                    continue;
+                }
+            }
+
+            long shard = shards[batch.getContextId(i)];
+            PartitionKey key = new PartitionKey(context, (int) ((seconds / shard) * shard), batch.getResource(i).getId());
+
+            List<Statement> statements = statementsByPartition.get(key);
+            if (statements == null) {
+                statements = Lists.newArrayList();
+                statementsByPartition.put(key, statements);
+            }
+            statements.add(bindInsert(key, batch, i, ttl));
+        }
+
+        List<ResultSetFuture> futures = Lists.newArrayList();
+        for (Map.Entry<PartitionKey, List<Statement>> entry : statementsByPartition.entrySet()) {
+            ConsistencyLevel consistency = m_contextConfigurations.getWriteConsistency(entry.getKey().getContext());
+
+            for (List<Statement> partition : Lists.partition(entry.getValue(), m_maxBatchSize)) {
+                futures.add(m_session.executeAsync(toStatement(partition).setConsistencyLevel(consistency)));
+            }
+        }
+
+        if (m_partitionIndex != null) {
+            futures.addAll(m_partitionIndex.index(statementsByPartition.keySet()));
+        }
+
+        if (!chunked.isEmpty()) {
+            futures.addAll(m_chunkStore.append(chunked, calculateTimeToLive));
         }
+
+        return futures;
+    }
+
+    private BoundStatement bindInsert(PartitionKey key, SampleBatch batch, int index, int ttl) {
+        BoundStatement bindStatement;
+        Map<String, String> attributes = batch.getAttributes(index);
+
+        if (attributes != null) {
+            bindStatement = m_insertWithAttributesStatement.bind();
+            bindStatement.setMap(SchemaConstants.F_ATTRIBUTES, attributes);
+        }
+        else {
+            bindStatement = m_insertStatement.bind();
+        }
+
+        bindStatement.setString(SchemaConstants.F_CONTEXT, key.getContext().getId());
+        bindStatement.setInt(SchemaConstants.F_PARTITION, key.getPartition());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, key.getResourceId());
+        bindStatement.setTimestamp(SchemaConstants.F_COLLECTED, new Date(batch.getTimestamp(index)));
+        bindStatement.setString(SchemaConstants.F_METRIC_NAME, batch.getName(index));
+        bindStatement.setBytes(SchemaConstants.F_VALUE, ValueType.decompose(batch.getType(index), batch.getRawValue(index)));
+        bindStatement.setInt("ttl", ttl);
+
+        return bindStatement;
+    }
+
+    private BoundStatement bindInsert(PartitionKey key, Sample m, int ttl) {
+        BoundStatement bindStatement;
+
+        if (m.getAttributes() != null) {
+            bindStatement = m_insertWithAttributesStatement.bind();
+            bindStatement.setMap(SchemaConstants.F_ATTRIBUTES, m.getAttributes());
+        }
+        else {
+            bindStatement = m_insertStatement.bind();
+        }
+
+        bindStatement.setString(SchemaConstants.F_CONTEXT, key.getContext().getId());
+        bindStatement.setInt(SchemaConstants.F_PARTITION, key.getPartition());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, key.getResourceId());
+        bindStatement.setTimestamp(SchemaConstants.F_COLLECTED, m.getTimestamp().asDate());
+        bindStatement.setString(SchemaConstants.F_METRIC_NAME, m.getName());
+        bindStatement.setBytes(SchemaConstants.F_VALUE, ValueType.decompose(m.getValue()));
+        bindStatement.setInt("ttl", ttl);
+
+        return bindStatement;
+    }
+
+    private static Statement toStatement(List<Statement> statements) {
+        // There is nothing to be gained from wrapping a lone insert in a batch
+        if (statements.size() == 1) {
+            return statements.get(0);
+        }
+
+        return new BatchStatement(BatchStatement.Type.UNLOGGED).addAll(statements);
+    }
+
+    private static Insert insertStatement(boolean withAttributes) {
+        Insert insert = insertInto(SchemaConstants.T_SAMPLES)
+                .value(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT))
+                .value(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION))
+                .value(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE))
+                .value(SchemaConstants.F_COLLECTED, bindMarker(SchemaConstants.F_COLLECTED))
+                .value(SchemaConstants.F_METRIC_NAME, bindMarker(SchemaConstants.F_METRIC_NAME))
+                .value(SchemaConstants.F_VALUE, bindMarker(SchemaConstants.F_VALUE));
+
+        if (withAttributes) {
+            insert.value(SchemaConstants.F_ATTRIBUTES, bindMarker(SchemaConstants.F_ATTRIBUTES));
+        }
+
+        insert.using(ttl(bindMarker("ttl")));
+
+        return insert;
     }
 
     @Override
     public void delete(Context context, Resource resource) {
+        if (isChunked(context)) {
+            m_chunkStore.delete(context, resource);
+        }
+
+        if (m_rollupStore != null) {
+            m_rollupStore.delete(context, resource);
+        }
+
+        Timestamp now = Timestamp.now();
+
+        // The index lists every partition holding samples, (but those written before it was enabled)
+        if (m_partitionIndex != null) {
+            deletePartitions(context, resource, m_partitionIndex.select(context, resource, Timestamp.fromEpochSeconds(Integer.MIN_VALUE), Timestamp.fromEpochSeconds(Integer.MAX_VALUE)));
+            m_partitionIndex.delete(context, resource);
+
+            if (!m_indexedSince.isPresent()) {
+                return;
+            }
+
+            // Those before are deleted as if unindexed
+            Timestamp lastUnindexed = firstIndexed(context).minus(1, TimeUnit.MILLISECONDS);
+            if (lastUnindexed.lt(now)) {
+                now = lastUnindexed;
+            }
+        }
+
         /**
          * Check for ttl value > 0
          */
@@ -294,58 +876,20 @@ public class CassandraSampleRepository implements SampleRepository {
              * Delete exactly from (now - ttl) till now
              */
             final Timestamp start = Timestamp.now().minus(m_ttl, TimeUnit.SECONDS);
-            final Timestamp end = Timestamp.now();
-
-            final Duration resourceShard = m_contextConfigurations.getResourceShard(context);
-
-            final List<Future<ResultSet>> futures = Lists.newArrayList();
-            for (Timestamp partition : new IntervalGenerator(start.stepFloor(resourceShard),
-                    end.stepFloor(resourceShard),
-                    resourceShard)) {
-                BoundStatement bindStatement = m_deleteStatement.bind();
-                bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
-                bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
-                bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+            final Timestamp end = now;
 
-                futures.add(m_session.executeAsync(bindStatement));
-            }
-
-            for (final Future<ResultSet> future : futures) {
-                try {
-                    future.get();
-                } catch (final InterruptedException | ExecutionException e) {
-                    throw Throwables.propagate(e);
-                }
+            if (!start.gt(end)) {
+                deletePartitions(context, resource, shards(context, start, end));
             }
         } else {
             // Choose (now - one year) till now...
-            Timestamp end = Timestamp.now();
+            Timestamp end = now;
             Timestamp start = end.minus(DELETION_INTERVAL, TimeUnit.DAYS);
 
             // ... and check whether samples exist for this period of time.
             while (cassandraSelect(context, resource, start, end).hasNext()) {
                 // Now delete the samples...
-                final Duration resourceShard = m_contextConfigurations.getResourceShard(context);
-
-                final List<Future<ResultSet>> futures = Lists.newArrayList();
-                for (Timestamp partition : new IntervalGenerator(start.stepFloor(resourceShard),
-                        end.stepFloor(resourceShard),
-                        resourceShard)) {
-                    BoundStatement bindStatement = m_deleteStatement.bind();
-                    bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
-                    bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
-                    bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
-
-                    futures.add(m_session.executeAsync(bindStatement));
-                }
-
-                for (final Future<ResultSet> future : futures) {
-                    try {
-                        future.get();
-                    } catch (final InterruptedException | ExecutionException e) {
-                        throw Throwables.propagate(e);
-                    }
-                }
+                deletePartitions(context, resource, shards(context, start, end));
 
                 // ...set end to start and start to (end - one year)
                 end = start;
@@ -356,41 +900,353 @@ public class CassandraSampleRepository implements SampleRepository {
         }
     }
 
+    private void deletePartitions(Context context, Resource resource, Iterable<Timestamp> partitions) {
+        final List<Future<ResultSet>> futures = Lists.newArrayList();
+        for (Timestamp partition : partitions) {
+            BoundStatement bindStatement = m_deleteStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+
+            futures.add(m_session.executeAsync(bindStatement));
+        }
+
+        for (final Future<ResultSet> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException | ExecutionException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Writes any samples buffered for chunked storage, and waits for the writes to complete.
+     */
+    public void flush() {
+        if (m_chunkStore != null) {
+            m_chunkStore.flush();
+        }
+    }
+
+    /**
+     * Stops background writing of chunks, and {@link #flush() flushes}, and stops the threads of
+     * batch selections.
+     */
+    public void shutdown() {
+        if (m_chunkStore != null) {
+            m_chunkStore.shutdown();
+        }
+
+        m_aggregationPool.shutdown();
+    }
+
+    private boolean isChunked(Context context) {
+        return m_chunkStore != null && m_contextConfigurations.getStorageEngine(context) == StorageEngine.CHUNKS;
+    }
+
+    private SampleRowIterator selectStoredRows(Context context, Resource resource, Timestamp start, Timestamp end, Set<String> metrics) {
+        if (isChunked(context)) {
+            return m_chunkStore.select(context, resource, start, end, metrics);
+        }
+        return new DriverAdapter(cassandraSelect(context, resource, start, end), metrics);
+    }
+
+    /**
+     * Selects stored samples asynchronously. Samples (of non-chunked contexts) are read page by
+     * page as the returned iterator is consumed, so that they can be aggregated as they are
+     * fetched, rather than once every page of every partition has been; The iterator is created,
+     * (and must be consumed) on the aggregation pool, since it blocks if it overtakes fetching.
+     */
+    private ListenableFuture<SampleRowIterator> selectStoredRowsAsync(Context context, Resource resource, Timestamp start, Timestamp end, final Set<String> metrics) {
+        if (isChunked(context)) {
+            return m_chunkStore.selectAsync(context, resource, start, end, metrics);
+        }
+        return Futures.transform(cassandraSelectAsync(context, resource, start, end), new Function<Iterator<com.datastax.driver.core.Row>, SampleRowIterator>() {
+
+            @Override
+            public SampleRowIterator apply(Iterator<com.datastax.driver.core.Row> input) {
+                return new DriverAdapter(input, metrics);
+            }
+        }, m_aggregationPool);
+    }
+
     private Iterator<com.datastax.driver.core.Row> cassandraSelect(Context context, Resource resource,
                                                                    Timestamp start, Timestamp end) {
+        Iterable<Timestamp> partitions = shards(context, start, end);
 
-        List<Future<ResultSet>> futures = Lists.newArrayList();
+        if (isIndexed(context, start, end)) {
+            try {
+                partitions = Uninterruptibles.getUninterruptibly(selectPartitionsAsync(context, resource, start, end));
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
 
-        Duration resourceShard = m_contextConfigurations.getResourceShard(context);
-        Timestamp lower = start.stepFloor(resourceShard);
-        Timestamp upper = end.stepFloor(resourceShard);
+        return new ConcurrentResultWrapper(m_session, selectStatements(context, resource, start, end, partitions).iterator(), m_selectWindow);
+    }
 
-        for (Timestamp partition : new IntervalGenerator(lower, upper, resourceShard)) {
-            BoundStatement bindStatement = m_selectStatement.bind();
-            bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
-            bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
-            bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
-            bindStatement.setTimestamp("start", start.asDate());
-            bindStatement.setTimestamp("end", end.asDate());
-            // Use the context specific consistency level
-            bindStatement.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+    /**
+     * Asynchronously query each of the partitions spanned by {@code start} and {@code end}. The
+     * returned future completes once the first page of the first partition is available; The
+     * remaining pages and partitions are fetched as the iterator is consumed.
+     */
+    private ListenableFuture<Iterator<com.datastax.driver.core.Row>> cassandraSelectAsync(final Context context, final Resource resource,
+                                                                                        final Timestamp start, final Timestamp end) {
+        try {
+            if (isIndexed(context, start, end)) {
+                ListenableFuture<List<Timestamp>> partitions = selectPartitionsAsync(context, resource, start, end);
 
-            futures.add(m_session.executeAsync(bindStatement));
+                return Futures.transform(partitions, new AsyncFunction<List<Timestamp>, Iterator<com.datastax.driver.core.Row>>() {
+
+                    @Override
+                    public ListenableFuture<Iterator<com.datastax.driver.core.Row>> apply(List<Timestamp> input) {
+                        return ConcurrentResultWrapper.start(m_session, selectStatements(context, resource, start, end, input), m_selectWindow);
+                    }
+                });
+            }
+
+            return ConcurrentResultWrapper.start(m_session, selectStatements(context, resource, start, end, shards(context, start, end)), m_selectWindow);
+        }
+        catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * @return true if the partition index should be consulted for a select spanning {@code start}
+     *         and {@code end}; Selects confined to a single partition query it directly.
+     */
+    private boolean isIndexed(Context context, Timestamp start, Timestamp end) {
+        if (m_partitionIndex == null) {
+            return false;
+        }
+
+        Duration resourceShard = getResourceShard(context);
+        return !start.stepFloor(resourceShard).equals(end.stepFloor(resourceShard));
+    }
+
+    /**
+     * @return the partitions that may hold samples of {@code resource} between {@code start} and
+     *         {@code end}; Those indexed, and every partition up to and including that of the
+     *         indexed-since time, (in order)
+     */
+    private ListenableFuture<List<Timestamp>> selectPartitionsAsync(Context context, Resource resource, Timestamp start, Timestamp end) {
+        Timestamp from = start.stepFloor(getResourceShard(context));
+        final List<Timestamp> partitions = Lists.newArrayList();
+
+        if (m_indexedSince.isPresent() && from.lt(firstIndexed(context))) {
+            Timestamp lastUnindexed = firstIndexed(context).minus(1, TimeUnit.MILLISECONDS);
+            Iterables.addAll(partitions, shards(context, start, end.lt(lastUnindexed) ? end : lastUnindexed));
+            from = firstIndexed(context);
         }
 
-        return new ConcurrentResultWrapper(futures);
+        if (from.gt(end)) {
+            return Futures.immediateFuture(partitions);
+        }
+
+        return Futures.transform(m_partitionIndex.selectAsync(context, resource, from, end), new Function<List<Timestamp>, List<Timestamp>>() {
+
+            @Override
+            public List<Timestamp> apply(List<Timestamp> input) {
+                partitions.addAll(input);
+                return partitions;
+            }
+        });
+    }
+
+    /** @return the first partition after that of the indexed-since time, (the first fully indexed) */
+    private Timestamp firstIndexed(Context context) {
+        Duration resourceShard = getResourceShard(context);
+        return m_indexedSince.get().stepFloor(resourceShard).plus(resourceShard);
     }
 
-    private void validateSelect(Optional<Timestamp> start, Optional<Timestamp> end) {
-        if ((start.isPresent() && end.isPresent()) && start.get().gt(end.get())) {
-            throw new IllegalArgumentException("start time must be less than end time");
+    private Duration getResourceShard(Context context) {
+        return m_contextConfigurations.getResourceShard(context);
+    }
+
+    /** @return every resource shard (partition) between {@code start} and {@code end} */
+    private Iterable<Timestamp> shards(Context context, Timestamp start, Timestamp end) {
+        Duration resourceShard = getResourceShard(context);
+        return new IntervalGenerator(start.stepFloor(resourceShard), end.stepFloor(resourceShard), resourceShard);
+    }
+
+    private List<Statement> selectStatements(Context context, Resource resource, Timestamp start, Timestamp end, Iterable<Timestamp> partitions) {
+        List<Statement> statements = Lists.newArrayList();
+
+        for (Timestamp partition : partitions) {
+            statements.add(bindSelect(context, partition, resource, start, end));
+        }
+
+        return statements;
+    }
+
+    private BoundStatement bindSelect(Context context, Timestamp partition, Resource resource, Timestamp start, Timestamp end) {
+        BoundStatement bindStatement = m_selectStatement.bind();
+        bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+        bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+        bindStatement.setTimestamp("start", start.asDate());
+        bindStatement.setTimestamp("end", end.asDate());
+        // Use the context specific consistency level
+        bindStatement.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+        bindStatement.setFetchSize(m_fetchSize);
+
+        return bindStatement;
+    }
+
+    /**
+     * Executes {@code statements}, no more than {@code window} at a time, and fetches all of their
+     * pages. The returned future completes once every result set has been fully fetched (or as
+     * soon as any fails, in which case no further statements are executed).
+     */
+    static ListenableFuture<List<ResultSet>> fetchAll(CassandraSession session, List<? extends Statement> statements, int window) {
+        return new WindowedFetch(session, statements).start(window);
+    }
+
+    private static class WindowedFetch {
+
+        private final CassandraSession m_session;
+        private final List<? extends Statement> m_statements;
+        private final List<SettableFuture<ResultSet>> m_results;
+        private final AtomicInteger m_next = new AtomicInteger();
+
+        private WindowedFetch(CassandraSession session, List<? extends Statement> statements) {
+            m_session = checkNotNull(session, "session argument");
+            m_statements = checkNotNull(statements, "statements argument");
+            m_results = Lists.newArrayListWithCapacity(statements.size());
+
+            for (int i = 0; i < statements.size(); i++) {
+                m_results.add(SettableFuture.<ResultSet>create());
+            }
+        }
+
+        private ListenableFuture<List<ResultSet>> start(int window) {
+            checkArgument(window > 0, "window must be greater than zero");
+
+            int initial = Math.min(window, m_statements.size());
+            m_next.set(initial);
+
+            for (int i = 0; i < initial; i++) {
+                execute(i);
+            }
+
+            return Futures.allAsList(m_results);
         }
+
+        private void execute(int index) {
+            final SettableFuture<ResultSet> result = m_results.get(index);
+            ListenableFuture<ResultSet> future;
+
+            try {
+                future = fetchAll(m_session.executeAsync(m_statements.get(index)));
+            }
+            catch (RuntimeException e) {
+                result.setException(e);
+                return;
+            }
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+                @Override
+                public void onSuccess(ResultSet rs) {
+                    result.set(rs);
+
+                    int next = m_next.getAndIncrement();
+                    if (next < m_statements.size()) {
+                        execute(next);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    result.setException(t);
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Fetch any remaining pages of a result set, without blocking, so that it can later be iterated
+     * from any thread.
+     */
+    static ListenableFuture<ResultSet> fetchAll(ListenableFuture<ResultSet> future) {
+        return Futures.transform(future, new AsyncFunction<ResultSet, ResultSet>() {
+
+            @Override
+            public ListenableFuture<ResultSet> apply(ResultSet input) {
+                if (input.isFullyFetched()) {
+                    return Futures.immediateFuture(input);
+                }
+                return fetchAll(input.fetchMoreResults());
+            }
+        });
+    }
+
+    private static <T> ListenableFuture<T> stopOnCompletion(ListenableFuture<T> future, final Timer.Context timer) {
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                timer.stop();
+            }
+        }, MoreExecutors.directExecutor());
+
+        return future;
     }
 
     private String metricName(String suffix) {
         return name("repository", suffix);
     }
 
+    /**
+     * Identifies a single partition of the samples table.
+     */
+    static class PartitionKey {
+        private final Context m_context;
+        private final int m_partition;
+        private final String m_resourceId;
+
+        PartitionKey(Context context, int partition, String resourceId) {
+            m_context = context;
+            m_partition = partition;
+            m_resourceId = resourceId;
+        }
+
+        Context getContext() {
+            return m_context;
+        }
+
+        int getPartition() {
+            return m_partition;
+        }
+
+        String getResourceId() {
+            return m_resourceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_context, m_partition, m_resourceId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            PartitionKey other = (PartitionKey) obj;
+            return Objects.equals(this.m_context, other.m_context)
+                    && this.m_partition == other.m_partition
+                    && Objects.equals(this.m_resourceId, other.m_resourceId);
+        }
+    }
+
     private static final SampleSelectCallback noopSampleSelectCallback = new SampleSelectCallback() {
 
         @Override
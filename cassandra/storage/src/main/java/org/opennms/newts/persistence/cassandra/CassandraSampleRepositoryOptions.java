@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+
+/**
+ * Settings for a {@link CassandraSampleRepository}; Those not set are the defaults.
+ */
+public class CassandraSampleRepositoryOptions {
+
+    private final int m_timeToLive;
+    private final int m_maxBatchSize;
+    private final int m_selectWindow;
+    private final int m_fetchSize;
+    private final ChunkConfiguration m_chunkConfiguration;
+    private final PartitionIndexConfiguration m_partitionIndexConfiguration;
+    private final RollupConfiguration m_rollupConfiguration;
+    private final BatchSelectConfiguration m_batchSelectConfiguration;
+
+    public static class Builder {
+        private int timeToLive = 0;
+        private int maxBatchSize = CassandraSampleRepository.DEFAULT_MAX_BATCH_SIZE;
+        private int selectWindow = CassandraSampleRepository.DEFAULT_SELECT_WINDOW;
+        private int fetchSize = CassandraSampleRepository.DEFAULT_FETCH_SIZE;
+        private ChunkConfiguration chunkConfiguration = new ChunkConfiguration();
+        private PartitionIndexConfiguration partitionIndexConfiguration = new PartitionIndexConfiguration();
+        private RollupConfiguration rollupConfiguration = new RollupConfiguration();
+        private BatchSelectConfiguration batchSelectConfiguration = new BatchSelectConfiguration();
+
+        /** The time-to-live of samples written, (in seconds, zero for none). */
+        public Builder withTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /** The maximum number of inserts grouped into a single (per-partition) batch. */
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /** The maximum number of partitions a select queries concurrently. */
+        public Builder withSelectWindow(int selectWindow) {
+            this.selectWindow = selectWindow;
+            return this;
+        }
+
+        /** The number of rows fetched per page. */
+        public Builder withFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        public Builder withChunkConfiguration(ChunkConfiguration chunkConfiguration) {
+            this.chunkConfiguration = chunkConfiguration;
+            return this;
+        }
+
+        public Builder withPartitionIndexConfiguration(PartitionIndexConfiguration partitionIndexConfiguration) {
+            this.partitionIndexConfiguration = partitionIndexConfiguration;
+            return this;
+        }
+
+        /** Rollups read in place of samples, where possible; They are written by a {@link RollupSampleProcessor}. */
+        public Builder withRollupConfiguration(RollupConfiguration rollupConfiguration) {
+            this.rollupConfiguration = rollupConfiguration;
+            return this;
+        }
+
+        public Builder withBatchSelectConfiguration(BatchSelectConfiguration batchSelectConfiguration) {
+            this.batchSelectConfiguration = batchSelectConfiguration;
+            return this;
+        }
+
+        public CassandraSampleRepositoryOptions build() {
+            return new CassandraSampleRepositoryOptions(this);
+        }
+    }
+
+    public CassandraSampleRepositoryOptions(CassandraSampleRepositoryOptions.Builder builder) {
+        checkArgument(builder.timeToLive >= 0, "Negative Cassandra column TTL");
+        checkArgument(builder.maxBatchSize > 0, "maxBatchSize must be greater than zero");
+        checkArgument(builder.selectWindow > 0, "selectWindow must be greater than zero");
+        checkArgument(builder.fetchSize > 0, "fetchSize must be greater than zero");
+
+        m_timeToLive = builder.timeToLive;
+        m_maxBatchSize = builder.maxBatchSize;
+        m_selectWindow = builder.selectWindow;
+        m_fetchSize = builder.fetchSize;
+        m_chunkConfiguration = checkNotNull(builder.chunkConfiguration, "chunkConfiguration argument");
+        m_partitionIndexConfiguration = checkNotNull(builder.partitionIndexConfiguration, "partitionIndexConfiguration argument");
+        m_rollupConfiguration = checkNotNull(builder.rollupConfiguration, "rollupConfiguration argument");
+        m_batchSelectConfiguration = checkNotNull(builder.batchSelectConfiguration, "batchSelectConfiguration argument");
+    }
+
+    @Inject
+    public CassandraSampleRepositoryOptions(@Named("samples.cassandra.time-to-live") int ttl, @Named("samples.cassandra.max-batch-size") int maxBatchSize, @Named("samples.cassandra.select-window") int selectWindow, @Named("samples.cassandra.fetch-size") int fetchSize, ChunkConfiguration chunkConfiguration, PartitionIndexConfiguration partitionIndexConfiguration, RollupConfiguration rollupConfiguration, BatchSelectConfiguration batchSelectConfiguration) {
+        this(new Builder()
+                .withTimeToLive(ttl)
+                .withMaxBatchSize(maxBatchSize)
+                .withSelectWindow(selectWindow)
+                .withFetchSize(fetchSize)
+                .withChunkConfiguration(chunkConfiguration)
+                .withPartitionIndexConfiguration(partitionIndexConfiguration)
+                .withRollupConfiguration(rollupConfiguration)
+                .withBatchSelectConfiguration(batchSelectConfiguration));
+    }
+
+    public int getTimeToLive() {
+        return m_timeToLive;
+    }
+
+    public int getMaxBatchSize() {
+        return m_maxBatchSize;
+    }
+
+    public int getSelectWindow() {
+        return m_selectWindow;
+    }
+
+    public int getFetchSize() {
+        return m_fetchSize;
+    }
+
+    public ChunkConfiguration getChunkConfiguration() {
+        return m_chunkConfiguration;
+    }
+
+    public PartitionIndexConfiguration getPartitionIndexConfiguration() {
+        return m_partitionIndexConfiguration;
+    }
+
+    public RollupConfiguration getRollupConfiguration() {
+        return m_rollupConfiguration;
+    }
+
+    public BatchSelectConfiguration getBatchSelectConfiguration() {
+        return m_batchSelectConfiguration;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+
+
+/**
+ * Map decoded chunks (and buffered or cached samples) to rows of Newts {@link Sample}s.
+ */
+class ChunkAdapter implements SampleRowIterator {
+
+    private final Timestamp m_start;
+    private final Timestamp m_end;
+    private final Set<String> m_metrics;
+    private final Results<Sample> m_results = new Results<>();
+
+    private Iterator<Row<Sample>> m_iterator;
+    private int m_count = 0;
+
+    /**
+     * @param start
+     *            samples before this time are excluded
+     * @param end
+     *            samples after this time are excluded
+     * @param metrics
+     *            the set of result metrics to include; an empty set indicates that all metrics
+     *            should be included
+     */
+    ChunkAdapter(Timestamp start, Timestamp end, Set<String> metrics) {
+        m_start = checkNotNull(start, "start argument");
+        m_end = checkNotNull(end, "end argument");
+        m_metrics = checkNotNull(metrics, "metrics argument");
+    }
+
+    boolean includes(String metric) {
+        return m_metrics.isEmpty() || m_metrics.contains(metric);
+    }
+
+    boolean overlaps(Timestamp first, Timestamp last) {
+        return !(last.lt(m_start) || first.gt(m_end));
+    }
+
+    void add(Iterable<Sample> samples) {
+        for (Sample sample : samples) {
+            if (sample.getTimestamp().lt(m_start) || sample.getTimestamp().gt(m_end) || !includes(sample.getName())) {
+                continue;
+            }
+            // Samples read later, (from chunks written later, or buffered), replace those with the same timestamp and metric
+            m_results.addElement(sample);
+            m_count += 1;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return getIterator().hasNext();
+    }
+
+    @Override
+    public Row<Sample> next() {
+        return getIterator().next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Row<Sample>> iterator() {
+        return this;
+    }
+
+    @Override
+    public int getResultCount() {
+        return m_count;
+    }
+
+    private Iterator<Row<Sample>> getIterator() {
+        if (m_iterator == null) {
+            m_iterator = m_results.iterator();
+        }
+        return m_iterator;
+    }
+
+}
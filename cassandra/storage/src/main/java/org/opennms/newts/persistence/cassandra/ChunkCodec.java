@@ -0,0 +1,389 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Encodes the samples of a single metric into a compressed chunk, using the scheme described in
+ * <i>Gorilla: A Fast, Scalable, In-Memory Time Series Database</i> (Pelkonen et al.); Timestamps are
+ * stored as delta-of-deltas, and values as the XOR of their 64 bit representation with that of the
+ * preceding value. Metric types and attributes are stored alongside, so that decoding yields samples
+ * identical to those encoded (at millisecond precision).
+ * <p>
+ * Chunk layout (after a one byte version): the sample count (32 bits) and first timestamp (64 bits),
+ * followed by a bit-packed timestamp, type, value and attributes for each sample.
+ * </p>
+ */
+public class ChunkCodec {
+
+    static final byte VERSION = 1;
+
+    private ChunkCodec() {}
+
+    /**
+     * Encode samples.
+     *
+     * @param samples
+     *            samples of a single metric, in timestamp order
+     * @return the encoded chunk
+     */
+    public static ByteBuffer encode(List<Sample> samples) {
+        checkNotNull(samples, "samples argument");
+        checkArgument(!samples.isEmpty(), "cannot encode an empty chunk");
+
+        BitWriter writer = new BitWriter(samples.size() * 4);
+
+        long prevTimestamp = samples.get(0).getTimestamp().asMillis();
+        long prevDelta = 0;
+        MetricType prevType = null;
+        long prevBits = 0;
+        int prevLeading = -1, prevTrailing = 0;
+
+        writer.writeBits(samples.size(), 32);
+        writer.writeBits(prevTimestamp, 64);
+
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+
+            // Timestamp
+            if (i > 0) {
+                long timestamp = sample.getTimestamp().asMillis();
+                long delta = timestamp - prevTimestamp;
+                checkArgument(delta >= 0, "samples must be in timestamp order");
+                writeDeltaOfDelta(writer, delta - prevDelta);
+                prevTimestamp = timestamp;
+                prevDelta = delta;
+            }
+
+            // Metric type
+            MetricType type = sample.getType();
+            if (type == prevType) {
+                writer.writeBit(false);
+            }
+            else {
+                writer.writeBit(true);
+                writer.writeBits(type.getCode(), 8);
+                prevType = type;
+            }
+
+            // Value
+            long bits = toBits(sample.getValue());
+            if (i == 0) {
+                writer.writeBits(bits, 64);
+            }
+            else {
+                long xor = bits ^ prevBits;
+
+                if (xor == 0) {
+                    writer.writeBit(false);
+                }
+                else {
+                    writer.writeBit(true);
+
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+
+                    if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                        // Meaningful bits fall within those of the previous value
+                        writer.writeBit(false);
+                        writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    }
+                    else {
+                        int meaningful = 64 - leading - trailing;
+                        writer.writeBit(true);
+                        writer.writeBits(leading, 5);
+                        writer.writeBits(meaningful - 1, 6);
+                        writer.writeBits(xor >>> trailing, meaningful);
+                        prevLeading = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+            }
+            prevBits = bits;
+
+            // Attributes
+            writeAttributes(writer, sample.getAttributes());
+        }
+
+        return writer.toByteBuffer();
+    }
+
+    /**
+     * Decode a chunk.
+     *
+     * @param context
+     *            context of the encoded samples
+     * @param resource
+     *            resource of the encoded samples
+     * @param name
+     *            metric name of the encoded samples
+     * @param chunk
+     *            the encoded chunk
+     * @return the decoded samples, in timestamp order
+     */
+    public static List<Sample> decode(Context context, Resource resource, String name, ByteBuffer chunk) {
+        BitReader reader = new BitReader(chunk);
+
+        int count = (int) reader.readBits(32);
+        long timestamp = reader.readBits(64);
+        long delta = 0;
+        MetricType type = null;
+        long bits = 0;
+        int leading = 0, trailing = 0;
+
+        List<Sample> samples = Lists.newArrayListWithCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += readDeltaOfDelta(reader);
+                timestamp += delta;
+            }
+
+            if (reader.readBit()) {
+                type = MetricType.fromCode((byte) reader.readBits(8));
+            }
+
+            if (i == 0) {
+                bits = reader.readBits(64);
+            }
+            else if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leading = (int) reader.readBits(5);
+                    int meaningful = (int) reader.readBits(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                bits ^= reader.readBits(64 - leading - trailing) << trailing;
+            }
+
+            Map<String, String> attributes = readAttributes(reader);
+
+            samples.add(new Sample(Timestamp.fromEpochMillis(timestamp), context, resource, name, type, fromBits(bits, type), attributes));
+        }
+
+        return samples;
+    }
+
+    static long toBits(ValueType<?> value) {
+        if (value.getType() == MetricType.GAUGE) {
+            return Double.doubleToRawLongBits(value.doubleValue());
+        }
+        return value.longValue();
+    }
+
+    static ValueType<?> fromBits(long bits, MetricType type) {
+        if (type == MetricType.GAUGE) {
+            return new Gauge(Double.longBitsToDouble(bits));
+        }
+        return ValueType.compose(bits, type);
+    }
+
+    private static void writeDeltaOfDelta(BitWriter writer, long dod) {
+        if (dod == 0) {
+            writer.writeBit(false);
+        }
+        else if (dod >= -63 && dod <= 64) {
+            writer.writeBits(0b10, 2);
+            writer.writeBits(dod + 63, 7);
+        }
+        else if (dod >= -255 && dod <= 256) {
+            writer.writeBits(0b110, 3);
+            writer.writeBits(dod + 255, 9);
+        }
+        else if (dod >= -2047 && dod <= 2048) {
+            writer.writeBits(0b1110, 4);
+            writer.writeBits(dod + 2047, 12);
+        }
+        else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            writer.writeBits(0b11110, 5);
+            writer.writeBits(dod, 32);
+        }
+        else {
+            writer.writeBits(0b11111, 5);
+            writer.writeBits(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (!reader.readBit()) {
+            return 0;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(7) - 63;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(9) - 255;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(12) - 2047;
+        }
+        if (!reader.readBit()) {
+            return (int) reader.readBits(32);
+        }
+        return reader.readBits(64);
+    }
+
+    private static void writeAttributes(BitWriter writer, Map<String, String> attributes) {
+        if (attributes == null) {
+            writer.writeBit(false);
+            return;
+        }
+
+        checkArgument(attributes.size() <= 0xffff, "too many attributes");
+
+        writer.writeBit(true);
+        writer.writeBits(attributes.size(), 16);
+
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            writeString(writer, entry.getKey());
+            writeString(writer, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readAttributes(BitReader reader) {
+        if (!reader.readBit()) {
+            return null;
+        }
+
+        int size = (int) reader.readBits(16);
+        Map<String, String> attributes = Maps.newHashMapWithExpectedSize(size);
+
+        for (int i = 0; i < size; i++) {
+            String key = readString(reader);
+            attributes.put(key, readString(reader));
+        }
+
+        return attributes;
+    }
+
+    private static void writeString(BitWriter writer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        checkArgument(bytes.length <= 0xffff, "attribute exceeds maximum length");
+
+        writer.writeBits(bytes.length, 16);
+        for (byte b : bytes) {
+            writer.writeBits(b, 8);
+        }
+    }
+
+    private static String readString(BitReader reader) {
+        byte[] bytes = new byte[(int) reader.readBits(16)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) reader.readBits(8);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class BitWriter {
+
+        private byte[] m_buffer;
+        private int m_position = 8; // In bits; The first byte holds the version
+
+        private BitWriter(int initialCapacity) {
+            m_buffer = new byte[Math.max(initialCapacity, 16)];
+            m_buffer[0] = VERSION;
+        }
+
+        private void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        /** Writes the {@code count} low-order bits of {@code value}, most significant first. */
+        private void writeBits(long value, int count) {
+            ensureCapacity(m_position + count);
+
+            while (count > 0) {
+                int free = 8 - (m_position & 7);
+                int n = Math.min(free, count);
+                int bits = (int) (value >>> (count - n)) & ((1 << n) - 1);
+
+                m_buffer[m_position >>> 3] |= bits << (free - n);
+
+                m_position += n;
+                count -= n;
+            }
+        }
+
+        private void ensureCapacity(int bits) {
+            int bytes = (bits + 7) >>> 3;
+            if (bytes > m_buffer.length) {
+                m_buffer = Arrays.copyOf(m_buffer, Math.max(bytes, m_buffer.length * 2));
+            }
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(m_buffer, (m_position + 7) >>> 3));
+        }
+    }
+
+    private static class BitReader {
+
+        private final byte[] m_buffer;
+        private int m_position = 8;
+
+        private BitReader(ByteBuffer chunk) {
+            ByteBuffer buffer = chunk.duplicate();
+            m_buffer = new byte[buffer.remaining()];
+            buffer.get(m_buffer);
+
+            checkArgument(m_buffer.length > 0 && m_buffer[0] == VERSION, "unsupported chunk version");
+        }
+
+        private boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        private long readBits(int count) {
+            checkArgument(m_position + count <= m_buffer.length * 8, "truncated chunk");
+
+            long value = 0;
+
+            while (count > 0) {
+                int available = 8 - (m_position & 7);
+                int n = Math.min(available, count);
+                int bits = ((m_buffer[m_position >>> 3] & 0xff) >>> (available - n)) & ((1 << n) - 1);
+
+                value = (value << n) | bits;
+
+                m_position += n;
+                count -= n;
+            }
+
+            return value;
+        }
+    }
+
+}
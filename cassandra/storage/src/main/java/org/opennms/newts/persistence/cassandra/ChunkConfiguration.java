@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opennms.newts.api.Duration;
+
+
+/**
+ * Settings for contexts stored using compressed chunks (see
+ * {@link org.opennms.newts.cassandra.StorageEngine#CHUNKS}).
+ */
+public class ChunkConfiguration {
+
+    public static final Duration DEFAULT_WINDOW = Duration.hours(2);
+    public static final int DEFAULT_MAX_SAMPLES = 120;
+    public static final Duration DEFAULT_MAX_AGE = Duration.minutes(10);
+
+    private final Duration m_window;
+    private final int m_maxSamples;
+    private final Duration m_maxAge;
+
+    public ChunkConfiguration() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_SAMPLES, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param window
+     *            the time window spanned by a chunk; chunks never span more than one window
+     * @param maxSamples
+     *            the number of samples of a metric buffered before a chunk is written
+     * @param maxAge
+     *            the maximum amount of time samples are buffered before a chunk is written
+     */
+    public ChunkConfiguration(Duration window, int maxSamples, Duration maxAge) {
+        m_window = checkNotNull(window, "window argument");
+        checkArgument(window.asMillis() > 0, "window must be greater than zero");
+        checkArgument(maxSamples > 0, "maxSamples must be greater than zero");
+        m_maxSamples = maxSamples;
+        m_maxAge = checkNotNull(maxAge, "maxAge argument");
+        checkArgument(maxAge.asMillis() > 0, "maxAge must be greater than zero");
+    }
+
+    public Duration getWindow() {
+        return m_window;
+    }
+
+    public int getMaxSamples() {
+        return m_maxSamples;
+    }
+
+    public Duration getMaxAge() {
+        return m_maxAge;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.querybuilder.Delete;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Copies the samples of a context from row storage (the {@code samples} table) to compressed
+ * chunks, one partition at a time.
+ */
+public class ChunkMigrator implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkMigrator.class);
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final CassandraSession m_session;
+    private final int m_ttl;
+    private final ContextConfigurations m_contextConfigurations;
+    private final SampleChunkStore m_chunkStore;
+
+    private final PreparedStatement m_selectStatement;
+    private final PreparedStatement m_deleteStatement;
+
+    /**
+     * @param ttl
+     *            the TTL samples were written with; migrated chunks expire according to the
+     *            timestamps of their samples
+     */
+    public ChunkMigrator(CassandraSession session, int ttl, ContextConfigurations contextConfigurations, ChunkConfiguration chunkConfiguration, MetricRegistry registry) {
+        m_session = checkNotNull(session, "session argument");
+        m_ttl = ttl;
+        m_contextConfigurations = checkNotNull(contextConfigurations, "contextConfigurations argument");
+        m_chunkStore = new SampleChunkStore(session, ttl, contextConfigurations, chunkConfiguration,
+                CassandraSampleRepository.DEFAULT_SELECT_WINDOW, CassandraSampleRepository.DEFAULT_FETCH_SIZE, registry);
+
+        Select select = QueryBuilder.select().from(SchemaConstants.T_SAMPLES);
+        select.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        select.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+        select.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+
+        m_selectStatement = m_session.prepare(select.toString());
+
+        Delete delete = QueryBuilder.delete().from(SchemaConstants.T_SAMPLES);
+        delete.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        delete.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+        delete.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+
+        m_deleteStatement = m_session.prepare(delete.toString());
+    }
+
+    /**
+     * Migrate the samples of a context. Every partition of the {@code samples} table is scanned,
+     * so this is expensive on large clusters.
+     *
+     * @param context
+     *            the context to migrate
+     * @param deleteRows
+     *            true if the rows of each partition should be deleted once migrated
+     * @return the number of samples migrated
+     */
+    public long migrate(Context context, boolean deleteRows) {
+        checkNotNull(context, "context argument");
+
+        Select distinct = QueryBuilder.select(SchemaConstants.F_CONTEXT, SchemaConstants.F_PARTITION, SchemaConstants.F_RESOURCE)
+                .distinct().from(SchemaConstants.T_SAMPLES);
+        distinct.setFetchSize(FETCH_SIZE);
+
+        long count = 0;
+
+        for (Row partition : m_session.execute(distinct)) {
+            if (!context.getId().equals(partition.getString(SchemaConstants.F_CONTEXT))) {
+                continue;
+            }
+
+            int partitionId = partition.getInt(SchemaConstants.F_PARTITION);
+            String resourceId = partition.getString(SchemaConstants.F_RESOURCE);
+
+            BoundStatement select = bind(m_selectStatement, context, partitionId, resourceId);
+            select.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+            select.setFetchSize(FETCH_SIZE);
+
+            List<Sample> samples = Lists.newArrayList();
+            for (Results.Row<Sample> row : new DriverAdapter(m_session.execute(select).iterator())) {
+                for (Sample sample : row) {
+                    samples.add(new Sample(sample.getTimestamp(), context, sample.getResource(), sample.getName(),
+                            sample.getType(), sample.getValue(), sample.getAttributes()));
+                }
+            }
+
+            for (ResultSetFuture future : m_chunkStore.append(samples, m_ttl > 0)) {
+                future.getUninterruptibly();
+            }
+            m_chunkStore.flush();
+
+            if (deleteRows) {
+                BoundStatement delete = bind(m_deleteStatement, context, partitionId, resourceId);
+                delete.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(context));
+                m_session.execute(delete);
+            }
+
+            LOG.debug("Migrated {} samples of {} (partition {})", samples.size(), resourceId, partitionId);
+            count += samples.size();
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() {
+        m_chunkStore.shutdown();
+    }
+
+    private static BoundStatement bind(PreparedStatement statement, Context context, int partition, String resourceId) {
+        BoundStatement bindStatement = statement.bind();
+        bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+        bindStatement.setInt(SchemaConstants.F_PARTITION, partition);
+        bindStatement.setString(SchemaConstants.F_RESOURCE, resourceId);
+        return bindStatement;
+    }
+
+}
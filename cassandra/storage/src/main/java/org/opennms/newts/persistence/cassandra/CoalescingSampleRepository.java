@@ -0,0 +1,500 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.SampleSelectCallback;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * A {@link SampleRepository} decorator that coalesces inserts from concurrent callers into larger
+ * writes (group commit). Samples are buffered until either {@code maxBatchSize} samples have
+ * accumulated, or {@code maxDelay} has elapsed since the first of them arrived, and are then
+ * written to the delegate repository in a single call (which regroups them by partition). Each
+ * caller's request completes once the write containing its samples has.
+ * <p>
+ * The number of buffered (and in-flight) samples is bounded by {@code maxPending}; Once it has been
+ * reached, requests wait (in order of arrival) for earlier writes to complete, without blocking
+ * their callers. Requests of {@code maxBatchSize} samples or more are passed straight through to
+ * the delegate. Selects and deletes are always passed straight through.
+ * </p>
+ */
+public class CoalescingSampleRepository implements SampleRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingSampleRepository.class);
+
+    private final SampleRepository m_delegate;
+    private final long m_maxDelayNanos;
+    private final int m_maxBatchSize;
+    private final int m_maxPending;
+    private final ScheduledExecutorService m_scheduler;
+
+    private final Histogram m_fillRatio;
+    private final Histogram m_batchSize;
+    private final Timer m_delay;
+
+    // Guarded by this; one pending batch for each value of calculateTimeToLive
+    private Batch m_pending;
+    private Batch m_pendingWithTTL;
+    // Guarded by this; samples buffered or in flight, and requests waiting for capacity
+    private int m_pendingSamples = 0;
+    private final Deque<Request> m_waiting = new ArrayDeque<>();
+    private boolean m_isShutdown = false;
+
+    @Inject
+    public CoalescingSampleRepository(@Named("samples.cassandra.repository") SampleRepository delegate, @Named("samples.coalescer.max-delay") long maxDelayMillis,
+            @Named("samples.coalescer.max-batch-size") int maxBatchSize, @Named("samples.coalescer.max-pending") int maxPending,
+            MetricRegistry registry) {
+        this(delegate, maxDelayMillis, TimeUnit.MILLISECONDS, maxBatchSize, maxPending, registry);
+    }
+
+    public CoalescingSampleRepository(SampleRepository delegate, long maxDelay, TimeUnit unit, int maxBatchSize, int maxPending, MetricRegistry registry) {
+        m_delegate = checkNotNull(delegate, "delegate argument");
+        checkArgument(maxDelay > 0, "maxDelay must be greater than zero");
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than zero");
+        checkArgument(maxPending >= maxBatchSize, "maxPending must be greater than or equal to maxBatchSize");
+        checkNotNull(registry, "registry argument");
+
+        m_maxDelayNanos = unit.toNanos(maxDelay);
+        m_maxBatchSize = maxBatchSize;
+        m_maxPending = maxPending;
+        m_scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("sample-coalescer-%d").setDaemon(true).build());
+
+        m_fillRatio = registry.histogram(name("repository", "coalescer", "fill-ratio"));
+        m_batchSize = registry.histogram(name("repository", "coalescer", "batch-size"));
+        m_delay = registry.timer(name("repository", "coalescer", "delay"));
+
+        registry.register(name("repository", "coalescer", "pending"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                synchronized (CoalescingSampleRepository.this) {
+                    return m_pendingSamples;
+                }
+            }
+        });
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.select(context, resource, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, SampleSelectCallback callback) {
+        return m_delegate.select(context, resource, start, end, descriptor, resolution, callback);
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resource, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resources, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count) {
+        return m_delegate.selectTopAsync(context, resources, start, end, descriptor, resolution, metric, aggregation, count);
+    }
+
+    @Override
+    public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.select(context, resource, start, end);
+    }
+
+    @Override
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.selectAsync(context, resource, start, end);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples) {
+        insert(samples, false);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+        try {
+            Uninterruptibles.getUninterruptibly(insertAsync(samples, calculateTimeToLive));
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Override
+    public void insert(SampleBatch batch) {
+        insert(batch, false);
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        try {
+            Uninterruptibles.getUninterruptibly(insertAsync(batch, calculateTimeToLive));
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch) {
+        return insertAsync(batch, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Batches of fewer than {@code maxBatchSize} samples are materialized, and coalesced like any
+     * other request; Larger batches are passed straight through to the delegate.
+     * </p>
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch, boolean calculateTimeToLive) {
+        checkNotNull(batch, "batch argument");
+
+        if (batch.size() >= m_maxBatchSize) {
+            return m_delegate.insertAsync(batch, calculateTimeToLive);
+        }
+
+        return insertAsync(batch.toSamples(), calculateTimeToLive);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples) {
+        return insertAsync(samples, false);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples, boolean calculateTimeToLive) {
+        checkNotNull(samples, "samples argument");
+
+        if (samples.size() >= m_maxBatchSize) {
+            return m_delegate.insertAsync(samples, calculateTimeToLive);
+        }
+
+        if (samples.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+
+        Request request = new Request(samples, calculateTimeToLive);
+        List<Batch> ready = Lists.newArrayListWithCapacity(2);
+
+        synchronized (this) {
+            if (m_isShutdown) {
+                return m_delegate.insertAsync(samples, calculateTimeToLive);
+            }
+
+            // Queue behind any earlier requests still waiting, rather than overtake them
+            if (!m_waiting.isEmpty() || !admit(request, ready)) {
+                m_waiting.add(request);
+            }
+        }
+
+        for (Batch batch : ready) {
+            flush(batch);
+        }
+
+        return request.future;
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_delegate.delete(context, resource);
+    }
+
+    /**
+     * Flushes any pending samples, stops accepting new ones for coalescing (subsequent inserts are
+     * passed straight through), and waits for outstanding writes to complete.
+     */
+    public void shutdown() {
+        List<Batch> ready = Lists.newArrayListWithCapacity(2);
+        List<Request> waiting;
+
+        synchronized (this) {
+            m_isShutdown = true;
+
+            if (m_pending != null) {
+                ready.add(m_pending);
+                m_pending = null;
+            }
+            if (m_pendingWithTTL != null) {
+                ready.add(m_pendingWithTTL);
+                m_pendingWithTTL = null;
+            }
+
+            waiting = Lists.newArrayList(m_waiting);
+            m_waiting.clear();
+        }
+
+        for (Batch batch : ready) {
+            flush(batch);
+        }
+
+        // Requests still waiting for capacity are passed straight through
+        for (Request request : waiting) {
+            forward(m_delegate.insertAsync(request.samples, request.calculateTimeToLive), request);
+        }
+
+        m_scheduler.shutdown();
+
+        // Buffered samples are counted until their write completes
+        synchronized (this) {
+            while (m_pendingSamples > 0) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        LOG.info("Sample coalescer shut down");
+    }
+
+    /**
+     * Adds the request to the pending batch, (collecting any batches ready to be flushed), if
+     * capacity allows. Must be called while holding the lock.
+     */
+    private boolean admit(Request request, List<Batch> ready) {
+        int size = request.samples.size();
+
+        if (m_pendingSamples + size > m_maxPending) {
+            return false;
+        }
+
+        m_pendingSamples += size;
+
+        Batch batch = getPending(request.calculateTimeToLive);
+
+        // Flush first, rather than overfill the pending batch
+        if (batch != null && batch.size() + size > m_maxBatchSize) {
+            ready.add(batch);
+            batch = null;
+        }
+
+        if (batch == null) {
+            batch = newPending(request.calculateTimeToLive);
+        }
+
+        batch.add(request);
+
+        if (batch.size() >= m_maxBatchSize) {
+            ready.add(batch);
+            setPending(request.calculateTimeToLive, null);
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases the capacity held by a written batch, and admits those waiting requests it makes
+     * room for.
+     */
+    private void release(Batch batch) {
+        List<Batch> ready = Lists.newArrayListWithCapacity(2);
+
+        synchronized (this) {
+            m_pendingSamples -= batch.size();
+
+            while (!m_waiting.isEmpty() && admit(m_waiting.peek(), ready)) {
+                m_waiting.poll();
+            }
+
+            notifyAll();
+        }
+
+        for (Batch b : ready) {
+            flush(b);
+        }
+    }
+
+    private static void forward(ListenableFuture<Void> future, final Request request) {
+        Futures.addCallback(future, new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                request.future.set(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                request.future.setException(t);
+            }
+        });
+    }
+
+    private Batch getPending(boolean calculateTimeToLive) {
+        return calculateTimeToLive ? m_pendingWithTTL : m_pending;
+    }
+
+    private void setPending(boolean calculateTimeToLive, Batch batch) {
+        if (calculateTimeToLive) {
+            m_pendingWithTTL = batch;
+        }
+        else {
+            m_pending = batch;
+        }
+    }
+
+    private Batch newPending(final boolean calculateTimeToLive) {
+        final Batch batch = new Batch(calculateTimeToLive);
+
+        batch.timer = m_scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (CoalescingSampleRepository.this) {
+                    if (getPending(calculateTimeToLive) != batch) {
+                        return;
+                    }
+                    setPending(calculateTimeToLive, null);
+                }
+                flush(batch);
+            }
+        }, m_maxDelayNanos, TimeUnit.NANOSECONDS);
+
+        setPending(calculateTimeToLive, batch);
+
+        return batch;
+    }
+
+    private void flush(final Batch batch) {
+        batch.timer.cancel(false);
+
+        long now = System.nanoTime();
+
+        for (Request request : batch.requests) {
+            m_delay.update(now - request.enqueued, TimeUnit.NANOSECONDS);
+        }
+
+        m_batchSize.update(batch.size());
+        m_fillRatio.update((batch.size() * 100) / m_maxBatchSize);
+
+        ListenableFuture<Void> future;
+
+        try {
+            future = m_delegate.insertAsync(batch.samples, batch.calculateTimeToLive);
+        }
+        catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(future, new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                for (Request request : batch.requests) {
+                    request.future.set(null);
+                }
+                release(batch);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                for (Request request : batch.requests) {
+                    request.future.setException(t);
+                }
+                release(batch);
+            }
+        });
+    }
+
+    private static class Request {
+        private final Collection<Sample> samples;
+        private final boolean calculateTimeToLive;
+        private final SettableFuture<Void> future = SettableFuture.create();
+        private final long enqueued = System.nanoTime();
+
+        private Request(Collection<Sample> samples, boolean calculateTimeToLive) {
+            this.samples = samples;
+            this.calculateTimeToLive = calculateTimeToLive;
+        }
+    }
+
+    private static class Batch {
+        private final boolean calculateTimeToLive;
+        private final List<Sample> samples = Lists.newArrayList();
+        private final List<Request> requests = Lists.newArrayList();
+        private ScheduledFuture<?> timer;
+
+        private Batch(boolean calculateTimeToLive) {
+            this.calculateTimeToLive = calculateTimeToLive;
+        }
+
+        private void add(Request request) {
+            samples.addAll(request.samples);
+            requests.add(request);
+        }
+
+        private int size() {
+            return samples.size();
+        }
+    }
+
+}
@@ -16,48 +16,124 @@
 package org.opennms.newts.persistence.cassandra;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import org.opennms.newts.cassandra.CassandraSession;
+
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 
+/**
+ * Iterates over the rows of a sequence of queries, (typically one per partition), in order.
+ * <p>
+ * At most {@code window} queries are in flight at once; As each result set is exhausted, the
+ * query {@code window} places further along is started. Within a result set, the next page is
+ * requested asynchronously once half of the current page has been consumed, so that paging
+ * overlaps iteration.
+ * </p>
+ */
 public class ConcurrentResultWrapper implements Iterator<Row> {
 
-    private Iterator<Row> m_rowIter;
+    private final Iterator<? extends Future<ResultSet>> m_pending;
+    private final ArrayDeque<Future<ResultSet>> m_inFlight = new ArrayDeque<>();
+    private final int m_window;
 
+    private ResultSet m_current;
+    private int m_prefetchThreshold;
+
+    /**
+     * Iterates over the results of queries that have already been started.
+     */
     public ConcurrentResultWrapper(Collection<Future<ResultSet>> futures) {
-        m_rowIter = Iterators.concat(getIterators(futures));
+        this(checkNotNull(futures, "futures argument").iterator(), Math.max(futures.size(), 1));
     }
 
-    private Iterator<Iterator<Row>> getIterators(Collection<Future<ResultSet>> futures) {
-        return Iterators.transform(futures.iterator(), new Function<Future<ResultSet>, Iterator<Row>>() {
+    /**
+     * Iterates over the results of {@code statements}, executing no more than {@code window} of
+     * them concurrently.
+     */
+    public ConcurrentResultWrapper(CassandraSession session, Iterator<? extends Statement> statements, int window) {
+        this(execute(session, statements), window);
+    }
 
-            @Override
-            public Iterator<Row> apply(Future<ResultSet> input) {
-                try {
-                    return input.get().iterator();
-                }
-                catch (Exception e) {
-                    throw Throwables.propagate(e);
-                }
-            }
-        });
+    /**
+     * Starts {@code statements} as {@link #ConcurrentResultWrapper(CassandraSession, Iterator, int)}
+     * does, returning a future that completes with the iterator once the first result set is
+     * available. Rows can then be consumed (page by page) as they are fetched, without waiting
+     * for every query to be fully fetched first; Iteration blocks only if it overtakes fetching.
+     */
+    public static ListenableFuture<Iterator<Row>> start(CassandraSession session, List<? extends Statement> statements, int window) {
+        checkNotNull(session, "session argument");
+        checkNotNull(statements, "statements argument");
+
+        if (statements.isEmpty()) {
+            return Futures.<Iterator<Row>> immediateFuture(Iterators.<Row> emptyIterator());
+        }
+
+        ResultSetFuture first = session.executeAsync(statements.get(0));
+        Iterator<Future<ResultSet>> pending = Iterators.concat(
+                Iterators.<Future<ResultSet>> singletonIterator(first),
+                execute(session, statements.subList(1, statements.size()).iterator()));
+
+        Iterator<Row> rows = new ConcurrentResultWrapper(pending, window);
+
+        return Futures.transform(first, Functions.<Iterator<Row>> constant(rows));
+    }
+
+    private ConcurrentResultWrapper(Iterator<? extends Future<ResultSet>> pending, int window) {
+        checkArgument(window > 0, "window must be greater than zero");
+        m_pending = pending;
+        m_window = window;
+
+        fill();
     }
 
     @Override
     public boolean hasNext() {
-        return m_rowIter.hasNext();
+        while (m_current == null || m_current.isExhausted()) {
+            m_current = null;
+
+            if (m_inFlight.isEmpty()) {
+                return false;
+            }
+
+            m_current = get(m_inFlight.poll());
+            m_prefetchThreshold = m_current.getAvailableWithoutFetching() / 2;
+
+            fill();
+        }
+
+        return true;
     }
 
     @Override
     public Row next() {
-        return m_rowIter.next();
+        if (!hasNext()) throw new NoSuchElementException();
+
+        if (m_current.getAvailableWithoutFetching() == m_prefetchThreshold && !m_current.isFullyFetched()) {
+            m_current.fetchMoreResults();
+        }
+
+        return m_current.one();
     }
 
     @Override
@@ -65,4 +141,37 @@ public class ConcurrentResultWrapper implements Iterator<Row> {
         throw new UnsupportedOperationException();
     }
 
+    // Start queries until the window is full (the current result set counts against it).
+    private void fill() {
+        int inFlight = m_inFlight.size() + (m_current != null ? 1 : 0);
+
+        while (inFlight < m_window && m_pending.hasNext()) {
+            m_inFlight.add(m_pending.next());
+            inFlight++;
+        }
+    }
+
+    // Lazily executes each statement as it is iterated over
+    private static Iterator<Future<ResultSet>> execute(final CassandraSession session, Iterator<? extends Statement> statements) {
+        checkNotNull(session, "session argument");
+        checkNotNull(statements, "statements argument");
+
+        return Iterators.transform(statements, new Function<Statement, Future<ResultSet>>() {
+
+            @Override
+            public Future<ResultSet> apply(Statement input) {
+                return session.executeAsync(input);
+            }
+        });
+    }
+
+    private static ResultSet get(Future<ResultSet> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
 }
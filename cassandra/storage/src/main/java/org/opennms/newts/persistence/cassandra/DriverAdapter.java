@@ -39,7 +39,7 @@ import com.datastax.driver.core.ResultSet;
  *
  * @author eevans
  */
-class DriverAdapter implements Iterable<Results.Row<Sample>>, Iterator<Results.Row<Sample>> {
+class DriverAdapter implements SampleRowIterator {
 
     private final Iterator<com.datastax.driver.core.Row> m_results;
     private final Set<String> m_metrics;
@@ -113,6 +113,7 @@ class DriverAdapter implements Iterable<Results.Row<Sample>>, Iterator<Results.R
         return this;
     }
 
+    @Override
     public int getResultCount() {
         return m_count;
     }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.SampleSelectCallback;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * A {@link SampleRepository} that passes every call to a delegate; Decorators override the calls
+ * they change, (and the overloads that omit arguments call those that take them).
+ */
+public abstract class ForwardingSampleRepository implements SampleRepository {
+
+    private static final SampleSelectCallback NOOP_CALLBACK = new SampleSelectCallback() {
+
+        @Override
+        public void beforeProcess() {
+            // pass
+        }
+
+        @Override
+        public void afterProcess() {
+            // pass
+        }
+    };
+
+    private final SampleRepository m_delegate;
+
+    protected ForwardingSampleRepository(SampleRepository delegate) {
+        m_delegate = checkNotNull(delegate, "delegate argument");
+    }
+
+    protected SampleRepository delegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return select(context, resource, start, end, descriptor, resolution, NOOP_CALLBACK);
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, SampleSelectCallback callback) {
+        return m_delegate.select(context, resource, start, end, descriptor, resolution, callback);
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resource, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resources, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count) {
+        return m_delegate.selectTopAsync(context, resources, start, end, descriptor, resolution, metric, aggregation, count);
+    }
+
+    @Override
+    public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.select(context, resource, start, end);
+    }
+
+    @Override
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.selectAsync(context, resource, start, end);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples) {
+        insert(samples, false);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+        m_delegate.insert(samples, calculateTimeToLive);
+    }
+
+    @Override
+    public void insert(SampleBatch batch) {
+        insert(batch, false);
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        m_delegate.insert(batch, calculateTimeToLive);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples) {
+        return insertAsync(samples, false);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples, boolean calculateTimeToLive) {
+        return m_delegate.insertAsync(samples, calculateTimeToLive);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch) {
+        return insertAsync(batch, false);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch, boolean calculateTimeToLive) {
+        return m_delegate.insertAsync(batch, calculateTimeToLive);
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_delegate.delete(context, resource);
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Serializes the samples of an insert to (and from) the payload of a {@link SampleJournal} record.
+ * Records are columnar, like {@link SampleBatch}es; Contexts, resources and metric names are
+ * written once per record. Samples are stored at millisecond precision, with resource attributes
+ * retained so that samples are indexed as they would have been had they been written directly.
+ */
+class JournalCodec {
+
+    private static final byte VERSION = 1;
+
+    private JournalCodec() {
+    }
+
+    static byte[] encode(Collection<Sample> samples, boolean calculateTimeToLive) {
+        return encode(SampleBatch.of(samples), calculateTimeToLive);
+    }
+
+    static byte[] encode(SampleBatch batch, boolean calculateTimeToLive) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * batch.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(VERSION);
+            out.writeBoolean(calculateTimeToLive);
+
+            out.writeInt(batch.getContexts().size());
+            for (Context context : batch.getContexts()) {
+                out.writeUTF(context.getId());
+            }
+
+            out.writeInt(batch.getResources().size());
+            for (Resource resource : batch.getResources()) {
+                out.writeUTF(resource.getId());
+                writeAttributes(out, resource.getAttributes().orNull());
+            }
+
+            out.writeInt(batch.getNames().size());
+            for (String name : batch.getNames()) {
+                out.writeUTF(name);
+            }
+
+            out.writeInt(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                out.writeInt(batch.getContextId(i));
+                out.writeInt(batch.getResourceId(i));
+                out.writeInt(batch.getNameId(i));
+                out.writeByte(batch.getType(i).getCode());
+                out.writeLong(batch.getTimestamp(i));
+                out.writeLong(batch.getRawValue(i));
+                writeAttributes(out, batch.getAttributes(i));
+            }
+
+            out.flush();
+        }
+        catch (IOException e) {
+            // Not possible when writing to a byte array
+            throw Throwables.propagate(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the value of {@code calculateTimeToLive} the record was encoded with
+     */
+    static boolean isCalculateTimeToLive(ByteBuffer payload) {
+        checkVersion(payload.get(payload.position()));
+        return payload.get(payload.position() + 1) != 0;
+    }
+
+    /**
+     * Decodes the samples of a record, adding them to {@code builder}; Nothing is added if the
+     * record cannot be decoded, (so that a corrupt record does not add some of its samples).
+     *
+     * @throws IllegalArgumentException
+     *             if the record is truncated or corrupt
+     */
+    static void decode(ByteBuffer payload, SampleBatch.Builder builder) {
+        SampleBatch.Builder decoded = new SampleBatch.Builder();
+        decodeTo(payload, decoded);
+        SampleBatch batch = decoded.build();
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getType(i) == MetricType.GAUGE) {
+                builder.add(batch.getContext(i), batch.getResource(i), batch.getName(i), batch.getTimestamp(i), Double.longBitsToDouble(batch.getRawValue(i)));
+            }
+            else {
+                builder.add(batch.getContext(i), batch.getResource(i), batch.getName(i), batch.getType(i), batch.getTimestamp(i), batch.getRawValue(i));
+            }
+
+            if (batch.getAttributes(i) != null) {
+                builder.withAttributes(batch.getAttributes(i));
+            }
+        }
+    }
+
+    private static void decodeTo(ByteBuffer payload, SampleBatch.Builder builder) {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(payload.duplicate()));
+
+        try {
+            checkVersion(in.readByte());
+            in.readBoolean();
+
+            Context[] contexts = new Context[in.readInt()];
+            for (int i = 0; i < contexts.length; i++) {
+                contexts[i] = new Context(in.readUTF());
+            }
+
+            Resource[] resources = new Resource[in.readInt()];
+            for (int i = 0; i < resources.length; i++) {
+                resources[i] = new Resource(in.readUTF(), Optional.fromNullable(readAttributes(in)));
+            }
+
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Context context = contexts[in.readInt()];
+                Resource resource = resources[in.readInt()];
+                String name = names[in.readInt()];
+                MetricType type = MetricType.fromCode(in.readByte());
+                long timestamp = in.readLong();
+                long value = in.readLong();
+
+                if (type == MetricType.GAUGE) {
+                    builder.add(context, resource, name, timestamp, Double.longBitsToDouble(value));
+                }
+                else {
+                    builder.add(context, resource, name, type, timestamp, value);
+                }
+
+                Map<String, String> attributes = readAttributes(in);
+                if (attributes != null) {
+                    builder.withAttributes(attributes);
+                }
+            }
+        }
+        catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupt journal record", e);
+        }
+    }
+
+    private static void checkVersion(byte version) {
+        if (version != VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported journal record version: %d", version));
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out, Map<String, String> attributes) throws IOException {
+        if (attributes == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            out.writeUTF(attribute.getKey());
+            out.writeUTF(attribute.getValue());
+        }
+    }
+
+    private static Map<String, String> readAttributes(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+
+        Map<String, String> attributes = Maps.newHashMapWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            attributes.put(in.readUTF(), in.readUTF());
+        }
+        return attributes;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!m_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, n);
+            return n;
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+/**
+ * Thrown when samples cannot be journaled because the journal has reached its maximum number of
+ * segments (that is, because samples are being accepted faster than they can be replayed).
+ */
+public class JournalFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 4206851239163311742L;
+
+    public JournalFullException(String message) {
+        super(message);
+    }
+
+}
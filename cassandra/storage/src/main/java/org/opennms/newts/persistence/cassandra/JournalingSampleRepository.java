@@ -0,0 +1,486 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleBatchProcessor;
+import org.opennms.newts.api.SampleProcessor;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.SampleSelectCallback;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * A {@link SampleRepository} decorator that appends inserted samples to a local, write-ahead
+ * {@link SampleJournal}, and replays them to the delegate repository in the background. Inserts
+ * complete once the samples are durable in the journal, and so continue to succeed (at local disk
+ * latency) while the delegate is unavailable; Replays that fail transiently (timeouts, unavailable
+ * hosts, and the like) are retried, with exponential back-off, until they succeed.
+ * <p>
+ * Replays that can never succeed, (those the delegate rejects as invalid), are not retried; The
+ * records of a rejected batch are replayed one at a time, to isolate those rejected, and each
+ * record rejected is logged and skipped, (and its samples counted as {@code samples-skipped}).
+ * </p>
+ * <p>
+ * Replay is rate limited to {@code replayRate} samples per second, so that a backlog accumulated
+ * during an outage does not overwhelm a recovering cluster. Samples are not visible to selects
+ * until they have been replayed. Selects and deletes are always passed straight through.
+ * </p>
+ * <p>
+ * Samples journaled but not yet replayed when the repository is {@link #shutdown() shut down} (or
+ * crashes) are replayed when it is next started; Samples replayed, but not yet checkpointed, are
+ * replayed again, so replay is at-least-once. Rewriting a sample is harmless, (the same row or
+ * chunk sample is written), but the delegate's sample processors see the samples again, and so
+ * those that are not idempotent, (rollups; see {@link RollupSampleProcessor}), should instead be
+ * given as {@code processors}; These are submitted the samples once, as they are journaled.
+ * </p>
+ */
+public class JournalingSampleRepository implements SampleRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalingSampleRepository.class);
+
+    private static final long MIN_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+    private static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final SampleRepository m_delegate;
+    private final SampleJournal m_journal;
+    private final Set<SampleProcessor> m_processors;
+    private final int m_replayBatchSize;
+    private final RateLimiter m_rateLimiter;
+    private final Thread m_replayer;
+    private final CountDownLatch m_shutdown = new CountDownLatch(1);
+
+    private final Timer m_appendTimer;
+    private final Meter m_samplesJournaled;
+    private final Meter m_samplesReplayed;
+    private final Meter m_replayErrors;
+    private final Meter m_samplesSkipped;
+    private final Timer m_replayDelay;
+
+    private volatile boolean m_isShutdown = false;
+
+    @Inject
+    public JournalingSampleRepository(@Named("samples.cassandra.repository") SampleRepository delegate, @Named("samples.journal.directory") String directory,
+            @Named("samples.journal.segment-size") int segmentSize, @Named("samples.journal.max-segments") int maxSegments,
+            @Named("samples.journal.replay-rate") int replayRate, @Named("samples.journal.replay-batch-size") int replayBatchSize,
+            @Named("samples.journal.processors") Set<SampleProcessor> processors, MetricRegistry registry) throws IOException {
+        this(delegate, new File(directory), segmentSize, maxSegments, replayRate, replayBatchSize, processors, registry);
+    }
+
+    public JournalingSampleRepository(SampleRepository delegate, File directory, int segmentSize, int maxSegments, double replayRate,
+            int replayBatchSize, MetricRegistry registry) throws IOException {
+        this(delegate, directory, segmentSize, maxSegments, replayRate, replayBatchSize, Collections.<SampleProcessor> emptySet(), registry);
+    }
+
+    public JournalingSampleRepository(SampleRepository delegate, File directory, int segmentSize, int maxSegments, double replayRate,
+            int replayBatchSize, Set<SampleProcessor> processors, MetricRegistry registry) throws IOException {
+        m_delegate = checkNotNull(delegate, "delegate argument");
+        m_processors = checkNotNull(processors, "processors argument");
+        checkArgument(replayRate > 0, "replayRate must be greater than zero");
+        checkArgument(replayBatchSize > 0, "replayBatchSize must be greater than zero");
+        checkNotNull(registry, "registry argument");
+
+        m_journal = new SampleJournal(directory, segmentSize, maxSegments);
+        m_replayBatchSize = replayBatchSize;
+        m_rateLimiter = RateLimiter.create(replayRate);
+
+        m_appendTimer = registry.timer(name("repository", "journal", "append-timer"));
+        m_samplesJournaled = registry.meter(name("repository", "journal", "samples-journaled"));
+        m_samplesReplayed = registry.meter(name("repository", "journal", "samples-replayed"));
+        m_replayErrors = registry.meter(name("repository", "journal", "replay-errors"));
+        m_samplesSkipped = registry.meter(name("repository", "journal", "samples-skipped"));
+        m_replayDelay = registry.timer(name("repository", "journal", "replay-delay"));
+
+        registry.register(name("repository", "journal", "lag"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return m_journal.getLag();
+            }
+        });
+        registry.register(name("repository", "journal", "size"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return m_journal.getSize();
+            }
+        });
+        registry.register(name("repository", "journal", "segments"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return m_journal.getSegmentCount();
+            }
+        });
+
+        m_replayer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                replay();
+            }
+        }, "sample-journal-replayer");
+        m_replayer.setDaemon(true);
+        m_replayer.start();
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.select(context, resource, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, SampleSelectCallback callback) {
+        return m_delegate.select(context, resource, start, end, descriptor, resolution, callback);
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resource, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return m_delegate.selectAsync(context, resources, start, end, descriptor, resolution);
+    }
+
+    @Override
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count) {
+        return m_delegate.selectTopAsync(context, resources, start, end, descriptor, resolution, metric, aggregation, count);
+    }
+
+    @Override
+    public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.select(context, resource, start, end);
+    }
+
+    @Override
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        return m_delegate.selectAsync(context, resource, start, end);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples) {
+        insert(samples, false);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+        checkNotNull(samples, "samples argument");
+
+        if (!samples.isEmpty()) {
+            append(JournalCodec.encode(samples, calculateTimeToLive), samples.size());
+            process(samples);
+        }
+    }
+
+    @Override
+    public void insert(SampleBatch batch) {
+        insert(batch, false);
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        checkNotNull(batch, "batch argument");
+
+        if (!batch.isEmpty()) {
+            append(JournalCodec.encode(batch, calculateTimeToLive), batch.size());
+            process(batch);
+        }
+    }
+
+    /**
+     * Journals the samples before returning; The returned future is always complete.
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples) {
+        return insertAsync(samples, false);
+    }
+
+    /**
+     * Journals the samples before returning; The returned future is always complete.
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(Collection<Sample> samples, boolean calculateTimeToLive) {
+        try {
+            insert(samples, calculateTimeToLive);
+            return Futures.immediateFuture(null);
+        }
+        catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Journals the batch before returning; The returned future is always complete.
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch) {
+        return insertAsync(batch, false);
+    }
+
+    /**
+     * Journals the batch before returning; The returned future is always complete.
+     */
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch, boolean calculateTimeToLive) {
+        try {
+            insert(batch, calculateTimeToLive);
+            return Futures.immediateFuture(null);
+        }
+        catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_delegate.delete(context, resource);
+    }
+
+    /**
+     * Stops accepting samples, and stops replay (after any replay in progress completes). Samples
+     * not yet replayed remain in the journal.
+     */
+    public void shutdown() {
+        m_isShutdown = true;
+        m_shutdown.countDown();
+        m_journal.wakeup();
+        Uninterruptibles.joinUninterruptibly(m_replayer);
+
+        LOG.info("Sample journal shut down with {} bytes of samples unreplayed", m_journal.getLag());
+        m_journal.close();
+    }
+
+    private void append(byte[] payload, int count) {
+        checkState(!m_isShutdown, "repository is shut down");
+
+        Timer.Context ctx = m_appendTimer.time();
+
+        try {
+            m_journal.sync(m_journal.append(payload));
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        finally {
+            ctx.stop();
+        }
+
+        m_samplesJournaled.mark(count);
+    }
+
+    /** Submits journaled samples to the processors; Failures are logged, since the samples are already durable. */
+    private void process(Collection<Sample> samples) {
+        for (SampleProcessor processor : m_processors) {
+            try {
+                processor.submit(samples);
+            }
+            catch (RuntimeException e) {
+                LOG.error("Unable to process journaled samples", e);
+            }
+        }
+    }
+
+    private void process(SampleBatch batch) {
+        Collection<Sample> samples = null;
+
+        for (SampleProcessor processor : m_processors) {
+            try {
+                if (processor instanceof SampleBatchProcessor) {
+                    ((SampleBatchProcessor) processor).submit(batch);
+                    continue;
+                }
+
+                if (samples == null) {
+                    samples = batch.toSamples();
+                }
+                processor.submit(samples);
+            }
+            catch (RuntimeException e) {
+                LOG.error("Unable to process journaled samples", e);
+            }
+        }
+    }
+
+    private void replay() {
+        long retryDelay = MIN_RETRY_DELAY_MILLIS;
+        // Records preceding this position are replayed one at a time, (those of a rejected batch)
+        long isolateUntil = 0;
+
+        while (!m_isShutdown) {
+            long position = m_journal.getReadPosition();
+            long next = position;
+            long oldest = 0;
+            int records = 0;
+            SampleBatch.Builder samples = new SampleBatch.Builder(m_replayBatchSize);
+            Boolean calculateTimeToLive = null;
+
+            try {
+                SampleJournal.Record record;
+
+                while (samples.size() < m_replayBatchSize && !(records > 0 && position < isolateUntil) && (record = m_journal.read(next)) != null) {
+                    boolean recordTimeToLive;
+
+                    try {
+                        recordTimeToLive = JournalCodec.isCalculateTimeToLive(record.payload);
+
+                        // One write per batch, so batches cannot mix values of calculateTimeToLive
+                        if (calculateTimeToLive != null && calculateTimeToLive != recordTimeToLive) {
+                            break;
+                        }
+
+                        JournalCodec.decode(record.payload, samples);
+                    }
+                    catch (IllegalArgumentException e) {
+                        LOG.error("Skipping undecodable journal record", e);
+                        next = record.next;
+                        continue;
+                    }
+
+                    calculateTimeToLive = recordTimeToLive;
+                    next = record.next;
+                    records += 1;
+
+                    if (oldest == 0) {
+                        oldest = record.appendedAt;
+                    }
+                }
+
+                if (samples.size() == 0) {
+                    if (next != position) {
+                        m_journal.commit(next);
+                    }
+                    m_journal.awaitAppend(next, IDLE_WAIT_MILLIS);
+                    continue;
+                }
+
+                SampleBatch batch = samples.build();
+
+                m_rateLimiter.acquire(batch.size());
+
+                try {
+                    m_delegate.insert(batch, calculateTimeToLive);
+                }
+                catch (RuntimeException e) {
+                    if (!isRejected(e)) {
+                        throw e;
+                    }
+
+                    m_replayErrors.mark();
+
+                    if (records > 1) {
+                        LOG.warn("Journaled samples rejected; Replaying the {} records of the batch one at a time", records, e);
+                        isolateUntil = next;
+                    }
+                    else {
+                        LOG.error("Journaled samples rejected; Skipping {} samples", batch.size(), e);
+                        m_journal.commit(next);
+                        m_samplesSkipped.mark(batch.size());
+                    }
+                    continue;
+                }
+
+                m_journal.commit(next);
+
+                m_samplesReplayed.mark(batch.size());
+                m_replayDelay.update(System.currentTimeMillis() - oldest, TimeUnit.MILLISECONDS);
+                retryDelay = MIN_RETRY_DELAY_MILLIS;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e) {
+                if (m_isShutdown) {
+                    return;
+                }
+
+                m_replayErrors.mark();
+                LOG.warn("Unable to replay {} journaled samples; Retrying in {}ms", samples.size(), retryDelay, e);
+
+                try {
+                    if (m_shutdown.await(retryDelay, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @return true if the delegate rejected a replay as invalid, (and so would reject it again),
+     *         false if the replay might succeed if retried
+     */
+    private static boolean isRejected(Throwable t) {
+        for (Throwable cause : Throwables.getCausalChain(t)) {
+            if (cause instanceof InvalidQueryException || cause instanceof IllegalArgumentException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
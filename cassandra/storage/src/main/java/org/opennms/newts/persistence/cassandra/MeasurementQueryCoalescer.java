@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.newts.api.ColumnarResults;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+/**
+ * Coalesces concurrent selections of the same aggregated measurements, (those of the same
+ * resource, range, resolution and aggregates), so that they share a single selection; Each caller
+ * receives rows of its own, to which its calculations and exports are then applied. The caller
+ * whose selection is shared receives the results selected, and those that join it a
+ * {@link ColumnarResults#view() view} of their columns, (so no caller copies them). Each caller
+ * receives a future of its own, too; Cancelling it cancels neither the shared selection, nor the
+ * futures of the others.
+ * <p>
+ * Only selections that are in flight are shared; Results are not retained once complete.
+ * </p>
+ */
+class MeasurementQueryCoalescer {
+
+    /**
+     * Selects the aggregated rows of a query.
+     */
+    interface Loader {
+
+        ListenableFuture<ColumnarResults> load();
+
+    }
+
+    private final ConcurrentMap<Key, ListenableFuture<ColumnarResults>> m_inFlight = new ConcurrentHashMap<>();
+
+    private final Meter m_queries;
+    private final Meter m_coalesced;
+
+    MeasurementQueryCoalescer(MetricRegistry registry) {
+        checkNotNull(registry, "metric registry argument");
+
+        m_queries = registry.meter(name("repository", "query-coalescer", "queries"));
+        m_coalesced = registry.meter(name("repository", "query-coalescer", "coalesced"));
+
+        registry.register(name("repository", "query-coalescer", "coalesced-ratio"), new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(m_coalesced.getOneMinuteRate(), m_queries.getOneMinuteRate());
+            }
+        });
+
+        registry.register(name("repository", "query-coalescer", "in-flight"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                return m_inFlight.size();
+            }
+        });
+    }
+
+    /**
+     * Selects the aggregated rows of a query, sharing the selection of any identical query in
+     * flight, (and otherwise from {@code loader}).
+     *
+     * @return the aggregated rows
+     */
+    ListenableFuture<ColumnarResults> select(Context context, Resource resource, Timestamp start, Timestamp end, ResultDescriptor descriptor, Duration resolution, Loader loader) {
+        final Key key = new Key(context, resource.getId(), start.asMillis(), end.asMillis(), MeasurementResultCache.getAggregates(descriptor), resolution.asMillis());
+        final SettableFuture<ColumnarResults> selection = SettableFuture.create();
+
+        m_queries.mark();
+
+        ListenableFuture<ColumnarResults> shared = m_inFlight.putIfAbsent(key, selection);
+
+        if (shared != null) {
+            m_coalesced.mark();
+            return resultOf(shared, true);
+        }
+
+        ListenableFuture<ColumnarResults> future;
+
+        try {
+            future = loader.load();
+        }
+        catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(future, new FutureCallback<ColumnarResults>() {
+
+            @Override
+            public void onSuccess(ColumnarResults result) {
+                m_inFlight.remove(key, selection);
+                selection.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                m_inFlight.remove(key, selection);
+                selection.setException(t);
+            }
+        });
+
+        return resultOf(selection, false);
+    }
+
+    /**
+     * @return a future of the results of {@code selection}, (or of a view of them), that does not
+     *         propagate its cancellation to the selection, (unlike {@link Futures#transform})
+     */
+    private static ListenableFuture<ColumnarResults> resultOf(ListenableFuture<ColumnarResults> selection, final boolean view) {
+        final SettableFuture<ColumnarResults> result = SettableFuture.create();
+
+        Futures.addCallback(selection, new FutureCallback<ColumnarResults>() {
+
+            @Override
+            public void onSuccess(ColumnarResults selected) {
+                result.set(view ? selected.view() : selected);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.setException(t);
+            }
+        });
+
+        return result;
+    }
+
+    private static class Key {
+        private final Context context;
+        private final String resourceId;
+        private final long start;
+        private final long end;
+        private final List<Object> aggregates;
+        private final long resolution;
+
+        private Key(Context context, String resourceId, long start, long end, List<Object> aggregates, long resolution) {
+            this.context = context;
+            this.resourceId = resourceId;
+            this.start = start;
+            this.end = end;
+            this.aggregates = aggregates;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId, start, end, aggregates, resolution);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return Objects.equals(context, other.context) && Objects.equals(resourceId, other.resourceId) && start == other.start
+                    && end == other.end && aggregates.equals(other.aggregates) && resolution == other.resolution;
+        }
+    }
+
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.Datasource;
+import org.opennms.newts.api.query.ResultDescriptor;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * Caches the aggregated measurements of past rows, (those to which a query's calculations and
+ * exports are then applied), so that queries repeated over a sliding window need only aggregate
+ * samples for their most recent rows.
+ * <p>
+ * Rows are cached in buckets of a fixed number of rows, aligned to the resolution. A bucket is
+ * cached once it is past, which is to say once the latest sample that could contribute to its last
+ * row, (one up to a heartbeat and a resolution later), is older than the current time; Rows of any
+ * later buckets are aggregated with every query. Buckets are keyed by resource, by the aggregates
+ * of the query (its interval and datasources) and by resolution.
+ * </p>
+ * <p>
+ * Buckets are discarded when a sample that could contribute to them is written, or deleted, and
+ * once they reach the maximum age, (since samples written elsewhere do not discard them). Should
+ * the cache hold more than the maximum number of measurements, the least recently used resources
+ * are evicted.
+ * </p>
+ */
+class MeasurementResultCache {
+
+    /**
+     * Aggregates rows for the cache.
+     */
+    interface Loader {
+
+        /**
+         * @return the aggregated rows between {@code start} and {@code end} (inclusive)
+         */
+        ListenableFuture<Results<Measurement>> load(Timestamp start, Timestamp end);
+
+    }
+
+    // The number of invalidations remembered, so that buckets aggregated while samples that could
+    // contribute to them are written are not cached
+    private static final int INVALIDATIONS = 16;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int m_bucketRows;
+    private final long m_maxMeasurements;
+    private final long m_maxAge;
+
+    // Guarded by this; In access order, (least recently used first)
+    private final LinkedHashMap<ResourceKey, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long m_size = 0;
+
+    private final Meter m_hits;
+    private final Meter m_misses;
+    private final Meter m_evictions;
+    private final Meter m_expirations;
+
+    MeasurementResultCache(ResultCacheConfiguration config, MetricRegistry registry) {
+        checkNotNull(config, "config argument");
+        checkNotNull(registry, "metric registry argument");
+
+        m_bucketRows = config.getBucketRows();
+        m_maxMeasurements = config.getMaxMeasurements();
+        m_maxAge = config.getMaxAge().asMillis();
+
+        m_hits = registry.meter(name("repository", "result-cache", "hits"));
+        m_misses = registry.meter(name("repository", "result-cache", "misses"));
+        m_evictions = registry.meter(name("repository", "result-cache", "resources-evicted"));
+        m_expirations = registry.meter(name("repository", "result-cache", "buckets-expired"));
+
+        registry.register(name("repository", "result-cache", "hit-ratio"), new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(m_hits.getOneMinuteRate(), m_hits.getOneMinuteRate() + m_misses.getOneMinuteRate());
+            }
+        });
+
+        registry.register(name("repository", "result-cache", "measurements-cached"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                synchronized (MeasurementResultCache.this) {
+                    return m_size;
+                }
+            }
+        });
+    }
+
+    /**
+     * Selects the aggregated rows of a query, from the cache where present, and from
+     * {@code loader} otherwise; Past buckets loaded are cached.
+     * <p>
+     * Rows are aggregated from the samples up to a heartbeat (and interval) either side of them,
+     * so those at either end of a query depend on its range. They are always loaded, (as are the
+     * rows of short queries), so that results agree with those of an uncached query, and cached
+     * rows are aggregated as they would be in a query of a longer range.
+     * </p>
+     *
+     * @return the aggregated rows between {@code start} and {@code end} (inclusive)
+     */
+    ListenableFuture<Results<Measurement>> select(Context context, final Resource resource, Timestamp start, Timestamp end, ResultDescriptor descriptor, Duration resolution, Loader loader) {
+        final long step = resolution.asMillis();
+        final long width = step * m_bucketRows;
+        final long first = start.stepFloor(resolution).asMillis();
+        final long last = end.stepCeiling(resolution).asMillis();
+        final long slack = getSlack(descriptor, step);
+        final long lead = (slack + step - 1) / step * step;
+        final long now = System.currentTimeMillis();
+
+        // The rows from head, (and before tail), are those that could be read from the cache
+        final long head = first + lead;
+        long bucket = first - floorMod(first, width);
+
+        if (head + lead > last || bucket + width - step + slack >= now) {
+            return loader.load(start, end);
+        }
+
+        final List<Object> aggregates = getAggregates(descriptor);
+        final Results<Measurement> results = new Results<>();
+        final Set<Long> missing = Sets.newHashSet();
+        final List<Load> loads = Lists.newArrayList();
+        final List<Bucket> hits = Lists.newArrayList();
+
+        final Entry entry;
+        final long generation;
+
+        synchronized (this) {
+            entry = getOrCreate(new ResourceKey(context, resource.getId()));
+            generation = entry.generation;
+
+            long runStart = NONE;
+
+            for (; bucket <= last; bucket += width) {
+                long horizon = bucket + width - step + slack;
+                if (horizon >= now) {
+                    break;
+                }
+
+                BucketKey key = new BucketKey(aggregates, step, bucket);
+                Bucket cached = entry.buckets.get(key);
+
+                if (cached != null && now - cached.loaded >= m_maxAge) {
+                    entry.buckets.remove(key);
+                    entry.size -= cached.size();
+                    m_size -= cached.size();
+                    m_expirations.mark();
+                    cached = null;
+                }
+
+                if (cached != null) {
+                    m_hits.mark();
+                    hits.add(cached);
+
+                    if (runStart != NONE) {
+                        loads.add(new Load(runStart - lead, bucket - step + lead, runStart, bucket, false));
+                        runStart = NONE;
+                    }
+                    continue;
+                }
+
+                m_misses.mark();
+                missing.add(bucket);
+                entry.horizon = Math.max(entry.horizon, horizon);
+
+                if (runStart == NONE) {
+                    runStart = bucket;
+                }
+            }
+
+            if (runStart != NONE) {
+                loads.add(new Load(runStart - lead, bucket - step + lead, runStart, bucket, false));
+            }
+        }
+
+        // Rows of any buckets that are not yet past, or else the trailing rows of the query
+        final long tail = Math.max((bucket <= last) ? bucket : last - lead + step, head);
+
+        loads.add(new Load(start.asMillis(), Math.min(head - step + lead, end.asMillis()), first, head, true));
+        loads.add(new Load(Math.max(tail - lead, start.asMillis()), end.asMillis(), tail, last + step, true));
+
+        for (Bucket cached : hits) {
+            cached.addTo(results, resource, head, tail - step);
+        }
+
+        List<ListenableFuture<Results<Measurement>>> futures = Lists.newArrayList();
+        for (Load load : loads) {
+            futures.add(loader.load(Timestamp.fromEpochMillis(load.start), Timestamp.fromEpochMillis(load.end)));
+        }
+
+        return Futures.transform(Futures.allAsList(futures), new Function<List<Results<Measurement>>, Results<Measurement>>() {
+
+            @Override
+            public Results<Measurement> apply(List<Results<Measurement>> input) {
+                Map<Long, List<Row<Measurement>>> byBucket = Maps.newHashMap();
+
+                for (int i = 0; i < input.size(); i++) {
+                    Load load = loads.get(i);
+
+                    for (Row<Measurement> row : input.get(i)) {
+                        long timestamp = row.getTimestamp().asMillis();
+
+                        // Leading and trailing rows, (those of another load)
+                        if (timestamp < load.from || timestamp >= load.until) {
+                            continue;
+                        }
+
+                        if (load.edge) {
+                            if (timestamp >= first && timestamp <= last) {
+                                results.addRow(row);
+                            }
+                            continue;
+                        }
+
+                        if (timestamp >= head && timestamp < tail) {
+                            results.addRow(row);
+                        }
+
+                        long rowBucket = timestamp - floorMod(timestamp, width);
+
+                        if (!missing.contains(rowBucket)) {
+                            continue;
+                        }
+
+                        List<Row<Measurement>> rows = byBucket.get(rowBucket);
+                        if (rows == null) {
+                            rows = Lists.newArrayList();
+                            byBucket.put(rowBucket, rows);
+                        }
+                        rows.add(row);
+                    }
+                }
+
+                Map<BucketKey, Bucket> loadedBuckets = Maps.newHashMap();
+
+                for (Long bucketStart : missing) {
+                    List<Row<Measurement>> rows = byBucket.get(bucketStart);
+                    if (rows != null && rows.size() == m_bucketRows) {
+                        loadedBuckets.put(new BucketKey(aggregates, step, bucketStart), new Bucket(rows, bucketStart + width - step + slack, now));
+                    }
+                }
+
+                put(entry, generation, loadedBuckets);
+
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Discards the cached buckets to which (written) samples could contribute.
+     */
+    void invalidate(Collection<Sample> samples) {
+        Map<ResourceKey, Long> earliest = Maps.newHashMap();
+
+        for (Sample sample : samples) {
+            earliest(earliest, sample.getContext(), sample.getResource().getId(), sample.getTimestamp().asMillis());
+        }
+
+        invalidate(earliest);
+    }
+
+    /**
+     * Discards the cached buckets to which (written) samples could contribute.
+     */
+    void invalidate(SampleBatch batch) {
+        Map<ResourceKey, Long> earliest = Maps.newHashMap();
+
+        for (int i = 0; i < batch.size(); i++) {
+            earliest(earliest, batch.getContext(i), batch.getResource(i).getId(), batch.getTimestamp(i));
+        }
+
+        invalidate(earliest);
+    }
+
+    /**
+     * Discards the cached buckets of {@code resource}.
+     */
+    synchronized void invalidate(Context context, Resource resource) {
+        Entry entry = m_entries.remove(new ResourceKey(context, resource.getId()));
+        if (entry != null) {
+            m_size -= entry.size;
+        }
+    }
+
+    private synchronized void invalidate(Map<ResourceKey, Long> earliest) {
+        for (Map.Entry<ResourceKey, Long> e : earliest.entrySet()) {
+            Entry entry = m_entries.get(e.getKey());
+            if (entry != null) {
+                m_size -= entry.invalidate(e.getValue());
+            }
+        }
+    }
+
+    private synchronized void put(Entry entry, long generation, Map<BucketKey, Bucket> buckets) {
+        // Evicted (or deleted) while loading
+        if (m_entries.get(entry.key) != entry) {
+            return;
+        }
+
+        for (Map.Entry<BucketKey, Bucket> bucket : buckets.entrySet()) {
+            if (entry.isInvalidatedSince(generation, bucket.getValue().horizon)) {
+                continue;
+            }
+
+            Bucket replaced = entry.buckets.put(bucket.getKey(), bucket.getValue());
+            long added = bucket.getValue().size() - (replaced != null ? replaced.size() : 0);
+            entry.size += added;
+            m_size += added;
+        }
+
+        evict();
+    }
+
+    private Entry getOrCreate(ResourceKey key) {
+        Entry entry = m_entries.get(key);
+
+        if (entry == null) {
+            entry = new Entry(key);
+            m_entries.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /** Evicts the least recently used resources, for as long as the cache is over capacity. */
+    private void evict() {
+        Iterator<Entry> entries = m_entries.values().iterator();
+
+        while (m_size > m_maxMeasurements && entries.hasNext()) {
+            m_size -= entries.next().size;
+            entries.remove();
+            m_evictions.mark();
+        }
+    }
+
+    private static void earliest(Map<ResourceKey, Long> earliest, Context context, String resourceId, long timestamp) {
+        ResourceKey key = new ResourceKey(context, resourceId);
+        Long current = earliest.get(key);
+
+        if (current == null || timestamp < current) {
+            earliest.put(key, timestamp);
+        }
+    }
+
+    private static long floorMod(long value, long divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+
+    /**
+     * @return the amount of time after a row, that samples could contribute to it
+     */
+    static long getSlack(ResultDescriptor descriptor, long step) {
+        long heartbeat = 0;
+
+        for (Datasource ds : descriptor.getDatasources().values()) {
+            heartbeat = Math.max(heartbeat, ds.getHeartbeat().asMillis());
+        }
+
+        return heartbeat + descriptor.getInterval().asMillis() + step;
+    }
+
+    /**
+     * @return those parts of {@code descriptor} that determine its aggregates, (by value)
+     */
+    static List<Object> getAggregates(ResultDescriptor descriptor) {
+        ImmutableList.Builder<Object> aggregates = ImmutableList.builder();
+        aggregates.add(descriptor.getInterval().asMillis(), descriptor.isRollupsAllowed());
+
+        for (String label : Ordering.natural().sortedCopy(descriptor.getDatasources().keySet())) {
+            Datasource ds = descriptor.getDatasources().get(label);
+            aggregates.add(ds.getLabel(), ds.getSource(), ds.getAggregationFuction(), ds.getHeartbeat().asMillis(), ds.getXff());
+        }
+
+        return aggregates.build();
+    }
+
+    /**
+     * A range of rows to load, of which those from {@code from} (and before {@code until}) are
+     * wanted; Rows of an edge (leading or trailing rows of a query) are not cached.
+     */
+    private static class Load {
+        private final long start;
+        private final long end;
+        private final long from;
+        private final long until;
+        private final boolean edge;
+
+        private Load(long start, long end, long from, long until, boolean edge) {
+            this.start = start;
+            this.end = end;
+            this.from = from;
+            this.until = until;
+            this.edge = edge;
+        }
+    }
+
+    private static class ResourceKey {
+        private final Context context;
+        private final String resourceId;
+
+        private ResourceKey(Context context, String resourceId) {
+            this.context = context;
+            this.resourceId = resourceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceKey)) return false;
+            ResourceKey other = (ResourceKey) obj;
+            return Objects.equals(context, other.context) && Objects.equals(resourceId, other.resourceId);
+        }
+    }
+
+    private static class BucketKey {
+        private final List<Object> aggregates;
+        private final long step;
+        private final long start;
+
+        private BucketKey(List<Object> aggregates, long step, long start) {
+            this.aggregates = aggregates;
+            this.step = step;
+            this.start = start;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(aggregates, step, start);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BucketKey)) return false;
+            BucketKey other = (BucketKey) obj;
+            return aggregates.equals(other.aggregates) && step == other.step && start == other.start;
+        }
+    }
+
+    /**
+     * The cached buckets of a resource.
+     */
+    private static class Entry {
+        private final ResourceKey key;
+        private final Map<BucketKey, Bucket> buckets = Maps.newHashMap();
+        private long size = 0;
+
+        // The latest horizon of any bucket cached (or being loaded); Samples more recent than this
+        // need not invalidate anything
+        private long horizon = Long.MIN_VALUE;
+        // The number of invalidations, and the earliest sample timestamp of the most recent of them
+        private long generation = 0;
+        private final long[] invalidations = new long[INVALIDATIONS];
+
+        private Entry(ResourceKey key) {
+            this.key = key;
+        }
+
+        /** @return the number of measurements discarded */
+        private long invalidate(long earliest) {
+            if (earliest > horizon) {
+                return 0;
+            }
+
+            invalidations[(int) (generation % INVALIDATIONS)] = earliest;
+            generation += 1;
+
+            long discarded = 0;
+            Iterator<Bucket> iter = buckets.values().iterator();
+
+            while (iter.hasNext()) {
+                Bucket bucket = iter.next();
+                if (earliest <= bucket.horizon) {
+                    discarded += bucket.size();
+                    iter.remove();
+                }
+            }
+
+            size -= discarded;
+
+            return discarded;
+        }
+
+        /**
+         * @return true if samples that could contribute to a bucket of {@code horizon} have been
+         *         written since {@code since}, (or if that can no longer be determined)
+         */
+        private boolean isInvalidatedSince(long since, long horizon) {
+            if (generation - since > INVALIDATIONS) {
+                return true;
+            }
+
+            for (long i = since; i < generation; i++) {
+                if (invalidations[(int) (i % INVALIDATIONS)] <= horizon) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * The (immutable) aggregated rows of a bucket, by datasource label.
+     */
+    private static class Bucket {
+        // The timestamp of the latest sample that could contribute to the bucket
+        private final long horizon;
+        // When the bucket was aggregated, (when its load began)
+        private final long loaded;
+        private final long[] timestamps;
+        private final String[] labels;
+        private final double[][] values;
+        // Allocated only if any measurement has (non-empty) attributes
+        private final Object[][] attributes;
+
+        private Bucket(List<Row<Measurement>> rows, long horizon, long loaded) {
+            this.horizon = horizon;
+            this.loaded = loaded;
+            timestamps = new long[rows.size()];
+            labels = labels(rows.get(0));
+            values = new double[labels.length][rows.size()];
+
+            Object[][] attrs = null;
+
+            for (int i = 0; i < rows.size(); i++) {
+                Row<Measurement> row = rows.get(i);
+                timestamps[i] = row.getTimestamp().asMillis();
+
+                for (int j = 0; j < labels.length; j++) {
+                    Measurement measurement = row.getElement(labels[j]);
+                    values[j][i] = measurement != null ? measurement.getValue() : Double.NaN;
+
+                    if (measurement != null && measurement.getAttributes() != null && !measurement.getAttributes().isEmpty()) {
+                        if (attrs == null) {
+                            attrs = new Object[labels.length][rows.size()];
+                        }
+                        attrs[j][i] = ImmutableMap.copyOf(measurement.getAttributes());
+                    }
+                }
+            }
+
+            attributes = attrs;
+        }
+
+        private long size() {
+            return (long) timestamps.length * Math.max(labels.length, 1);
+        }
+
+        /** Adds copies of the rows between {@code first} and {@code last} (inclusive). */
+        @SuppressWarnings("unchecked")
+        private void addTo(Results<Measurement> results, Resource resource, long first, long last) {
+            for (int i = 0; i < timestamps.length; i++) {
+                if (timestamps[i] < first || timestamps[i] > last) {
+                    continue;
+                }
+
+                Timestamp timestamp = Timestamp.fromEpochMillis(timestamps[i]);
+                Row<Measurement> row = new Row<>(timestamp, resource);
+
+                for (int j = 0; j < labels.length; j++) {
+                    // Each copy has its own (mutable) attributes, as aggregated measurements do
+                    Map<String, String> attrs = (attributes != null) ? (Map<String, String>) attributes[j][i] : null;
+                    row.addElement(new Measurement(timestamp, resource, labels[j], values[j][i],
+                            attrs != null ? Maps.newHashMap(attrs) : Maps.<String, String> newHashMap()));
+                }
+
+                results.addRow(row);
+            }
+        }
+
+        private static String[] labels(Row<Measurement> row) {
+            List<String> labels = Lists.newArrayList();
+            for (Measurement measurement : row.getElements()) {
+                labels.add(measurement.getName());
+            }
+            return labels.toArray(new String[labels.size()]);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.Datasource;
+import org.opennms.newts.api.query.ResultDescriptor;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * The bounds of measurement selects, and their selection a resource at a time; Shared by the
+ * repository and the decorators that answer measurement selects themselves.
+ */
+final class MeasurementSelects {
+
+    // Used to calculate the duration when the duration is not specified
+    private static final int TARGET_NUMBER_OF_STEPS = 10;
+
+    private MeasurementSelects() {}
+
+    static void validate(Optional<Timestamp> start, Optional<Timestamp> end) {
+        if ((start.isPresent() && end.isPresent()) && start.get().gt(end.get())) {
+            throw new IllegalArgumentException("start time must be less than end time");
+        }
+    }
+
+    /** @return the end of a select, (the current time if absent) */
+    static Timestamp upper(Optional<Timestamp> end) {
+        return end.isPresent() ? end.get() : Timestamp.now();
+    }
+
+    /** @return the start of a select, (24 hours before its end if absent) */
+    static Timestamp lower(Optional<Timestamp> start, Timestamp upper) {
+        return start.isPresent() ? start.get() : upper.minus(Duration.seconds(86400));
+    }
+
+    static Duration getStep(Timestamp lower, Timestamp upper, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        if (resolution.isPresent()) {
+            return resolution.get();
+        }
+
+        // Determine the ideal step size, splitting the interval evenly into N slices
+        long stepMillis = upper.minus(lower).asMillis() / TARGET_NUMBER_OF_STEPS;
+
+        // But every step must be a multiple of the interval
+        long intervalMillis = descriptor.getInterval().asMillis();
+
+        // If the interval is greater than the target step, use the 2 * interval as the step
+        if (intervalMillis >= stepMillis) {
+            return descriptor.getInterval().times(2);
+        }
+
+        // Otherwise, round stepMillis up to the closest multiple of intervalMillis
+        long remainderMillis = stepMillis % intervalMillis;
+        if (remainderMillis != 0) {
+            stepMillis = stepMillis + intervalMillis - remainderMillis;
+        }
+
+        return Duration.millis(stepMillis);
+    }
+
+    /**
+     * @return a descriptor of the aggregates of {@code descriptor}, (its datasources, each
+     *         exported, without its calculations); Decorators select these from their delegate,
+     *         and apply the calculations and exports themselves.
+     */
+    static ResultDescriptor aggregatesOf(ResultDescriptor descriptor) {
+        ResultDescriptor aggregates = new ResultDescriptor(descriptor.getInterval()).allowRollups(descriptor.isRollupsAllowed());
+
+        for (Datasource ds : descriptor.getDatasources().values()) {
+            aggregates.datasource(ds.getLabel(), ds.getSource(), ds.getHeartbeat(), ds.getXff(), ds.getAggregationFuction());
+        }
+
+        return aggregates.export(descriptor.getDatasources().keySet().toArray(new String[0]));
+    }
+
+    /**
+     * Selects the measurements of each of {@code resources} from {@code repository}, (over the
+     * same range and resolution, resolved once for all of them).
+     */
+    static Map<Resource, ListenableFuture<Results<Measurement>>> selectEach(final SampleRepository repository, final Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, final ResultDescriptor descriptor, Optional<Duration> resolution, int window) {
+        checkNotNull(resources, "resources argument");
+
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+
+        final Optional<Timestamp> first = Optional.of(lower);
+        final Optional<Timestamp> last = Optional.of(upper);
+        final Optional<Duration> step = Optional.of(getStep(lower, upper, descriptor, resolution));
+
+        return selectEach(resources, window, new Function<Resource, ListenableFuture<Results<Measurement>>>() {
+
+            @Override
+            public ListenableFuture<Results<Measurement>> apply(Resource resource) {
+                return repository.selectAsync(context, resource, first, last, descriptor, step);
+            }
+        });
+    }
+
+    /**
+     * Selects the measurements of each of {@code resources}, no more than {@code window} at a
+     * time; Each that completes starts the next, (and is no longer referenced here, so that
+     * callers merging them need not retain each). Those cancelled before they start are skipped.
+     */
+    static Map<Resource, ListenableFuture<Results<Measurement>>> selectEach(Collection<Resource> resources, int window, Function<Resource, ListenableFuture<Results<Measurement>>> select) {
+        checkArgument(window > 0, "window must be greater than zero");
+
+        Map<Resource, SettableFuture<Results<Measurement>>> selections = Maps.newLinkedHashMap();
+        for (Resource resource : resources) {
+            selections.put(resource, SettableFuture.<Results<Measurement>> create());
+        }
+
+        new Window(selections.entrySet(), window, select).drain();
+
+        return ImmutableMap.<Resource, ListenableFuture<Results<Measurement>>> copyOf(selections);
+    }
+
+    /**
+     * @return the result of {@code future}, (rethrowing the cause of its failure)
+     */
+    static <T> T getUninterruptibly(ListenableFuture<T> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static class Window {
+
+        private final Queue<Map.Entry<Resource, SettableFuture<Results<Measurement>>>> m_pending;
+        private final Function<Resource, ListenableFuture<Results<Measurement>>> m_select;
+        private final AtomicInteger m_available;
+
+        // Selections that complete as they start (from a cache, say) drain the window in a loop,
+        // rather than recursively
+        private final AtomicInteger m_draining = new AtomicInteger();
+
+        private Window(Collection<Map.Entry<Resource, SettableFuture<Results<Measurement>>>> selections, int window, Function<Resource, ListenableFuture<Results<Measurement>>> select) {
+            m_pending = new ArrayDeque<>(selections);
+            m_available = new AtomicInteger(window);
+            m_select = select;
+        }
+
+        private void drain() {
+            if (m_draining.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                while (m_available.get() > 0) {
+                    Map.Entry<Resource, SettableFuture<Results<Measurement>>> selection = next();
+
+                    if (selection == null) {
+                        break;
+                    }
+
+                    m_available.decrementAndGet();
+                    start(selection);
+                }
+            } while (m_draining.decrementAndGet() != 0);
+        }
+
+        private Map.Entry<Resource, SettableFuture<Results<Measurement>>> next() {
+            Map.Entry<Resource, SettableFuture<Results<Measurement>>> candidate;
+
+            do {
+                candidate = m_pending.poll();
+            } while (candidate != null && candidate.getValue().isCancelled());
+
+            return candidate;
+        }
+
+        private void start(final Map.Entry<Resource, SettableFuture<Results<Measurement>>> selection) {
+            ListenableFuture<Results<Measurement>> future;
+
+            try {
+                future = m_select.apply(selection.getKey());
+            }
+            catch (RuntimeException e) {
+                future = Futures.immediateFailedFuture(e);
+            }
+
+            Futures.addCallback(future, new FutureCallback<Results<Measurement>>() {
+
+                @Override
+                public void onSuccess(Results<Measurement> result) {
+                    selection.getValue().set(result);
+                    m_available.incrementAndGet();
+                    drain();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    selection.getValue().setException(t);
+                    m_available.incrementAndGet();
+                    drain();
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Timestamp;
+
+import com.google.common.base.Optional;
+
+
+/**
+ * Settings for the index of the (resource shard) partitions that hold samples (see
+ * {@link SamplePartitionIndex}).
+ * <p>
+ * The index is disabled by default; Only partitions written after it has been enabled are indexed,
+ * so unless it is enabled for a new keyspace, the time it was enabled should be given as
+ * {@link #getIndexedSince() indexed-since}. Reads and deletes then walk every resource shard up to
+ * (and including) that of this time, and consult the index only for those after it.
+ * </p>
+ */
+public class PartitionIndexConfiguration {
+
+    public static final long DEFAULT_MAX_CACHE_ENTRIES = 100000;
+    public static final Duration DEFAULT_CACHE_EXPIRY = Duration.hours(1);
+
+    private final boolean m_enabled;
+    private final long m_maxCacheEntries;
+    private final Duration m_cacheExpiry;
+    private final Optional<Timestamp> m_indexedSince;
+
+    public PartitionIndexConfiguration() {
+        this(false, DEFAULT_MAX_CACHE_ENTRIES, DEFAULT_CACHE_EXPIRY);
+    }
+
+    /** Configures an index of every partition, (one enabled for a new keyspace). */
+    public PartitionIndexConfiguration(boolean enabled, long maxCacheEntries, Duration cacheExpiry) {
+        this(enabled, maxCacheEntries, cacheExpiry, Optional.<Timestamp> absent());
+    }
+
+    /**
+     * @param enabled
+     *            true if reads and deletes should consult the index
+     * @param maxCacheEntries
+     *            the maximum number of recently indexed partitions remembered (and not re-indexed)
+     * @param cacheExpiry
+     *            the amount of time after which a partition is re-indexed
+     * @param indexedSince
+     *            the time the index was enabled, (absent if every partition is indexed)
+     */
+    public PartitionIndexConfiguration(boolean enabled, long maxCacheEntries, Duration cacheExpiry, Optional<Timestamp> indexedSince) {
+        checkArgument(maxCacheEntries > 0, "maxCacheEntries must be greater than zero");
+        m_enabled = enabled;
+        m_maxCacheEntries = maxCacheEntries;
+        m_cacheExpiry = checkNotNull(cacheExpiry, "cacheExpiry argument");
+        checkArgument(cacheExpiry.asSeconds() > 0, "cacheExpiry must be at least one second");
+        m_indexedSince = checkNotNull(indexedSince, "indexedSince argument");
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public long getMaxCacheEntries() {
+        return m_maxCacheEntries;
+    }
+
+    public Duration getCacheExpiry() {
+        return m_cacheExpiry;
+    }
+
+    /**
+     * @return the time the index was enabled, before which partitions are not indexed, (absent if
+     *         every partition is)
+     */
+    public Optional<Timestamp> getIndexedSince() {
+        return m_indexedSince;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+/**
+ * Settings for the coalescing of identical, concurrent measurement queries (see
+ * {@link MeasurementQueryCoalescer}).
+ * <p>
+ * Coalescing is disabled by default. Where {@code roundToStep} is set, the start and end of each
+ * query are rounded (outward) to its resolution, so that queries of the same rows coalesce; The
+ * first row of a rounded query may then be aggregated from slightly more samples.
+ * </p>
+ */
+public class QueryCoalescingConfiguration {
+
+    private final boolean m_enabled;
+    private final boolean m_roundToStep;
+
+    public QueryCoalescingConfiguration() {
+        this(false, false);
+    }
+
+    /**
+     * @param enabled
+     *            true if concurrent queries of the same measurements should share their selection
+     * @param roundToStep
+     *            true if the start and end of queries should be rounded to their resolution
+     */
+    public QueryCoalescingConfiguration(boolean enabled, boolean roundToStep) {
+        m_enabled = enabled;
+        m_roundToStep = roundToStep;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public boolean isRoundToStep() {
+        return m_roundToStep;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.aggregatesOf;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.getStep;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.lower;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.upper;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.validate;
+
+import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.api.ColumnarResults;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * A {@link SampleRepository} decorator that shares the aggregates selected from its delegate
+ * between concurrent, identical queries (see {@link MeasurementQueryCoalescer}); The calculations
+ * and exports of each query are then applied to rows of its own.
+ */
+public class QueryCoalescingSampleRepository extends SelectingSampleRepository {
+
+    private final MeasurementQueryCoalescer m_coalescer;
+    private final boolean m_roundToStep;
+
+    public QueryCoalescingSampleRepository(SampleRepository delegate, QueryCoalescingConfiguration config, BatchSelectConfiguration batchSelectConfig, MetricRegistry registry) {
+        super(delegate, batchSelectConfig);
+        m_roundToStep = checkNotNull(config, "config argument").isRoundToStep();
+        m_coalescer = new MeasurementQueryCoalescer(registry);
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(final Context context, final Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, final ResultDescriptor descriptor, Optional<Duration> resolution) {
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+        final Duration step = getStep(lower, upper, descriptor, resolution);
+
+        final Timestamp first = m_roundToStep ? lower.stepFloor(step) : lower;
+        final Timestamp last = m_roundToStep ? upper.stepCeiling(step) : upper;
+        final ResultDescriptor aggregates = aggregatesOf(descriptor);
+
+        ListenableFuture<ColumnarResults> rows = m_coalescer.select(context, resource, first, last, descriptor, step, new MeasurementQueryCoalescer.Loader() {
+
+            @Override
+            public ListenableFuture<ColumnarResults> load() {
+                return Futures.transform(delegate().selectAsync(context, resource, Optional.of(first), Optional.of(last), aggregates, Optional.of(step)), new Function<Results<Measurement>, ColumnarResults>() {
+
+                    @Override
+                    public ColumnarResults apply(Results<Measurement> input) {
+                        return toColumnar(resource, aggregates, input);
+                    }
+                });
+            }
+        });
+
+        return Futures.transform(rows, new Function<ColumnarResults, Results<Measurement>>() {
+
+            @Override
+            public Results<Measurement> apply(ColumnarResults input) {
+                return new ResultProcessor(resource, first, last, descriptor, step).processAggregates(input.iterator());
+            }
+        });
+    }
+
+    /** @return the aggregates of {@code results}, (which are already columnar, unless selected from elsewhere) */
+    private static ColumnarResults toColumnar(Resource resource, ResultDescriptor aggregates, Results<Measurement> results) {
+        if (results instanceof ColumnarResults) {
+            return (ColumnarResults) results;
+        }
+
+        ColumnarResults.Builder builder = new ColumnarResults.Builder(resource, aggregates.getExports());
+
+        for (Row<Measurement> row : results) {
+            builder.row(row);
+        }
+
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opennms.newts.api.Duration;
+
+
+/**
+ * Settings for the cache of aggregated measurements (see {@link MeasurementResultCache}).
+ * <p>
+ * The cache is disabled by default. It is invalidated by the samples written through this
+ * repository instance, but not by those written through others; Buckets are discarded once they
+ * reach the maximum age, which bounds for how long late samples written elsewhere can go unseen.
+ * </p>
+ */
+public class ResultCacheConfiguration {
+
+    public static final int DEFAULT_BUCKET_ROWS = 60;
+    public static final long DEFAULT_MAX_MEASUREMENTS = 10000000;
+    public static final Duration DEFAULT_MAX_AGE = Duration.minutes(5);
+
+    private final boolean m_enabled;
+    private final int m_bucketRows;
+    private final long m_maxMeasurements;
+    private final Duration m_maxAge;
+
+    public ResultCacheConfiguration() {
+        this(false, DEFAULT_BUCKET_ROWS, DEFAULT_MAX_MEASUREMENTS, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @param enabled
+     *            true if aggregated measurements should be cached
+     * @param bucketRows
+     *            the number of (resolution) rows in each cached bucket
+     * @param maxMeasurements
+     *            the maximum number of measurements cached in total; The least recently used
+     *            resources are discarded first
+     * @param maxAge
+     *            the age (since they were aggregated) after which buckets are discarded
+     */
+    public ResultCacheConfiguration(boolean enabled, int bucketRows, long maxMeasurements, Duration maxAge) {
+        checkArgument(bucketRows > 0, "bucketRows must be greater than zero");
+        checkArgument(maxMeasurements > 0, "maxMeasurements must be greater than zero");
+        m_maxAge = checkNotNull(maxAge, "maxAge argument");
+        checkArgument(maxAge.asMillis() > 0, "maxAge must be greater than zero");
+        m_enabled = enabled;
+        m_bucketRows = bucketRows;
+        m_maxMeasurements = maxMeasurements;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public int getBucketRows() {
+        return m_bucketRows;
+    }
+
+    public long getMaxMeasurements() {
+        return m_maxMeasurements;
+    }
+
+    public Duration getMaxAge() {
+        return m_maxAge;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.aggregatesOf;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.getStep;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.lower;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.upper;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.validate;
+
+import java.util.Collection;
+
+import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * A {@link SampleRepository} decorator that caches the aggregates of past rows (see
+ * {@link MeasurementResultCache}); The delegate aggregates only those rows not cached, and the
+ * calculations and exports of each query are applied to the whole.
+ * <p>
+ * Cached rows are discarded once the delegate has written samples that could contribute to them,
+ * (by any of the insert methods), once they reach the {@link ResultCacheConfiguration#getMaxAge()
+ * maximum age}, and a resource's rows are discarded before it is deleted.
+ * </p>
+ */
+public class ResultCachingSampleRepository extends SelectingSampleRepository {
+
+    private final MeasurementResultCache m_cache;
+
+    public ResultCachingSampleRepository(SampleRepository delegate, ResultCacheConfiguration config, BatchSelectConfiguration batchSelectConfig, MetricRegistry registry) {
+        super(delegate, batchSelectConfig);
+        m_cache = new MeasurementResultCache(config, registry);
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(final Context context, final Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, final ResultDescriptor descriptor, Optional<Duration> resolution) {
+        validate(start, end);
+
+        final Timestamp upper = upper(end);
+        final Timestamp lower = lower(start, upper);
+        final Duration step = getStep(lower, upper, descriptor, resolution);
+        final ResultDescriptor aggregates = aggregatesOf(descriptor);
+
+        ListenableFuture<Results<Measurement>> rows = m_cache.select(context, resource, lower, upper, descriptor, step, new MeasurementResultCache.Loader() {
+
+            @Override
+            public ListenableFuture<Results<Measurement>> load(Timestamp start, Timestamp end) {
+                return delegate().selectAsync(context, resource, Optional.of(start), Optional.of(end), aggregates, Optional.of(step));
+            }
+        });
+
+        return Futures.transform(rows, new Function<Results<Measurement>, Results<Measurement>>() {
+
+            @Override
+            public Results<Measurement> apply(Results<Measurement> input) {
+                return new ResultProcessor(resource, lower, upper, descriptor, step).processAggregates(input.iterator());
+            }
+        });
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+        delegate().insert(samples, calculateTimeToLive);
+        m_cache.invalidate(samples);
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        delegate().insert(batch, calculateTimeToLive);
+        m_cache.invalidate(batch);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(final Collection<Sample> samples, boolean calculateTimeToLive) {
+        return Futures.transform(delegate().insertAsync(samples, calculateTimeToLive), new Function<Void, Void>() {
+
+            @Override
+            public Void apply(Void input) {
+                m_cache.invalidate(samples);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(final SampleBatch batch, boolean calculateTimeToLive) {
+        return Futures.transform(delegate().insertAsync(batch, calculateTimeToLive), new Function<Void, Void>() {
+
+            @Override
+            public Void apply(Void input) {
+                m_cache.invalidate(batch);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_cache.invalidate(context, resource);
+        delegate().delete(context, resource);
+    }
+
+}
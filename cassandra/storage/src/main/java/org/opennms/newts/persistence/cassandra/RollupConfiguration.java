@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opennms.newts.api.Duration;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+
+/**
+ * Settings for the pre-aggregated rollups of samples maintained by {@link RollupSampleProcessor},
+ * and read in place of samples by {@link CassandraSampleRepository} for those queries that allow it,
+ * (see {@link org.opennms.newts.api.query.ResultDescriptor#allowRollups(boolean)}).
+ * <p>
+ * Rollups are disabled (none are configured) by default. Only samples written once they have been
+ * enabled are rolled up; Queries read samples for the rows up to (and including) the first that a
+ * rollup holds data for, so that rollups can be enabled for an existing keyspace.
+ * </p>
+ */
+public class RollupConfiguration {
+
+    public static final Duration DEFAULT_FLUSH_DELAY = Duration.minutes(5);
+    public static final int DEFAULT_MAX_BUFFERED = 1000000;
+
+    /**
+     * A rollup of samples into buckets of a fixed step.
+     */
+    public static class Rollup {
+
+        private final Duration m_step;
+        private final int m_ttl;
+
+        /**
+         * @param step
+         *            the step (width) of the rollup's buckets, in whole seconds
+         * @param ttl
+         *            the time-to-live of rolled up buckets, in seconds (zero for none)
+         */
+        public Rollup(Duration step, int ttl) {
+            m_step = checkNotNull(step, "step argument");
+            checkArgument(step.asSeconds() > 0 && step.asMillis() % 1000 == 0, "step must be a whole number of seconds");
+            checkArgument(ttl >= 0, "Negative rollup TTL");
+            m_ttl = ttl;
+        }
+
+        public Duration getStep() {
+            return m_step;
+        }
+
+        public int getTimeToLive() {
+            return m_ttl;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[step=%s, ttl=%d]", getClass().getSimpleName(), m_step, m_ttl);
+        }
+
+    }
+
+    private static final Comparator<Rollup> BY_STEP = new Comparator<Rollup>() {
+
+        @Override
+        public int compare(Rollup o1, Rollup o2) {
+            return Long.compare(o1.getStep().asMillis(), o2.getStep().asMillis());
+        }
+    };
+
+    private final List<Rollup> m_rollups;
+    private final Duration m_flushDelay;
+    private final int m_maxBuffered;
+
+    public RollupConfiguration() {
+        this(Collections.<Rollup> emptyList(), DEFAULT_FLUSH_DELAY, DEFAULT_MAX_BUFFERED);
+    }
+
+    /**
+     * @param rollups
+     *            the rollups to maintain, each of a distinct step
+     * @param flushDelay
+     *            the amount of time a bucket is buffered for after it closes, (in anticipation of
+     *            late samples), before it is written
+     * @param maxBuffered
+     *            the maximum number of buckets buffered before all are written
+     */
+    public RollupConfiguration(List<Rollup> rollups, Duration flushDelay, int maxBuffered) {
+        List<Rollup> sorted = Lists.newArrayList(checkNotNull(rollups, "rollups argument"));
+        Collections.sort(sorted, BY_STEP);
+
+        for (int i = 1; i < sorted.size(); i++) {
+            checkArgument(BY_STEP.compare(sorted.get(i - 1), sorted.get(i)) != 0, "Duplicate rollup step: %s", sorted.get(i).getStep());
+        }
+
+        m_rollups = ImmutableList.copyOf(sorted);
+        m_flushDelay = checkNotNull(flushDelay, "flushDelay argument");
+        checkArgument(maxBuffered > 0, "maxBuffered must be greater than zero");
+        m_maxBuffered = maxBuffered;
+    }
+
+    public boolean isEnabled() {
+        return !m_rollups.isEmpty();
+    }
+
+    /**
+     * @return the configured rollups, by ascending step
+     */
+    public List<Rollup> getRollups() {
+        return m_rollups;
+    }
+
+    public Duration getFlushDelay() {
+        return m_flushDelay;
+    }
+
+    public int getMaxBuffered() {
+        return m_maxBuffered;
+    }
+
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleBatchProcessor;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration.Rollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * Maintains pre-aggregated rollups of samples (the count, minimum, maximum, sum and last value of
+ * each metric), in buckets of each of the configured steps.
+ * <p>
+ * Buckets are buffered in memory until they have been closed (the time they end has passed) for
+ * the configured flush delay, and then written as a partial rollup; Samples that arrive later
+ * than that are written as additional partials of the same bucket, and partials are merged when
+ * read. Buckets ending at time T hold the samples collected in (T - step, T].
+ * <p>
+ * Delivery is at-least-once, and rollups are not idempotent; A sample submitted more than once,
+ * (re-inserted by a client that retries, say), is counted and summed more than once. For that
+ * reason, a {@link JournalingSampleRepository} submits samples to rollups as they are journaled,
+ * and not each time they are replayed.
+ * </p>
+ * <p>
+ * Partials that fail to be written are buffered again, and retried (with the same id, so that a
+ * write that only appeared to fail is not counted twice) until written; They are dropped only once
+ * the configured maximum number of buckets are buffered.
+ * </p>
+ * <p>
+ * Buffered buckets have not yet been written to Cassandra, and are lost if the process exits
+ * without a call to {@link #flush()} or {@link #shutdown()}.
+ * </p>
+ */
+public class RollupSampleProcessor implements SampleBatchProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RollupSampleProcessor.class);
+
+    /** The number of buckets of a rollup stored in each Cassandra partition. */
+    static final int BUCKETS_PER_PARTITION = 1000;
+
+    private final CassandraSession m_session;
+    private final ContextConfigurations m_contextConfigurations;
+    private final List<Rollup> m_rollups;
+    private final long m_flushDelay;
+    private final int m_maxBuffered;
+
+    private final PreparedStatement m_insertStatement;
+    private final PreparedStatement m_insertWithTtlStatement;
+
+    private final ScheduledExecutorService m_scheduler;
+
+    private final Meter m_bucketsWritten;
+    private final Meter m_writeFailures;
+    private final Meter m_bucketsDropped;
+
+    // Buffered buckets, by end time (in milliseconds), and those that failed to be written (and
+    // are to be retried); Guarded by this
+    private final NavigableMap<Long, Map<BucketKey, Bucket>> m_buffers = Maps.newTreeMap();
+    private List<Partial> m_failed = Lists.newArrayList();
+    private int m_buffered = 0;
+
+    @Inject
+    public RollupSampleProcessor(CassandraSession session, ContextConfigurations contextConfigurations, RollupConfiguration config, MetricRegistry registry) {
+        m_session = checkNotNull(session, "session argument");
+        m_contextConfigurations = checkNotNull(contextConfigurations, "contextConfigurations argument");
+        checkNotNull(config, "config argument");
+        checkNotNull(registry, "metric registry argument");
+        checkArgument(config.isEnabled(), "no rollups configured");
+
+        m_rollups = config.getRollups();
+        m_flushDelay = config.getFlushDelay().asMillis();
+        m_maxBuffered = config.getMaxBuffered();
+
+        m_insertStatement = m_session.prepare(insertStatement(false).toString());
+        m_insertWithTtlStatement = m_session.prepare(insertStatement(true).toString());
+
+        m_bucketsWritten = registry.meter(name("repository", "rollups", "buckets-written"));
+        m_writeFailures = registry.meter(name("repository", "rollups", "write-failures"));
+        m_bucketsDropped = registry.meter(name("repository", "rollups", "buckets-dropped"));
+
+        registry.register(name("repository", "rollups", "buckets-buffered"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                synchronized (RollupSampleProcessor.this) {
+                    return m_buffered;
+                }
+            }
+        });
+
+        m_scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rollup-flusher-%d").setDaemon(true).build());
+
+        m_scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    write(removeFailed());
+                    write(removeBuckets(System.currentTimeMillis() - m_flushDelay));
+                }
+                catch (RuntimeException e) {
+                    LOG.error("Unable to write sample rollups", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void submit(Collection<Sample> samples) {
+        Map<Long, Map<BucketKey, Bucket>> full = null;
+
+        synchronized (this) {
+            for (Sample sample : samples) {
+                add(sample.getContext(), sample.getResource().getId(), sample.getName(), sample.getType(), sample.getTimestamp().asMillis(), sample.getValue().doubleValue());
+            }
+            if (m_buffered >= m_maxBuffered) {
+                full = removeBuckets(Long.MAX_VALUE);
+            }
+        }
+
+        if (full != null) {
+            write(full);
+        }
+    }
+
+    @Override
+    public void submit(SampleBatch batch) {
+        Map<Long, Map<BucketKey, Bucket>> full = null;
+
+        synchronized (this) {
+            for (int i = 0; i < batch.size(); i++) {
+                MetricType type = batch.getType(i);
+                double value = (type == MetricType.GAUGE) ? Double.longBitsToDouble(batch.getRawValue(i)) : batch.getValue(i).doubleValue();
+                add(batch.getContext(i), batch.getResource(i).getId(), batch.getName(i), type, batch.getTimestamp(i), value);
+            }
+            if (m_buffered >= m_maxBuffered) {
+                full = removeBuckets(Long.MAX_VALUE);
+            }
+        }
+
+        if (full != null) {
+            write(full);
+        }
+    }
+
+    /**
+     * Writes all buffered buckets, (including those that failed to be written before), and waits
+     * for the writes to complete.
+     *
+     * @throws DriverException
+     *             if any fail to be written, (once all have completed, and those that failed are
+     *             buffered again)
+     */
+    public void flush() {
+        List<ListenableFuture<ResultSet>> futures = write(removeFailed());
+        futures.addAll(write(removeBuckets(Long.MAX_VALUE)));
+
+        Throwable failure = null;
+
+        for (ListenableFuture<ResultSet> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            }
+            catch (ExecutionException e) {
+                failure = (failure != null) ? failure : e.getCause();
+            }
+        }
+
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+    }
+
+    /**
+     * Stops the periodic writing of closed buckets, and {@link #flush() flushes}.
+     */
+    public void shutdown() {
+        m_scheduler.shutdown();
+        flush();
+    }
+
+    // Guarded by this
+    private void add(Context context, String resourceId, String metric, MetricType type, long timestamp, double value) {
+        for (Rollup rollup : m_rollups) {
+            long step = rollup.getStep().asMillis();
+            long end = bucket(timestamp, step);
+
+            Map<BucketKey, Bucket> buckets = m_buffers.get(end);
+            if (buckets == null) {
+                buckets = Maps.newHashMap();
+                m_buffers.put(end, buckets);
+            }
+
+            BucketKey key = new BucketKey(context, resourceId, metric, rollup);
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                buckets.put(key, bucket);
+                m_buffered += 1;
+            }
+
+            bucket.add(type, timestamp, value);
+        }
+    }
+
+    /** Removes the buffered buckets ending at or before {@code cutoff}. */
+    private synchronized Map<Long, Map<BucketKey, Bucket>> removeBuckets(long cutoff) {
+        Map<Long, Map<BucketKey, Bucket>> removed = m_buffers.headMap(cutoff, true);
+        Map<Long, Map<BucketKey, Bucket>> buckets = Maps.newTreeMap();
+
+        for (Map<BucketKey, Bucket> byKey : removed.values()) {
+            m_buffered -= byKey.size();
+        }
+
+        buckets.putAll(removed);
+        removed.clear();
+
+        return buckets;
+    }
+
+    /** Removes the partials that failed to be written. */
+    private synchronized List<Partial> removeFailed() {
+        List<Partial> failed = m_failed;
+        m_failed = Lists.newArrayList();
+        m_buffered -= failed.size();
+        return failed;
+    }
+
+    /** Buffers a partial that failed to be written, to be retried, (or drops it if the buffer is full). */
+    private synchronized void failed(Partial partial, Throwable t) {
+        m_writeFailures.mark();
+
+        if (m_buffered >= m_maxBuffered) {
+            LOG.error("Unable to write sample rollup, (dropping it, as {} buckets are buffered)", m_buffered, t);
+            m_bucketsDropped.mark();
+            return;
+        }
+
+        LOG.warn("Unable to write sample rollup, (retrying): {}", t.toString());
+        m_failed.add(partial);
+        m_buffered += 1;
+    }
+
+    private List<ListenableFuture<ResultSet>> write(Map<Long, Map<BucketKey, Bucket>> buckets) {
+        List<Partial> partials = Lists.newArrayList();
+
+        for (Map.Entry<Long, Map<BucketKey, Bucket>> byEnd : buckets.entrySet()) {
+            for (Map.Entry<BucketKey, Bucket> entry : byEnd.getValue().entrySet()) {
+                partials.add(new Partial(byEnd.getKey(), entry.getKey(), entry.getValue(), UUIDs.timeBased()));
+            }
+        }
+
+        return write(partials);
+    }
+
+    /**
+     * Writes partial rollups; Those that fail to be written are {@link #failed(Partial, Throwable)
+     * buffered again} before the futures returned fail.
+     */
+    private List<ListenableFuture<ResultSet>> write(List<Partial> partials) {
+        List<ListenableFuture<ResultSet>> futures = Lists.newArrayList();
+
+        for (final Partial partial : partials) {
+            long end = partial.end;
+            BucketKey key = partial.key;
+            Bucket bucket = partial.bucket;
+            int ttl = key.rollup.getTimeToLive();
+
+            BoundStatement bindStatement = (ttl > 0) ? m_insertWithTtlStatement.bind() : m_insertStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, key.context.getId());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, key.resourceId);
+            bindStatement.setInt(SchemaConstants.F_STEP, (int) key.rollup.getStep().asSeconds());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, partition(end, key.rollup));
+            bindStatement.setTimestamp(SchemaConstants.F_BUCKET, new Date(end));
+            bindStatement.setString(SchemaConstants.F_METRIC_NAME, key.metric);
+            bindStatement.setUUID(SchemaConstants.F_ID, partial.id);
+            bindStatement.setInt(SchemaConstants.F_TYPE, bucket.type.getCode());
+            bindStatement.setInt(SchemaConstants.F_SAMPLE_COUNT, bucket.count);
+            bindStatement.setDouble(SchemaConstants.F_MIN_VALUE, bucket.min);
+            bindStatement.setDouble(SchemaConstants.F_MAX_VALUE, bucket.max);
+            bindStatement.setDouble(SchemaConstants.F_SUM_VALUE, bucket.sum);
+            bindStatement.setDouble(SchemaConstants.F_LAST_VALUE, bucket.last);
+            bindStatement.setTimestamp(SchemaConstants.F_LAST, new Date(bucket.lastAt));
+            if (ttl > 0) {
+                bindStatement.setInt("ttl", ttl);
+            }
+            bindStatement.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(key.context));
+
+            futures.add(Futures.withFallback(m_session.executeAsync(bindStatement), new FutureFallback<ResultSet>() {
+
+                @Override
+                public ListenableFuture<ResultSet> create(Throwable t) {
+                    failed(partial, t);
+                    return Futures.immediateFailedFuture(t);
+                }
+            }));
+        }
+
+        m_bucketsWritten.mark(partials.size());
+
+        return futures;
+    }
+
+    private static com.datastax.driver.core.querybuilder.Insert insertStatement(boolean withTtl) {
+        com.datastax.driver.core.querybuilder.Insert insert = insertInto(SchemaConstants.T_SAMPLE_ROLLUPS)
+                .value(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT))
+                .value(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE))
+                .value(SchemaConstants.F_STEP, bindMarker(SchemaConstants.F_STEP))
+                .value(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION))
+                .value(SchemaConstants.F_BUCKET, bindMarker(SchemaConstants.F_BUCKET))
+                .value(SchemaConstants.F_METRIC_NAME, bindMarker(SchemaConstants.F_METRIC_NAME))
+                .value(SchemaConstants.F_ID, bindMarker(SchemaConstants.F_ID))
+                .value(SchemaConstants.F_TYPE, bindMarker(SchemaConstants.F_TYPE))
+                .value(SchemaConstants.F_SAMPLE_COUNT, bindMarker(SchemaConstants.F_SAMPLE_COUNT))
+                .value(SchemaConstants.F_MIN_VALUE, bindMarker(SchemaConstants.F_MIN_VALUE))
+                .value(SchemaConstants.F_MAX_VALUE, bindMarker(SchemaConstants.F_MAX_VALUE))
+                .value(SchemaConstants.F_SUM_VALUE, bindMarker(SchemaConstants.F_SUM_VALUE))
+                .value(SchemaConstants.F_LAST_VALUE, bindMarker(SchemaConstants.F_LAST_VALUE))
+                .value(SchemaConstants.F_LAST, bindMarker(SchemaConstants.F_LAST));
+
+        if (withTtl) {
+            insert.using(ttl(bindMarker("ttl")));
+        }
+
+        return insert;
+    }
+
+    /** @return the end of the bucket (of {@code step} milliseconds) that {@code timestamp} falls in */
+    static long bucket(long timestamp, long step) {
+        long remainder = timestamp % step;
+        if (remainder == 0) {
+            return timestamp;
+        }
+        return (remainder > 0) ? timestamp - remainder + step : timestamp - remainder;
+    }
+
+    /** @return the partition (in seconds) holding the bucket of {@code rollup} that ends at {@code end} */
+    static int partition(long end, Rollup rollup) {
+        long width = rollup.getStep().asMillis() * BUCKETS_PER_PARTITION;
+        return (int) ((end - (((end % width) + width) % width)) / 1000);
+    }
+
+    /** A partial rollup of a bucket, (to be written with a given id). */
+    private static class Partial {
+
+        private final long end;
+        private final BucketKey key;
+        private final Bucket bucket;
+        private final UUID id;
+
+        private Partial(long end, BucketKey key, Bucket bucket, UUID id) {
+            this.end = end;
+            this.key = key;
+            this.bucket = bucket;
+            this.id = id;
+        }
+
+    }
+
+    private static class BucketKey {
+
+        private final Context context;
+        private final String resourceId;
+        private final String metric;
+        private final Rollup rollup;
+
+        private BucketKey(Context context, String resourceId, String metric, Rollup rollup) {
+            this.context = context;
+            this.resourceId = resourceId;
+            this.metric = metric;
+            this.rollup = rollup;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId, metric, rollup);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey other = (BucketKey) obj;
+            return context.equals(other.context) && resourceId.equals(other.resourceId) && metric.equals(other.metric) && rollup == other.rollup;
+        }
+
+    }
+
+    private static class Bucket {
+
+        private MetricType type;
+        private int count;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+        private double sum = Double.NaN;
+        private double last = Double.NaN;
+        private long lastAt = Long.MIN_VALUE;
+
+        private void add(MetricType type, long timestamp, double value) {
+            this.type = type;
+
+            if (Double.isNaN(value)) {
+                return;
+            }
+
+            if (count == 0) {
+                min = max = sum = value;
+            }
+            else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+
+            if (timestamp >= lastAt) {
+                last = value;
+                lastAt = timestamp;
+            }
+
+            count += 1;
+        }
+
+    }
+
+}
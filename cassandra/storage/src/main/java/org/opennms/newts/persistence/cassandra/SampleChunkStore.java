@@ -0,0 +1,653 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.newts.aggregate.IntervalGenerator;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.Delete;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Stores samples as compressed chunks (see {@link ChunkCodec}), one or more per metric and time window.
+ * Samples are buffered in memory, per resource, metric and window, until either the configured
+ * number of samples has accumulated, or they have been buffered for the maximum configured age;
+ * Reads include buffered samples, and those of buffers being written.
+ * <p>
+ * A buffer is kept until its chunk has been written; Those that fail to be written are retried,
+ * (under the same id, so that a write that only appeared to fail is not duplicated), by the
+ * background writer.
+ * </p>
+ * <p>
+ * Each chunk is written under a (time-based) id of its own, taken when its buffer is created, so
+ * that a window's chunks never replace one another, however their samples overlap; Reads merge
+ * them, in the order buffered, so that (as with rows of samples) the last sample written for a
+ * timestamp and metric is the one returned.
+ * </p>
+ * <p>
+ * Buffered samples have not yet been written to Cassandra, and are lost if the process exits
+ * without a call to {@link #flush()} or {@link #shutdown()}.
+ * </p>
+ */
+class SampleChunkStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleChunkStore.class);
+
+    private static final int DELETION_INTERVAL = 360;
+
+    private static final Comparator<Sample> BY_TIMESTAMP = new Comparator<Sample>() {
+
+        @Override
+        public int compare(Sample o1, Sample o2) {
+            return o1.getTimestamp().compareTo(o2.getTimestamp());
+        }
+    };
+
+    private final CassandraSession m_session;
+    private final int m_ttl;
+    private final ContextConfigurations m_contextConfigurations;
+    private final Duration m_window;
+    private final int m_maxSamples;
+    private final long m_maxAgeNanos;
+    private final int m_selectWindow;
+    private final int m_fetchSize;
+
+    private final PreparedStatement m_insertStatement;
+    private final PreparedStatement m_selectStatement;
+    private final PreparedStatement m_deleteStatement;
+
+    private final ScheduledExecutorService m_scheduler;
+
+    private final Meter m_chunksWritten;
+    private final Meter m_samplesWritten;
+    private final Meter m_bytesWritten;
+    private final Meter m_writeFailures;
+
+    // Buffers being filled, those being written (or that failed to be, and are to be retried), and
+    // the number of samples of both; Guarded by this
+    private final Map<ResourceKey, Map<BufferKey, Buffer>> m_buffers = Maps.newHashMap();
+    private final Map<ResourceKey, Set<Buffer>> m_flushing = Maps.newHashMap();
+    private List<Buffer> m_failed = Lists.newArrayList();
+    private int m_buffered = 0;
+
+    SampleChunkStore(CassandraSession session, int ttl, ContextConfigurations contextConfigurations, ChunkConfiguration config, int selectWindow, int fetchSize, MetricRegistry registry) {
+        m_session = checkNotNull(session, "session argument");
+        checkArgument(ttl >= 0, "Negative Cassandra column TTL");
+        checkArgument(selectWindow > 0, "selectWindow must be greater than zero");
+        checkArgument(fetchSize > 0, "fetchSize must be greater than zero");
+        m_ttl = ttl;
+        m_selectWindow = selectWindow;
+        m_fetchSize = fetchSize;
+        m_contextConfigurations = checkNotNull(contextConfigurations, "contextConfigurations argument");
+        checkNotNull(config, "config argument");
+        checkNotNull(registry, "metric registry argument");
+
+        m_window = config.getWindow();
+        m_maxSamples = config.getMaxSamples();
+        m_maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxAge().asMillis());
+
+        m_insertStatement = m_session.prepare(insertInto(SchemaConstants.T_SAMPLE_CHUNKS)
+                .value(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT))
+                .value(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION))
+                .value(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE))
+                .value(SchemaConstants.F_WINDOW_START, bindMarker(SchemaConstants.F_WINDOW_START))
+                .value(SchemaConstants.F_METRIC_NAME, bindMarker(SchemaConstants.F_METRIC_NAME))
+                .value(SchemaConstants.F_ID, bindMarker(SchemaConstants.F_ID))
+                .value(SchemaConstants.F_FIRST, bindMarker(SchemaConstants.F_FIRST))
+                .value(SchemaConstants.F_LAST, bindMarker(SchemaConstants.F_LAST))
+                .value(SchemaConstants.F_SAMPLE_COUNT, bindMarker(SchemaConstants.F_SAMPLE_COUNT))
+                .value(SchemaConstants.F_CHUNK, bindMarker(SchemaConstants.F_CHUNK))
+                .using(ttl(bindMarker("ttl"))).toString());
+
+        Select select = QueryBuilder.select().from(SchemaConstants.T_SAMPLE_CHUNKS);
+        select.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        select.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+        select.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+        select.where(gte(SchemaConstants.F_WINDOW_START, bindMarker("start")));
+        select.where(lte(SchemaConstants.F_WINDOW_START, bindMarker("end")));
+
+        m_selectStatement = m_session.prepare(select.toString());
+
+        Delete delete = QueryBuilder.delete().from(SchemaConstants.T_SAMPLE_CHUNKS);
+        delete.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        delete.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+        delete.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+
+        m_deleteStatement = m_session.prepare(delete.toString());
+
+        m_chunksWritten = registry.meter(name("repository", "chunks", "chunks-written"));
+        m_samplesWritten = registry.meter(name("repository", "chunks", "samples-written"));
+        m_bytesWritten = registry.meter(name("repository", "chunks", "bytes-written"));
+        m_writeFailures = registry.meter(name("repository", "chunks", "write-failures"));
+
+        registry.register(name("repository", "chunks", "samples-buffered"), new Gauge<Integer>() {
+
+            @Override
+            public Integer getValue() {
+                synchronized (SampleChunkStore.this) {
+                    return m_buffered;
+                }
+            }
+        });
+
+        m_scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("chunk-flusher-%d").setDaemon(true).build());
+
+        long period = Math.min(config.getMaxAge().asMillis(), 1000);
+
+        m_scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    write(removeFailed());
+                    write(removeBuffers(true));
+                }
+                catch (RuntimeException e) {
+                    LOG.error("Unable to write expired sample chunks", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers samples, writing the chunks of any buffers that have filled as a result.
+     *
+     * @return futures for the chunks written
+     */
+    List<ResultSetFuture> append(Collection<Sample> samples, boolean calculateTimeToLive) {
+        List<Buffer> full = Lists.newArrayList();
+
+        synchronized (this) {
+            for (Sample sample : samples) {
+                ResourceKey resourceKey = new ResourceKey(sample.getContext(), sample.getResource().getId());
+                BufferKey key = new BufferKey(sample.getName(), sample.getTimestamp().stepFloor(m_window).asMillis());
+
+                Map<BufferKey, Buffer> buffers = m_buffers.get(resourceKey);
+                if (buffers == null) {
+                    buffers = Maps.newHashMap();
+                    m_buffers.put(resourceKey, buffers);
+                }
+
+                Buffer buffer = buffers.get(key);
+                if (buffer == null) {
+                    buffer = new Buffer(sample.getContext(), sample.getResource().getId(), key);
+                    buffers.put(key, buffer);
+                }
+
+                buffer.add(sample, calculateTimeToLive);
+                m_buffered += 1;
+
+                if (buffer.samples.size() >= m_maxSamples) {
+                    buffers.remove(key);
+                    if (buffers.isEmpty()) {
+                        m_buffers.remove(resourceKey);
+                    }
+                    flushing(buffer);
+                    full.add(buffer);
+                }
+            }
+        }
+
+        return write(full);
+    }
+
+    /**
+     * Writes all buffered samples, (including those that failed to be written before), and waits
+     * for the writes to complete.
+     */
+    void flush() {
+        List<ResultSetFuture> futures = write(removeFailed());
+        futures.addAll(write(removeBuffers(false)));
+
+        for (ResultSetFuture future : futures) {
+            future.getUninterruptibly();
+        }
+    }
+
+    /**
+     * Stops the periodic writing of expired buffers, and {@link #flush() flushes}.
+     */
+    void shutdown() {
+        m_scheduler.shutdown();
+        flush();
+    }
+
+    SampleRowIterator select(Context context, Resource resource, Timestamp start, Timestamp end, Set<String> metrics) {
+        ChunkAdapter adapter = new ChunkAdapter(start, end, metrics);
+        addChunks(adapter, context, resource, new ConcurrentResultWrapper(m_session, selectStatements(context, resource, start, end).iterator(), m_selectWindow));
+        addBuffered(adapter, context, resource);
+
+        return adapter;
+    }
+
+    ListenableFuture<SampleRowIterator> selectAsync(final Context context, final Resource resource, final Timestamp start, final Timestamp end, final Set<String> metrics) {
+        ListenableFuture<List<ResultSet>> results;
+
+        try {
+            results = CassandraSampleRepository.fetchAll(m_session, selectStatements(context, resource, start, end), m_selectWindow);
+        }
+        catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
+        return Futures.transform(results, new Function<List<ResultSet>, SampleRowIterator>() {
+
+            @Override
+            public SampleRowIterator apply(List<ResultSet> input) {
+                ChunkAdapter adapter = new ChunkAdapter(start, end, metrics);
+                addChunks(adapter, context, resource, Iterables.concat(input).iterator());
+                addBuffered(adapter, context, resource);
+                return adapter;
+            }
+        });
+    }
+
+    void delete(Context context, Resource resource) {
+        synchronized (this) {
+            ResourceKey resourceKey = new ResourceKey(context, resource.getId());
+            Map<BufferKey, Buffer> buffers = m_buffers.remove(resourceKey);
+            if (buffers != null) {
+                for (Buffer buffer : buffers.values()) {
+                    m_buffered -= buffer.samples.size();
+                }
+            }
+
+            // Buffers already being written are no longer retried, (nor read)
+            Set<Buffer> flushing = m_flushing.remove(resourceKey);
+            if (flushing != null) {
+                for (Buffer buffer : flushing) {
+                    m_buffered -= buffer.samples.size();
+                }
+                m_failed.removeAll(flushing);
+            }
+        }
+
+        Timestamp end = Timestamp.now();
+
+        if (m_ttl > 0) {
+            deletePartitions(context, resource, end.minus(m_ttl, TimeUnit.SECONDS).minus(m_window), end);
+            return;
+        }
+
+        // Without a TTL, work backwards a year at a time for as long as chunks are found
+        Timestamp start = end.minus(DELETION_INTERVAL, TimeUnit.DAYS);
+
+        while (select(context, resource, start, end, Collections.<String> emptySet()).hasNext()) {
+            deletePartitions(context, resource, start, end);
+            end = start;
+            start = end.minus(DELETION_INTERVAL, TimeUnit.DAYS);
+        }
+    }
+
+    private void deletePartitions(Context context, Resource resource, Timestamp start, Timestamp end) {
+        List<ResultSetFuture> futures = Lists.newArrayList();
+
+        for (Timestamp partition : partitions(context, start, end)) {
+            BoundStatement bindStatement = m_deleteStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+
+            futures.add(m_session.executeAsync(bindStatement));
+        }
+
+        for (ResultSetFuture future : futures) {
+            future.getUninterruptibly();
+        }
+    }
+
+    /** @return the resource shards that hold the chunks of any windows between start and end */
+    private Iterable<Timestamp> partitions(Context context, Timestamp start, Timestamp end) {
+        Duration resourceShard = m_contextConfigurations.getResourceShard(context);
+        return new IntervalGenerator(start.stepFloor(m_window).stepFloor(resourceShard), end.stepFloor(resourceShard), resourceShard);
+    }
+
+    private List<Statement> selectStatements(Context context, Resource resource, Timestamp start, Timestamp end) {
+        List<Statement> statements = Lists.newArrayList();
+
+        for (Timestamp partition : partitions(context, start, end)) {
+            statements.add(bindSelect(context, partition, resource, start, end));
+        }
+
+        return statements;
+    }
+
+    private BoundStatement bindSelect(Context context, Timestamp partition, Resource resource, Timestamp start, Timestamp end) {
+        BoundStatement bindStatement = m_selectStatement.bind();
+        bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+        bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition.asSeconds());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+        bindStatement.setTimestamp("start", start.stepFloor(m_window).asDate());
+        bindStatement.setTimestamp("end", end.asDate());
+        // Use the context specific consistency level
+        bindStatement.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+        bindStatement.setFetchSize(m_fetchSize);
+
+        return bindStatement;
+    }
+
+    private static void addChunks(ChunkAdapter adapter, Context context, Resource resource, Iterator<Row> rows) {
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            String metric = row.getString(SchemaConstants.F_METRIC_NAME);
+
+            // Skip decoding chunks that cannot contribute to the results
+            if (!adapter.includes(metric)) {
+                continue;
+            }
+            if (!adapter.overlaps(Timestamp.fromDate(row.getTimestamp(SchemaConstants.F_FIRST)), Timestamp.fromDate(row.getTimestamp(SchemaConstants.F_LAST)))) {
+                continue;
+            }
+
+            adapter.add(ChunkCodec.decode(context, resource, metric, row.getBytes(SchemaConstants.F_CHUNK)));
+        }
+    }
+
+    private void addBuffered(ChunkAdapter adapter, Context context, Resource resource) {
+        List<Sample> buffered = Lists.newArrayList();
+
+        synchronized (this) {
+            ResourceKey resourceKey = new ResourceKey(context, resource.getId());
+
+            // Those being written were buffered first
+            Set<Buffer> flushing = m_flushing.get(resourceKey);
+            if (flushing != null) {
+                for (Buffer buffer : flushing) {
+                    buffered.addAll(buffer.samples);
+                }
+            }
+
+            Map<BufferKey, Buffer> buffers = m_buffers.get(resourceKey);
+            if (buffers != null) {
+                for (Buffer buffer : buffers.values()) {
+                    buffered.addAll(buffer.samples);
+                }
+            }
+        }
+
+        adapter.add(buffered);
+    }
+
+    /**
+     * Removes buffers for writing.
+     *
+     * @param expiredOnly
+     *            true to remove only those buffers older than the maximum age
+     */
+    private synchronized List<Buffer> removeBuffers(boolean expiredOnly) {
+        List<Buffer> removed = Lists.newArrayList();
+        long now = System.nanoTime();
+
+        for (Iterator<Map<BufferKey, Buffer>> outer = m_buffers.values().iterator(); outer.hasNext();) {
+            Map<BufferKey, Buffer> buffers = outer.next();
+
+            for (Iterator<Buffer> inner = buffers.values().iterator(); inner.hasNext();) {
+                Buffer buffer = inner.next();
+                if (!expiredOnly || (now - buffer.created) >= m_maxAgeNanos) {
+                    inner.remove();
+                    flushing(buffer);
+                    removed.add(buffer);
+                }
+            }
+
+            if (buffers.isEmpty()) {
+                outer.remove();
+            }
+        }
+
+        return removed;
+    }
+
+    /** Removes the buffers that failed to be written, to be retried. */
+    private synchronized List<Buffer> removeFailed() {
+        List<Buffer> failed = m_failed;
+        m_failed = Lists.newArrayList();
+        return failed;
+    }
+
+    // Guarded by this
+    private void flushing(Buffer buffer) {
+        ResourceKey resourceKey = new ResourceKey(buffer.context, buffer.resourceId);
+
+        Set<Buffer> flushing = m_flushing.get(resourceKey);
+        if (flushing == null) {
+            // In the order buffers are removed, (so that reads merge them in that order)
+            flushing = Sets.newLinkedHashSet();
+            m_flushing.put(resourceKey, flushing);
+        }
+
+        flushing.add(buffer);
+    }
+
+    /** Discards a buffer that has been written, (or has expired). */
+    private synchronized void written(Buffer buffer) {
+        ResourceKey resourceKey = new ResourceKey(buffer.context, buffer.resourceId);
+
+        Set<Buffer> flushing = m_flushing.get(resourceKey);
+        if (flushing == null || !flushing.remove(buffer)) {
+            return;
+        }
+        if (flushing.isEmpty()) {
+            m_flushing.remove(resourceKey);
+        }
+
+        m_buffered -= buffer.samples.size();
+    }
+
+    /** Queues a buffer that failed to be written to be retried, (unless its resource has since been deleted). */
+    private synchronized void failed(Buffer buffer, Throwable t) {
+        m_writeFailures.mark();
+
+        Set<Buffer> flushing = m_flushing.get(new ResourceKey(buffer.context, buffer.resourceId));
+        if (flushing == null || !flushing.contains(buffer)) {
+            return;
+        }
+
+        LOG.warn("Unable to write chunk of {} samples for {}:{}, (retrying): {}", buffer.samples.size(), buffer.resourceId, buffer.key.metric, t.toString());
+        m_failed.add(buffer);
+    }
+
+    /**
+     * Writes the chunks of buffers; Each is discarded once written, and queued to be retried if it
+     * fails to be.
+     */
+    private List<ResultSetFuture> write(List<Buffer> buffers) {
+        List<ResultSetFuture> futures = Lists.newArrayListWithCapacity(buffers.size());
+        Timestamp now = Timestamp.now();
+
+        for (Buffer buffer : buffers) {
+            List<Sample> samples = buffer.samples;
+            Collections.sort(samples, BY_TIMESTAMP);
+
+            Timestamp first = samples.get(0).getTimestamp();
+            Timestamp last = samples.get(samples.size() - 1).getTimestamp();
+
+            int ttl = m_ttl;
+            if (buffer.calculateTimeToLive) {
+                ttl -= (int) (now.asSeconds() - last.asSeconds());
+                if (ttl <= 0) {
+                    LOG.debug("Skipping expired chunk of {} samples for {}:{}", samples.size(), buffer.resourceId, buffer.key.metric);
+                    written(buffer);
+                    continue;
+                }
+            }
+
+            Timestamp window = Timestamp.fromEpochMillis(buffer.key.window);
+            Duration resourceShard = m_contextConfigurations.getResourceShard(buffer.context);
+            ByteBuffer chunk = ChunkCodec.encode(samples);
+
+            BoundStatement bindStatement = m_insertStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, buffer.context.getId());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, (int) window.stepFloor(resourceShard).asSeconds());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, buffer.resourceId);
+            bindStatement.setTimestamp(SchemaConstants.F_WINDOW_START, window.asDate());
+            bindStatement.setString(SchemaConstants.F_METRIC_NAME, buffer.key.metric);
+            bindStatement.setUUID(SchemaConstants.F_ID, buffer.id);
+            bindStatement.setTimestamp(SchemaConstants.F_FIRST, first.asDate());
+            bindStatement.setTimestamp(SchemaConstants.F_LAST, last.asDate());
+            bindStatement.setInt(SchemaConstants.F_SAMPLE_COUNT, samples.size());
+            bindStatement.setBytes(SchemaConstants.F_CHUNK, chunk);
+            bindStatement.setInt("ttl", ttl);
+            bindStatement.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(buffer.context));
+
+            m_chunksWritten.mark();
+            m_samplesWritten.mark(samples.size());
+            m_bytesWritten.mark(chunk.remaining());
+
+            final Buffer written = buffer;
+            ResultSetFuture future = m_session.executeAsync(bindStatement);
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+                @Override
+                public void onSuccess(ResultSet result) {
+                    written(written);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(written, t);
+                }
+            });
+
+            futures.add(future);
+        }
+
+        return futures;
+    }
+
+    private static class ResourceKey {
+        private final Context context;
+        private final String resourceId;
+
+        private ResourceKey(Context context, String resourceId) {
+            this.context = context;
+            this.resourceId = resourceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceKey)) return false;
+            ResourceKey other = (ResourceKey) obj;
+            return Objects.equals(context, other.context) && Objects.equals(resourceId, other.resourceId);
+        }
+    }
+
+    private static class BufferKey {
+        private final String metric;
+        private final long window;
+
+        private BufferKey(String metric, long window) {
+            this.metric = metric;
+            this.window = window;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metric, window);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BufferKey)) return false;
+            BufferKey other = (BufferKey) obj;
+            return Objects.equals(metric, other.metric) && window == other.window;
+        }
+    }
+
+    private static class Buffer {
+        private final Context context;
+        private final String resourceId;
+        private final BufferKey key;
+        private final List<Sample> samples = Lists.newArrayList();
+        private final long created = System.nanoTime();
+        // The id of the buffer's chunk, (however many times it is written)
+        private final UUID id = UUIDs.timeBased();
+        private boolean calculateTimeToLive = false;
+
+        private Buffer(Context context, String resourceId, BufferKey key) {
+            this.context = context;
+            this.resourceId = resourceId;
+            this.key = key;
+        }
+
+        private void add(Sample sample, boolean calculateTimeToLive) {
+            samples.add(sample);
+            this.calculateTimeToLive |= calculateTimeToLive;
+        }
+    }
+
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+
+/**
+ * A write-ahead journal of opaque records, stored in a directory of fixed-size, memory-mapped
+ * segment files. Records are appended to the newest segment, and a new segment is started when a
+ * record will not fit; Once {@code maxSegments} segments exist, appends fail with
+ * {@link JournalFullException}.
+ * <p>
+ * Appended records are made durable with {@link #sync(long)}; Concurrent callers share a single
+ * {@code msync}, so that the cost of syncing is amortized over all of the records appended while a
+ * preceding sync was in progress (group commit).
+ * </p>
+ * <p>
+ * Records are consumed by a single reader, which {@link #read(long) reads} from the last
+ * {@link #commit(long) committed} position. Committed positions are checkpointed to disk, and
+ * segments entirely before the committed position are deleted. Records read, but not committed,
+ * at the time of a crash are read again after recovery.
+ * </p>
+ * <p>
+ * Positions are the segment sequence number in the upper 32 bits, and the offset within the
+ * segment in the lower 32.
+ * </p>
+ */
+class SampleJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleJournal.class);
+
+    /** Segment header; Magic number, and format version. */
+    static final int SEGMENT_HEADER = 8;
+
+    /** Record header; Payload length, payload CRC32, and append time (milliseconds). */
+    static final int RECORD_HEADER = 16;
+
+    private static final int MAGIC = 0x4e4a524e;
+    private static final int VERSION = 1;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT = "checkpoint";
+
+    static class Record {
+
+        final ByteBuffer payload;
+        final long appendedAt;
+        final long next;
+
+        Record(ByteBuffer payload, long appendedAt, long next) {
+            this.payload = payload;
+            this.appendedAt = appendedAt;
+            this.next = next;
+        }
+
+    }
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private final int m_maxSegments;
+    private final Object m_syncLock = new Object();
+
+    // Guarded by this
+    private final NavigableMap<Long, MappedByteBuffer> m_segments = new TreeMap<>();
+    private long m_writePosition;
+    private long m_readPosition;
+    private boolean m_isClosed = false;
+
+    private volatile long m_syncedPosition;
+
+    /**
+     * Opens (or creates) the journal in {@code directory}, recovering any records that were
+     * appended, but not committed, before it was last closed.
+     */
+    SampleJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        m_directory = checkNotNull(directory, "directory argument");
+        checkArgument(segmentSize > SEGMENT_HEADER + RECORD_HEADER, "segmentSize must be greater than %s", SEGMENT_HEADER + RECORD_HEADER);
+        checkArgument(maxSegments > 1, "maxSegments must be greater than one");
+
+        m_segmentSize = segmentSize;
+        m_maxSegments = maxSegments;
+
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException(String.format("Unable to create journal directory %s", m_directory));
+        }
+
+        recover();
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return the position following the appended record
+     * @throws JournalFullException
+     *             if the record does not fit, and the maximum number of segments exist
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        checkState(!m_isClosed, "journal is closed");
+        checkArgument(SEGMENT_HEADER + RECORD_HEADER + payload.length <= m_segmentSize,
+                "record of %s bytes exceeds the journal segment size", payload.length);
+
+        long segment = segment(m_writePosition);
+        int offset = offset(m_writePosition);
+        MappedByteBuffer buffer = m_segments.get(segment);
+
+        if (offset + RECORD_HEADER + payload.length > buffer.capacity()) {
+            if (m_segments.size() >= m_maxSegments) {
+                throw new JournalFullException(String.format("Journal full (%d segments of %d bytes)", m_maxSegments, m_segmentSize));
+            }
+
+            // Everything in the outgoing segment is synced now, since sync() only considers the newest.
+            buffer.force();
+
+            segment += 1;
+            offset = SEGMENT_HEADER;
+            buffer = createSegment(segment);
+            m_segments.put(segment, buffer);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        record.putInt((int) crc.getValue());
+        record.putLong(System.currentTimeMillis());
+        record.put(payload);
+        // Length last; A zero length marks the end of the segment's records.
+        record.putInt(offset, payload.length);
+
+        m_writePosition = position(segment, offset + RECORD_HEADER + payload.length);
+        notifyAll();
+
+        return m_writePosition;
+    }
+
+    /**
+     * Blocks until the records preceding {@code position} are durable.
+     */
+    void sync(long position) {
+        if (m_syncedPosition >= position) {
+            return;
+        }
+
+        synchronized (m_syncLock) {
+            if (m_syncedPosition >= position) {
+                return;
+            }
+
+            long target;
+            MappedByteBuffer buffer;
+
+            synchronized (this) {
+                checkState(!m_isClosed, "journal is closed");
+                target = m_writePosition;
+                buffer = m_segments.lastEntry().getValue();
+            }
+
+            buffer.force();
+            m_syncedPosition = target;
+        }
+    }
+
+    /**
+     * Reads the record at {@code position}.
+     *
+     * @return the record, or null if there are no records at or after {@code position}
+     */
+    Record read(long position) {
+        while (true) {
+            long limit;
+            MappedByteBuffer segment;
+
+            synchronized (this) {
+                limit = m_writePosition;
+                if (position >= limit) {
+                    return null;
+                }
+                segment = m_segments.get(segment(position));
+                checkArgument(segment != null, "position %s precedes the journal", position);
+            }
+
+            ByteBuffer buffer = segment.duplicate();
+            int offset = offset(position);
+            int length = (offset + RECORD_HEADER <= buffer.capacity()) ? buffer.getInt(offset) : 0;
+
+            if (length <= 0 || offset + RECORD_HEADER + length > buffer.capacity()) {
+                // End of this segment's records; Continue with the next.
+                checkState(segment(position) < segment(limit), "no record at journal position %s", position);
+                position = position(segment(position) + 1, SEGMENT_HEADER);
+                continue;
+            }
+
+            buffer.position(offset + RECORD_HEADER).limit(offset + RECORD_HEADER + length);
+            ByteBuffer payload = buffer.slice();
+
+            if (!isValid(segment, offset, payload)) {
+                if (segment(position) < segment(limit)) {
+                    LOG.error("Corrupt journal record at {}:{}; Skipping the remainder of the segment", segment(position), offset);
+                    position = position(segment(position) + 1, SEGMENT_HEADER);
+                    continue;
+                }
+                throw new IllegalStateException(String.format("Corrupt journal record at %d:%d", segment(position), offset));
+            }
+
+            return new Record(payload, segment.getLong(offset + 8), position(segment(position), offset + RECORD_HEADER + length));
+        }
+    }
+
+    /**
+     * Blocks until a record is appended after {@code position}, or {@code timeoutMillis} elapses.
+     */
+    synchronized void awaitAppend(long position, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+
+        while (!m_isClosed && m_writePosition <= position && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Wakes any threads blocked in {@link #awaitAppend(long, long)}.
+     */
+    synchronized void wakeup() {
+        notifyAll();
+    }
+
+    /**
+     * Marks the records preceding {@code position} as consumed, deleting any segments that no
+     * longer contain unconsumed records.
+     */
+    void commit(long position) throws IOException {
+        List<Long> obsolete;
+
+        synchronized (this) {
+            checkArgument(position >= m_readPosition && position <= m_writePosition, "invalid commit position %s", position);
+
+            // At the end of a segment's records, the next record is at the start of the next segment.
+            MappedByteBuffer segment = m_segments.get(segment(position));
+            int offset = offset(position);
+            if (segment(position) < segment(m_writePosition)
+                    && (offset + RECORD_HEADER > segment.capacity() || segment.getInt(offset) <= 0)) {
+                position = position(segment(position) + 1, SEGMENT_HEADER);
+            }
+
+            m_readPosition = position;
+
+            Map<Long, MappedByteBuffer> head = m_segments.headMap(segment(position), false);
+            obsolete = Lists.newArrayList(head.keySet());
+            head.clear();
+        }
+
+        writeCheckpoint(position);
+
+        for (Long segment : obsolete) {
+            Files.deleteIfExists(segmentFile(segment).toPath());
+        }
+    }
+
+    synchronized long getReadPosition() {
+        return m_readPosition;
+    }
+
+    synchronized long getWritePosition() {
+        return m_writePosition;
+    }
+
+    /**
+     * @return the number of bytes between the read and write positions
+     */
+    synchronized long getLag() {
+        long lag = 0;
+
+        for (Map.Entry<Long, MappedByteBuffer> entry : m_segments.tailMap(segment(m_readPosition), true).entrySet()) {
+            int from = (entry.getKey() == segment(m_readPosition)) ? offset(m_readPosition) : SEGMENT_HEADER;
+            int to = (entry.getKey() == segment(m_writePosition)) ? offset(m_writePosition) : entry.getValue().capacity();
+            lag += to - from;
+        }
+
+        return lag;
+    }
+
+    /**
+     * @return the size (in bytes) of all segments
+     */
+    synchronized long getSize() {
+        long size = 0;
+        for (MappedByteBuffer segment : m_segments.values()) {
+            size += segment.capacity();
+        }
+        return size;
+    }
+
+    synchronized int getSegmentCount() {
+        return m_segments.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (m_isClosed) {
+            return;
+        }
+
+        m_isClosed = true;
+        m_segments.lastEntry().getValue().force();
+        m_segments.clear();
+        notifyAll();
+    }
+
+    private void recover() throws IOException {
+        long checkpoint = readCheckpoint();
+
+        for (Long segment : listSegments()) {
+            if (checkpoint >= 0 && segment < segment(checkpoint)) {
+                Files.deleteIfExists(segmentFile(segment).toPath());
+                continue;
+            }
+            m_segments.put(segment, openSegment(segment));
+        }
+
+        if (m_segments.isEmpty()) {
+            long segment = (checkpoint >= 0) ? segment(checkpoint) : 0;
+            m_segments.put(segment, createSegment(segment));
+        }
+
+        // Find the end of the newest segment's intact records, and discard anything after (a torn write).
+        Map.Entry<Long, MappedByteBuffer> last = m_segments.lastEntry();
+        MappedByteBuffer buffer = last.getValue();
+        int offset = SEGMENT_HEADER;
+
+        while (offset + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + RECORD_HEADER).limit(offset + RECORD_HEADER + length);
+            if (!isValid(buffer, offset, payload.slice())) {
+                LOG.warn("Discarding torn journal record at {}:{}", last.getKey(), offset);
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+
+        for (int i = offset; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+
+        m_writePosition = position(last.getKey(), offset);
+        m_syncedPosition = m_writePosition;
+
+        long first = position(m_segments.firstKey(), SEGMENT_HEADER);
+        m_readPosition = Math.min(Math.max(checkpoint, first), m_writePosition);
+
+        if (m_readPosition < m_writePosition) {
+            LOG.info("Recovered journal with {} bytes of unreplayed records", getLag());
+        }
+    }
+
+    private List<Long> listSegments() {
+        String[] names = m_directory.list(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        List<Long> segments = Lists.newArrayList();
+        for (String name : names) {
+            try {
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+            catch (NumberFormatException e) {
+                LOG.warn("Ignoring unrecognized journal file {}", name);
+            }
+        }
+
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private MappedByteBuffer createSegment(long segment) throws IOException {
+        MappedByteBuffer buffer = map(segmentFile(segment), m_segmentSize);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        return buffer;
+    }
+
+    private MappedByteBuffer openSegment(long segment) throws IOException {
+        File file = segmentFile(segment);
+        MappedByteBuffer buffer = map(file, (int) file.length());
+
+        if (buffer.capacity() < SEGMENT_HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(String.format("%s is not a valid journal segment", file));
+        }
+
+        return buffer;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(m_directory, String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private long readCheckpoint() throws IOException {
+        File file = new File(m_directory, CHECKPOINT);
+        if (!file.exists()) {
+            return -1;
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (bytes.length != Longs.BYTES) {
+            LOG.warn("Ignoring invalid journal checkpoint");
+            return -1;
+        }
+
+        return Longs.fromByteArray(bytes);
+    }
+
+    private void writeCheckpoint(long position) throws IOException {
+        File temp = new File(m_directory, CHECKPOINT + ".tmp");
+        Files.write(temp.toPath(), Longs.toByteArray(position));
+        Files.move(temp.toPath(), new File(m_directory, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static boolean isValid(ByteBuffer segment, int offset, ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        crc.update(bytes);
+        return segment.getInt(offset + 4) == (int) crc.getValue();
+    }
+
+    static long position(long segment, int offset) {
+        return (segment << 32) | (offset & 0xffffffffL);
+    }
+
+    static long segment(long position) {
+        return position >>> 32;
+    }
+
+    static int offset(long position) {
+        return (int) position;
+    }
+
+}
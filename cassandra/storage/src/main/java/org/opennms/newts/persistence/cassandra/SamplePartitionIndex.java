@@ -0,0 +1,231 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepository.PartitionKey;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.querybuilder.Delete;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+/**
+ * Records the (resource shard) partitions of the {@code samples} table that hold samples for a
+ * resource, so that reads and deletes spanning many shards need only query those that do.
+ * <p>
+ * Partitions are indexed alongside the samples written to them, and then remembered for the
+ * configured cache expiry, (or until evicted), so that they are not re-indexed with every insert.
+ * Index entries are written with a TTL of the sample TTL plus the cache expiry, which guarantees
+ * that they outlive every sample written while they were cached.
+ * </p>
+ */
+class SamplePartitionIndex {
+
+    private final CassandraSession m_session;
+    private final ContextConfigurations m_contextConfigurations;
+    private final Cache<PartitionKey, Boolean> m_indexed;
+
+    private final PreparedStatement m_insertStatement;
+    private final PreparedStatement m_selectStatement;
+    private final PreparedStatement m_deleteStatement;
+
+    private final Meter m_partitionsIndexed;
+
+    SamplePartitionIndex(CassandraSession session, int ttl, ContextConfigurations contextConfigurations, PartitionIndexConfiguration config, MetricRegistry registry) {
+        m_session = checkNotNull(session, "session argument");
+        checkArgument(ttl >= 0, "Negative Cassandra column TTL");
+        m_contextConfigurations = checkNotNull(contextConfigurations, "contextConfigurations argument");
+        checkNotNull(config, "config argument");
+        checkNotNull(registry, "metric registry argument");
+
+        m_indexed = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaxCacheEntries())
+                .expireAfterWrite(config.getCacheExpiry().asMillis(), TimeUnit.MILLISECONDS)
+                .build();
+
+        Insert insert = insertInto(SchemaConstants.T_SAMPLE_PARTITIONS)
+                .value(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT))
+                .value(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE))
+                .value(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION));
+
+        // Without a TTL, samples (and so index entries) are kept until deleted
+        if (ttl > 0) {
+            insert.using(ttl(ttl + (int) config.getCacheExpiry().asSeconds()));
+        }
+
+        m_insertStatement = m_session.prepare(insert.toString());
+
+        Select select = QueryBuilder.select(SchemaConstants.F_PARTITION).from(SchemaConstants.T_SAMPLE_PARTITIONS);
+        select.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        select.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+        select.where(gte(SchemaConstants.F_PARTITION, bindMarker("start")));
+        select.where(lte(SchemaConstants.F_PARTITION, bindMarker("end")));
+
+        m_selectStatement = m_session.prepare(select.toString());
+
+        Delete delete = QueryBuilder.delete().from(SchemaConstants.T_SAMPLE_PARTITIONS);
+        delete.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        delete.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+
+        m_deleteStatement = m_session.prepare(delete.toString());
+
+        m_partitionsIndexed = registry.meter(name("repository", "partition-index", "partitions-indexed"));
+    }
+
+    /**
+     * Indexes any of {@code keys} that have not been indexed recently.
+     *
+     * @return futures for the index entries written
+     */
+    List<ResultSetFuture> index(Collection<PartitionKey> keys) {
+        List<ResultSetFuture> futures = Lists.newArrayList();
+
+        for (final PartitionKey key : keys) {
+            if (m_indexed.getIfPresent(key) != null) {
+                continue;
+            }
+
+            BoundStatement bindStatement = m_insertStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, key.getContext().getId());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, key.getResourceId());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, key.getPartition());
+            bindStatement.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(key.getContext()));
+
+            ResultSetFuture future = m_session.executeAsync(bindStatement);
+
+            // Only once written; A failed write is retried by the next insert to the partition
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+
+                @Override
+                public void onSuccess(ResultSet result) {
+                    m_indexed.put(key, Boolean.TRUE);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    // pass
+                }
+            });
+
+            futures.add(future);
+        }
+
+        m_partitionsIndexed.mark(futures.size());
+
+        return futures;
+    }
+
+    /**
+     * @return the indexed partitions of {@code resource}, between {@code start} and {@code end}
+     *         (inclusive), in order
+     */
+    List<Timestamp> select(Context context, Resource resource, Timestamp start, Timestamp end) {
+        try {
+            return Uninterruptibles.getUninterruptibly(selectAsync(context, resource, start, end));
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the indexed partitions of {@code resource}, between {@code start} and {@code end}
+     *         (inclusive), in order
+     */
+    ListenableFuture<List<Timestamp>> selectAsync(Context context, Resource resource, Timestamp start, Timestamp end) {
+        BoundStatement bindStatement = m_selectStatement.bind();
+        bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+        bindStatement.setInt("start", (int) start.asSeconds());
+        bindStatement.setInt("end", (int) end.asSeconds());
+        bindStatement.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+
+        return Futures.transform(CassandraSampleRepository.fetchAll(m_session.executeAsync(bindStatement)), new Function<ResultSet, List<Timestamp>>() {
+
+            @Override
+            public List<Timestamp> apply(ResultSet input) {
+                List<Timestamp> partitions = Lists.newArrayList();
+
+                for (Row row : input) {
+                    partitions.add(Timestamp.fromEpochSeconds(row.getInt(SchemaConstants.F_PARTITION)));
+                }
+
+                return partitions;
+            }
+        });
+    }
+
+    /**
+     * Removes all of the index entries of {@code resource}.
+     */
+    void delete(Context context, Resource resource) {
+        BoundStatement bindStatement = m_deleteStatement.bind();
+        bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+        bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+        bindStatement.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(context));
+
+        m_session.executeAsync(bindStatement).getUninterruptibly();
+
+        Iterator<PartitionKey> keys = m_indexed.asMap().keySet().iterator();
+
+        while (keys.hasNext()) {
+            PartitionKey key = keys.next();
+            if (key.getContext().equals(context) && key.getResourceId().equals(resource.getId())) {
+                keys.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.newts.aggregate.IntervalGenerator;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.AggregationFunction;
+import org.opennms.newts.api.query.Datasource;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration.Rollup;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.Delete;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * Reads measurements from the rollups maintained by {@link RollupSampleProcessor}, in place of
+ * aggregating samples, (and deletes them along with a resource's samples).
+ * <p>
+ * A rollup is used for the rows of a query that {@link ResultDescriptor#isRollupsAllowed() allows}
+ * it, and that precede its flush delay (plus a margin), when the query's resolution is a multiple
+ * of the rollup's step, and every datasource is aggregated by
+ * {@link StandardAggregationFunctions#AVERAGE AVERAGE}, {@link StandardAggregationFunctions#MIN MIN},
+ * or {@link StandardAggregationFunctions#MAX MAX}. Rollups summarize samples as they were written,
+ * so averages are weighted by sample count (not by elapsed time, as primary data points are), and
+ * neither heartbeats nor the xff are applied; Only gauges are read from rollups.
+ * </p>
+ * <p>
+ * Samples are only rolled up once rollups are enabled, so rows up to (and including) the first
+ * that the rollup holds data for are left to be aggregated from samples.
+ * </p>
+ */
+class SampleRollupStore {
+
+    /** The time allowed, beyond the flush delay, for buffered rollups to be written. */
+    private static final Duration SETTLE_TIME = Duration.minutes(1);
+
+    /** How far back rollups without a TTL are deleted. */
+    private static final Duration DELETION_INTERVAL = Duration.days(360);
+
+    /**
+     * The rows of a query that are to be read from a rollup.
+     */
+    static class Selection {
+
+        private final Rollup m_rollup;
+        private final Timestamp m_first;
+        private final Timestamp m_last;
+
+        private Selection(Rollup rollup, Timestamp first, Timestamp last) {
+            m_rollup = rollup;
+            m_first = first;
+            m_last = last;
+        }
+
+        Rollup getRollup() {
+            return m_rollup;
+        }
+
+        /** @return the timestamp of the first row */
+        Timestamp getFirst() {
+            return m_first;
+        }
+
+        /** @return the timestamp of the last row */
+        Timestamp getLast() {
+            return m_last;
+        }
+
+    }
+
+    private final CassandraSession m_session;
+    private final ContextConfigurations m_contextConfigurations;
+    private final List<Rollup> m_rollups;
+    private final Duration m_flushDelay;
+    private final int m_selectWindow;
+    private final int m_fetchSize;
+
+    private final PreparedStatement m_selectStatement;
+    private final PreparedStatement m_deleteStatement;
+
+    private final Meter m_rollupsSelected;
+
+    SampleRollupStore(CassandraSession session, ContextConfigurations contextConfigurations, RollupConfiguration config, int selectWindow, int fetchSize, MetricRegistry registry) {
+        m_session = checkNotNull(session, "session argument");
+        m_contextConfigurations = checkNotNull(contextConfigurations, "contextConfigurations argument");
+        checkNotNull(config, "config argument");
+        checkArgument(selectWindow > 0, "selectWindow must be greater than zero");
+        checkArgument(fetchSize > 0, "fetchSize must be greater than zero");
+        checkNotNull(registry, "metric registry argument");
+
+        m_rollups = Lists.reverse(config.getRollups());
+        m_flushDelay = config.getFlushDelay();
+        m_selectWindow = selectWindow;
+        m_fetchSize = fetchSize;
+
+        Select select = QueryBuilder.select().from(SchemaConstants.T_SAMPLE_ROLLUPS);
+        select.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        select.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+        select.where(eq(SchemaConstants.F_STEP, bindMarker(SchemaConstants.F_STEP)));
+        select.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+        select.where(gte(SchemaConstants.F_BUCKET, bindMarker("start")));
+        select.where(lte(SchemaConstants.F_BUCKET, bindMarker("end")));
+
+        m_selectStatement = m_session.prepare(select.toString());
+
+        Delete delete = QueryBuilder.delete().from(SchemaConstants.T_SAMPLE_ROLLUPS);
+        delete.where(eq(SchemaConstants.F_CONTEXT, bindMarker(SchemaConstants.F_CONTEXT)));
+        delete.where(eq(SchemaConstants.F_RESOURCE, bindMarker(SchemaConstants.F_RESOURCE)));
+        delete.where(eq(SchemaConstants.F_STEP, bindMarker(SchemaConstants.F_STEP)));
+        delete.where(eq(SchemaConstants.F_PARTITION, bindMarker(SchemaConstants.F_PARTITION)));
+
+        m_deleteStatement = m_session.prepare(delete.toString());
+
+        m_rollupsSelected = registry.meter(name("repository", "rollups", "rollups-selected"));
+    }
+
+    /**
+     * Chooses the rollup, (if any), to read the leading rows of a query from.
+     *
+     * @return the rows to read from a rollup, or absent if none can be
+     */
+    Optional<Selection> choose(ResultDescriptor descriptor, Timestamp start, Timestamp end, Duration resolution) {
+        if (!descriptor.isRollupsAllowed() || descriptor.getDatasources().isEmpty()) {
+            return Optional.absent();
+        }
+
+        for (Datasource ds : descriptor.getDatasources().values()) {
+            AggregationFunction function = ds.getAggregationFuction();
+            if (function != StandardAggregationFunctions.AVERAGE && function != StandardAggregationFunctions.MIN && function != StandardAggregationFunctions.MAX) {
+                return Optional.absent();
+            }
+        }
+
+        Rollup rollup = null;
+
+        // Coarsest first
+        for (Rollup candidate : m_rollups) {
+            if (resolution.asMillis() % candidate.getStep().asMillis() == 0) {
+                rollup = candidate;
+                break;
+            }
+        }
+
+        if (rollup == null) {
+            return Optional.absent();
+        }
+
+        Timestamp now = Timestamp.now();
+        Timestamp first = start.stepFloor(resolution);
+        Timestamp cutoff = now.minus(m_flushDelay).minus(SETTLE_TIME).stepFloor(resolution);
+
+        if (cutoff.lt(first)) {
+            return Optional.absent();
+        }
+
+        // Rollups older than their TTL have expired
+        if (rollup.getTimeToLive() > 0 && first.minus(resolution).lt(now.minus(Duration.seconds(rollup.getTimeToLive())))) {
+            return Optional.absent();
+        }
+
+        Timestamp last = end.stepCeiling(resolution);
+
+        return Optional.of(new Selection(rollup, first, last.lt(cutoff) ? last : cutoff));
+    }
+
+    /**
+     * Reads the rows of {@code selection} from its rollup, following the first that it holds data
+     * for, (which, like those before it, may precede the enabling of the rollup, and may be
+     * incomplete).
+     *
+     * @return the aggregated measurements, (to which calculations and exports are yet to be
+     *         applied), or absent if the rollup holds data for none of the rows but the last, or
+     *         holds any that is not a gauge
+     */
+    ListenableFuture<Optional<Results<Measurement>>> selectAsync(Context context, final Resource resource, final ResultDescriptor descriptor, final Duration resolution, final Selection selection) {
+        final Rollup rollup = selection.getRollup();
+        long partitionWidth = rollup.getStep().asSeconds() * RollupSampleProcessor.BUCKETS_PER_PARTITION;
+
+        // The buckets of the first row start one resolution before it
+        long start = selection.getFirst().asMillis() - resolution.asMillis() + rollup.getStep().asMillis();
+        long end = selection.getLast().asMillis();
+
+        List<Statement> statements = Lists.newArrayList();
+
+        for (long partition = RollupSampleProcessor.partition(start, rollup); partition <= end / 1000; partition += partitionWidth) {
+            BoundStatement bindStatement = m_selectStatement.bind();
+            bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+            bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+            bindStatement.setInt(SchemaConstants.F_STEP, (int) rollup.getStep().asSeconds());
+            bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition);
+            bindStatement.setTimestamp("start", Timestamp.fromEpochMillis(start).asDate());
+            bindStatement.setTimestamp("end", Timestamp.fromEpochMillis(end).asDate());
+            bindStatement.setConsistencyLevel(m_contextConfigurations.getReadConsistency(context));
+            bindStatement.setFetchSize(m_fetchSize);
+
+            statements.add(bindStatement);
+        }
+
+        final Set<String> metrics = descriptor.getSourceNames();
+
+        return Futures.transform(CassandraSampleRepository.fetchAll(m_session, statements, m_selectWindow), new Function<List<ResultSet>, Optional<Results<Measurement>>>() {
+
+            @Override
+            public Optional<Results<Measurement>> apply(List<ResultSet> input) {
+                Map<Long, Map<String, Summary>> summaries = Maps.newHashMap();
+                int selected = 0;
+
+                for (ResultSet rs : input) {
+                    for (com.datastax.driver.core.Row row : rs) {
+                        String metric = row.getString(SchemaConstants.F_METRIC_NAME);
+                        if (!metrics.contains(metric)) {
+                            continue;
+                        }
+
+                        if (MetricType.fromCode((byte) row.getInt(SchemaConstants.F_TYPE)) != MetricType.GAUGE) {
+                            return Optional.absent();
+                        }
+
+                        long timestamp = RollupSampleProcessor.bucket(row.getTimestamp(SchemaConstants.F_BUCKET).getTime(), resolution.asMillis());
+
+                        Map<String, Summary> byMetric = summaries.get(timestamp);
+                        if (byMetric == null) {
+                            byMetric = Maps.newHashMap();
+                            summaries.put(timestamp, byMetric);
+                        }
+
+                        Summary summary = byMetric.get(metric);
+                        if (summary == null) {
+                            summary = new Summary();
+                            byMetric.put(metric, summary);
+                        }
+
+                        summary.merge(row);
+                        selected += 1;
+                    }
+                }
+
+                if (selected == 0) {
+                    return Optional.absent();
+                }
+
+                Timestamp first = null;
+
+                for (Timestamp timestamp : new IntervalGenerator(selection.getFirst(), selection.getLast(), resolution)) {
+                    if (summaries.containsKey(timestamp.asMillis())) {
+                        first = timestamp.plus(resolution);
+                        break;
+                    }
+                }
+
+                if (first == null || first.gt(selection.getLast())) {
+                    return Optional.absent();
+                }
+
+                m_rollupsSelected.mark(selected);
+
+                Results<Measurement> aggregates = new Results<>();
+
+                for (Timestamp timestamp : new IntervalGenerator(first, selection.getLast(), resolution)) {
+                    Map<String, Summary> byMetric = summaries.get(timestamp.asMillis());
+                    Row<Measurement> row = new Row<>(timestamp, resource);
+
+                    for (Datasource ds : descriptor.getDatasources().values()) {
+                        Summary summary = (byMetric != null) ? byMetric.get(ds.getSource()) : null;
+                        double value = (summary != null) ? summary.apply(ds.getAggregationFuction()) : Double.NaN;
+                        row.addElement(new Measurement(timestamp, resource, ds.getLabel(), value, Maps.<String, String> newHashMap()));
+                    }
+
+                    aggregates.addRow(row);
+                }
+
+                return Optional.of(aggregates);
+            }
+        });
+    }
+
+    /**
+     * Deletes the rollups of {@code resource}, back to the TTL of each rollup, (or a year for those
+     * without one).
+     */
+    void delete(Context context, Resource resource) {
+        List<ResultSetFuture> futures = Lists.newArrayList();
+        Timestamp now = Timestamp.now();
+
+        for (Rollup rollup : m_rollups) {
+            Duration retained = (rollup.getTimeToLive() > 0) ? Duration.seconds(rollup.getTimeToLive()) : DELETION_INTERVAL;
+            long partitionWidth = rollup.getStep().asSeconds() * RollupSampleProcessor.BUCKETS_PER_PARTITION;
+            long last = RollupSampleProcessor.partition(now.plus(m_flushDelay).asMillis(), rollup);
+
+            for (long partition = RollupSampleProcessor.partition(now.minus(retained).asMillis(), rollup); partition <= last; partition += partitionWidth) {
+                BoundStatement bindStatement = m_deleteStatement.bind();
+                bindStatement.setString(SchemaConstants.F_CONTEXT, context.getId());
+                bindStatement.setString(SchemaConstants.F_RESOURCE, resource.getId());
+                bindStatement.setInt(SchemaConstants.F_STEP, (int) rollup.getStep().asSeconds());
+                bindStatement.setInt(SchemaConstants.F_PARTITION, (int) partition);
+                bindStatement.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(context));
+
+                futures.add(m_session.executeAsync(bindStatement));
+            }
+        }
+
+        for (ResultSetFuture future : futures) {
+            future.getUninterruptibly();
+        }
+    }
+
+    /** The merged (partial) rollups of a metric, for one row. */
+    private static class Summary {
+
+        private int m_count;
+        private double m_min;
+        private double m_max;
+        private double m_sum;
+
+        private void merge(com.datastax.driver.core.Row row) {
+            int count = row.getInt(SchemaConstants.F_SAMPLE_COUNT);
+            if (count == 0) {
+                return;
+            }
+
+            double min = row.getDouble(SchemaConstants.F_MIN_VALUE);
+            double max = row.getDouble(SchemaConstants.F_MAX_VALUE);
+
+            m_min = (m_count == 0) ? min : Math.min(m_min, min);
+            m_max = (m_count == 0) ? max : Math.max(m_max, max);
+            m_sum += row.getDouble(SchemaConstants.F_SUM_VALUE);
+            m_count += count;
+        }
+
+        private double apply(AggregationFunction function) {
+            if (m_count == 0) {
+                return Double.NaN;
+            }
+            if (function == StandardAggregationFunctions.MIN) {
+                return m_min;
+            }
+            if (function == StandardAggregationFunctions.MAX) {
+                return m_max;
+            }
+            return m_sum / m_count;
+        }
+
+    }
+
+}
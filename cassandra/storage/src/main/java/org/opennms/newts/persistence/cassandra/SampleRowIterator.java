@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import java.util.Iterator;
+
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+
+
+/**
+ * Rows of samples read from storage, in timestamp order.
+ */
+interface SampleRowIterator extends Iterable<Results.Row<Sample>>, Iterator<Results.Row<Sample>> {
+
+    /**
+     * @return the number of samples read from storage (so far)
+     */
+    int getResultCount();
+
+}
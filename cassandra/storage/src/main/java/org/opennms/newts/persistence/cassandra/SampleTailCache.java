@@ -0,0 +1,468 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.Timestamp;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Caches the most recently written samples of each resource in memory, so that selects of recent
+ * samples need not read them from Cassandra.
+ * <p>
+ * The samples of each metric are held in a bounded ring buffer of primitive columns. A resource's
+ * cached samples are complete from the time it was first cached (or from just after the most
+ * recent sample discarded to bound the cache, if later); Selects starting at or after that time
+ * are served entirely from the cache, those spanning it are served from Cassandra up to that time
+ * and from the cache thereafter, and any others are not served from the cache at all.
+ * </p>
+ * <p>
+ * Samples are discarded once they are older than the configured horizon, or to make room for newer
+ * samples of the same metric. Should the cache hold more than the maximum number of samples, the
+ * least recently used resources are evicted.
+ * </p>
+ */
+class SampleTailCache {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Cached rows of samples, from a point in time.
+     */
+    static class Selection {
+
+        private final Timestamp m_from;
+        private final SampleRowIterator m_rows;
+
+        private Selection(Timestamp from, SampleRowIterator rows) {
+            m_from = from;
+            m_rows = rows;
+        }
+
+        /**
+         * @return the time from which the rows are complete (no earlier than the start of the
+         *         select)
+         */
+        Timestamp getFrom() {
+            return m_from;
+        }
+
+        SampleRowIterator getRows() {
+            return m_rows;
+        }
+
+    }
+
+    private final long m_horizon;
+    private final int m_maxSamplesPerMetric;
+    private final long m_maxSamples;
+
+    // Guarded by this; In access order, (least recently used first)
+    private final LinkedHashMap<ResourceKey, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long m_size = 0;
+
+    private final Meter m_hits;
+    private final Meter m_misses;
+    private final Meter m_stitches;
+    private final Meter m_evictions;
+
+    SampleTailCache(TailCacheConfiguration config, MetricRegistry registry) {
+        checkNotNull(config, "config argument");
+        checkNotNull(registry, "metric registry argument");
+
+        m_horizon = config.getHorizon().asMillis();
+        m_maxSamplesPerMetric = config.getMaxSamplesPerMetric();
+        m_maxSamples = config.getMaxSamples();
+
+        m_hits = registry.meter(name("repository", "tail-cache", "hits"));
+        m_misses = registry.meter(name("repository", "tail-cache", "misses"));
+        m_stitches = registry.meter(name("repository", "tail-cache", "stitches"));
+        m_evictions = registry.meter(name("repository", "tail-cache", "resources-evicted"));
+
+        registry.register(name("repository", "tail-cache", "samples-cached"), new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                synchronized (SampleTailCache.this) {
+                    return m_size;
+                }
+            }
+        });
+    }
+
+    /**
+     * Caches (written) samples.
+     */
+    void add(Collection<Sample> samples) {
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Entry entry = null;
+
+            for (Sample sample : samples) {
+                if (entry == null || !entry.isOf(sample.getContext(), sample.getResource().getId())) {
+                    entry = getOrCreate(sample.getContext(), sample.getResource().getId(), now);
+                }
+
+                m_size += entry.add(sample.getName(), sample.getTimestamp().asMillis(), sample.getType().getCode(),
+                        ChunkCodec.toBits(sample.getValue()), sample.getAttributes(), now - m_horizon);
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * Caches (written) samples, directly from the columns of {@code batch}.
+     */
+    void add(SampleBatch batch) {
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Entry entry = null;
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (entry == null || !entry.isOf(batch.getContext(i), batch.getResource(i).getId())) {
+                    entry = getOrCreate(batch.getContext(i), batch.getResource(i).getId(), now);
+                }
+
+                m_size += entry.add(batch.getName(i), batch.getTimestamp(i), batch.getType(i).getCode(),
+                        batch.getRawValue(i), batch.getAttributes(i), now - m_horizon);
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * @return the cached rows of {@code resource} between {@code start} and {@code end}
+     *         (inclusive), or absent if the cache holds none of the samples in that range
+     */
+    Optional<Selection> select(Context context, Resource resource, Timestamp start, Timestamp end, Set<String> metrics) {
+        long from;
+        ChunkAdapter rows;
+
+        synchronized (this) {
+            Entry entry = m_entries.get(new ResourceKey(context, resource.getId()));
+
+            if (entry == null || entry.getHorizon() > end.asMillis()) {
+                m_misses.mark();
+                return Optional.absent();
+            }
+
+            from = Math.max(start.asMillis(), entry.getHorizon());
+            rows = new ChunkAdapter(Timestamp.fromEpochMillis(from), end, metrics);
+
+            for (Map.Entry<String, Series> series : entry.series.entrySet()) {
+                if (rows.includes(series.getKey())) {
+                    rows.add(series.getValue().select(context, resource, series.getKey(), from, end.asMillis()));
+                }
+            }
+        }
+
+        if (from > start.asMillis()) {
+            m_stitches.mark();
+        }
+        else {
+            m_hits.mark();
+        }
+
+        return Optional.of(new Selection(Timestamp.fromEpochMillis(from), rows));
+    }
+
+    /**
+     * Discards the cached samples of {@code resource}.
+     */
+    synchronized void invalidate(Context context, Resource resource) {
+        Entry entry = m_entries.remove(new ResourceKey(context, resource.getId()));
+        if (entry != null) {
+            m_size -= entry.size;
+        }
+    }
+
+    private Entry getOrCreate(Context context, String resourceId, long now) {
+        ResourceKey key = new ResourceKey(context, resourceId);
+        Entry entry = m_entries.get(key);
+
+        if (entry == null) {
+            entry = new Entry(key, now);
+            m_entries.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /** Evicts the least recently used resources, for as long as the cache is over capacity. */
+    private void evict() {
+        Iterator<Entry> entries = m_entries.values().iterator();
+
+        while (m_size > m_maxSamples && entries.hasNext()) {
+            m_size -= entries.next().size;
+            entries.remove();
+            m_evictions.mark();
+        }
+    }
+
+    private static class ResourceKey {
+        private final Context context;
+        private final String resourceId;
+
+        private ResourceKey(Context context, String resourceId) {
+            this.context = context;
+            this.resourceId = resourceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, resourceId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResourceKey)) return false;
+            ResourceKey other = (ResourceKey) obj;
+            return Objects.equals(context, other.context) && Objects.equals(resourceId, other.resourceId);
+        }
+    }
+
+    /**
+     * The cached samples of a resource.
+     */
+    private class Entry {
+        private final ResourceKey key;
+        // Samples timestamped earlier than this were written before the resource was cached
+        private final long created;
+        private final Map<String, Series> series = Maps.newHashMap();
+        private long size = 0;
+
+        private Entry(ResourceKey key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+
+        private boolean isOf(Context context, String resourceId) {
+            return key.context.equals(context) && key.resourceId.equals(resourceId);
+        }
+
+        /** @return the change in the number of samples cached */
+        private int add(String name, long timestamp, byte type, long bits, Map<String, String> attributes, long cutoff) {
+            if (timestamp < created) {
+                return 0;
+            }
+
+            Series s = series.get(name);
+            if (s == null) {
+                s = new Series();
+                series.put(name, s);
+            }
+
+            int added = s.add(timestamp, type, bits, attributes, m_maxSamplesPerMetric) - s.discardBefore(cutoff);
+            size += added;
+
+            return added;
+        }
+
+        /** @return the time from which the cached samples are complete */
+        private long getHorizon() {
+            long horizon = created;
+
+            for (Series s : series.values()) {
+                if (s.discardedThrough != Long.MIN_VALUE) {
+                    horizon = Math.max(horizon, s.discardedThrough + 1);
+                }
+            }
+
+            return horizon;
+        }
+    }
+
+    /**
+     * The cached samples of a metric, in timestamp order.
+     */
+    private static class Series {
+        private long[] timestamps = new long[0];
+        private long[] values = new long[0];
+        private byte[] types = new byte[0];
+        // Allocated only once a sample with attributes is cached
+        private Object[] attributes;
+        // The buffer index of the oldest sample
+        private int first = 0;
+        private int size = 0;
+        // The most recent timestamp of any discarded sample
+        private long discardedThrough = Long.MIN_VALUE;
+
+        /** @return the change in the number of samples held */
+        private int add(long timestamp, byte type, long bits, Map<String, String> attrs, int maxSize) {
+            if (timestamp <= discardedThrough) {
+                return 0;
+            }
+
+            int i = search(timestamp);
+
+            // A sample of the same timestamp replaces that cached (as it does when written)
+            if (i < size && timestamps[index(i)] == timestamp) {
+                set(index(i), timestamp, type, bits, attrs);
+                return 0;
+            }
+
+            int added = 1;
+
+            if (size == maxSize) {
+                // Older than every sample held
+                if (i == 0) {
+                    discardedThrough = timestamp;
+                    return 0;
+                }
+                discardFirst();
+                i -= 1;
+                added = 0;
+            }
+
+            if (size == timestamps.length) {
+                grow(Math.min(Math.max(INITIAL_CAPACITY, size * 2), maxSize));
+            }
+
+            // Samples are almost always appended; Otherwise, shift the newer samples along by one
+            for (int j = size; j > i; j--) {
+                int to = index(j), from = index(j - 1);
+                set(to, timestamps[from], types[from], values[from], getAttributes(from));
+            }
+
+            set(index(i), timestamp, type, bits, attrs);
+            size += 1;
+
+            return added;
+        }
+
+        /** @return the number of samples discarded */
+        private int discardBefore(long timestamp) {
+            int discarded = 0;
+
+            while (size > 0 && timestamps[first] < timestamp) {
+                discardFirst();
+                discarded += 1;
+            }
+
+            return discarded;
+        }
+
+        private List<Sample> select(Context context, Resource resource, String name, long from, long to) {
+            List<Sample> samples = Lists.newArrayList();
+
+            for (int i = search(from); i < size && timestamps[index(i)] <= to; i++) {
+                int j = index(i);
+                MetricType type = MetricType.fromCode(types[j]);
+                samples.add(new Sample(Timestamp.fromEpochMillis(timestamps[j]), context, resource, name, type,
+                        ChunkCodec.fromBits(values[j], type), getAttributes(j)));
+            }
+
+            return samples;
+        }
+
+        private void discardFirst() {
+            discardedThrough = timestamps[first];
+            set(first, 0, (byte) 0, 0, null);
+            first = (first + 1) % timestamps.length;
+            size -= 1;
+        }
+
+        /** @return the (logical) position of the first sample not earlier than {@code timestamp} */
+        private int search(long timestamp) {
+            int low = 0, high = size;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[index(mid)] < timestamp) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        private int index(int position) {
+            return (first + position) % timestamps.length;
+        }
+
+        private void set(int index, long timestamp, byte type, long bits, Map<String, String> attrs) {
+            timestamps[index] = timestamp;
+            types[index] = type;
+            values[index] = bits;
+
+            if (attrs != null && attributes == null) {
+                attributes = new Object[timestamps.length];
+            }
+            if (attributes != null) {
+                attributes[index] = attrs;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, String> getAttributes(int index) {
+            return attributes != null ? (Map<String, String>) attributes[index] : null;
+        }
+
+        private void grow(int capacity) {
+            long[] newTimestamps = new long[capacity];
+            long[] newValues = new long[capacity];
+            byte[] newTypes = new byte[capacity];
+            Object[] newAttributes = attributes != null ? new Object[capacity] : null;
+
+            for (int i = 0; i < size; i++) {
+                int j = index(i);
+                newTimestamps[i] = timestamps[j];
+                newValues[i] = values[j];
+                newTypes[i] = types[j];
+                if (newAttributes != null) {
+                    newAttributes[i] = attributes[j];
+                }
+            }
+
+            timestamps = newTimestamps;
+            values = newValues;
+            types = newTypes;
+            attributes = newAttributes;
+            first = 0;
+        }
+    }
+
+}
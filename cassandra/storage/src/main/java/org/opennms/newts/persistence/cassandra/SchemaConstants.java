@@ -29,4 +29,25 @@ public class SchemaConstants {
     public static final String F_METRIC_NAME = "metric_name";
     public static final String F_VALUE = "value";
     public static final String F_ATTRIBUTES = "attributes";
+
+    public static final String T_SAMPLE_CHUNKS = "sample_chunks";
+
+    public static final String F_WINDOW_START = "window_start";
+    public static final String F_FIRST = "first_at";
+    public static final String F_LAST = "last_at";
+    public static final String F_SAMPLE_COUNT = "sample_count";
+    public static final String F_CHUNK = "chunk";
+
+    public static final String T_SAMPLE_PARTITIONS = "sample_partitions";
+
+    public static final String T_SAMPLE_ROLLUPS = "sample_rollups";
+
+    public static final String F_STEP = "step";
+    public static final String F_BUCKET = "bucket";
+    public static final String F_ID = "id";
+    public static final String F_TYPE = "type";
+    public static final String F_MIN_VALUE = "min_value";
+    public static final String F_MAX_VALUE = "max_value";
+    public static final String F_SUM_VALUE = "sum_value";
+    public static final String F_LAST_VALUE = "last_value";
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.newts.aggregate.SeriesRanker;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.SampleSelectCallback;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * A decorator that answers measurement selects itself; Each is answered by
+ * {@link #selectAsync(Context, Resource, Optional, Optional, ResultDescriptor, Optional)}, (those
+ * of many resources a window at a time, and those that block by waiting for it).
+ */
+public abstract class SelectingSampleRepository extends ForwardingSampleRepository {
+
+    private final int m_maxConcurrentResources;
+
+    protected SelectingSampleRepository(SampleRepository delegate, BatchSelectConfiguration batchSelectConfig) {
+        super(delegate);
+        m_maxConcurrentResources = checkNotNull(batchSelectConfig, "batchSelectConfig argument").getMaxConcurrentResources();
+    }
+
+    @Override
+    public abstract ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution);
+
+    @Override
+    public Results<Measurement> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, SampleSelectCallback callback) {
+        callback.beforeProcess();
+        try {
+            return MeasurementSelects.getUninterruptibly(selectAsync(context, resource, start, end, descriptor, resolution));
+        }
+        finally {
+            callback.afterProcess();
+        }
+    }
+
+    @Override
+    public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+        return MeasurementSelects.selectEach(this, context, resources, start, end, descriptor, resolution, m_maxConcurrentResources);
+    }
+
+    @Override
+    public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> resources, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution, String metric, SeriesAggregation aggregation, int count) {
+        checkNotNull(metric, "metric argument");
+        checkNotNull(aggregation, "aggregation argument");
+        checkArgument(count > 0, "count must be greater than zero");
+
+        return SeriesRanker.rankAsync(metric, aggregation, count, selectAsync(context, resources, start, end, descriptor, resolution));
+    }
+
+}
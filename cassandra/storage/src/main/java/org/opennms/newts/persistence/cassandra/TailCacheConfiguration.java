@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.opennms.newts.api.Duration;
+
+
+/**
+ * Settings for the in-memory cache of recently written samples (see {@link SampleTailCache}).
+ * <p>
+ * The cache is disabled by default. It only holds samples written through this repository
+ * instance, so reads served from it miss any samples written through others; It can only be
+ * enabled for a single writer, (where every sample of a resource is written by the same instance
+ * that reads it).
+ * </p>
+ */
+public class TailCacheConfiguration {
+
+    public static final Duration DEFAULT_HORIZON = Duration.hours(6);
+    public static final int DEFAULT_MAX_SAMPLES_PER_METRIC = 1024;
+    public static final long DEFAULT_MAX_SAMPLES = 5000000;
+
+    private final boolean m_enabled;
+    private final boolean m_singleWriter;
+    private final Duration m_horizon;
+    private final int m_maxSamplesPerMetric;
+    private final long m_maxSamples;
+
+    public TailCacheConfiguration() {
+        this(false, false, DEFAULT_HORIZON, DEFAULT_MAX_SAMPLES_PER_METRIC, DEFAULT_MAX_SAMPLES);
+    }
+
+    /**
+     * @param enabled
+     *            true if written samples should be cached (and reads served from the cache)
+     * @param singleWriter
+     *            true if every sample is written through this instance; Required to enable the
+     *            cache
+     * @param horizon
+     *            the age after which samples are discarded from the cache
+     * @param maxSamplesPerMetric
+     *            the maximum number of samples cached per metric; The oldest are discarded first
+     * @param maxSamples
+     *            the maximum number of samples cached in total; The least recently used resources
+     *            are discarded first
+     */
+    public TailCacheConfiguration(boolean enabled, boolean singleWriter, Duration horizon, int maxSamplesPerMetric, long maxSamples) {
+        checkArgument(!enabled || singleWriter, "the tail cache can only be enabled for a single writer");
+        m_enabled = enabled;
+        m_singleWriter = singleWriter;
+        m_horizon = checkNotNull(horizon, "horizon argument");
+        checkArgument(horizon.asMillis() > 0, "horizon must be greater than zero");
+        checkArgument(maxSamplesPerMetric > 0, "maxSamplesPerMetric must be greater than zero");
+        checkArgument(maxSamples > 0, "maxSamples must be greater than zero");
+        m_maxSamplesPerMetric = maxSamplesPerMetric;
+        m_maxSamples = maxSamples;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    public boolean isSingleWriter() {
+        return m_singleWriter;
+    }
+
+    public Duration getHorizon() {
+        return m_horizon;
+    }
+
+    public int getMaxSamplesPerMetric() {
+        return m_maxSamplesPerMetric;
+    }
+
+    public long getMaxSamples() {
+        return m_maxSamples;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.aggregatesOf;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.getStep;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.lower;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.upper;
+import static org.opennms.newts.persistence.cassandra.MeasurementSelects.validate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+/**
+ * A {@link SampleRepository} decorator that caches the samples written through it (see
+ * {@link SampleTailCache}), and serves selects of recent samples from the cache.
+ * <p>
+ * Selects of samples spanning the first cached sample of a resource read the earlier samples from
+ * the delegate. Selects of measurements spanning it read the earlier aggregates from the delegate,
+ * (from its rollups, where it has them), and aggregate the rest from the cache; Those rows that
+ * cached samples could not completely determine are read from the delegate, too.
+ * </p>
+ * <p>
+ * Samples are cached once the delegate has written them, and a resource's samples are discarded
+ * before it is deleted. Samples written through other instances are never cached, so the cache
+ * requires a {@link TailCacheConfiguration#isSingleWriter() single writer}.
+ * </p>
+ */
+public class TailCachingSampleRepository extends SelectingSampleRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailCachingSampleRepository.class);
+
+    private final SampleTailCache m_cache;
+
+    public TailCachingSampleRepository(SampleRepository delegate, TailCacheConfiguration config, BatchSelectConfiguration batchSelectConfig, MetricRegistry registry) {
+        super(delegate, batchSelectConfig);
+        checkArgument(config.isSingleWriter(), "the tail cache requires a single writer");
+        m_cache = new SampleTailCache(config, registry);
+
+        LOG.warn("Serving recent samples from the tail cache; Samples written by any other instance will not be read");
+    }
+
+    @Override
+    public ListenableFuture<Results<Measurement>> selectAsync(Context context, final Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, final ResultDescriptor descriptor, Optional<Duration> resolution) {
+        validate(start, end);
+
+        final Timestamp upper = upper(end);
+        final Timestamp lower = lower(start, upper);
+        final Duration step = getStep(lower, upper, descriptor, resolution);
+
+        Optional<SampleTailCache.Selection> cached = m_cache.select(context, resource, lower.minus(step), upper, descriptor.getSourceNames());
+
+        if (!cached.isPresent()) {
+            return delegate().selectAsync(context, resource, Optional.of(lower), Optional.of(upper), descriptor, Optional.of(step));
+        }
+
+        if (!cached.get().getFrom().gt(lower.minus(step))) {
+            return Futures.immediateFuture(new ResultProcessor(resource, lower, upper, descriptor, step).process(cached.get().getRows()));
+        }
+
+        // Rows are determined by the samples up to a lead before (and after) them, so the cache
+        // determines those from a lead (and a step) after its first sample, and the delegate
+        // those before, (for which it reads samples up to a lead after them).
+        long slack = MeasurementResultCache.getSlack(descriptor, step.asMillis());
+        Duration lead = step.times((slack + step.asMillis() - 1) / step.asMillis());
+        final Timestamp tailStart = cached.get().getFrom().plus(lead).plus(step).stepCeiling(step);
+
+        if (tailStart.gt(upper.stepCeiling(step))) {
+            return delegate().selectAsync(context, resource, Optional.of(lower), Optional.of(upper), descriptor, Optional.of(step));
+        }
+
+        final Timestamp tailLower = tailStart.minus(lead);
+        final Iterator<Row<Sample>> samples = Iterators.filter(cached.get().getRows(), new Predicate<Row<Sample>>() {
+
+            @Override
+            public boolean apply(Row<Sample> input) {
+                return !input.getTimestamp().lt(tailLower.minus(step));
+            }
+        });
+
+        Timestamp headUpper = tailStart.minus(step).plus(lead);
+        if (headUpper.gt(upper)) {
+            headUpper = upper;
+        }
+        ListenableFuture<Results<Measurement>> head = delegate().selectAsync(context, resource, Optional.of(lower), Optional.of(headUpper), aggregatesOf(descriptor), Optional.of(step));
+
+        return Futures.transform(head, new Function<Results<Measurement>, Results<Measurement>>() {
+
+            @Override
+            public Results<Measurement> apply(Results<Measurement> input) {
+                Results<Measurement> aggregates = new Results<>();
+
+                for (Row<Measurement> row : input) {
+                    if (row.getTimestamp().lt(tailStart)) {
+                        aggregates.addRow(row);
+                    }
+                }
+
+                Iterator<Row<Measurement>> tail = new ResultProcessor(resource, tailLower, upper, descriptor, step).aggregate(samples);
+
+                while (tail.hasNext()) {
+                    Row<Measurement> row = tail.next();
+                    if (!row.getTimestamp().lt(tailStart)) {
+                        aggregates.addRow(row);
+                    }
+                }
+
+                return new ResultProcessor(resource, lower, upper, descriptor, step).processAggregates(aggregates.iterator());
+            }
+        });
+    }
+
+    @Override
+    public Results<Sample> select(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+
+        Optional<SampleTailCache.Selection> cached = m_cache.select(context, resource, lower, upper, Collections.<String> emptySet());
+
+        if (!cached.isPresent()) {
+            return delegate().select(context, resource, Optional.of(lower), Optional.of(upper));
+        }
+
+        if (!cached.get().getFrom().gt(lower)) {
+            return stitch(new Results<Sample>(), cached.get().getRows());
+        }
+
+        Timestamp storedUpper = cached.get().getFrom().minus(1, TimeUnit.MILLISECONDS);
+
+        return stitch(delegate().select(context, resource, Optional.of(lower), Optional.of(storedUpper)), cached.get().getRows());
+    }
+
+    @Override
+    public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end) {
+        validate(start, end);
+
+        Timestamp upper = upper(end);
+        Timestamp lower = lower(start, upper);
+
+        final Optional<SampleTailCache.Selection> cached = m_cache.select(context, resource, lower, upper, Collections.<String> emptySet());
+
+        if (!cached.isPresent()) {
+            return delegate().selectAsync(context, resource, Optional.of(lower), Optional.of(upper));
+        }
+
+        if (!cached.get().getFrom().gt(lower)) {
+            return Futures.immediateFuture(stitch(new Results<Sample>(), cached.get().getRows()));
+        }
+
+        Timestamp storedUpper = cached.get().getFrom().minus(1, TimeUnit.MILLISECONDS);
+
+        return Futures.transform(delegate().selectAsync(context, resource, Optional.of(lower), Optional.of(storedUpper)), new Function<Results<Sample>, Results<Sample>>() {
+
+            @Override
+            public Results<Sample> apply(Results<Sample> input) {
+                return stitch(input, cached.get().getRows());
+            }
+        });
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+        delegate().insert(samples, calculateTimeToLive);
+        m_cache.add(samples);
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        delegate().insert(batch, calculateTimeToLive);
+        m_cache.add(batch);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(final Collection<Sample> samples, boolean calculateTimeToLive) {
+        return Futures.transform(delegate().insertAsync(samples, calculateTimeToLive), new Function<Void, Void>() {
+
+            @Override
+            public Void apply(Void input) {
+                m_cache.add(samples);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(final SampleBatch batch, boolean calculateTimeToLive) {
+        return Futures.transform(delegate().insertAsync(batch, calculateTimeToLive), new Function<Void, Void>() {
+
+            @Override
+            public Void apply(Void input) {
+                m_cache.add(batch);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        m_cache.invalidate(context, resource);
+        delegate().delete(context, resource);
+    }
+
+    /** Appends the (later) cached rows to those read from the delegate. */
+    private static Results<Sample> stitch(Results<Sample> stored, Iterator<Row<Sample>> cached) {
+        while (cached.hasNext()) {
+            stored.addRow(cached.next());
+        }
+        return stored;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.UnsignedLong;
+
+
+public class ChunkCodecTest {
+
+    private static final Context CONTEXT = new Context("c");
+    private static final Resource RESOURCE = new Resource("r");
+
+    @Test
+    public void testRegularGauge() {
+        List<Sample> samples = Lists.newArrayList();
+
+        for (int i = 0; i < 120; i++) {
+            samples.add(sample(1000000000000L + i * 300000L, new Gauge(42.0d)));
+        }
+
+        ByteBuffer chunk = roundTrip(samples);
+
+        // A constant interval and value cost 4 bits per sample (timestamp, type, value and attributes)
+        assertTrue("chunk too large: " + chunk.remaining(), chunk.remaining() < 100);
+    }
+
+    @Test
+    public void testRandomized() {
+        Random random = new Random(7);
+
+        for (int n = 0; n < 50; n++) {
+            List<Sample> samples = Lists.newArrayList();
+            long timestamp = random.nextLong() >>> 24;
+            double gauge = random.nextDouble() * 100;
+            long counter = random.nextLong();
+
+            for (int i = 0; i < 1 + random.nextInt(200); i++) {
+                // Mostly regular intervals, with jitter, gaps and duplicates
+                switch (random.nextInt(6)) {
+                    case 0:
+                        timestamp += random.nextInt(100);
+                        break;
+                    case 1:
+                        timestamp += random.nextInt(Integer.MAX_VALUE) * 16L;
+                        break;
+                    default:
+                        timestamp += 300000 + random.nextInt(2000) - 1000;
+                }
+
+                ValueType<?> value;
+                Map<String, String> attributes = null;
+
+                switch (random.nextInt(8)) {
+                    case 0:
+                        value = new Gauge(Double.NaN);
+                        break;
+                    case 1:
+                        counter += random.nextInt(1000);
+                        value = new Counter(UnsignedLong.fromLongBits(counter));
+                        break;
+                    case 2:
+                        value = new Gauge(random.nextDouble());
+                        attributes = ImmutableMap.of("key" + random.nextInt(3), "välue", "k", "");
+                        break;
+                    default:
+                        gauge += random.nextGaussian();
+                        value = new Gauge(gauge);
+                }
+
+                samples.add(new Sample(Timestamp.fromEpochMillis(timestamp), CONTEXT, RESOURCE, "m", value.getType(), value, attributes));
+            }
+
+            roundTrip(samples);
+        }
+    }
+
+    @Test
+    public void testExtremeValues() {
+        List<Sample> samples = Lists.newArrayList();
+        long[] bits = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1, 0x00000000ffffffffL, 0xffffffff00000000L, 1L << 32 };
+
+        for (int i = 0; i < bits.length; i++) {
+            samples.add(sample(i, new Gauge(Double.longBitsToDouble(bits[i]))));
+            samples.add(sample(i, ValueType.compose(bits[i], MetricType.DERIVE)));
+        }
+
+        roundTrip(samples);
+    }
+
+    private static Sample sample(long timestamp, ValueType<?> value) {
+        return new Sample(Timestamp.fromEpochMillis(timestamp), CONTEXT, RESOURCE, "m", value.getType(), value);
+    }
+
+    private static ByteBuffer roundTrip(List<Sample> samples) {
+        ByteBuffer chunk = ChunkCodec.encode(samples);
+        List<Sample> decoded = ChunkCodec.decode(CONTEXT, RESOURCE, "m", chunk);
+
+        assertEquals(samples.size(), decoded.size());
+
+        for (int i = 0; i < samples.size(); i++) {
+            Sample expected = samples.get(i), actual = decoded.get(i);
+
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+
+            // Compare representations, so that NaN payloads and signed zeros are checked too
+            if (expected.getType() == MetricType.GAUGE) {
+                assertEquals(Double.doubleToRawLongBits(expected.getValue().doubleValue()), Double.doubleToRawLongBits(actual.getValue().doubleValue()));
+            }
+            else {
+                assertEquals(expected.getValue().longValue(), actual.getValue().longValue());
+            }
+        }
+
+        return chunk;
+    }
+
+}
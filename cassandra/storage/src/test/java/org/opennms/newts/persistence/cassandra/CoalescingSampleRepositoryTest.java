@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+public class CoalescingSampleRepositoryTest {
+
+    private SampleRepository m_delegate;
+    private MetricRegistry m_registry;
+
+    @Before
+    public void setUp() {
+        m_delegate = mock(SampleRepository.class);
+        m_registry = new MetricRegistry();
+
+        when(m_delegate.insertAsync(anyCollectionOf(Sample.class), anyBoolean())).thenReturn(Futures.<Void> immediateFuture(null));
+    }
+
+    @Test
+    public void testFlushOnDelay() throws Exception {
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 50, TimeUnit.MILLISECONDS, 100, 1000, m_registry);
+
+        ListenableFuture<Void> f1 = repository.insertAsync(samples("a", 2));
+        ListenableFuture<Void> f2 = repository.insertAsync(samples("b", 3));
+
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Lists.newArrayList(5), writes(1, false));
+        assertEquals(1, m_registry.histogram("repository.coalescer.fill-ratio").getCount());
+        assertEquals(2, m_registry.timer("repository.coalescer.delay").getCount());
+    }
+
+    @Test
+    public void testFlushOnSize() throws Exception {
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 4, 100, m_registry);
+
+        repository.insertAsync(samples("a", 2));
+        ListenableFuture<Void> f1 = repository.insertAsync(samples("b", 2));
+
+        assertTrue(f1.isDone());
+        // Would overfill the pending batch, which is flushed first
+        repository.insertAsync(samples("c", 3));
+        ListenableFuture<Void> f2 = repository.insertAsync(samples("d", 2));
+
+        assertEquals(Lists.newArrayList(4, 3), writes(2, false));
+        assertFalse(f2.isDone());
+
+        repository.shutdown();
+
+        assertTrue(f2.isDone());
+        assertEquals(Lists.newArrayList(4, 3, 2), writes(3, false));
+    }
+
+    @Test
+    public void testLargeInsertPassedThrough() {
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 4, 100, m_registry);
+        Collection<Sample> samples = samples("a", 4);
+
+        repository.insert(samples);
+
+        verify(m_delegate).insertAsync(samples, false);
+    }
+
+    @Test
+    public void testWaitsForCapacity() throws Exception {
+        SettableFuture<Void> write = SettableFuture.create();
+        when(m_delegate.insertAsync(anyCollectionOf(Sample.class), anyBoolean())).thenReturn(write, Futures.<Void> immediateFuture(null));
+
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 4, 6, m_registry);
+
+        ListenableFuture<Void> f1 = repository.insertAsync(samples("a", 3));
+        ListenableFuture<Void> f2 = repository.insertAsync(samples("b", 2));
+
+        // Exceeds the capacity, (without blocking)
+        ListenableFuture<Void> f3 = repository.insertAsync(samples("c", 2));
+        // Queued behind the waiting request, even though it would fit
+        ListenableFuture<Void> f4 = repository.insertAsync(samples("d", 1));
+
+        assertEquals(Lists.newArrayList(3), writes(1, false));
+        assertFalse(f3.isDone());
+        assertEquals(5, m_registry.getGauges().get("repository.coalescer.pending").getValue());
+
+        write.set(null);
+
+        assertTrue(f1.isDone());
+        assertTrue(f2.isDone());
+        assertTrue(f3.isDone());
+        assertFalse(f4.isDone());
+
+        repository.shutdown();
+
+        assertTrue(f4.isDone());
+        assertEquals(Lists.newArrayList(3, 4, 1), writes(3, false));
+    }
+
+    @Test
+    public void testBatchCoalesced() throws Exception {
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 4, 100, m_registry);
+
+        when(m_delegate.insertAsync(any(SampleBatch.class), anyBoolean())).thenReturn(Futures.<Void> immediateFuture(null));
+
+        repository.insertAsync(SampleBatch.of(samples("a", 2)));
+        ListenableFuture<Void> f1 = repository.insertAsync(samples("b", 2));
+
+        assertTrue(f1.isDone());
+        assertEquals(Lists.newArrayList(4), writes(1, false));
+
+        SampleBatch batch = SampleBatch.of(samples("c", 4));
+        repository.insert(batch);
+
+        verify(m_delegate).insertAsync(batch, false);
+    }
+
+    @Test
+    public void testTimeToLiveBatchedSeparately() throws Exception {
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 10, 100, m_registry);
+
+        repository.insertAsync(samples("a", 2), false);
+        repository.insertAsync(samples("b", 3), true);
+
+        verify(m_delegate, never()).insertAsync(anyCollectionOf(Sample.class), anyBoolean());
+
+        repository.shutdown();
+
+        assertEquals(Lists.newArrayList(2), writes(1, false));
+        assertEquals(Lists.newArrayList(3), writes(1, true));
+    }
+
+    @Test
+    public void testFailurePropagated() throws Exception {
+        RuntimeException failure = new RuntimeException("boom");
+        when(m_delegate.insertAsync(anyCollectionOf(Sample.class), anyBoolean())).thenReturn(Futures.<Void> immediateFailedFuture(failure));
+
+        CoalescingSampleRepository repository = new CoalescingSampleRepository(m_delegate, 1, TimeUnit.HOURS, 4, 100, m_registry);
+
+        ListenableFuture<Void> f1 = repository.insertAsync(samples("a", 1));
+
+        try {
+            repository.insert(samples("b", 3));
+            fail("expected exception");
+        }
+        catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+
+        try {
+            f1.get();
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<Integer> writes(int count, boolean calculateTimeToLive) {
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(m_delegate, times(count)).insertAsync(captor.capture(), eq(calculateTimeToLive));
+
+        List<Integer> sizes = Lists.newArrayList();
+        for (Collection<Sample> samples : captor.getAllValues()) {
+            sizes.add(samples.size());
+        }
+        return sizes;
+    }
+
+    private static Collection<Sample> samples(String resource, int count) {
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            samples.add(new Sample(Timestamp.fromEpochSeconds(i), new Resource(resource), "m", MetricType.GAUGE, new Gauge(i)));
+        }
+        return samples;
+    }
+
+}
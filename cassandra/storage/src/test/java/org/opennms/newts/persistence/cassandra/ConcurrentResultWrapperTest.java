@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opennms.newts.cassandra.CassandraSession;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+public class ConcurrentResultWrapperTest {
+
+    private CassandraSession m_session;
+    private List<Statement> m_statements;
+    private List<StubResultSetFuture> m_futures;
+    private List<Row> m_rows;
+
+    @Before
+    public void setUp() {
+        m_session = mock(CassandraSession.class);
+        m_statements = Lists.newArrayList();
+        m_futures = Lists.newArrayList();
+        m_rows = Lists.newArrayList();
+    }
+
+    @Test
+    public void testWindow() {
+        for (int i = 0; i < 5; i++) {
+            statement().set(resultSet(3, true));
+        }
+
+        ConcurrentResultWrapper wrapper = new ConcurrentResultWrapper(m_session, m_statements.iterator(), 2);
+
+        verify(m_session, times(2)).executeAsync(any(Statement.class));
+
+        // Consuming the first partition does not start another...
+        for (int i = 0; i < 3; i++) {
+            assertSame(m_rows.get(i), wrapper.next());
+        }
+
+        verify(m_session, times(2)).executeAsync(any(Statement.class));
+
+        // ...moving on to the second does.
+        assertSame(m_rows.get(3), wrapper.next());
+
+        verify(m_session, times(3)).executeAsync(any(Statement.class));
+
+        for (int i = 4; i < m_rows.size(); i++) {
+            assertSame(m_rows.get(i), wrapper.next());
+        }
+
+        assertFalse(wrapper.hasNext());
+        verify(m_session, times(5)).executeAsync(any(Statement.class));
+    }
+
+    @Test
+    public void testPrefetch() {
+        ResultSet results = resultSet(10, false);
+        statement().set(results);
+
+        ConcurrentResultWrapper wrapper = new ConcurrentResultWrapper(m_session, m_statements.iterator(), 1);
+
+        for (int i = 0; i < 5; i++) {
+            wrapper.next();
+        }
+
+        verify(results, times(0)).fetchMoreResults();
+
+        wrapper.next();
+
+        verify(results, times(1)).fetchMoreResults();
+
+        while (wrapper.hasNext()) {
+            wrapper.next();
+        }
+
+        verify(results, times(1)).fetchMoreResults();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailure() {
+        statement().setException(new IllegalStateException());
+
+        new ConcurrentResultWrapper(m_session, m_statements.iterator(), 1).hasNext();
+    }
+
+    @Test
+    public void testStart() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            statement();
+        }
+
+        ListenableFuture<Iterator<Row>> rows = ConcurrentResultWrapper.start(m_session, m_statements, 2);
+
+        verify(m_session, times(2)).executeAsync(any(Statement.class));
+
+        // Available once the first result set is, (regardless of the others)
+        m_futures.get(1).set(resultSet(1, true));
+        assertFalse(rows.isDone());
+
+        m_futures.get(0).set(resultSet(1, true));
+        assertTrue(rows.isDone());
+
+        m_futures.get(2).set(resultSet(1, true));
+
+        assertSame(m_rows.get(1), rows.get().next());
+        assertSame(m_rows.get(0), rows.get().next());
+        assertSame(m_rows.get(2), rows.get().next());
+        assertFalse(rows.get().hasNext());
+    }
+
+    @Test
+    public void testWindowedFetchAll() throws Exception {
+        List<ResultSet> expected = Lists.newArrayList();
+
+        for (int i = 0; i < 4; i++) {
+            statement();
+            expected.add(resultSet(1, true));
+        }
+
+        ListenableFuture<List<ResultSet>> results = CassandraSampleRepository.fetchAll(m_session, m_statements, 2);
+
+        verify(m_session, times(2)).executeAsync(any(Statement.class));
+
+        m_futures.get(1).set(expected.get(1));
+
+        verify(m_session, times(3)).executeAsync(any(Statement.class));
+
+        m_futures.get(0).set(expected.get(0));
+        m_futures.get(2).set(expected.get(2));
+
+        assertFalse(results.isDone());
+
+        m_futures.get(3).set(expected.get(3));
+
+        assertTrue(results.isDone());
+        assertEquals(expected, results.get());
+    }
+
+    @Test
+    public void testWindowedFetchAllFailure() {
+        for (int i = 0; i < 3; i++) {
+            statement();
+        }
+
+        ListenableFuture<List<ResultSet>> results = CassandraSampleRepository.fetchAll(m_session, m_statements, 1);
+
+        m_futures.get(0).setException(new IllegalStateException());
+
+        assertTrue(results.isDone());
+        verify(m_session, times(1)).executeAsync(any(Statement.class));
+    }
+
+    private StubResultSetFuture statement() {
+        Statement statement = mock(Statement.class);
+        StubResultSetFuture future = new StubResultSetFuture();
+
+        when(m_session.executeAsync(statement)).thenReturn(future);
+
+        m_statements.add(statement);
+        m_futures.add(future);
+
+        return future;
+    }
+
+    private ResultSet resultSet(int size, boolean fullyFetched) {
+        final ArrayDeque<Row> rows = new ArrayDeque<>();
+
+        for (int i = 0; i < size; i++) {
+            Row row = mock(Row.class);
+            rows.add(row);
+            m_rows.add(row);
+        }
+
+        ResultSet results = mock(ResultSet.class);
+
+        when(results.isFullyFetched()).thenReturn(fullyFetched);
+        when(results.isExhausted()).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return rows.isEmpty();
+            }
+        });
+        when(results.getAvailableWithoutFetching()).thenAnswer(new Answer<Integer>() {
+
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                return rows.size();
+            }
+        });
+        when(results.one()).thenAnswer(new Answer<Row>() {
+
+            @Override
+            public Row answer(InvocationOnMock invocation) {
+                return rows.poll();
+            }
+        });
+
+        return results;
+    }
+
+    private static class StubResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        @Override
+        public boolean set(ResultSet value) {
+            return super.set(value);
+        }
+
+        @Override
+        public boolean setException(Throwable throwable) {
+            return super.setException(throwable);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
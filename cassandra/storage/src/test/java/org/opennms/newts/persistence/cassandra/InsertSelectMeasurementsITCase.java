@@ -16,31 +16,44 @@
 package org.opennms.newts.persistence.cassandra;
 
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
 import static org.opennms.newts.api.query.StandardAggregationFunctions.AVERAGE;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.MAX;
+import static org.opennms.newts.api.query.StandardAggregationFunctions.MIN;
 import static org.opennms.newts.persistence.cassandra.Utils.assertAttributes;
 import static org.opennms.newts.persistence.cassandra.Utils.assertRowsEqual;
 import static org.opennms.newts.persistence.cassandra.Utils.mapFor;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.RankedResource;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
 import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleProcessorService;
+import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration.Rollup;
 import org.opennms.newts.persistence.cassandra.Utils.MeasurementRowsBuilder;
 import org.opennms.newts.persistence.cassandra.Utils.SampleRowsBuilder;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class InsertSelectMeasurementsITCase extends NewtsSampleRepositoryTestCase {
 
@@ -60,7 +73,7 @@ public class InsertSelectMeasurementsITCase extends NewtsSampleRepositoryTestCas
     }
 
     @Test
-    public void test() {
+    public void test() throws Exception {
 
         Iterator<Row<Sample>> testSamples = new SampleRowsBuilder(new Resource("localhost"), MetricType.GAUGE)
                 .row(900000000).element("mGauge", 1)        // Thu Jul  9 11:00:00 CDT 1998
@@ -116,6 +129,17 @@ public class InsertSelectMeasurementsITCase extends NewtsSampleRepositoryTestCas
         assertAttributes(rows.next().getElement("mGauge-avg"), mapFor("a", "1", "b", "2"));
         assertAttributes(rows.next().getElement("mGauge-avg"), mapFor("c", "3", "d", "4"));
 
+        // The asynchronous variant must yield identical results
+        Results<Measurement> asyncResults = getRepository().selectAsync(
+                Context.DEFAULT_CONTEXT,
+                new Resource("localhost"),
+                Optional.of(Timestamp.fromEpochSeconds(900003600)),
+                Optional.of(Timestamp.fromEpochSeconds(900007200)),
+                rDescriptor,
+                Optional.of(Duration.minutes(60))).get();
+
+        assertRowsEqual(results.iterator(), asyncResults.iterator());
+
     }
 
     @Test
@@ -354,4 +378,277 @@ public class InsertSelectMeasurementsITCase extends NewtsSampleRepositoryTestCas
 
     }
 
+    @Test
+    public void testRollups() throws Exception {
+
+        // Four hours of samples, ending at the top of the last hour, (rollups are only read for
+        // periods that precede their flush delay)
+        Timestamp base = Timestamp.now().stepFloor(Duration.hours(1)).minus(Duration.hours(4));
+        Resource resource = new Resource("localhost");
+        SampleRowsBuilder builder = new SampleRowsBuilder(resource, MetricType.GAUGE);
+
+        for (int i = 0; i <= 48; i++) {
+            builder.row(base.plus(Duration.seconds(i * 300))).element("mGauge", (i % 12) < 6 ? 1 : 3 + i);
+        }
+
+        List<Sample> samples = Lists.newArrayList();
+        for (Iterator<Row<Sample>> rows = builder.build(); rows.hasNext();) {
+            samples.addAll(rows.next().getElements());
+        }
+
+        RollupConfiguration config = new RollupConfiguration(Lists.newArrayList(
+                new Rollup(Duration.minutes(5), CASSANDRA_TTL),
+                new Rollup(Duration.hours(1), 0)), Duration.minutes(5), 1000);
+
+        RollupSampleProcessor processor = new RollupSampleProcessor(newtsInstance.getCassandraSession(), m_contextConfigurations, config, new MetricRegistry());
+
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withRollupConfiguration(config)
+                        .build());
+
+        repository.insert(samples);
+        processor.submit(samples);
+        processor.flush();
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+            .allowRollups(true)
+            .datasource("mGauge-avg", "mGauge", Duration.seconds(600), AVERAGE).export("mGauge-avg")
+            .datasource("mGauge-min", "mGauge", Duration.seconds(600), MIN).export("mGauge-min")
+            .datasource("mGauge-max", "mGauge", Duration.seconds(600), MAX).export("mGauge-max");
+
+        Optional<Timestamp> start = Optional.of(base.plus(Duration.hours(2)));
+        Optional<Timestamp> end = Optional.of(base.plus(Duration.hours(4)));
+
+        // Rollups (of samples collected at each step) agree with the aggregation of samples
+        Results<Measurement> expected = getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60)));
+
+        assertRowsEqual(expected.iterator(), repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator());
+        assertRowsEqual(expected.iterator(), repository.selectAsync(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60))).get().iterator());
+        assertRowsEqual(
+                getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(30))).iterator(),
+                repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(30))).iterator());
+
+        // Samples written before rollups were enabled are aggregated, (up to and including the
+        // first row rolled up)
+        List<Sample> earlier = Lists.newArrayList();
+        for (int i = 1; i <= 24; i++) {
+            earlier.add(new Sample(base.minus(Duration.seconds(i * 300)), resource, "mGauge", MetricType.GAUGE, new Gauge(2)));
+        }
+        repository.insert(earlier);
+
+        Optional<Timestamp> earlierStart = Optional.of(base.minus(Duration.hours(2)));
+
+        assertRowsEqual(
+                getRepository().select(Context.DEFAULT_CONTEXT, resource, earlierStart, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator(),
+                repository.select(Context.DEFAULT_CONTEXT, resource, earlierStart, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator());
+
+        // A late sample is merged into the bucket it belongs to, (in the second row, the first
+        // being read from samples)
+        processor.submit(Lists.newArrayList(new Sample(base.plus(Duration.seconds(7950)), resource, "mGauge", MetricType.GAUGE, new Gauge(1000))));
+        processor.flush();
+
+        Iterator<Row<Measurement>> rows = repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator();
+        rows.next();
+        Row<Measurement> second = rows.next();
+
+        assertEquals(1000, second.getElement("mGauge-max").getValue(), 0.0d);
+        assertEquals(1, second.getElement("mGauge-min").getValue(), 0.0d);
+
+        // Rollups are only read by queries that allow them
+        rDescriptor.allowRollups(false);
+        assertRowsEqual(expected.iterator(), repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator());
+        rDescriptor.allowRollups(true);
+
+        // Deleting the resource removes its rollups, too (and samples are read in their absence)
+        repository.delete(Context.DEFAULT_CONTEXT, resource);
+        repository.insert(samples);
+
+        assertRowsEqual(expected.iterator(), repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(60))).iterator());
+
+        processor.shutdown();
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+
+        // Four hours of samples, up to the present, (only the aggregates of past rows are cached)
+        Timestamp base = Timestamp.now().stepFloor(Duration.minutes(5)).minus(Duration.hours(4));
+        Resource resource = new Resource("localhost");
+        SampleRowsBuilder builder = new SampleRowsBuilder(resource, MetricType.GAUGE);
+
+        for (int i = 0; i <= 48; i++) {
+            builder.row(base.plus(Duration.seconds(i * 300))).element("mGauge", (i % 12) < 6 ? 1 : 3 + i);
+        }
+
+        List<Sample> samples = Lists.newArrayList();
+        for (Iterator<Row<Sample>> rows = builder.build(); rows.hasNext();) {
+            samples.addAll(rows.next().getElements());
+        }
+
+        SampleRepository repository = new ResultCachingSampleRepository(
+                new CassandraSampleRepository(newtsInstance.getCassandraSession(), CASSANDRA_TTL, new MetricRegistry(), mock(SampleProcessorService.class), m_contextConfigurations),
+                new ResultCacheConfiguration(true, 4, 1000, Duration.minutes(5)),
+                new BatchSelectConfiguration(),
+                new MetricRegistry());
+
+        repository.insert(samples);
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+            .datasource("mGauge-avg", "mGauge", Duration.seconds(600), AVERAGE)
+            .datasource("mGauge-max", "mGauge", Duration.seconds(600), MAX)
+            .expression("spread", "mGauge-max - mGauge-avg")
+            .export("mGauge-avg", "spread");
+
+        Optional<Timestamp> start = Optional.of(base.plus(Duration.minutes(17)));
+        Optional<Timestamp> end = Optional.of(base.plus(Duration.hours(4)));
+
+        // Repeated queries, (served in part from the cache), agree with those that are not
+        for (int i = 0; i < 2; i++) {
+            assertRowsEqual(
+                    getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator(),
+                    repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator());
+            assertRowsEqual(
+                    getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator(),
+                    repository.selectAsync(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).get().iterator());
+        }
+
+        // A late sample invalidates the rows it contributes to
+        repository.insert(Lists.newArrayList(new Sample(base.plus(Duration.seconds(4350)), resource, "mGauge", MetricType.GAUGE, new Gauge(1000))));
+
+        assertRowsEqual(
+                getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator(),
+                repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator());
+    }
+
+    @Test
+    public void testQueryCoalescing() throws Exception {
+
+        Timestamp base = Timestamp.now().stepFloor(Duration.minutes(5)).minus(Duration.hours(2));
+        Resource resource = new Resource("localhost");
+        SampleRowsBuilder builder = new SampleRowsBuilder(resource, MetricType.GAUGE);
+
+        for (int i = 0; i <= 24; i++) {
+            builder.row(base.plus(Duration.seconds(i * 300))).element("mGauge", i);
+        }
+
+        writeSamples(builder.build());
+
+        SampleRepository repository = new QueryCoalescingSampleRepository(
+                new CassandraSampleRepository(newtsInstance.getCassandraSession(), CASSANDRA_TTL, new MetricRegistry(), mock(SampleProcessorService.class), m_contextConfigurations),
+                new QueryCoalescingConfiguration(true, false),
+                new BatchSelectConfiguration(),
+                new MetricRegistry());
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+            .datasource("mGauge-avg", "mGauge", Duration.seconds(600), AVERAGE)
+            .expression("double", "mGauge-avg * 2")
+            .export("mGauge-avg", "double");
+
+        Optional<Timestamp> start = Optional.of(base);
+        Optional<Timestamp> end = Optional.of(base.plus(Duration.hours(2)));
+
+        Results<Measurement> expected = getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10)));
+
+        // Concurrent (and likely coalesced) selects each agree with one that is not
+        List<ListenableFuture<Results<Measurement>>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            futures.add(repository.selectAsync(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))));
+        }
+
+        for (ListenableFuture<Results<Measurement>> future : futures) {
+            assertRowsEqual(expected.iterator(), future.get().iterator());
+        }
+
+        assertRowsEqual(expected.iterator(), repository.select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10))).iterator());
+    }
+
+    @Test
+    public void testSelectMany() throws Exception {
+
+        Timestamp base = Timestamp.now().stepFloor(Duration.minutes(5)).minus(Duration.hours(2));
+        List<Resource> resources = Lists.newArrayList();
+
+        for (int r = 0; r < 5; r++) {
+            Resource resource = new Resource("host" + r);
+            SampleRowsBuilder builder = new SampleRowsBuilder(resource, MetricType.GAUGE);
+
+            for (int i = 0; i <= 24; i++) {
+                builder.row(base.plus(Duration.seconds(i * 300))).element("mGauge", i * r);
+            }
+
+            writeSamples(builder.build());
+            resources.add(resource);
+        }
+
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withBatchSelectConfiguration(new BatchSelectConfiguration(2, 2))
+                        .build());
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+            .datasource("mGauge-avg", "mGauge", Duration.seconds(600), AVERAGE)
+            .expression("double", "mGauge-avg * 2")
+            .export("mGauge-avg", "double");
+
+        Optional<Timestamp> start = Optional.of(base);
+        Optional<Timestamp> end = Optional.of(base.plus(Duration.hours(2)));
+
+        Map<Resource, ListenableFuture<Results<Measurement>>> selections = repository.selectAsync(Context.DEFAULT_CONTEXT, resources, start, end, rDescriptor, Optional.of(Duration.minutes(10)));
+
+        // Each agrees with the select of the resource alone
+        assertEquals(resources, Lists.newArrayList(selections.keySet()));
+
+        for (Resource resource : resources) {
+            Results<Measurement> expected = getRepository().select(Context.DEFAULT_CONTEXT, resource, start, end, rDescriptor, Optional.of(Duration.minutes(10)));
+            assertRowsEqual(expected.iterator(), selections.get(resource).get().iterator());
+        }
+    }
+
+    @Test
+    public void testSelectTop() throws Exception {
+
+        Timestamp base = Timestamp.now().stepFloor(Duration.minutes(5)).minus(Duration.hours(2));
+        List<Resource> resources = Lists.newArrayList();
+
+        for (int r = 0; r < 5; r++) {
+            Resource resource = new Resource("top" + r);
+            SampleRowsBuilder builder = new SampleRowsBuilder(resource, MetricType.GAUGE);
+
+            for (int i = 0; i <= 24; i++) {
+                builder.row(base.plus(Duration.seconds(i * 300))).element("mGauge", r);
+            }
+
+            writeSamples(builder.build());
+            resources.add(resource);
+        }
+
+        ResultDescriptor rDescriptor = new ResultDescriptor(Duration.seconds(300))
+            .datasource("mGauge-avg", "mGauge", Duration.seconds(600), AVERAGE)
+            .export("mGauge-avg");
+
+        Optional<Timestamp> start = Optional.of(base);
+        Optional<Timestamp> end = Optional.of(base.plus(Duration.hours(2)));
+
+        List<RankedResource> top = getRepository().selectTopAsync(Context.DEFAULT_CONTEXT, resources, start, end, rDescriptor, Optional.of(Duration.minutes(10)), "mGauge-avg", SeriesAggregation.MAX, 2).get();
+
+        assertEquals(2, top.size());
+        assertEquals(new Resource("top4"), top.get(0).getResource());
+        assertEquals(4.0d, top.get(0).getValue(), 0.0d);
+        assertEquals(new Resource("top3"), top.get(1).getResource());
+
+        Results<Measurement> expected = getRepository().select(Context.DEFAULT_CONTEXT, new Resource("top4"), start, end, rDescriptor, Optional.of(Duration.minutes(10)));
+        assertRowsEqual(expected.iterator(), top.get(0).getMeasurements().iterator());
+    }
+
 }
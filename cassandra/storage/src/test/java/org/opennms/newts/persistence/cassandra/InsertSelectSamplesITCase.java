@@ -17,8 +17,10 @@ package org.opennms.newts.persistence.cassandra;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 import static org.opennms.newts.api.MetricType.GAUGE;
 
 import java.util.Iterator;
@@ -30,9 +32,15 @@ import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Gauge;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleProcessorService;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Results;
 import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.StorageEngine;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
@@ -40,32 +48,259 @@ import com.google.common.collect.Lists;
 
 public class InsertSelectSamplesITCase extends NewtsSampleRepositoryTestCase {
 
+    private static final int ROWS = 10, COLS = 3;
+
     @Test
     public void test() {
+        // Override the shard period to ensure we test query concurrency
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL);
 
-        List<Sample> samples = Lists.newArrayList();
-        int rows = 10, cols = 3;
         Resource resource = new Resource("r");
+        getRepository().insert(getSamples(resource));
 
-        for (int i = 1; i <= rows; i++) {
-            Timestamp ts = Timestamp.fromEpochMillis(i * 1000);
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000);
+        assertResults(resource, getRepository().select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+    }
 
-            for (int j = 1; j <= cols; j++) {
-                samples.add(new Sample(ts, resource, "m" + j, GAUGE, new Gauge((i + 1) * j)));
-            }
-        }
+    @Test
+    public void testAsync() throws Exception {
+        // Override the shard period to ensure we test query concurrency
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL);
+
+        Resource resource = new Resource("r");
+        getRepository().insertAsync(getSamples(resource)).get();
+
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000);
+        assertResults(resource, getRepository().selectAsync(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).get().iterator());
+    }
 
+    @Test
+    public void testBatch() {
         // Override the shard period to ensure we test query concurrency
         m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
                 Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL);
 
-        getRepository().insert(samples);
+        Resource resource = new Resource("r");
+        getRepository().insert(SampleBatch.of(getSamples(resource)));
+
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000);
+        assertResults(resource, getRepository().select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        // Override the shard period to ensure we test query concurrency
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL, StorageEngine.CHUNKS);
+
+        // Small windows and chunks, so that results span written chunks and buffered samples
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withChunkConfiguration(new ChunkConfiguration(Duration.seconds(4), 3, Duration.hours(1)))
+                        .build());
+
+        Resource resource = new Resource("r");
+        repository.insert(getSamples(resource));
+
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000);
+        assertResults(resource, repository.select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+
+        repository.flush();
+
+        assertResults(resource, repository.select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+        assertResults(resource, repository.selectAsync(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).get().iterator());
+
+        repository.shutdown();
+    }
+
+    @Test
+    public void testOverlappingChunks() throws Exception {
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.days(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL, StorageEngine.CHUNKS);
+
+        // Chunks of two samples, all in the same window
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withChunkConfiguration(new ChunkConfiguration(Duration.hours(1), 2, Duration.hours(1)))
+                        .build());
+
+        Resource resource = new Resource("r");
+        Timestamp t0 = Timestamp.fromEpochMillis(0), t1 = Timestamp.fromEpochMillis(1000), t2 = Timestamp.fromEpochMillis(2000);
+
+        // Two chunks starting at the same timestamp, the second rewriting its first sample
+        repository.insert(Lists.newArrayList(
+                new Sample(t0, resource, "m1", GAUGE, new Gauge(1.0d)),
+                new Sample(t1, resource, "m1", GAUGE, new Gauge(2.0d))));
+        repository.insert(Lists.newArrayList(
+                new Sample(t0, resource, "m1", GAUGE, new Gauge(10.0d)),
+                new Sample(t2, resource, "m1", GAUGE, new Gauge(3.0d))));
+
+        Optional<Timestamp> start = Optional.of(t0), end = Optional.of(t2);
+
+        assertOverlappingChunks(repository.select(Context.DEFAULT_CONTEXT, resource, start, end));
+        assertOverlappingChunks(repository.selectAsync(Context.DEFAULT_CONTEXT, resource, start, end).get());
+
+        repository.shutdown();
+    }
+
+    /** Asserts that no samples were lost, and that the later chunk's sample won. */
+    private static void assertOverlappingChunks(Results<Sample> results) {
+        List<Row<Sample>> rows = Lists.newArrayList(results);
+
+        assertEquals(3, rows.size());
+        assertEquals(10.0d, rows.get(0).getElement("m1").getValue().doubleValue(), 0.0d);
+        assertEquals(2.0d, rows.get(1).getElement("m1").getValue().doubleValue(), 0.0d);
+        assertEquals(3.0d, rows.get(2).getElement("m1").getValue().doubleValue(), 0.0d);
+    }
+
+    @Test
+    public void testPartitionIndex() throws Exception {
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL);
+
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withPartitionIndexConfiguration(new PartitionIndexConfiguration(true, 1000, Duration.hours(1)))
+                        .build());
+
+        Resource resource = new Resource("r");
+        repository.insert(getSamples(resource));
+
+        // Thousands of (one second) shards, only ROWS of which hold samples
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000 * 1000);
+        assertResults(resource, repository.select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+        assertResults(resource, repository.selectAsync(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).get().iterator());
+
+        // Samples older than the TTL are deleted, too
+        repository.delete(Context.DEFAULT_CONTEXT, resource);
+
+        assertFalse(repository.select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator().hasNext());
+    }
+
+    @Test
+    public void testPartitionIndexedSince() throws Exception {
+        m_contextConfigurations.addContextConfig(Context.DEFAULT_CONTEXT,
+                Duration.seconds(1), ConsistencyLevel.ALL, ConsistencyLevel.ALL);
+
+        Resource resource = new Resource("r");
+        Timestamp indexedSince = Timestamp.fromEpochSeconds(ROWS / 2);
+        List<Sample> before = Lists.newArrayList(), after = Lists.newArrayList();
+
+        for (Sample sample : getSamples(resource)) {
+            (sample.getTimestamp().gt(indexedSince) ? after : before).add(sample);
+        }
+
+        // Samples written before the index was enabled...
+        CassandraSampleRepository unindexed = new CassandraSampleRepository(newtsInstance.getCassandraSession(), CASSANDRA_TTL,
+                new MetricRegistry(), mock(SampleProcessorService.class), m_contextConfigurations);
+        unindexed.insert(before);
+        unindexed.shutdown();
+
+        CassandraSampleRepository repository = new CassandraSampleRepository(
+                newtsInstance.getCassandraSession(),
+                new MetricRegistry(),
+                mock(SampleProcessorService.class),
+                m_contextConfigurations,
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(CASSANDRA_TTL)
+                        .withPartitionIndexConfiguration(new PartitionIndexConfiguration(true, 1000, Duration.hours(1), Optional.of(indexedSince)))
+                        .build());
+
+        repository.insert(after);
+
+        // ...are read, too
+        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(ROWS * 1000 * 1000);
+        assertResults(resource, repository.select(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).iterator());
+        assertResults(resource, repository.selectAsync(Context.DEFAULT_CONTEXT, resource,
+                Optional.of(start), Optional.of(end)).get().iterator());
+
+        repository.shutdown();
+    }
+
+    @Test
+    public void testTailCache() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+
+        SampleRepository repository = new TailCachingSampleRepository(
+                new CassandraSampleRepository(newtsInstance.getCassandraSession(), CASSANDRA_TTL, registry, mock(SampleProcessorService.class), m_contextConfigurations),
+                new TailCacheConfiguration(true, true, Duration.hours(1), 100, 1000),
+                new BatchSelectConfiguration(),
+                registry);
+
+        Resource resource = new Resource("r");
+        Timestamp now = Timestamp.now();
+
+        // Samples older than the resource's first caching are only written to Cassandra...
+        repository.insert(Lists.newArrayList(new Sample(now.minus(Duration.minutes(10)), resource, "m1", GAUGE, new Gauge(1.0d))));
+        // ...but those that follow are cached, too
+        repository.insert(Lists.newArrayList(
+                new Sample(now.plus(Duration.minutes(1)), resource, "m1", GAUGE, new Gauge(2.0d)),
+                new Sample(now.plus(Duration.minutes(2)), resource, "m1", GAUGE, new Gauge(3.0d))));
+
+        Timestamp start = now.minus(Duration.hours(1)), end = now.plus(Duration.hours(1));
+
+        List<Row<Sample>> rows = Lists.newArrayList(repository.select(Context.DEFAULT_CONTEXT, resource, Optional.of(start), Optional.of(end)));
+        assertEquals(3, rows.size());
+        assertEquals(1.0d, rows.get(0).getElement("m1").getValue().doubleValue(), 0.0d);
+        assertEquals(3.0d, rows.get(2).getElement("m1").getValue().doubleValue(), 0.0d);
+        assertEquals(3, Lists.newArrayList(repository.selectAsync(Context.DEFAULT_CONTEXT, resource, Optional.of(start), Optional.of(end)).get()).size());
+        assertEquals(2, registry.meter("repository.tail-cache.stitches").getCount());
+
+        rows = Lists.newArrayList(repository.select(Context.DEFAULT_CONTEXT, resource, Optional.of(now.plus(Duration.seconds(30))), Optional.of(end)));
+        assertEquals(2, rows.size());
+        assertEquals(2.0d, rows.get(0).getElement("m1").getValue().doubleValue(), 0.0d);
+        assertEquals(1, registry.meter("repository.tail-cache.hits").getCount());
+
+        repository.delete(Context.DEFAULT_CONTEXT, resource);
+
+        assertFalse(repository.select(Context.DEFAULT_CONTEXT, resource, Optional.of(start), Optional.of(end)).iterator().hasNext());
+        assertEquals(1, registry.meter("repository.tail-cache.misses").getCount());
+    }
+
+    private static List<Sample> getSamples(Resource resource) {
+        List<Sample> samples = Lists.newArrayList();
+
+        for (int i = 1; i <= ROWS; i++) {
+            Timestamp ts = Timestamp.fromEpochMillis(i * 1000);
+
+            for (int j = 1; j <= COLS; j++) {
+                samples.add(new Sample(ts, resource, "m" + j, GAUGE, new Gauge((i + 1) * j)));
+            }
+        }
+
+        return samples;
+    }
 
-        Timestamp start = Timestamp.fromEpochMillis(0), end = Timestamp.fromEpochMillis(rows * 1000);
-        Iterator<Row<Sample>> results = getRepository().select(Context.DEFAULT_CONTEXT, resource,
-                Optional.of(start), Optional.of(end)).iterator();
+    private static void assertResults(Resource resource, Iterator<Row<Sample>> results) {
 
-        for (int i = 1; i <= rows; i++) {
+        for (int i = 1; i <= ROWS; i++) {
             assertTrue("Insufficient number of results", results.hasNext());
 
             Timestamp timestamp = Timestamp.fromEpochMillis(i * 1000);
@@ -74,7 +309,7 @@ public class InsertSelectSamplesITCase extends NewtsSampleRepositoryTestCase {
             assertEquals("Unexpected timestamp for row " + i, timestamp, row.getTimestamp());
             assertEquals("Unexpected resource name", resource, row.getResource());
 
-            for (int j = 1; j <= cols; j++) {
+            for (int j = 1; j <= COLS; j++) {
                 assertNotNull("Missing sample: m" + j, row.getElement("m" + j));
 
                 Sample sample = row.getElement("m" + j);
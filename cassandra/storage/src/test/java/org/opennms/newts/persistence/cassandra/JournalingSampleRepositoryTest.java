@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleBatchProcessor;
+import org.opennms.newts.api.SampleProcessor;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.exceptions.InvalidQueryException;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+
+public class JournalingSampleRepositoryTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private File m_directory;
+    private SampleRepository m_delegate;
+    private MetricRegistry m_registry;
+
+    @Before
+    public void setUp() throws Exception {
+        m_directory = m_folder.newFolder();
+        m_delegate = mock(SampleRepository.class);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        JournalingSampleRepository repository = newRepository(m_delegate);
+
+        List<Sample> samples = samples();
+        repository.insert(samples, true);
+
+        List<Sample> replayed = replayed(m_delegate, 1, true);
+        assertEquals(samples, replayed);
+        assertEquals(Collections.singletonMap("type", "interface"), replayed.get(0).getResource().getAttributes().get());
+
+        repository.shutdown();
+
+        assertEquals(2, m_registry.meter("repository.journal.samples-replayed").getCount());
+        assertEquals(0L, m_registry.getGauges().get("repository.journal.lag").getValue());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        doThrow(new RuntimeException("unavailable")).doNothing().when(m_delegate).insert(any(SampleBatch.class), anyBoolean());
+
+        JournalingSampleRepository repository = newRepository(m_delegate);
+        repository.insert(samples());
+
+        // Inserted once unsuccessfully, and once more successfully
+        assertEquals(samples(), replayed(m_delegate, 2, false));
+        assertEquals(1, m_registry.meter("repository.journal.replay-errors").getCount());
+
+        repository.shutdown();
+    }
+
+    @Test
+    public void testProcessors() throws Exception {
+        doThrow(new RuntimeException("unavailable")).doNothing().when(m_delegate).insert(any(SampleBatch.class), anyBoolean());
+
+        SampleBatchProcessor processor = mock(SampleBatchProcessor.class);
+        m_registry = new MetricRegistry();
+        JournalingSampleRepository repository = new JournalingSampleRepository(m_delegate, m_directory, 1024 * 1024, 4, 1000000, 1000,
+                Collections.<SampleProcessor> singleton(processor), m_registry);
+
+        SampleBatch batch = SampleBatch.of(samples());
+        repository.insert(batch);
+
+        // Submitted once, as journaled, though replayed twice
+        replayed(m_delegate, 2, false);
+        repository.shutdown();
+
+        verify(processor, times(1)).submit(batch);
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        // Batches with samples of the "invalid" resource are rejected
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                for (Sample sample : ((SampleBatch) invocation.getArguments()[0]).toSamples()) {
+                    if (sample.getResource().getId().equals("invalid")) {
+                        throw new InvalidQueryException("invalid");
+                    }
+                }
+                return null;
+            }
+        }).when(m_delegate).insert(any(SampleBatch.class), anyBoolean());
+
+        // Journaled while unavailable, so that all three records are replayed as a single batch once restarted
+        SampleRepository unavailable = mock(SampleRepository.class);
+        doThrow(new RuntimeException("unavailable")).when(unavailable).insert(any(SampleBatch.class), anyBoolean());
+
+        JournalingSampleRepository repository = newRepository(unavailable);
+        repository.insert(samples());
+        repository.insert(Lists.newArrayList(new Sample(Timestamp.fromEpochMillis(1000), new Resource("invalid"), "m", MetricType.GAUGE, new Gauge(1.0d))));
+        repository.insert(samples());
+        repository.shutdown();
+
+        repository = newRepository(m_delegate);
+
+        // Rejected as a batch, and then replayed a record at a time; The invalid record is skipped
+        assertEquals(samples(), replayed(m_delegate, 4, false));
+
+        repository.shutdown();
+
+        assertEquals(1, m_registry.meter("repository.journal.samples-skipped").getCount());
+        assertEquals(2, m_registry.meter("repository.journal.replay-errors").getCount());
+        assertEquals(4, m_registry.meter("repository.journal.samples-replayed").getCount());
+        assertEquals(0L, m_registry.getGauges().get("repository.journal.lag").getValue());
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        SampleRepository unavailable = mock(SampleRepository.class);
+        doThrow(new RuntimeException("unavailable")).when(unavailable).insert(any(SampleBatch.class), anyBoolean());
+
+        JournalingSampleRepository repository = newRepository(unavailable);
+        repository.insert(samples());
+        repository.shutdown();
+
+        // Replayed once restarted
+        doNothing().when(m_delegate).insert(any(SampleBatch.class), anyBoolean());
+        repository = newRepository(m_delegate);
+
+        assertEquals(samples(), replayed(m_delegate, 1, false));
+
+        repository.shutdown();
+    }
+
+    @Test
+    public void testUndecodable() {
+        byte[] record = JournalCodec.encode(samples(), false);
+        SampleBatch.Builder builder = new SampleBatch.Builder().add(samples().get(0));
+
+        // Truncated within the last sample, (so that the first decodes)
+        try {
+            JournalCodec.decode(ByteBuffer.wrap(record, 0, record.length - 8), builder);
+            fail("truncated records should not decode");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // None of the record's samples are added
+        assertEquals(1, builder.size());
+
+        JournalCodec.decode(ByteBuffer.wrap(record), builder);
+        assertEquals(3, builder.size());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        JournalingSampleRepository repository = newRepository(m_delegate);
+        repository.shutdown();
+
+        try {
+            repository.insert(samples());
+            fail("inserts should fail once shut down");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private JournalingSampleRepository newRepository(SampleRepository delegate) throws Exception {
+        m_registry = new MetricRegistry();
+        return new JournalingSampleRepository(delegate, m_directory, 1024 * 1024, 4, 1000000, 1000, m_registry);
+    }
+
+    /**
+     * Waits for (at least) {@code count} replays.
+     *
+     * @return the samples of the most recent
+     */
+    private static List<Sample> replayed(SampleRepository delegate, int count, boolean calculateTimeToLive) {
+        ArgumentCaptor<SampleBatch> captor = ArgumentCaptor.forClass(SampleBatch.class);
+        verify(delegate, timeout(5000).atLeast(count)).insert(captor.capture(), eq(calculateTimeToLive));
+
+        List<SampleBatch> all = captor.getAllValues();
+        return all.get(all.size() - 1).toSamples();
+    }
+
+    private static List<Sample> samples() {
+        Resource resource = new Resource("localhost:eth0", Optional.of(Collections.singletonMap("type", "interface")));
+        Timestamp timestamp = Timestamp.fromEpochMillis(1000000123);
+
+        return Lists.newArrayList(
+                new Sample(timestamp, Context.DEFAULT_CONTEXT, resource, "temperature", MetricType.GAUGE, new Gauge(21.5d)),
+                new Sample(timestamp, Context.DEFAULT_CONTEXT, resource, "octets", MetricType.COUNTER, new Counter(-1L),
+                        Collections.singletonMap("units", "bytes")));
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+import org.opennms.newts.api.ColumnarResults;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+public class MeasurementQueryCoalescerTest {
+
+    private static final Context CONTEXT = new Context("c");
+    private static final Resource RESOURCE = new Resource("r");
+    private static final Timestamp START = Timestamp.fromEpochMillis(0);
+    private static final Timestamp END = Timestamp.fromEpochMillis(3600000);
+    private static final Duration RESOLUTION = Duration.minutes(5);
+
+    private final MetricRegistry m_registry = new MetricRegistry();
+    private final MeasurementQueryCoalescer m_coalescer = new MeasurementQueryCoalescer(m_registry);
+
+    @Test
+    public void testCoalesced() throws Exception {
+        PendingLoader loader = new PendingLoader();
+
+        ListenableFuture<ColumnarResults> first = select(descriptor(), RESOURCE, loader);
+        // Equal, (though not the same) descriptors
+        ListenableFuture<ColumnarResults> second = select(descriptor(), RESOURCE, loader);
+
+        assertEquals(1, loader.loads);
+
+        Row<Measurement> row = new Row<>(START, RESOURCE);
+        row.addElement(new Measurement(START, RESOURCE, "avg", 1.0d, Maps.<String, String> newHashMap()));
+        ColumnarResults results = new ColumnarResults.Builder(RESOURCE, Arrays.asList("avg")).row(row).build();
+        loader.future.set(results);
+
+        // The first caller receives the selection, and the others views of it
+        assertSame(results, first.get());
+        assertNotSame(results, second.get());
+
+        assertEquals(1.0d, first.get().getRows().iterator().next().getElement("avg").getValue(), 0.0d);
+        assertEquals(1.0d, second.get().getRows().iterator().next().getElement("avg").getValue(), 0.0d);
+
+        assertEquals(2, m_registry.meter("repository.query-coalescer.queries").getCount());
+        assertEquals(1, m_registry.meter("repository.query-coalescer.coalesced").getCount());
+
+        // Completed selections are not shared
+        select(descriptor(), RESOURCE, loader);
+        assertEquals(2, loader.loads);
+    }
+
+    @Test
+    public void testNotCoalesced() throws Exception {
+        PendingLoader loader = new PendingLoader();
+
+        select(descriptor(), RESOURCE, loader);
+        select(descriptor(), new Resource("other"), loader);
+        select(new ResultDescriptor(Duration.minutes(5)).datasource("avg", "m", Duration.minutes(10), StandardAggregationFunctions.MAX), RESOURCE, loader);
+        m_coalescer.select(CONTEXT, RESOURCE, START, END, descriptor(), Duration.minutes(10), loader);
+
+        assertEquals(4, loader.loads);
+    }
+
+    @Test
+    public void testFailed() throws Exception {
+        PendingLoader loader = new PendingLoader();
+        RuntimeException failure = new RuntimeException();
+
+        ListenableFuture<ColumnarResults> first = select(descriptor(), RESOURCE, loader);
+        ListenableFuture<ColumnarResults> second = select(descriptor(), RESOURCE, loader);
+
+        loader.future.setException(failure);
+
+        for (ListenableFuture<ColumnarResults> future : Arrays.asList(first, second)) {
+            try {
+                future.get();
+                fail("Expected failure");
+            }
+            catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+
+        select(descriptor(), RESOURCE, loader);
+        assertEquals(2, loader.loads);
+    }
+
+    @Test
+    public void testCancelled() throws Exception {
+        PendingLoader loader = new PendingLoader();
+
+        ListenableFuture<ColumnarResults> first = select(descriptor(), RESOURCE, loader);
+        ListenableFuture<ColumnarResults> second = select(descriptor(), RESOURCE, loader);
+        ListenableFuture<ColumnarResults> third = select(descriptor(), RESOURCE, loader);
+
+        // Neither the leader's cancellation, nor a joiner's, affects the others
+        first.cancel(false);
+        second.cancel(false);
+
+        assertFalse(loader.future.isCancelled());
+        assertFalse(third.isDone());
+
+        ColumnarResults results = new ColumnarResults.Builder(RESOURCE, Arrays.asList("avg")).build();
+        loader.future.set(results);
+
+        assertEquals(0, third.get().size());
+        assertEquals(0, (int) m_registry.getGauges().get("repository.query-coalescer.in-flight").getValue());
+    }
+
+    private ListenableFuture<ColumnarResults> select(ResultDescriptor descriptor, Resource resource, PendingLoader loader) {
+        return m_coalescer.select(CONTEXT, resource, START, END, descriptor, RESOLUTION, loader);
+    }
+
+    private static ResultDescriptor descriptor() {
+        return new ResultDescriptor(Duration.minutes(5)).datasource("avg", "m", Duration.minutes(10), StandardAggregationFunctions.AVERAGE);
+    }
+
+    /** Returns a new, pending selection for each load. */
+    private static class PendingLoader implements MeasurementQueryCoalescer.Loader {
+
+        private int loads = 0;
+        private SettableFuture<ColumnarResults> future;
+
+        @Override
+        public ListenableFuture<ColumnarResults> load() {
+            loads += 1;
+            future = SettableFuture.create();
+            return future;
+        }
+    }
+
+}
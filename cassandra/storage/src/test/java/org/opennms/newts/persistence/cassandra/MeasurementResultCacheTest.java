@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+
+public class MeasurementResultCacheTest {
+
+    private static final Context CONTEXT = new Context("c");
+    private static final Resource RESOURCE = new Resource("r");
+    private static final Duration RESOLUTION = Duration.minutes(1);
+
+    // Aligned to the (ten minute) buckets, and long past
+    private static final long BASE = 1399999800000L;
+
+    // Samples up to four minutes after a row could contribute to it (heartbeat + interval + step)
+    private static final long LEAD = Duration.minutes(4).asMillis();
+
+    private final ResultDescriptor m_descriptor = new ResultDescriptor(Duration.minutes(1))
+            .datasource("avg", "m", Duration.minutes(2), StandardAggregationFunctions.AVERAGE);
+
+    @Test
+    public void testHit() throws Exception {
+        MeasurementResultCache cache = cache(10, 1000);
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+
+        Results<Measurement> results = select(cache, RESOURCE, minute(0), minute(29), loader);
+
+        assertEquals(30, results.getRows().size());
+        assertValues(results);
+
+        // The buckets, (with the samples either side that contribute to them), and the leading and trailing rows
+        assertEquals(3, loader.loads.size());
+        assertLoad(BASE - LEAD, minute(29).asMillis() + LEAD, loader.loads.get(0));
+        assertLoad(minute(0).asMillis(), minute(7).asMillis(), loader.loads.get(1));
+        assertLoad(minute(22).asMillis(), minute(29).asMillis(), loader.loads.get(2));
+
+        // Served from the cache, but for the leading and trailing rows
+        loader.loads.clear();
+        results = select(cache, RESOURCE, minute(0), minute(29), loader);
+
+        assertEquals(2, loader.loads.size());
+        assertEquals(30, results.getRows().size());
+        assertValues(results);
+
+        loader.loads.clear();
+        results = select(cache, RESOURCE, minute(5), minute(14), loader);
+
+        assertEquals(2, loader.loads.size());
+        assertEquals(10, results.getRows().size());
+        assertEquals(minute(5), results.getRows().iterator().next().getTimestamp());
+        assertValues(results);
+
+        // A different resolution is not
+        loader.loads.clear();
+        cache.select(CONTEXT, RESOURCE, minute(0), minute(29), m_descriptor, Duration.minutes(5), loader).get();
+        assertEquals(3, loader.loads.size());
+
+        // Nor are (all of the rows of) short queries
+        loader.loads.clear();
+        results = select(cache, RESOURCE, minute(10), minute(15), loader);
+
+        assertEquals(1, loader.loads.size());
+        assertLoad(minute(10).asMillis(), minute(15).asMillis(), loader.loads.get(0));
+        assertEquals(6, results.getRows().size());
+    }
+
+    @Test
+    public void testOpenBuckets() throws Exception {
+        MeasurementResultCache cache = cache(10, 1000);
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+
+        Timestamp now = Timestamp.now();
+        Timestamp start = now.minus(Duration.hours(1));
+
+        assertEquals(61, select(cache, RESOURCE, start, now, loader).getRows().size());
+        assertEquals(3, loader.loads.size());
+
+        // Only the rows of buckets that are not yet past are aggregated again, (with the leading rows)
+        loader.loads.clear();
+
+        assertEquals(61, select(cache, RESOURCE, start, now, loader).getRows().size());
+        assertEquals(2, loader.loads.size());
+        // The first bucket not yet past starts within 13 minutes of now (less its nine further rows and four of slack)
+        assertTrue(loader.loads.get(1)[0].asMillis() >= now.minus(Duration.minutes(13)).asMillis() - LEAD);
+        assertTrue(loader.loads.get(1)[0].asMillis() <= now.minus(Duration.minutes(3)).asMillis() - LEAD);
+        assertEquals(now, loader.loads.get(1)[1]);
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        MeasurementResultCache cache = cache(10, 1000);
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+
+        select(cache, RESOURCE, minute(0), minute(29), loader);
+        loader.loads.clear();
+
+        // A late sample at 15 minutes could contribute to the rows of the second bucket, (but not of the first)
+        cache.invalidate(Lists.newArrayList(sample(RESOURCE, Timestamp.fromEpochMillis(minute(15).asMillis()))));
+
+        assertEquals(30, select(cache, RESOURCE, minute(0), minute(29), loader).getRows().size());
+        assertEquals(3, loader.loads.size());
+        assertLoad(minute(10).asMillis() - LEAD, minute(29).asMillis() + LEAD, loader.loads.get(0));
+
+        // Nor can current samples contribute to any cached bucket
+        loader.loads.clear();
+        cache.invalidate(Lists.newArrayList(sample(RESOURCE, Timestamp.now())));
+
+        select(cache, RESOURCE, minute(0), minute(29), loader);
+        assertEquals(2, loader.loads.size());
+
+        // Deleted
+        loader.loads.clear();
+        cache.invalidate(CONTEXT, RESOURCE);
+
+        select(cache, RESOURCE, minute(0), minute(29), loader);
+        assertEquals(3, loader.loads.size());
+    }
+
+    @Test
+    public void testInvalidatedWhileLoading() throws Exception {
+        MeasurementResultCache cache = cache(10, 1000);
+        final SettableFuture<Results<Measurement>> pending = SettableFuture.create();
+
+        ListenableFuture<Results<Measurement>> future = cache.select(CONTEXT, RESOURCE, minute(0), minute(9), m_descriptor, RESOLUTION, new MeasurementResultCache.Loader() {
+
+            @Override
+            public ListenableFuture<Results<Measurement>> load(Timestamp start, Timestamp end) {
+                return pending;
+            }
+        });
+
+        cache.invalidate(Lists.newArrayList(sample(RESOURCE, minute(5))));
+        pending.set(new RecordingLoader(RESOURCE).results(minute(0), minute(9)));
+
+        assertEquals(10, future.get().getRows().size());
+
+        // The bucket aggregated concurrently with the write was not cached
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+        select(cache, RESOURCE, minute(0), minute(9), loader);
+        assertEquals(3, loader.loads.size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        MeasurementResultCache cache = cache(10, 1000, Duration.millis(1), registry);
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+
+        select(cache, RESOURCE, minute(0), minute(29), loader);
+        assertEquals(0, registry.meter("repository.result-cache.hits").getCount());
+
+        Thread.sleep(10);
+
+        // Aggregated again, (rather than served from the cache)
+        Results<Measurement> results = select(cache, RESOURCE, minute(0), minute(29), loader);
+
+        assertEquals(30, results.getRows().size());
+        assertValues(results);
+        assertEquals(0, registry.meter("repository.result-cache.hits").getCount());
+        assertEquals(3, registry.meter("repository.result-cache.buckets-expired").getCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        MeasurementResultCache cache = cache(10, 20);
+        Resource other = new Resource("other");
+        RecordingLoader loader = new RecordingLoader(RESOURCE);
+        RecordingLoader otherLoader = new RecordingLoader(other);
+
+        select(cache, RESOURCE, minute(0), minute(19), loader);
+        select(cache, other, minute(0), minute(9), otherLoader);
+
+        loader.loads.clear();
+        otherLoader.loads.clear();
+
+        // Evicted, (as the least recently used)
+        select(cache, RESOURCE, minute(0), minute(19), loader);
+        assertEquals(3, loader.loads.size());
+        select(cache, other, minute(0), minute(9), otherLoader);
+        assertEquals(3, otherLoader.loads.size());
+    }
+
+    private Results<Measurement> select(MeasurementResultCache cache, Resource resource, Timestamp start, Timestamp end, RecordingLoader loader) throws Exception {
+        return cache.select(CONTEXT, resource, start, end, m_descriptor, RESOLUTION, loader).get();
+    }
+
+    private static void assertLoad(long start, long end, Timestamp[] load) {
+        assertEquals(start, load[0].asMillis());
+        assertEquals(end, load[1].asMillis());
+    }
+
+    private static void assertValues(Results<Measurement> results) {
+        for (Row<Measurement> row : results) {
+            Measurement measurement = row.getElement("avg");
+            assertEquals(row.getTimestamp().asSeconds(), measurement.getValue(), 0.0d);
+            assertTrue(measurement.getAttributes().isEmpty());
+        }
+    }
+
+    private static MeasurementResultCache cache(int bucketRows, long maxMeasurements) {
+        return cache(bucketRows, maxMeasurements, ResultCacheConfiguration.DEFAULT_MAX_AGE, new MetricRegistry());
+    }
+
+    private static MeasurementResultCache cache(int bucketRows, long maxMeasurements, Duration maxAge, MetricRegistry registry) {
+        return new MeasurementResultCache(new ResultCacheConfiguration(true, bucketRows, maxMeasurements, maxAge), registry);
+    }
+
+    private static Sample sample(Resource resource, Timestamp timestamp) {
+        return new Sample(timestamp, CONTEXT, resource, "m", MetricType.GAUGE, new Gauge(1.0d));
+    }
+
+    private static Timestamp minute(int minute) {
+        return Timestamp.fromEpochMillis(BASE + minute * 60000L);
+    }
+
+    /** Aggregates a row per minute, (valued in seconds), and records the ranges loaded. */
+    private static class RecordingLoader implements MeasurementResultCache.Loader {
+
+        private final Resource m_resource;
+        private final List<Timestamp[]> loads = Lists.newArrayList();
+
+        private RecordingLoader(Resource resource) {
+            m_resource = resource;
+        }
+
+        @Override
+        public ListenableFuture<Results<Measurement>> load(Timestamp start, Timestamp end) {
+            loads.add(new Timestamp[] { start, end });
+            return Futures.immediateFuture(results(start, end));
+        }
+
+        private Results<Measurement> results(Timestamp start, Timestamp end) {
+            Results<Measurement> results = new Results<>();
+
+            for (Timestamp t = start.stepFloor(RESOLUTION); !t.gt(end.stepCeiling(RESOLUTION)); t = t.plus(RESOLUTION)) {
+                results.addElement(new Measurement(t, m_resource, "avg", t.asSeconds(), Maps.<String, String> newHashMap()));
+            }
+
+            return results;
+        }
+    }
+
+}
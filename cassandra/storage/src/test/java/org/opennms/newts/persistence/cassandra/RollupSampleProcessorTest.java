@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration.Rollup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.util.concurrent.AbstractFuture;
+
+
+public class RollupSampleProcessorTest {
+
+    private final CassandraSession m_session = mock(CassandraSession.class);
+    private final PreparedStatement m_statement = mock(PreparedStatement.class);
+    private final BoundStatement m_bound = mock(BoundStatement.class);
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    @Test
+    public void testRetried() {
+        when(m_session.prepare(anyString())).thenReturn(m_statement);
+        when(m_statement.bind()).thenReturn(m_bound);
+        when(m_session.executeAsync(any(Statement.class))).thenReturn(
+                CompletedResultSetFuture.failed(new DriverException("unavailable")),
+                CompletedResultSetFuture.succeeded(mock(ResultSet.class)));
+
+        RollupConfiguration config = new RollupConfiguration(Collections.singletonList(new Rollup(Duration.minutes(5), 0)), Duration.minutes(5), 1000);
+        RollupSampleProcessor processor = new RollupSampleProcessor(m_session, new ContextConfigurations(), config, m_registry);
+
+        processor.submit(Collections.singletonList(new Sample(Timestamp.now(), new Resource("r"), "m", MetricType.GAUGE, new Gauge(1))));
+
+        try {
+            processor.flush();
+            fail("write succeeded");
+        }
+        catch (DriverException e) {
+            assertEquals(1, m_registry.meter("repository.rollups.write-failures").getCount());
+        }
+
+        // Retried, with the same id, (so that it is written once, even if the first only appeared to fail)
+        processor.flush();
+        processor.shutdown();
+
+        ArgumentCaptor<UUID> ids = ArgumentCaptor.forClass(UUID.class);
+        verify(m_session, times(2)).executeAsync(any(Statement.class));
+        verify(m_bound, times(2)).setUUID(eq(SchemaConstants.F_ID), ids.capture());
+
+        List<UUID> captured = ids.getAllValues();
+        assertEquals(captured.get(0), captured.get(1));
+        assertEquals(0, m_registry.meter("repository.rollups.buckets-dropped").getCount());
+    }
+
+    private static class CompletedResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private static ResultSetFuture succeeded(ResultSet result) {
+            CompletedResultSetFuture future = new CompletedResultSetFuture();
+            future.set(result);
+            return future;
+        }
+
+        private static ResultSetFuture failed(Throwable t) {
+            CompletedResultSetFuture future = new CompletedResultSetFuture();
+            future.setException(t);
+            return future;
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
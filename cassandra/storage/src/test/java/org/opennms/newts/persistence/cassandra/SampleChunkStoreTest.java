@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AbstractFuture;
+
+
+public class SampleChunkStoreTest {
+
+    private static final Resource RESOURCE = new Resource("r");
+
+    private final CassandraSession m_session = mock(CassandraSession.class);
+    private final MetricRegistry m_registry = new MetricRegistry();
+
+    // The statements bound to insert chunks, and the futures of their writes
+    private final Set<Statement> m_inserts = Sets.newIdentityHashSet();
+    private final List<BoundStatement> m_bound = Lists.newArrayList();
+    private final Queue<PendingResultSetFuture> m_writes = Queues.newArrayDeque();
+
+    @Test
+    public void testRetried() throws Exception {
+        PendingResultSetFuture first = new PendingResultSetFuture();
+        PendingResultSetFuture second = new PendingResultSetFuture();
+        m_writes.add(first);
+        m_writes.add(second);
+
+        SampleChunkStore store = newStore();
+        Timestamp timestamp = Timestamp.now();
+
+        store.append(Collections.singletonList(new Sample(timestamp, RESOURCE, "m", MetricType.GAUGE, new Gauge(1))), false);
+
+        // Read while being written, (and after failing to be)
+        assertTrue(contains(store, timestamp));
+        first.fail(new DriverException("unavailable"));
+        assertTrue(contains(store, timestamp));
+        assertEquals(1, m_registry.meter("repository.chunks.write-failures").getCount());
+
+        // Retried under the same id, and discarded once written
+        second.complete(mock(ResultSet.class));
+        store.flush();
+
+        assertFalse(contains(store, timestamp));
+        assertEquals(0, m_registry.getGauges().get("repository.chunks.samples-buffered").getValue());
+
+        ArgumentCaptor<UUID> ids = ArgumentCaptor.forClass(UUID.class);
+        assertEquals(2, m_bound.size());
+        verify(m_bound.get(0), times(1)).setUUID(eq(SchemaConstants.F_ID), ids.capture());
+        verify(m_bound.get(1), times(1)).setUUID(eq(SchemaConstants.F_ID), ids.capture());
+        assertEquals(ids.getAllValues().get(0), ids.getAllValues().get(1));
+
+        store.shutdown();
+    }
+
+    private SampleChunkStore newStore() {
+        when(m_session.prepare(anyString())).thenAnswer(new Answer<PreparedStatement>() {
+
+            @Override
+            public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+                final boolean insert = ((String) invocation.getArguments()[0]).startsWith("INSERT");
+                PreparedStatement prepared = mock(PreparedStatement.class);
+
+                when(prepared.bind()).thenAnswer(new Answer<BoundStatement>() {
+
+                    @Override
+                    public BoundStatement answer(InvocationOnMock invocation) throws Throwable {
+                        BoundStatement bound = mock(BoundStatement.class);
+                        if (insert) {
+                            m_inserts.add(bound);
+                            m_bound.add(bound);
+                        }
+                        return bound;
+                    }
+                });
+
+                return prepared;
+            }
+        });
+
+        when(m_session.executeAsync(any(Statement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) throws Throwable {
+                if (m_inserts.contains(invocation.getArguments()[0])) {
+                    return m_writes.remove();
+                }
+
+                // No chunks are stored
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.isFullyFetched()).thenReturn(true);
+                when(rs.isExhausted()).thenReturn(true);
+                when(rs.iterator()).thenReturn(Iterators.<com.datastax.driver.core.Row> emptyIterator());
+
+                PendingResultSetFuture future = new PendingResultSetFuture();
+                future.complete(rs);
+                return future;
+            }
+        });
+
+        ChunkConfiguration config = new ChunkConfiguration(Duration.hours(1), 1, Duration.hours(1));
+        return new SampleChunkStore(m_session, 0, new ContextConfigurations(), config, 1, 100, m_registry);
+    }
+
+    private static boolean contains(SampleChunkStore store, Timestamp timestamp) throws Exception {
+        Timestamp start = timestamp.minus(Duration.minutes(1));
+        Timestamp end = timestamp.plus(Duration.minutes(1));
+
+        for (Iterator<Row<Sample>> rows = store.selectAsync(Context.DEFAULT_CONTEXT, RESOURCE, start, end, Collections.<String> emptySet()).get(); rows.hasNext();) {
+            if (rows.next().getTimestamp().equals(timestamp)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static class PendingResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+        private void complete(ResultSet result) {
+            set(result);
+        }
+
+        private void fail(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return get();
+            }
+            catch (Exception e) {
+                throw new DriverException(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
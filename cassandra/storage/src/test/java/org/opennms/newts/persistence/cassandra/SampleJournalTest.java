@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+
+public class SampleJournalTest {
+
+    // Room for exactly three 8 byte records per segment
+    private static final int SEGMENT_SIZE = SampleJournal.SEGMENT_HEADER + 3 * (SampleJournal.RECORD_HEADER + 8);
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendReadCommit() throws Exception {
+        File directory = m_folder.newFolder();
+
+        try (SampleJournal journal = new SampleJournal(directory, SEGMENT_SIZE, 4)) {
+            long end = 0;
+            for (int i = 0; i < 7; i++) {
+                end = journal.append(record(i));
+            }
+            journal.sync(end);
+
+            // Seven records span three segments
+            assertEquals(3, journal.getSegmentCount());
+            assertEquals(Lists.newArrayList("record-0", "record-1", "record-2", "record-3", "record-4", "record-5", "record-6"), readAll(journal));
+
+            // Committing past the first segment deletes it
+            long position = journal.getReadPosition();
+            for (int i = 0; i < 4; i++) {
+                position = journal.read(position).next;
+            }
+            journal.commit(position);
+
+            assertEquals(2, journal.getSegmentCount());
+            assertEquals(2, directory.list().length - 1);   // ...less the checkpoint
+            assertEquals(Lists.newArrayList("record-4", "record-5", "record-6"), readAll(journal));
+        }
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        File directory = m_folder.newFolder();
+
+        try (SampleJournal journal = new SampleJournal(directory, SEGMENT_SIZE, 4)) {
+            long position = journal.getReadPosition();
+            for (int i = 0; i < 5; i++) {
+                journal.append(record(i));
+            }
+            journal.commit(journal.read(position).next);
+        }
+
+        // Tear the final record (record-4, the second of the second segment)
+        File last = new File(directory, String.format("%020d.journal", 1));
+        try (RandomAccessFile raf = new RandomAccessFile(last, "rw")) {
+            raf.seek(SampleJournal.SEGMENT_HEADER + SampleJournal.RECORD_HEADER + 8 + SampleJournal.RECORD_HEADER + 2);
+            raf.write(new byte[] { 'X', 'X' });
+        }
+
+        try (SampleJournal journal = new SampleJournal(directory, SEGMENT_SIZE, 4)) {
+            assertEquals(Lists.newArrayList("record-1", "record-2", "record-3"), readAll(journal));
+
+            // Appends continue from the end of the intact records
+            journal.append(record(5));
+            assertEquals(Lists.newArrayList("record-1", "record-2", "record-3", "record-5"), readAll(journal));
+        }
+    }
+
+    @Test
+    public void testFull() throws Exception {
+        try (SampleJournal journal = new SampleJournal(m_folder.newFolder(), SEGMENT_SIZE, 2)) {
+            for (int i = 0; i < 6; i++) {
+                journal.append(record(i));
+            }
+
+            try {
+                journal.append(record(6));
+                fail("journal should be full");
+            }
+            catch (JournalFullException e) {
+                // Expected
+            }
+
+            // Consuming the first segment makes room
+            long position = journal.getReadPosition();
+            for (int i = 0; i < 3; i++) {
+                position = journal.read(position).next;
+            }
+            journal.commit(position);
+
+            journal.append(record(6));
+            assertEquals(Lists.newArrayList("record-3", "record-4", "record-5", "record-6"), readAll(journal));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        try (SampleJournal journal = new SampleJournal(m_folder.newFolder(), SEGMENT_SIZE, 2)) {
+            assertNull(journal.read(journal.getReadPosition()));
+            assertEquals(0, journal.getLag());
+
+            journal.append(record(0));
+            assertArrayEquals(record(0), bytes(journal.read(journal.getReadPosition())));
+            assertEquals(SampleJournal.RECORD_HEADER + 8, journal.getLag());
+        }
+    }
+
+    private static byte[] record(int i) {
+        return String.format("record-%d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(SampleJournal.Record record) {
+        byte[] bytes = new byte[record.payload.remaining()];
+        record.payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static List<String> readAll(SampleJournal journal) {
+        List<String> records = Lists.newArrayList();
+        SampleJournal.Record record;
+        long position = journal.getReadPosition();
+
+        while ((record = journal.read(position)) != null) {
+            records.add(new String(bytes(record), StandardCharsets.UTF_8));
+            position = record.next;
+        }
+
+        return records;
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+
+public class SampleTailCacheTest {
+
+    private static final Context CONTEXT = new Context("c");
+    private static final Resource RESOURCE = new Resource("r");
+
+    // Samples are only cached if timestamped no earlier than their resource was first cached
+    private final long m_base = System.currentTimeMillis() + 60000;
+
+    @Test
+    public void testHit() {
+        SampleTailCache cache = cache(100, 1000);
+        cache.add(Lists.newArrayList(gauge("a", 0, 1.0d), gauge("b", 0, 2.0d), gauge("a", 1, 3.0d)));
+
+        Optional<SampleTailCache.Selection> selection = cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet());
+
+        assertTrue(selection.isPresent());
+        assertEquals(timestamp(0), selection.get().getFrom());
+
+        List<Row<Sample>> rows = rows(selection);
+        assertEquals(2, rows.size());
+        assertEquals(1.0d, rows.get(0).getElement("a").getValue().doubleValue(), 0.0d);
+        assertEquals(2.0d, rows.get(0).getElement("b").getValue().doubleValue(), 0.0d);
+        assertEquals(3.0d, rows.get(1).getElement("a").getValue().doubleValue(), 0.0d);
+        assertEquals(3, selection.get().getRows().getResultCount());
+
+        // Only the selected metrics
+        rows = rows(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Sets.newHashSet("b")));
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.get(0).getElements().size());
+    }
+
+    @Test
+    public void testStitchAndMiss() {
+        SampleTailCache cache = cache(100, 1000);
+
+        assertFalse(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet()).isPresent());
+
+        long before = System.currentTimeMillis();
+        cache.add(Lists.newArrayList(gauge("a", 5, 1.0d)));
+        long after = System.currentTimeMillis();
+
+        // Anything written before the resource was cached is in Cassandra only
+        Timestamp start = Timestamp.fromEpochMillis(before - 3600000);
+
+        Optional<SampleTailCache.Selection> selection = cache.select(CONTEXT, RESOURCE, start, timestamp(10), Collections.<String> emptySet());
+        assertTrue(selection.isPresent());
+        assertTrue(selection.get().getFrom().asMillis() >= before && selection.get().getFrom().asMillis() <= after);
+        assertEquals(1, rows(selection).size());
+
+        assertFalse(cache.select(CONTEXT, RESOURCE, start, Timestamp.fromEpochMillis(before - 1), Collections.<String> emptySet()).isPresent());
+    }
+
+    @Test
+    public void testMaxSamplesPerMetric() {
+        SampleTailCache cache = cache(4, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            cache.add(Lists.newArrayList(gauge("a", i, i)));
+        }
+
+        // The oldest samples are discarded, and the cache complete only from the first retained
+        Optional<SampleTailCache.Selection> selection = cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet());
+        assertEquals(timestamp(5).asMillis() + 1, selection.get().getFrom().asMillis());
+
+        List<Row<Sample>> rows = rows(selection);
+        assertEquals(4, rows.size());
+        assertEquals(timestamp(6), rows.get(0).getTimestamp());
+        assertEquals(timestamp(9), rows.get(3).getTimestamp());
+
+        // Samples older than those discarded are not cached
+        cache.add(Lists.newArrayList(gauge("a", 3, 42.0d)));
+        assertEquals(4, rows(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet())).size());
+    }
+
+    @Test
+    public void testOutOfOrderAndReplaced() {
+        SampleTailCache cache = cache(4, 1000);
+        cache.add(Lists.newArrayList(gauge("a", 0, 0.0d), gauge("a", 2, 2.0d), gauge("a", 3, 3.0d)));
+        cache.add(Lists.newArrayList(gauge("a", 1, 1.0d), gauge("a", 3, 33.0d)));
+
+        List<Row<Sample>> rows = rows(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet()));
+        assertEquals(4, rows.size());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(timestamp(i), rows.get(i).getTimestamp());
+            assertEquals(i, rows.get(i).getElement("a").getValue().doubleValue(), 0.0d);
+        }
+        assertEquals(33.0d, rows.get(3).getElement("a").getValue().doubleValue(), 0.0d);
+
+        // A full buffer discards its oldest sample to make room for another
+        cache.add(Lists.newArrayList(gauge("a", 2, 22.0d), gauge("a", 1, 11.0d)));
+        cache.add(Lists.newArrayList(sample("a", 4, MetricType.GAUGE, new Gauge(4.0d))));
+        cache.add(Lists.newArrayList(gauge("a", 1, 111.0d)));
+
+        rows = rows(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(10), Collections.<String> emptySet()));
+        assertEquals(4, rows.size());
+        assertEquals(timestamp(1), rows.get(0).getTimestamp());
+        assertEquals(111.0d, rows.get(0).getElement("a").getValue().doubleValue(), 0.0d);
+        assertEquals(22.0d, rows.get(1).getElement("a").getValue().doubleValue(), 0.0d);
+        assertEquals(4.0d, rows.get(3).getElement("a").getValue().doubleValue(), 0.0d);
+    }
+
+    @Test
+    public void testBatch() {
+        SampleTailCache cache = cache(100, 1000);
+
+        SampleBatch batch = new SampleBatch.Builder()
+                .add(CONTEXT, RESOURCE, "a", m_base, 1.5d)
+                .withAttributes(ImmutableMap.of("k", "v"))
+                .add(CONTEXT, RESOURCE, "c", MetricType.COUNTER, m_base, 42L)
+                .build();
+        cache.add(batch);
+
+        Row<Sample> row = cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(0), Collections.<String> emptySet()).get().getRows().next();
+        assertEquals(1.5d, row.getElement("a").getValue().doubleValue(), 0.0d);
+        assertEquals("v", row.getElement("a").getAttributes().get("k"));
+        assertEquals(MetricType.COUNTER, row.getElement("c").getType());
+        assertEquals(42L, row.getElement("c").getValue().longValue());
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() {
+        SampleTailCache cache = cache(100, 4);
+        Resource other = new Resource("other");
+
+        cache.add(Lists.newArrayList(gauge("a", 0, 1.0d), gauge("a", 1, 1.0d)));
+        cache.add(Lists.newArrayList(sample(other, "a", 0, MetricType.COUNTER, new Counter(1)), sample(other, "a", 1, MetricType.COUNTER, new Counter(1))));
+
+        // Reading RESOURCE makes other the least recently used
+        assertTrue(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(1), Collections.<String> emptySet()).isPresent());
+
+        cache.add(Lists.newArrayList(gauge("a", 2, 1.0d)));
+
+        assertTrue(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(2), Collections.<String> emptySet()).isPresent());
+        assertFalse(cache.select(CONTEXT, other, timestamp(0), timestamp(2), Collections.<String> emptySet()).isPresent());
+
+        cache.invalidate(CONTEXT, RESOURCE);
+        assertFalse(cache.select(CONTEXT, RESOURCE, timestamp(0), timestamp(2), Collections.<String> emptySet()).isPresent());
+    }
+
+    private SampleTailCache cache(int maxSamplesPerMetric, long maxSamples) {
+        return new SampleTailCache(new TailCacheConfiguration(true, true, Duration.hours(1), maxSamplesPerMetric, maxSamples), new MetricRegistry());
+    }
+
+    private static List<Row<Sample>> rows(Optional<SampleTailCache.Selection> selection) {
+        return Lists.newArrayList((Iterable<Row<Sample>>) selection.get().getRows());
+    }
+
+    private Timestamp timestamp(int second) {
+        return Timestamp.fromEpochMillis(m_base + second * 1000L);
+    }
+
+    private Sample gauge(String name, int second, double value) {
+        return sample(name, second, MetricType.GAUGE, new Gauge(value));
+    }
+
+    private Sample sample(String name, int second, MetricType type, ValueType<?> value) {
+        return sample(RESOURCE, name, second, type, value);
+    }
+
+    private Sample sample(Resource resource, String name, int second, MetricType type, ValueType<?> value) {
+        return new Sample(timestamp(second), CONTEXT, resource, name, type, value);
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.persistence.cassandra;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleRepository;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.CalculationFunction;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+
+public class TailCachingSampleRepositoryTest {
+
+    private static final Resource RESOURCE = new Resource("r");
+    private static final Duration INTERVAL = Duration.minutes(5);
+    private static final Duration STEP = Duration.hours(1);
+
+    // Samples are only cached if timestamped no earlier than their resource was first cached
+    private final Timestamp m_base = Timestamp.now().plus(STEP).stepCeiling(STEP);
+
+    private final ResultDescriptor m_descriptor = new ResultDescriptor(INTERVAL)
+            .datasource("rate", "m", Duration.minutes(10), StandardAggregationFunctions.AVERAGE)
+            .calculate("double", new CalculationFunction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public double apply(double... ds) {
+                    return ds[0] * 2;
+                }
+            }, "rate")
+            .export("rate", "double");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresSingleWriter() {
+        new TailCacheConfiguration(true, false, Duration.days(7), 100, 1000);
+    }
+
+    @Test
+    public void testStitchedMeasurements() {
+        MetricRegistry registry = new MetricRegistry();
+        MemoryRepository delegate = new MemoryRepository();
+
+        // The cache holds only the last 100 of the 600 samples
+        SampleRepository repository = new TailCachingSampleRepository(delegate, new TailCacheConfiguration(true, true, Duration.days(7), 100, 1000), new BatchSelectConfiguration(), registry);
+
+        List<Sample> samples = Lists.newArrayList();
+        for (int i = 0; i < 600; i++) {
+            samples.add(new Sample(m_base.plus(INTERVAL.times(i)), RESOURCE, "m", MetricType.COUNTER, new Counter(i * i * 300L)));
+        }
+        repository.insert(samples);
+
+        Timestamp end = m_base.plus(INTERVAL.times(599));
+
+        // Spanning the first cached sample, (the rows before it are read from the delegate)
+        assertMeasurements(delegate.select(m_base, end), repository.select(Context.DEFAULT_CONTEXT, RESOURCE, Optional.of(m_base), Optional.of(end), m_descriptor, Optional.of(STEP)));
+        assertEquals(1, registry.meter("repository.tail-cache.stitches").getCount());
+
+        // Entirely cached
+        Timestamp start = end.minus(Duration.hours(4));
+        assertMeasurements(delegate.select(start, end), repository.select(Context.DEFAULT_CONTEXT, RESOURCE, Optional.of(start), Optional.of(end), m_descriptor, Optional.of(STEP)));
+        assertEquals(1, registry.meter("repository.tail-cache.hits").getCount());
+    }
+
+    private static void assertMeasurements(Results<Measurement> expected, Results<Measurement> actual) {
+        Iterator<Row<Measurement>> actualRows = actual.iterator();
+        int count = 0;
+
+        for (Row<Measurement> row : expected) {
+            Row<Measurement> other = actualRows.next();
+            assertEquals(row.getTimestamp(), other.getTimestamp());
+
+            for (Measurement measurement : row.getElements()) {
+                assertEquals(measurement.getName() + " at " + row.getTimestamp(), measurement.getValue(), other.getElement(measurement.getName()).getValue(), 0.0d);
+            }
+            count++;
+        }
+
+        assertEquals(count, Lists.newArrayList(actual).size());
+    }
+
+    /** Holds the samples written, and aggregates them all as Cassandra would. */
+    private class MemoryRepository extends ForwardingSampleRepository {
+        private final List<Sample> m_samples = Lists.newArrayList();
+
+        private MemoryRepository() {
+            super(mock(SampleRepository.class));
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            m_samples.addAll(samples);
+        }
+
+        @Override
+        public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource resource, Optional<Timestamp> start, Optional<Timestamp> end, ResultDescriptor descriptor, Optional<Duration> resolution) {
+            return Futures.immediateFuture(select(start.get(), end.get(), descriptor, resolution.get()));
+        }
+
+        private Results<Measurement> select(Timestamp start, Timestamp end) {
+            return select(start, end, m_descriptor, STEP);
+        }
+
+        private Results<Measurement> select(Timestamp start, Timestamp end, ResultDescriptor descriptor, Duration step) {
+            List<Row<Sample>> rows = Lists.newArrayList();
+
+            for (Sample sample : m_samples) {
+                if (!sample.getTimestamp().lt(start.minus(step)) && !sample.getTimestamp().gt(end)) {
+                    Row<Sample> row = new Row<>(sample.getTimestamp(), RESOURCE);
+                    row.addElement(sample);
+                    rows.add(row);
+                }
+            }
+
+            return new ResultProcessor(RESOURCE, start, end, descriptor, step).process(rows.iterator());
+        }
+    }
+
+}
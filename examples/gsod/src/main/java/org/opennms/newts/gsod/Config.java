@@ -46,6 +46,9 @@ public class Config extends AbstractModule {
         properties.put("cassandra.port", System.getProperty("cassandra.port", "9042"));
         properties.put("cassandra.compression", System.getProperty("cassandra.compression", "NONE"));
         properties.put("samples.cassandra.time-to-live", System.getProperty("cassandra.time-to-live", "0"));
+        properties.put("samples.cassandra.max-batch-size", System.getProperty("cassandra.max-batch-size", "16"));
+        properties.put("samples.cassandra.select-window", System.getProperty("cassandra.select-window", "8"));
+        properties.put("samples.cassandra.fetch-size", System.getProperty("cassandra.fetch-size", "1000"));
         Names.bindProperties(binder(), properties);
 
         bind(MetricRegistry.class).toInstance(new MetricRegistry());
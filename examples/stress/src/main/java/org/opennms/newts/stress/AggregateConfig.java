@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.stress;
+
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.Option;
+import org.opennms.newts.api.Duration;
+
+
+class AggregateConfig extends Config {
+
+    private Duration m_resolution = Duration.seconds(3600);
+    private int m_iterations = 10;
+
+    @Option(name = "-R", aliases = "--resolution", metaVar = "<resolution>", usage = "Aggregation resolution in seconds.")
+    void setResolution(Duration resolution) {
+        m_resolution = resolution;
+    }
+
+    @Option(name = "-I", aliases = "--iterations", metaVar = "<iterations>", usage = "Number of times to aggregate each resource.")
+    void setIterations(int iterations) throws CmdLineException {
+        checkArgument(iterations > 0, "-I/--iterations must be at least 1");
+        m_iterations = iterations;
+    }
+
+    Duration getResolution() {
+        return m_resolution;
+    }
+
+    int getIterations() {
+        return m_iterations;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.stress;
+
+
+import java.util.Random;
+
+import org.opennms.newts.aggregate.IntervalGenerator;
+import org.opennms.newts.aggregate.ResultProcessor;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.StandardAggregationFunctions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+
+/**
+ * A Stress {@link Dispatcher} that measures the throughput of the aggregation pipeline, without a
+ * Cassandra cluster. Samples are generated in memory and aggregated with a descriptor that
+ * averages every metric, (as the REST service's {@code timer} report does, given {@code -m 15}). Even
+ * numbered metrics are generated as gauges, odd numbered metrics as counters.
+ */
+class AggregateDispatcher extends Dispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregateDispatcher.class);
+
+    private final AggregateConfig m_config;
+    private final Random m_random = new Random(0);
+
+    private long m_samples = 0;
+    private long m_nanos = 0;
+
+    AggregateDispatcher(AggregateConfig config) {
+        super(config);
+        m_config = config;
+    }
+
+    @Override
+    void go() throws InterruptedException {
+        Timer timer = m_metricRegistry.timer(MetricRegistry.name(getClass(), "aggregate"));
+        Meter aggregated = m_metricRegistry.meter(MetricRegistry.name(getClass(), "samples-aggregated"));
+
+        ResultDescriptor descriptor = new ResultDescriptor(m_config.getInterval());
+        for (String metric : m_config.getMetrics()) {
+            descriptor.datasource(metric, metric, m_config.getHeartbeat(), StandardAggregationFunctions.AVERAGE);
+        }
+
+        for (String resourceId : m_config.getResources()) {
+            Resource resource = new Resource(resourceId);
+            Results<Sample> samples = getSamples(resource);
+            int count = samples.getRows().size() * m_config.getNumMetrics();
+
+            ResultProcessor processor = new ResultProcessor(resource, m_config.getStart(), m_config.getEnd(), descriptor,
+                    m_config.getResolution());
+
+            // Once to warm up, (not included in the results)
+            processor.process(samples.iterator());
+
+            for (int i = 0; i < m_config.getIterations(); i++) {
+                Timer.Context ctx = timer.time();
+                try {
+                    processor.process(samples.iterator());
+                }
+                finally {
+                    m_nanos += ctx.stop();
+                }
+
+                aggregated.mark(count);
+                m_samples += count;
+            }
+        }
+
+        LOG.debug("Done.");
+    }
+
+    private Results<Sample> getSamples(Resource resource) {
+        Results<Sample> samples = new Results<>();
+        String[] metrics = m_config.getMetrics();
+        double[] gauges = new double[metrics.length];
+        long[] counters = new long[metrics.length];
+
+        for (Timestamp timestamp : new IntervalGenerator(m_config.getStart(), m_config.getEnd(), m_config.getInterval())) {
+            for (int i = 0; i < metrics.length; i++) {
+                if (i % 2 == 0) {
+                    gauges[i] = Math.max(0.0d, gauges[i] + m_random.nextGaussian());
+                    samples.addElement(new Sample(timestamp, resource, metrics[i], MetricType.GAUGE, new Gauge(gauges[i])));
+                }
+                else {
+                    counters[i] += m_random.nextInt(10000);
+                    samples.addElement(new Sample(timestamp, resource, metrics[i], MetricType.COUNTER, new Counter(counters[i])));
+                }
+            }
+        }
+
+        return samples;
+    }
+
+    @Override
+    void printReport() {
+        super.printReport();
+
+        System.out.printf("Samples:                %d%n", m_samples);
+        System.out.printf("Aggregate samples/sec:  %.0f%n", m_samples / (m_nanos / 1e9d));
+        System.out.println();
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.stress;
+
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.Option;
+
+
+class CodecConfig extends Config {
+
+    private int m_chunkSize = 120;
+
+    @Option(name = "-c", aliases = "--chunk-size", metaVar = "<samples>", usage = "Number of samples per chunk.")
+    void setChunkSize(int chunkSize) throws CmdLineException {
+        checkArgument(chunkSize > 0, "-c/--chunk-size must be at least 1");
+        m_chunkSize = chunkSize;
+    }
+
+    int getChunkSize() {
+        return m_chunkSize;
+    }
+
+}
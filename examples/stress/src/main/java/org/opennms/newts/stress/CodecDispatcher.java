@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.stress;
+
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.opennms.newts.aggregate.IntervalGenerator;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.persistence.cassandra.ChunkCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+
+
+/**
+ * A Stress {@link Dispatcher} that measures the compression and decoding throughput of sample
+ * chunks, without a Cassandra cluster. Even numbered metrics are generated as gauges following a
+ * random walk, odd numbered metrics as monotonically increasing counters.
+ */
+class CodecDispatcher extends Dispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodecDispatcher.class);
+
+    /** Bytes of a row's timestamp and serialized value (type byte, plus 8 bytes). */
+    private static final int ROW_FIXED_BYTES = 8 + 9;
+
+    private final CodecConfig m_config;
+    private final Random m_random = new Random(0);
+
+    private long m_samples = 0;
+    private long m_chunkBytes = 0;
+    private long m_rowBytes = 0;
+    private long m_decodeNanos = 0;
+
+    CodecDispatcher(CodecConfig config) {
+        super(config);
+        m_config = config;
+    }
+
+    @Override
+    void go() throws InterruptedException {
+        Timer encodeTimer = m_metricRegistry.timer(MetricRegistry.name(getClass(), "encode"));
+        Timer decodeTimer = m_metricRegistry.timer(MetricRegistry.name(getClass(), "decode"));
+        Meter decoded = m_metricRegistry.meter(MetricRegistry.name(getClass(), "samples-decoded"));
+
+        String[] metrics = m_config.getMetrics();
+
+        for (String resourceId : m_config.getResources()) {
+            Resource resource = new Resource(resourceId);
+
+            for (int i = 0; i < metrics.length; i++) {
+                MetricType type = (i % 2 == 0) ? MetricType.GAUGE : MetricType.COUNTER;
+                List<Sample> chunk = Lists.newArrayListWithCapacity(m_config.getChunkSize());
+
+                double gauge = 100.0d;
+                long counter = 0;
+
+                for (Timestamp timestamp : new IntervalGenerator(m_config.getStart(), m_config.getEnd(), m_config.getInterval())) {
+                    if (type == MetricType.GAUGE) {
+                        // Values with limited precision, as typically reported
+                        gauge = Math.max(0.0d, gauge + Math.round(m_random.nextGaussian() * 100.0d) / 100.0d);
+                        chunk.add(new Sample(timestamp, resource, metrics[i], type, new Gauge(gauge)));
+                    }
+                    else {
+                        counter += m_random.nextInt(10000);
+                        chunk.add(new Sample(timestamp, resource, metrics[i], type, new Counter(counter)));
+                    }
+
+                    if (chunk.size() >= m_config.getChunkSize()) {
+                        process(resource, metrics[i], chunk, encodeTimer, decodeTimer, decoded);
+                        chunk = Lists.newArrayListWithCapacity(m_config.getChunkSize());
+                    }
+                }
+
+                if (!chunk.isEmpty()) {
+                    process(resource, metrics[i], chunk, encodeTimer, decodeTimer, decoded);
+                }
+            }
+        }
+
+        LOG.debug("Done.");
+    }
+
+    private void process(Resource resource, String metric, List<Sample> samples, Timer encodeTimer, Timer decodeTimer, Meter decoded) {
+        ByteBuffer chunk;
+
+        Timer.Context ctx = encodeTimer.time();
+        try {
+            chunk = ChunkCodec.encode(samples);
+        }
+        finally {
+            ctx.stop();
+        }
+
+        ctx = decodeTimer.time();
+        try {
+            decoded.mark(ChunkCodec.decode(Context.DEFAULT_CONTEXT, resource, metric, chunk.duplicate()).size());
+        }
+        finally {
+            m_decodeNanos += ctx.stop();
+        }
+
+        m_samples += samples.size();
+        m_chunkBytes += chunk.remaining();
+        m_rowBytes += (long) samples.size() * (ROW_FIXED_BYTES + metric.length());
+    }
+
+    @Override
+    void printReport() {
+        super.printReport();
+
+        System.out.printf("Samples:                %d%n", m_samples);
+        System.out.printf("Chunk bytes/sample:     %.2f%n", (double) m_chunkBytes / m_samples);
+        System.out.printf("Row bytes/sample (min): %.2f%n", (double) m_rowBytes / m_samples);
+        System.out.printf("Decode samples/sec:     %.0f%n", m_samples / (m_decodeNanos / 1e9d));
+        System.out.println();
+    }
+
+}
@@ -20,14 +20,19 @@ import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
+import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.cassandra.StorageEngine;
+
+import com.datastax.driver.core.ConsistencyLevel;
 
 
 class Config {
 
     enum Command {
-        INSERT, SELECT;
+        INSERT, SELECT, CODEC, AGGREGATE;
     }
 
     static {
@@ -52,6 +57,7 @@ class Config {
     private Duration m_interval = Duration.seconds(300);
     private int m_numResources = 1;
     private int m_numMetrics = 1;
+    private StorageEngine m_storageEngine = StorageEngine.ROWS;
     private Command m_command;
 
     protected void checkArgument(boolean condition, String msg, Object... msgArgs) throws CmdLineException {
@@ -135,6 +141,16 @@ class Config {
         m_numMetrics = numMetrics;
     }
 
+    @Option(name = "-E", aliases = "--storage-engine", metaVar = "<engine>", usage = "Sample storage engine (rows or chunks).")
+    void setStorageEngine(String storageEngine) throws CmdLineException {
+        try {
+            m_storageEngine = StorageEngine.valueOf(storageEngine.toUpperCase());
+        }
+        catch (IllegalArgumentException ex) {
+            throw new CmdLineException(null, String.format("Unknown storage engine: %s", storageEngine));
+        }
+    }
+
     String getCassandraHost() {
         return m_cassandraHost;
     }
@@ -163,6 +179,16 @@ class Config {
         return m_cassandraSsl;
     }
 
+    StorageEngine getStorageEngine() {
+        return m_storageEngine;
+    }
+
+    ContextConfigurations getContextConfigurations() {
+        ContextConfigurations contexts = new ContextConfigurations();
+        contexts.addContextConfig(Context.DEFAULT_CONTEXT, Duration.days(7), ConsistencyLevel.ONE, ConsistencyLevel.ANY, m_storageEngine);
+        return contexts;
+    }
+
     Command getCommand() {
         return m_command;
     }
@@ -18,6 +18,7 @@ package org.opennms.newts.stress;
 
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.Option;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
 
 
 class InsertConfig extends Config {
@@ -28,6 +29,10 @@ class InsertConfig extends Config {
 
     private boolean m_enableHierarchicalIndexing = false;
 
+    private int m_maxBatchSize = CassandraSampleRepository.DEFAULT_MAX_BATCH_SIZE;
+
+    private boolean m_legacyInsert = false;
+
     @Option(name = "-B", aliases = "--batch-size", metaVar = "<size>", usage = "Number of samples per batch.")
     void setBatchSize(int batchSize) throws CmdLineException {
         checkArgument(batchSize > 0, "Batch size must be greater than zero.");
@@ -55,4 +60,23 @@ class InsertConfig extends Config {
     public boolean isHierarchicalIndexingEnabled() {
         return m_enableHierarchicalIndexing;
     }
+
+    @Option(name = "-M", aliases = "--max-batch-size", metaVar = "<size>", usage = "Maximum number of inserts per Cassandra (partition) batch.")
+    void setMaxBatchSize(int maxBatchSize) throws CmdLineException {
+        checkArgument(maxBatchSize > 0, "Maximum batch size must be greater than zero.");
+        m_maxBatchSize = maxBatchSize;
+    }
+
+    int getMaxBatchSize() {
+        return m_maxBatchSize;
+    }
+
+    @Option(name = "-L", aliases = "--legacy-insert", usage = "Insert using a single, multi-partition batch (for comparison).")
+    void setLegacyInsert(boolean legacyInsert) {
+        m_legacyInsert = legacyInsert;
+    }
+
+    boolean isLegacyInsert() {
+        return m_legacyInsert;
+    }
 }
@@ -25,7 +25,6 @@ import org.opennms.newts.api.DefaultSampleProcessorService;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleProcessor;
 import org.opennms.newts.api.SampleProcessorService;
-import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.cassandra.CassandraSession;
 import org.opennms.newts.cassandra.CassandraSessionImpl;
 import org.opennms.newts.cassandra.ContextConfigurations;
@@ -36,6 +35,7 @@ import org.opennms.newts.cassandra.search.EscapableResourceIdSplitter;
 import org.opennms.newts.cassandra.search.GuavaResourceMetadataCache;
 import org.opennms.newts.cassandra.search.ResourceIdSplitter;
 import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepositoryOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,7 +58,7 @@ class InsertDispatcher extends Dispatcher {
     private static final Logger LOG = LoggerFactory.getLogger(InsertDispatcher.class);
 
     private final InsertConfig m_config;
-    private final SampleRepository m_repository;
+    private final CassandraSampleRepository m_repository;
     private final BlockingQueue<Collection<Sample>> m_samplesQueue;
 
     InsertDispatcher(InsertConfig config) throws InterruptedException {
@@ -75,8 +75,8 @@ class InsertDispatcher extends Dispatcher {
                 config.getCassandraPassword(),
                 config.getCassandraSsl());
 
-        ContextConfigurations contexts = new ContextConfigurations();
-        MetricRegistry metrics = new MetricRegistry();
+        ContextConfigurations contexts = config.getContextConfigurations();
+        MetricRegistry metrics = m_metricRegistry;
         Set<SampleProcessor> processors = Sets.newHashSet();
 
         if (m_config.isSearchEnabled()) {
@@ -93,12 +93,27 @@ class InsertDispatcher extends Dispatcher {
 
         SampleProcessorService sampleProcessorService = new DefaultSampleProcessorService(m_config.getThreads(), processors);
 
-        m_repository = new CassandraSampleRepository(
-                session,
-                Config.CASSANDRA_TTL,
-                metrics,
-                sampleProcessorService,
-                contexts);
+        if (m_config.isLegacyInsert()) {
+            LOG.info("Inserting samples using a single, multi-partition batch");
+            m_repository = new LegacyInsertSampleRepository(
+                    session,
+                    Config.CASSANDRA_TTL,
+                    metrics,
+                    sampleProcessorService,
+                    contexts);
+        }
+        else {
+            LOG.info("Inserting samples using per-partition batches of at most {}", m_config.getMaxBatchSize());
+            m_repository = new CassandraSampleRepository(
+                    session,
+                    metrics,
+                    sampleProcessorService,
+                    contexts,
+                    new CassandraSampleRepositoryOptions.Builder()
+                            .withTimeToLive(Config.CASSANDRA_TTL)
+                            .withMaxBatchSize(m_config.getMaxBatchSize())
+                            .build());
+        }
 
         m_samplesQueue = Queues.newArrayBlockingQueue(config.getThreads() * 10);
 
@@ -169,6 +184,9 @@ class InsertDispatcher extends Dispatcher {
 
         shutdown();
 
+        // Write any samples still buffered for chunked storage
+        m_repository.shutdown();
+
         LOG.debug("Done.");
     }
 
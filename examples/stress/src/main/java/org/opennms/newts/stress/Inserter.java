@@ -20,12 +20,16 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 
 /**
  * A Stress worker for inserting {@link Sample samples} with the Java native API.
@@ -35,8 +39,13 @@ import org.slf4j.LoggerFactory;
 public class Inserter extends Worker {
 
     private static final Logger LOG = LoggerFactory.getLogger(Inserter.class);
+
+    /** Inserts written at once, (per inserter) before taking more samples from the queue. */
+    private static final int INSERTS_IN_FLIGHT = 4;
+
     private final SampleRepository m_repository;
     private final BlockingQueue<Collection<Sample>> m_queue;
+    private final Semaphore m_inFlight = new Semaphore(INSERTS_IN_FLIGHT);
 
     public Inserter(int sequence, SampleRepository repository, BlockingQueue<Collection<Sample>> queue) {
         super(String.format("INSERTER-%d", sequence));
@@ -66,9 +75,12 @@ public class Inserter extends Worker {
                 }
 
                 LOG.debug("Inserting {} samples", samples.size());
-                m_repository.insert(samples);
+                insert(samples);
 
             }
+
+            // Wait for the last of the inserts to complete
+            m_inFlight.acquire(INSERTS_IN_FLIGHT);
         }
         catch (InterruptedException e) {
             LOG.warn("Interrupted!");
@@ -76,4 +88,22 @@ public class Inserter extends Worker {
 
     }
 
+    private void insert(final Collection<Sample> samples) throws InterruptedException {
+        m_inFlight.acquire();
+
+        Futures.addCallback(m_repository.insertAsync(samples), new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                m_inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                m_inFlight.release();
+                LOG.error("Unable to insert {} samples", samples.size(), t);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.stress;
+
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.unloggedBatch;
+
+import java.util.Collection;
+
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
+import org.opennms.newts.api.SampleProcessorService;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.api.ValueType;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
+import org.opennms.newts.persistence.cassandra.SchemaConstants;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.querybuilder.Batch;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+
+/**
+ * A {@link CassandraSampleRepository} that inserts each collection of samples as a single,
+ * unlogged, multi-partition batch of (unprepared) statements. This was the insert strategy used
+ * prior to per-partition batching, and exists here only to provide a baseline for comparison.
+ */
+class LegacyInsertSampleRepository extends CassandraSampleRepository {
+
+    private final CassandraSession m_session;
+    private final int m_ttl;
+    private final SampleProcessorService m_processorService;
+    private final ContextConfigurations m_contextConfigurations;
+
+    private final Timer m_insertTimer;
+    private final Meter m_samplesInserted;
+
+    LegacyInsertSampleRepository(CassandraSession session, int ttl, MetricRegistry registry, SampleProcessorService processorService, ContextConfigurations contextConfigurations) {
+        super(session, ttl, registry, processorService, contextConfigurations);
+
+        m_session = session;
+        m_ttl = ttl;
+        m_processorService = processorService;
+        m_contextConfigurations = contextConfigurations;
+
+        // Same metrics as the parent, so that results are directly comparable
+        m_insertTimer = registry.timer(name("repository", "insert-timer"));
+        m_samplesInserted = registry.meter(name("repository", "samples-inserted"));
+    }
+
+    @Override
+    public void insert(SampleBatch batch, boolean calculateTimeToLive) {
+        insert(batch.toSamples(), calculateTimeToLive);
+    }
+
+    @Override
+    public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+
+        Timer.Context timer = m_insertTimer.time();
+
+        try {
+            m_session.execute(toBatch(samples, calculateTimeToLive));
+
+            if (m_processorService != null) {
+                m_processorService.submit(samples);
+            }
+
+            m_samplesInserted.mark(samples.size());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(SampleBatch batch, boolean calculateTimeToLive) {
+        return insertAsync(batch.toSamples(), calculateTimeToLive);
+    }
+
+    @Override
+    public ListenableFuture<Void> insertAsync(final Collection<Sample> samples, boolean calculateTimeToLive) {
+
+        final Timer.Context timer = m_insertTimer.time();
+
+        ListenableFuture<Void> future = Futures.transform(m_session.executeAsync(toBatch(samples, calculateTimeToLive)), new Function<ResultSet, Void>() {
+
+            @Override
+            public Void apply(ResultSet input) {
+                if (m_processorService != null) {
+                    m_processorService.submit(samples);
+                }
+
+                m_samplesInserted.mark(samples.size());
+                return null;
+            }
+        });
+
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                timer.stop();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return future;
+    }
+
+    private Batch toBatch(Collection<Sample> samples, boolean calculateTimeToLive) {
+
+        Timestamp now = Timestamp.now();
+
+        Batch batch = unloggedBatch();
+
+        for (Sample m : samples) {
+            int ttl = m_ttl;
+            if (calculateTimeToLive) {
+                ttl -= (int) (now.asSeconds() - m.getTimestamp().asSeconds());
+                if (ttl <= 0) {
+                    continue;
+                }
+            }
+
+            Duration resourceShard = m_contextConfigurations.getResourceShard(m.getContext());
+
+            Insert insert = insertInto(SchemaConstants.T_SAMPLES)
+                    .value(SchemaConstants.F_CONTEXT, m.getContext().getId())
+                    .value(SchemaConstants.F_PARTITION, m.getTimestamp().stepFloor(resourceShard).asSeconds())
+                    .value(SchemaConstants.F_RESOURCE, m.getResource().getId())
+                    .value(SchemaConstants.F_COLLECTED, m.getTimestamp().asMillis())
+                    .value(SchemaConstants.F_METRIC_NAME, m.getName())
+                    .value(SchemaConstants.F_VALUE, ValueType.decompose(m.getValue()));
+
+            if (m.getAttributes() != null) {
+                insert.value(SchemaConstants.F_ATTRIBUTES, m.getAttributes());
+            }
+
+            insert.setConsistencyLevel(m_contextConfigurations.getWriteConsistency(m.getContext()));
+
+            batch.add(insert.using(ttl(ttl)));
+        }
+
+        return batch;
+    }
+
+}
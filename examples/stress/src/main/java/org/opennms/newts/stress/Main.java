@@ -94,6 +94,16 @@ public class Main {
                 parseArguments(config, args);
                 dispatcher = new SelectDispatcher((SelectConfig) config);
                 break;
+            case CODEC:
+                config = new CodecConfig();
+                parseArguments(config, args);
+                dispatcher = new CodecDispatcher((CodecConfig) config);
+                break;
+            case AGGREGATE:
+                config = new AggregateConfig();
+                parseArguments(config, args);
+                dispatcher = new AggregateDispatcher((AggregateConfig) config);
+                break;
             default:
                 throw new RuntimeException("Unknown command enum; Report as bug!!");
         }
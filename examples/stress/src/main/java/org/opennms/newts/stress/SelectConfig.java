@@ -16,14 +16,18 @@
 package org.opennms.newts.stress;
 
 
+import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.Option;
 import org.opennms.newts.api.Duration;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
 
 
 class SelectConfig extends Config {
 
     private Duration m_resolution = Duration.seconds(3600);
     private Duration m_selectLength = Duration.seconds(86400);
+    private int m_selectWindow = CassandraSampleRepository.DEFAULT_SELECT_WINDOW;
+    private int m_fetchSize = CassandraSampleRepository.DEFAULT_FETCH_SIZE;
 
     // XXX: selectLength should be validated; selectLength should be greater than resolution
     @Option(name = "-sl", aliases = "--select-length", metaVar = "<length>", usage = "Length of select in seconds.")
@@ -37,6 +41,18 @@ class SelectConfig extends Config {
         m_resolution = resolution;
     }
 
+    @Option(name = "-W", aliases = "--select-window", metaVar = "<count>", usage = "Maximum number of partitions read concurrently.")
+    void setSelectWindow(int selectWindow) throws CmdLineException {
+        checkArgument(selectWindow > 0, "Select window must be greater than zero.");
+        m_selectWindow = selectWindow;
+    }
+
+    @Option(name = "-F", aliases = "--fetch-size", metaVar = "<rows>", usage = "Number of rows fetched per page.")
+    void setFetchSize(int fetchSize) throws CmdLineException {
+        checkArgument(fetchSize > 0, "Fetch size must be greater than zero.");
+        m_fetchSize = fetchSize;
+    }
+
     Duration getResolution() {
         return m_resolution;
     }
@@ -45,4 +61,12 @@ class SelectConfig extends Config {
         return m_selectLength;
     }
 
+    int getSelectWindow() {
+        return m_selectWindow;
+    }
+
+    int getFetchSize() {
+        return m_fetchSize;
+    }
+
 }
@@ -27,8 +27,8 @@ import org.opennms.newts.api.query.ResultDescriptor;
 import org.opennms.newts.api.query.StandardAggregationFunctions;
 import org.opennms.newts.cassandra.CassandraSession;
 import org.opennms.newts.cassandra.CassandraSessionImpl;
-import org.opennms.newts.cassandra.ContextConfigurations;
 import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepositoryOptions;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Queues;
@@ -60,10 +60,14 @@ public class SelectDispatcher extends Dispatcher {
                 config.getCassandraSsl());
         m_repository = new CassandraSampleRepository(
                 session,
-                Config.CASSANDRA_TTL,
                 new MetricRegistry(),
                 new DefaultSampleProcessorService(1),
-                new ContextConfigurations());
+                config.getContextConfigurations(),
+                new CassandraSampleRepositoryOptions.Builder()
+                        .withTimeToLive(Config.CASSANDRA_TTL)
+                        .withSelectWindow(config.getSelectWindow())
+                        .withFetchSize(config.getFetchSize())
+                        .build());
 
         m_queryQueue = Queues.newArrayBlockingQueue(config.getThreads() * 10);
 
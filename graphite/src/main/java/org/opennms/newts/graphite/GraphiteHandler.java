@@ -1,7 +1,7 @@
 package org.opennms.newts.graphite;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.opennms.newts.api.Timestamp.fromEpochSeconds;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
@@ -10,15 +10,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
 import org.opennms.newts.api.SampleRepository;
-import org.opennms.newts.api.Timestamp;
-import org.opennms.newts.api.ValueType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +28,8 @@ import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 public class GraphiteHandler extends SimpleChannelInboundHandler<String> {
 
@@ -35,9 +37,13 @@ public class GraphiteHandler extends SimpleChannelInboundHandler<String> {
 
     private static final int DEFAULT_LINES_BUFFER = 50;
 
+    /** Batches being written (per storage thread) before parsing waits on their completion. */
+    private static final int BATCHES_IN_FLIGHT = 8;
+
     private final ThreadPoolExecutor m_executor;
     private final SampleRepository m_repository;
     private final GraphiteInitializer m_parent;
+    private final Semaphore m_inFlight;
 
     private List<String> m_lines;
     private AtomicInteger m_enQueued = new AtomicInteger(0);
@@ -49,6 +55,7 @@ public class GraphiteHandler extends SimpleChannelInboundHandler<String> {
         m_executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
         m_repository = repository;
         m_parent = parent;
+        m_inFlight = new Semaphore(concurrency * BATCHES_IN_FLIGHT);
         m_lines = Lists.newArrayList();
         LOG.debug("Using storage concurrency of {}", concurrency);
     }
@@ -75,28 +82,52 @@ public class GraphiteHandler extends SimpleChannelInboundHandler<String> {
 
                 @Override
                 public void run() {
-                    List<Sample> samples = Lists.newArrayList();
+                    SampleBatch.Builder builder = new SampleBatch.Builder(batch.size());
                     for (String line : batch) {
                         try {
-                            samples.add(parseSample(line));
+                            parseSample(line, builder);
                         }
                         catch (Exception e) {
                             m_parent.protocolErrorsInc();
                         }
                     }
-                    try {
-                        m_repository.insert(samples);
-                    }
-                    catch (Exception e) {
-                        LOG.warn("Unable to commit batch of {} samples ({})", samples.size(), e.getMessage());
-                        m_parent.storageErrorsInc();
-                    }
+                    insert(builder.build());
                 }
             });
         }
 
     }
 
+    /**
+     * Writes a batch asynchronously, (waiting first if too many batches are being written, rather
+     * than queue writes without bound).
+     */
+    private void insert(final SampleBatch samples) {
+        m_inFlight.acquireUninterruptibly();
+
+        FutureCallback<Void> callback = new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                m_inFlight.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                m_inFlight.release();
+                LOG.warn("Unable to commit batch of {} samples ({})", samples.size(), t.getMessage());
+                m_parent.storageErrorsInc();
+            }
+        };
+
+        try {
+            Futures.addCallback(m_repository.insertAsync(samples), callback);
+        }
+        catch (Exception e) {
+            callback.onFailure(e);
+        }
+    }
+
     private static final Splitter s_lineTokenizer = Splitter.on(CharMatcher.WHITESPACE).limit(3).trimResults();
     private static final Splitter s_pathTokenizer = Splitter.on('.').trimResults();
     private static final Joiner s_pathJoiner = Joiner.on(':');
@@ -110,18 +141,20 @@ public class GraphiteHandler extends SimpleChannelInboundHandler<String> {
     }
 
     static Sample parseSample(String line) {
+        SampleBatch.Builder builder = new SampleBatch.Builder(1);
+        parseSample(line, builder);
+        return builder.build().getSample(0);
+    }
+
+    static void parseSample(String line, SampleBatch.Builder builder) {
         List<String> parts = s_lineTokenizer.splitToList(line);
         String[] path = s_pathTokenizer.splitToList(parts.get(0)).toArray(new String[] {});
         Resource resource = parseResource(path.length > 1 ? Arrays.copyOf(path, path.length - 1) : path);
         String name = path.length > 1 ? path[path.length - 1] : "value";
-        Double value = Double.parseDouble(parts.get(1));
-        Long stamp = Long.parseLong(parts.get(2));
-
-        return sample(fromEpochSeconds(stamp), resource, name, value);
-    }
+        double value = Double.parseDouble(parts.get(1));
+        long stamp = Long.parseLong(parts.get(2));
 
-    private static Sample sample(Timestamp timestamp, Resource resource, String name, Double value) {
-        return new Sample(timestamp, resource, name, MetricType.GAUGE, ValueType.compose(value, MetricType.GAUGE));
+        builder.add(Context.DEFAULT_CONTEXT, resource, name, SECONDS.toMillis(stamp), value);
     }
 
     private static String index(int index) {
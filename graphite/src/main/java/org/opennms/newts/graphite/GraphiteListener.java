@@ -9,6 +9,8 @@ import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -16,18 +18,23 @@ import javax.inject.Named;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
 import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.SampleBatch;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class GraphiteListener implements Runnable {
 
@@ -81,11 +88,35 @@ public class GraphiteListener implements Runnable {
                 throw new UnsupportedOperationException();
             }
 
+            @Override
+            public ListenableFuture<Results<Measurement>> selectAsync(Context context, Resource arg0, Optional<Timestamp> arg1,
+                    Optional<Timestamp> arg2, ResultDescriptor arg3, Optional<Duration> arg4) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Map<Resource, ListenableFuture<Results<Measurement>>> selectAsync(Context context, Collection<Resource> arg0,
+                    Optional<Timestamp> arg1, Optional<Timestamp> arg2, ResultDescriptor arg3, Optional<Duration> arg4) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ListenableFuture<List<RankedResource>> selectTopAsync(Context context, Collection<Resource> arg0,
+                    Optional<Timestamp> arg1, Optional<Timestamp> arg2, ResultDescriptor arg3, Optional<Duration> arg4,
+                    String arg5, SeriesAggregation arg6, int arg7) {
+                throw new UnsupportedOperationException();
+            }
+
             @Override
             public Results<Sample> select(Context context, Resource arg0, Optional<Timestamp> arg1, Optional<Timestamp> arg2) {
                 throw new UnsupportedOperationException();
             }
 
+            @Override
+            public ListenableFuture<Results<Sample>> selectAsync(Context context, Resource arg0, Optional<Timestamp> arg1, Optional<Timestamp> arg2) {
+                throw new UnsupportedOperationException();
+            }
+
             @Override
             public void insert(Collection<Sample> arg0, boolean arg1) {
                 throw new UnsupportedOperationException();
@@ -96,6 +127,38 @@ public class GraphiteListener implements Runnable {
                 System.out.printf("MOCK INSERT! (%d samples)%n", arg0.size());
             }
 
+            @Override
+            public void insert(SampleBatch arg0, boolean arg1) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void insert(SampleBatch arg0) {
+                System.out.printf("MOCK INSERT! (%d samples)%n", arg0.size());
+            }
+
+            @Override
+            public ListenableFuture<Void> insertAsync(Collection<Sample> arg0, boolean arg1) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ListenableFuture<Void> insertAsync(Collection<Sample> arg0) {
+                insert(arg0);
+                return Futures.immediateFuture(null);
+            }
+
+            @Override
+            public ListenableFuture<Void> insertAsync(SampleBatch arg0, boolean arg1) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ListenableFuture<Void> insertAsync(SampleBatch arg0) {
+                insert(arg0);
+                return Futures.immediateFuture(null);
+            }
+
             @Override
             public void delete(Context context, Resource resource) {
                 throw new UnsupportedOperationException();
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import org.opennms.newts.persistence.cassandra.BatchSelectConfiguration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class BatchSelectConfig {
+
+    @Min(value = 1)
+    @JsonProperty("max-concurrent-resources")
+    private int m_maxConcurrentResources = BatchSelectConfiguration.DEFAULT_MAX_CONCURRENT_RESOURCES;
+
+    @Min(value = 1)
+    @JsonProperty("threads")
+    private int m_threads = BatchSelectConfiguration.DEFAULT_THREADS;
+
+    public int getMaxConcurrentResources() {
+        return m_maxConcurrentResources;
+    }
+
+    public int getThreads() {
+        return m_threads;
+    }
+
+    public BatchSelectConfiguration getBatchSelectConfiguration() {
+        return new BatchSelectConfiguration(getMaxConcurrentResources(), getThreads());
+    }
+}
@@ -16,12 +16,19 @@
 package org.opennms.newts.rest;
 
 
+import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Pattern.Flag;
 
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Timestamp;
+import org.opennms.newts.persistence.cassandra.ChunkConfiguration;
+import org.opennms.newts.persistence.cassandra.PartitionIndexConfiguration;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Optional;
 
 
 public class CassandraConfig {
@@ -54,6 +61,66 @@ public class CassandraConfig {
     @JsonProperty("ssl")
     private boolean m_ssl = false;
 
+    @Min(value = 1)
+    @JsonProperty("max-batch-size")
+    private int m_maxBatchSize = 16;
+
+    @Min(value = 1)
+    @JsonProperty("select-window")
+    private int m_selectWindow = 8;
+
+    @Min(value = 1)
+    @JsonProperty("fetch-size")
+    private int m_fetchSize = 1000;
+
+    @JsonProperty("chunk-window")
+    private String m_chunkWindow = "2h";
+
+    @Min(value = 1)
+    @JsonProperty("chunk-max-samples")
+    private int m_chunkMaxSamples = 120;
+
+    @JsonProperty("chunk-max-age")
+    private String m_chunkMaxAge = "10m";
+
+    @JsonProperty("partition-index")
+    private boolean m_partitionIndex = false;
+
+    @Min(value = 1)
+    @JsonProperty("partition-index-max-cache-entries")
+    private long m_partitionIndexMaxCacheEntries = 100000;
+
+    @JsonProperty("partition-index-cache-expiry")
+    private String m_partitionIndexCacheExpiry = "1h";
+
+    // ISO 8601, or seconds since the Unix epoch
+    @JsonProperty("partition-index-since")
+    private String m_partitionIndexSince = null;
+
+    @Valid
+    @JsonProperty("rollups")
+    private RollupConfig m_rollupConfig = new RollupConfig();
+
+    @Valid
+    @JsonProperty("tail-cache")
+    private TailCacheConfig m_tailCacheConfig = new TailCacheConfig();
+
+    @Valid
+    @JsonProperty("result-cache")
+    private ResultCacheConfig m_resultCacheConfig = new ResultCacheConfig();
+
+    @Valid
+    @JsonProperty("query-coalescing")
+    private QueryCoalescingConfig m_queryCoalescingConfig = new QueryCoalescingConfig();
+
+    @Valid
+    @JsonProperty("batch-select")
+    private BatchSelectConfig m_batchSelectConfig = new BatchSelectConfig();
+
+    @Valid
+    @JsonProperty("concurrency-limiter")
+    private ConcurrencyLimiterConfig m_concurrencyLimiterConfig = new ConcurrencyLimiterConfig();
+
     public String getKeyspace() {
         return m_keyspace;
     }
@@ -85,4 +152,52 @@ public class CassandraConfig {
     public boolean getSsl() {
         return m_ssl;
     }
+
+    public int getMaxBatchSize() {
+        return m_maxBatchSize;
+    }
+
+    public int getSelectWindow() {
+        return m_selectWindow;
+    }
+
+    public int getFetchSize() {
+        return m_fetchSize;
+    }
+
+    public ChunkConfiguration getChunkConfiguration() {
+        return new ChunkConfiguration(Duration.parse(m_chunkWindow), m_chunkMaxSamples, Duration.parse(m_chunkMaxAge));
+    }
+
+    public PartitionIndexConfiguration getPartitionIndexConfiguration() {
+        Optional<Timestamp> indexedSince = Optional.absent();
+        if (m_partitionIndexSince != null) {
+            indexedSince = Optional.of(new TimestampParam(m_partitionIndexSince).get());
+        }
+        return new PartitionIndexConfiguration(m_partitionIndex, m_partitionIndexMaxCacheEntries, Duration.parse(m_partitionIndexCacheExpiry), indexedSince);
+    }
+
+    public RollupConfig getRollupConfig() {
+        return m_rollupConfig;
+    }
+
+    public TailCacheConfig getTailCacheConfig() {
+        return m_tailCacheConfig;
+    }
+
+    public ResultCacheConfig getResultCacheConfig() {
+        return m_resultCacheConfig;
+    }
+
+    public QueryCoalescingConfig getQueryCoalescingConfig() {
+        return m_queryCoalescingConfig;
+    }
+
+    public BatchSelectConfig getBatchSelectConfig() {
+        return m_batchSelectConfig;
+    }
+
+    public ConcurrencyLimiterConfig getConcurrencyLimiterConfig() {
+        return m_concurrencyLimiterConfig;
+    }
 }
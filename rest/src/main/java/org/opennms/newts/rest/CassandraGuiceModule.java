@@ -16,9 +16,12 @@
 package org.opennms.newts.rest;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.inject.name.Names.named;
 
+import javax.inject.Named;
+
 import org.opennms.newts.api.SampleProcessor;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
@@ -26,6 +29,7 @@ import org.opennms.newts.api.search.Searcher;
 import org.opennms.newts.cassandra.CassandraSession;
 import org.opennms.newts.cassandra.CassandraSessionImpl;
 import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.cassandra.LimitingCassandraSession;
 import org.opennms.newts.cassandra.search.CassandraIndexer;
 import org.opennms.newts.cassandra.search.CassandraIndexerSampleProcessor;
 import org.opennms.newts.cassandra.search.CassandraSearcher;
@@ -34,9 +38,23 @@ import org.opennms.newts.cassandra.search.GuavaResourceMetadataCache;
 import org.opennms.newts.cassandra.search.ResourceIdSplitter;
 import org.opennms.newts.cassandra.search.ResourceMetadataCache;
 import org.opennms.newts.cassandra.search.SimpleResourceIdSplitter;
+import org.opennms.newts.persistence.cassandra.BatchSelectConfiguration;
 import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
-
+import org.opennms.newts.persistence.cassandra.ChunkConfiguration;
+import org.opennms.newts.persistence.cassandra.CoalescingSampleRepository;
+import org.opennms.newts.persistence.cassandra.JournalingSampleRepository;
+import org.opennms.newts.persistence.cassandra.PartitionIndexConfiguration;
+import org.opennms.newts.persistence.cassandra.QueryCoalescingSampleRepository;
+import org.opennms.newts.persistence.cassandra.ResultCachingSampleRepository;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration;
+import org.opennms.newts.persistence.cassandra.RollupSampleProcessor;
+import org.opennms.newts.persistence.cassandra.TailCachingSampleRepository;
+
+import com.codahale.metrics.MetricRegistry;
 import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.google.inject.multibindings.Multibinder;
 
 
@@ -65,16 +83,66 @@ public class CassandraGuiceModule extends AbstractModule {
         bind(Boolean.class).annotatedWith(named("cassandra.ssl")).toInstance(m_newtsConf.getCassandraSsl());
 
         bind(Integer.class).annotatedWith(named("samples.cassandra.time-to-live")).toInstance(m_newtsConf.getCassandraColumnTTL());
+        bind(Integer.class).annotatedWith(named("samples.cassandra.max-batch-size")).toInstance(m_newtsConf.getCassandraMaxBatchSize());
+        bind(Integer.class).annotatedWith(named("samples.cassandra.select-window")).toInstance(m_newtsConf.getCassandraSelectWindow());
+        bind(Integer.class).annotatedWith(named("samples.cassandra.fetch-size")).toInstance(m_newtsConf.getCassandraFetchSize());
         bind(Integer.class).annotatedWith(named("search.cassandra.time-to-live")).toInstance(m_newtsConf.getCassandraColumnTTL());
         bind(Integer.class).annotatedWith(named("sampleProcessor.maxThreads")).toInstance(m_newtsConf.getMaxSampleProcessorThreads());
 
         bind(Long.class).annotatedWith(named("search.resourceMetadata.maxCacheEntries")).toInstance(m_newtsConf.getSearchConfig().getMaxCacheEntries());
         bind(Boolean.class).annotatedWith(named("search.hierarical-indexing")).toInstance(m_newtsConf.getSearchConfig().isHierarchicalIndexingEnabled());
 
-        bind(CassandraSession.class).to(CassandraSessionImpl.class);
+        ConcurrencyLimiterConfig limiterConfig = m_newtsConf.getCassandraConcurrencyLimiterConfig();
+
+        // The limit is only meaningful if it is shared, so the limiting session is a singleton
+        if (limiterConfig.isEnabled()) {
+            bind(Integer.class).annotatedWith(named("cassandra.limiter.initial-limit")).toInstance(limiterConfig.getInitialLimit());
+            bind(Integer.class).annotatedWith(named("cassandra.limiter.min-limit")).toInstance(limiterConfig.getMinLimit());
+            bind(Integer.class).annotatedWith(named("cassandra.limiter.max-limit")).toInstance(limiterConfig.getMaxLimit());
+            bind(Long.class).annotatedWith(named("cassandra.limiter.latency-threshold")).toInstance(limiterConfig.getLatencyThreshold().asMillis());
+            bind(Long.class).annotatedWith(named("cassandra.limiter.max-wait")).toInstance(limiterConfig.getMaxWait().asMillis());
+            bind(CassandraSession.class).to(LimitingCassandraSession.class).in(Singleton.class);
+        }
+        else {
+            bind(CassandraSession.class).to(CassandraSessionImpl.class);
+        }
         bind(ResourceMetadataCache.class).to(GuavaResourceMetadataCache.class);
         bind(Searcher.class).to(CassandraSearcher.class);
-        bind(SampleRepository.class).to(CassandraSampleRepository.class);
+
+        // A single repository instance, so that buffered sample chunks are shared (and flushed on shutdown)
+        bind(ChunkConfiguration.class).toInstance(m_newtsConf.getCassandraChunkConfiguration());
+        bind(PartitionIndexConfiguration.class).toInstance(m_newtsConf.getCassandraPartitionIndexConfiguration());
+        bind(RollupConfiguration.class).toInstance(m_newtsConf.getCassandraRollupConfiguration());
+        bind(BatchSelectConfiguration.class).toInstance(m_newtsConf.getCassandraBatchSelectConfiguration());
+        bind(CassandraSampleRepository.class).in(Singleton.class);
+
+        // Journal inserts locally, or coalesce them into group commits, in front of the caches; Never both, (see
+        // NewtsConfig#isJournalOrCoalescer())
+        JournalConfig journalConfig = m_newtsConf.getJournalConfig();
+        CoalescerConfig coalescerConfig = m_newtsConf.getCoalescerConfig();
+        checkArgument(!(journalConfig.isEnabled() && coalescerConfig.isEnabled()), "journal and coalescer cannot both be enabled");
+
+        if (journalConfig.isEnabled()) {
+            bind(String.class).annotatedWith(named("samples.journal.directory")).toInstance(journalConfig.getDirectory());
+            bind(Integer.class).annotatedWith(named("samples.journal.segment-size")).toInstance(journalConfig.getSegmentSize());
+            bind(Integer.class).annotatedWith(named("samples.journal.max-segments")).toInstance(journalConfig.getMaxSegments());
+            bind(Integer.class).annotatedWith(named("samples.journal.replay-rate")).toInstance(journalConfig.getReplayRate());
+            bind(Integer.class).annotatedWith(named("samples.journal.replay-batch-size")).toInstance(journalConfig.getReplayBatchSize());
+            Multibinder.newSetBinder(binder(), SampleProcessor.class, named("samples.journal.processors"));
+            bind(JournalingSampleRepository.class).in(Singleton.class);
+            bind(SampleRepository.class).to(JournalingSampleRepository.class);
+        }
+        else if (coalescerConfig.isEnabled()) {
+            bind(Long.class).annotatedWith(named("samples.coalescer.max-delay")).toInstance(coalescerConfig.getMaxDelay().asMillis());
+            bind(Integer.class).annotatedWith(named("samples.coalescer.max-batch-size")).toInstance(coalescerConfig.getMaxBatchSize());
+            bind(Integer.class).annotatedWith(named("samples.coalescer.max-pending")).toInstance(coalescerConfig.getMaxPending());
+            bind(CoalescingSampleRepository.class).in(Singleton.class);
+            bind(SampleRepository.class).to(CoalescingSampleRepository.class);
+        }
+        else {
+            bind(SampleRepository.class).to(Key.get(SampleRepository.class, named("samples.cassandra.repository")));
+        }
+
         bind(Indexer.class).to(CassandraIndexer.class);
 
         Multibinder<SampleProcessor> processors = Multibinder.newSetBinder(binder(), SampleProcessor.class);
@@ -90,13 +158,51 @@ public class CassandraGuiceModule extends AbstractModule {
             processors.addBinding().to(CassandraIndexerSampleProcessor.class);
         }
 
+        // Roll up samples if any rollups are configured (a single instance, so that it can be flushed on shutdown);
+        // Rollups count samples submitted twice twice, so journaled samples are rolled up once, as journaled, not as replayed
+        if (m_newtsConf.getCassandraRollupConfiguration().isEnabled()) {
+            bind(RollupSampleProcessor.class).in(Singleton.class);
+            if (journalConfig.isEnabled()) {
+                Multibinder.newSetBinder(binder(), SampleProcessor.class, named("samples.journal.processors")).addBinding().to(RollupSampleProcessor.class);
+            }
+            else {
+                processors.addBinding().to(RollupSampleProcessor.class);
+            }
+        }
+
         // Pull in context specific attributes
         ContextConfigurations contextConfigurations = new ContextConfigurations();
         for (ContextConfig contextConfig : m_newtsConf.getContextConfigs().values()) {
             contextConfigurations.addContextConfig(contextConfig.getContext(), contextConfig.getResourceShard(),
-                    contextConfig.getReadConsistency(), contextConfig.getWriteConsistency());
+                    contextConfig.getReadConsistency(), contextConfig.getWriteConsistency(), contextConfig.getStorageEngine());
         }
         bind(ContextConfigurations.class).toInstance(contextConfigurations);
     }
 
+    /**
+     * @return the Cassandra repository, behind those caches (and the query coalescer) that are enabled
+     */
+    @Provides
+    @Singleton
+    @Named("samples.cassandra.repository")
+    SampleRepository getCassandraSampleRepository(CassandraSampleRepository repository, MetricRegistry registry) {
+        SampleRepository decorated = repository;
+
+        if (m_newtsConf.getCassandraTailCacheConfiguration().isEnabled()) {
+            decorated = new TailCachingSampleRepository(decorated, m_newtsConf.getCassandraTailCacheConfiguration(), m_newtsConf.getCassandraBatchSelectConfiguration(), registry);
+        }
+
+        // Rows aggregated from the tail cache can be cached, too
+        if (m_newtsConf.getCassandraResultCacheConfiguration().isEnabled()) {
+            decorated = new ResultCachingSampleRepository(decorated, m_newtsConf.getCassandraResultCacheConfiguration(), m_newtsConf.getCassandraBatchSelectConfiguration(), registry);
+        }
+
+        // Outermost, so that identical queries in flight share a single cache lookup, too
+        if (m_newtsConf.getCassandraQueryCoalescingConfiguration().isEnabled()) {
+            decorated = new QueryCoalescingSampleRepository(decorated, m_newtsConf.getCassandraQueryCoalescingConfiguration(), m_newtsConf.getCassandraBatchSelectConfiguration(), registry);
+        }
+
+        return decorated;
+    }
+
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import org.opennms.newts.api.Duration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class CoalescerConfig {
+
+    @JsonProperty("enabled")
+    private boolean m_isEnabled = false;
+
+    @JsonProperty("max-delay")
+    private String m_maxDelay = "10ms";
+
+    @Min(value = 1)
+    @JsonProperty("max-batch-size")
+    private int m_maxBatchSize = 1000;
+
+    @Min(value = 1)
+    @JsonProperty("max-pending")
+    private int m_maxPending = 100000;
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    public Duration getMaxDelay() {
+        return Duration.parse(m_maxDelay);
+    }
+
+    public int getMaxBatchSize() {
+        return m_maxBatchSize;
+    }
+
+    public int getMaxPending() {
+        return m_maxPending;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import org.opennms.newts.api.Duration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class ConcurrencyLimiterConfig {
+
+    @JsonProperty("enabled")
+    private boolean m_isEnabled = false;
+
+    @Min(value = 1)
+    @JsonProperty("initial-limit")
+    private int m_initialLimit = 64;
+
+    @Min(value = 1)
+    @JsonProperty("min-limit")
+    private int m_minLimit = 8;
+
+    @Min(value = 1)
+    @JsonProperty("max-limit")
+    private int m_maxLimit = 1024;
+
+    @JsonProperty("latency-threshold")
+    private String m_latencyThreshold = "250ms";
+
+    @JsonProperty("max-wait")
+    private String m_maxWait = "1s";
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    public int getInitialLimit() {
+        return m_initialLimit;
+    }
+
+    public int getMinLimit() {
+        return m_minLimit;
+    }
+
+    public int getMaxLimit() {
+        return m_maxLimit;
+    }
+
+    public Duration getLatencyThreshold() {
+        return Duration.parse(m_latencyThreshold);
+    }
+
+    public Duration getMaxWait() {
+        return Duration.parse(m_maxWait);
+    }
+}
@@ -2,6 +2,7 @@ package org.opennms.newts.rest;
 
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
+import org.opennms.newts.cassandra.StorageEngine;
 
 import com.datastax.driver.core.ConsistencyLevel;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -20,6 +21,9 @@ public class ContextConfig {
     @JsonProperty("write-consistency")
     private String m_writeConsistency;
 
+    @JsonProperty("storage-engine")
+    private String m_storageEngine = "rows";
+
     public Context getContext() {
         return new Context(m_id);
     }
@@ -35,4 +39,8 @@ public class ContextConfig {
     public ConsistencyLevel getWriteConsistency() {
         return ConsistencyLevel.valueOf(m_writeConsistency);
     }
+
+    public StorageEngine getStorageEngine() {
+        return StorageEngine.valueOf(m_storageEngine.toUpperCase());
+    }
 }
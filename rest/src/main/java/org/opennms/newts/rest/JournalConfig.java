@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class JournalConfig {
+
+    @JsonProperty("enabled")
+    private boolean m_isEnabled = false;
+
+    @JsonProperty("directory")
+    private String m_directory = "journal";
+
+    @Min(value = 1024)
+    @JsonProperty("segment-size")
+    private int m_segmentSize = 67108864;
+
+    @Min(value = 2)
+    @JsonProperty("max-segments")
+    private int m_maxSegments = 16;
+
+    @Min(value = 1)
+    @JsonProperty("replay-rate")
+    private int m_replayRate = 50000;
+
+    @Min(value = 1)
+    @JsonProperty("replay-batch-size")
+    private int m_replayBatchSize = 1000;
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    public String getDirectory() {
+        return m_directory;
+    }
+
+    public int getSegmentSize() {
+        return m_segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return m_maxSegments;
+    }
+
+    public int getReplayRate() {
+        return m_replayRate;
+    }
+
+    public int getReplayBatchSize() {
+        return m_replayBatchSize;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+
+import org.opennms.newts.persistence.cassandra.JournalFullException;
+
+
+public class JournalFullExceptionMapper implements ExceptionMapper<JournalFullException> {
+
+    @Override
+    public Response toResponse(JournalFullException exception) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(exception.getLocalizedMessage()).build();
+    }
+
+}
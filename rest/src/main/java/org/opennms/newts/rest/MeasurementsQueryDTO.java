@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import java.util.Arrays;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import org.opennms.newts.api.query.SeriesAggregation;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+/**
+ * A query of the measurements of many resources; Those named, and those matching a search query,
+ * each selected with either a named report, or the descriptor given, and optionally merged into
+ * one series by an aggregation (see {@link SeriesAggregation#parse(String)}), or limited to the top
+ * ranked.
+ */
+public class MeasurementsQueryDTO {
+
+    /**
+     * Returns only the {@code count} resources for which the aggregate of the measurement named
+     * {@code metric}, (over all rows), is greatest.
+     */
+    public static class Top {
+
+        @Min(value = 1)
+        @JsonProperty("count")
+        private int m_count = 10;
+
+        @NotEmpty
+        @JsonProperty("metric")
+        private String m_metric;
+
+        @NotEmpty
+        @JsonProperty("aggregate")
+        private String m_aggregate = "avg";
+
+        public int getCount() {
+            return m_count;
+        }
+
+        public String getMetric() {
+            return m_metric;
+        }
+
+        public String getAggregate() {
+            return m_aggregate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s[count=%s, metric=%s, aggregate=%s]",
+                    getClass().getSimpleName(),
+                    getCount(),
+                    getMetric(),
+                    getAggregate());
+        }
+
+    }
+
+    @JsonProperty("resources")
+    private String[] m_resources = {};
+
+    @JsonProperty("query")
+    private String m_query;
+
+    @JsonProperty("report")
+    private String m_report;
+
+    @Valid
+    @JsonProperty("descriptor")
+    private ResultDescriptorDTO m_descriptor;
+
+    @JsonProperty("aggregate")
+    private String m_aggregate;
+
+    @Valid
+    @JsonProperty("top")
+    private Top m_top;
+
+    public String[] getResources() {
+        return m_resources;
+    }
+
+    public String getQuery() {
+        return m_query;
+    }
+
+    public String getReport() {
+        return m_report;
+    }
+
+    public ResultDescriptorDTO getDescriptor() {
+        return m_descriptor;
+    }
+
+    public String getAggregate() {
+        return m_aggregate;
+    }
+
+    public Top getTop() {
+        return m_top;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[resources=%s, query=%s, report=%s, descriptor=%s, aggregate=%s, top=%s]",
+                getClass().getSimpleName(),
+                Arrays.asList(getResources()),
+                getQuery(),
+                getReport(),
+                getDescriptor(),
+                getAggregate(),
+                getTop());
+    }
+
+}
@@ -16,10 +16,18 @@
 package org.opennms.newts.rest;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -27,19 +35,40 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.opennms.newts.aggregate.SeriesMerger;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
 import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
+import org.opennms.newts.api.search.Query;
+import org.opennms.newts.api.search.SearchResults;
+import org.opennms.newts.api.search.Searcher;
+import org.opennms.newts.api.search.query.ParseException;
+import org.opennms.newts.api.search.query.QueryParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 
 @Path("/measurements")
@@ -50,45 +79,223 @@ public class MeasurementsResource {
 
     private final SampleRepository m_repository;
     private final Map<String, ResultDescriptorDTO> m_reports;
+    private final Optional<Searcher> m_searcher;
+    private final ObjectMapper m_mapper;
 
     public MeasurementsResource(SampleRepository repository, Map<String, ResultDescriptorDTO> reports) {
+        this(repository, reports, Optional.<Searcher> absent(), new ObjectMapper());
+    }
+
+    /**
+     * @param searcher
+     *            resolves the search queries of queries of many resources, (if search is enabled)
+     * @param mapper
+     *            serializes measurements
+     */
+    public MeasurementsResource(SampleRepository repository, Map<String, ResultDescriptorDTO> reports, Optional<Searcher> searcher, ObjectMapper mapper) {
         m_repository = checkNotNull(repository, "repository argument");
         m_reports = checkNotNull(reports, "reports argument");
+        m_searcher = checkNotNull(searcher, "searcher argument");
+        m_mapper = checkNotNull(mapper, "mapper argument");
     }
 
+    /**
+     * Selects the measurements of many resources, (those named, and those matching the search
+     * query), each with the same report; The resources are selected concurrently, and written as a
+     * JSON array of <code>{"resource": id, "measurements": [...]}</code> objects (or
+     * <code>{"resource": id, "error": message}</code> for those that failed), in the order they
+     * complete.
+     * <p>
+     * If an aggregate is given, the measurements of the resources are instead merged as they
+     * complete, and written as those of a single resource (named for the aggregate).
+     * </p>
+     * <p>
+     * If a top is given, only the measurements of the top ranked resources are written, (greatest
+     * first), as <code>{"resource": id, "value": aggregate, "measurements": [...]}</code> objects.
+     * </p>
+     */
     @POST
-    @Path("/{resource}")
     @Timed
-    public Collection<Collection<MeasurementDTO>> getMeasurements(
-            ResultDescriptorDTO descriptorDTO,
-            @PathParam("resource") Resource resource,
+    public StreamingOutput getMeasurements(
+            MeasurementsQueryDTO queryDTO,
             @QueryParam("start") Optional<TimestampParam> start,
             @QueryParam("end") Optional<TimestampParam> end,
             @QueryParam("resolution") Optional<DurationParam> resolution,
             @QueryParam("context") Optional<String> contextId) {
 
+        checkArgument(queryDTO != null, "missing measurements query");
+
         Optional<Timestamp> lower = Transform.toTimestamp(start);
         Optional<Timestamp> upper = Transform.toTimestamp(end);
         Optional<Duration> step = Transform.toDuration(resolution);
         Context context = contextId.isPresent() ? new Context(contextId.get()) : Context.DEFAULT_CONTEXT;
 
-        LOG.debug(
-                "Retrieving measurements for resource {}, from {} to {} w/ resolution {} and w/ report {}",
-                resource,
-                lower,
-                upper,
-                step,
-                descriptorDTO);
+        LOG.debug("Retrieving measurements for {}, from {} to {} w/ resolution {}", queryDTO, lower, upper, step);
 
-        ResultDescriptor rDescriptor = Transform.resultDescriptor(descriptorDTO);
+        ResultDescriptor rDescriptor = Transform.resultDescriptor(getResultDescriptorDTO(queryDTO));
+
+        checkArgument(queryDTO.getAggregate() == null || queryDTO.getTop() == null, "at most one of aggregate or top is allowed");
+
+        Optional<SeriesAggregation> aggregation = queryDTO.getAggregate() != null ? Optional.of(SeriesAggregation.parse(queryDTO.getAggregate())) : Optional.<SeriesAggregation> absent();
+
+        if (queryDTO.getTop() != null) {
+            MeasurementsQueryDTO.Top top = queryDTO.getTop();
+            SeriesAggregation ranking = SeriesAggregation.parse(top.getAggregate());
+
+            return getRankedMeasurements(m_repository.selectTopAsync(context, getResources(context, queryDTO), lower, upper, rDescriptor, step, top.getMetric(), ranking, top.getCount()));
+        }
+
+        final Map<Resource, ListenableFuture<Results<Measurement>>> selections = m_repository.selectAsync(context, getResources(context, queryDTO), lower, upper, rDescriptor, step);
+
+        if (aggregation.isPresent()) {
+            return getMergedMeasurements(SeriesMerger.mergeAsync(new Resource(aggregation.get().toString()), aggregation.get(), selections.values()));
+        }
+        final BlockingQueue<Map.Entry<Resource, ListenableFuture<Results<Measurement>>>> completed = new LinkedBlockingQueue<>();
+
+        for (final Map.Entry<Resource, ListenableFuture<Results<Measurement>>> selection : selections.entrySet()) {
+            selection.getValue().addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    completed.add(selection);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                JsonGenerator json = m_mapper.getFactory().createGenerator(output);
+
+                try {
+                    json.writeStartArray();
+
+                    for (int i = 0; i < selections.size(); i++) {
+                        Map.Entry<Resource, ListenableFuture<Results<Measurement>>> selection = Uninterruptibles.takeUninterruptibly(completed);
+
+                        json.writeStartObject();
+                        json.writeStringField("resource", selection.getKey().getId());
+
+                        try {
+                            Results<Measurement> measurements = Uninterruptibles.getUninterruptibly(selection.getValue());
+                            json.writeFieldName("measurements");
+                            ResultsWriter.writeMeasurements(json, measurements);
+                        }
+                        catch (ExecutionException e) {
+                            LOG.warn("Unable to select measurements of resource {}", selection.getKey(), e.getCause());
+                            json.writeStringField("error", String.valueOf(e.getCause().getMessage()));
+                        }
+
+                        json.writeEndObject();
+                        // Each resource is sent as soon as it is selected
+                        json.flush();
+                    }
 
-        return Transform.measurementDTOs(m_repository.select(context, resource, lower, upper, rDescriptor, step));
+                    json.writeEndArray();
+                    json.flush();
+                }
+                catch (IOException e) {
+                    // Abandon the selections not yet started, (the client is gone)
+                    for (ListenableFuture<Results<Measurement>> future : selections.values()) {
+                        future.cancel(false);
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private StreamingOutput getMergedMeasurements(final ListenableFuture<Results<Measurement>> merged) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                Results<Measurement> results;
+
+                try {
+                    results = Uninterruptibles.getUninterruptibly(merged);
+                }
+                catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
+
+                JsonGenerator json = m_mapper.getFactory().createGenerator(output);
+                ResultsWriter.writeMeasurements(json, results);
+                json.flush();
+            }
+        };
+    }
+
+    private StreamingOutput getRankedMeasurements(final ListenableFuture<List<RankedResource>> ranked) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                List<RankedResource> top;
+
+                try {
+                    top = Uninterruptibles.getUninterruptibly(ranked);
+                }
+                catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                }
+
+                JsonGenerator json = m_mapper.getFactory().createGenerator(output);
+                json.writeStartArray();
+
+                for (RankedResource resource : top) {
+                    json.writeStartObject();
+                    json.writeStringField("resource", resource.getResource().getId());
+                    json.writeNumberField("value", resource.getValue());
+                    json.writeFieldName("measurements");
+                    ResultsWriter.writeMeasurements(json, resource.getMeasurements());
+                    json.writeEndObject();
+                }
+
+                json.writeEndArray();
+                json.flush();
+            }
+        };
+    }
+
+    @POST
+    @Path("/{resource}")
+    @Timed
+    public StreamingOutput getMeasurements(
+            ResultDescriptorDTO descriptorDTO,
+            @PathParam("resource") Resource resource,
+            @QueryParam("start") Optional<TimestampParam> start,
+            @QueryParam("end") Optional<TimestampParam> end,
+            @QueryParam("resolution") Optional<DurationParam> resolution,
+            @QueryParam("context") Optional<String> contextId) {
+
+        return ResultsWriter.measurements(m_mapper, select(descriptorDTO, resource, start, end, resolution, contextId));
+    }
+
+    /**
+     * Selects measurements as {@link #getMeasurements(ResultDescriptorDTO, Resource, Optional, Optional, Optional, Optional)}
+     * does, for clients that accept the columnar encoding of {@link ColumnarWriter}.
+     */
+    @POST
+    @Path("/{resource}")
+    @Produces(ColumnarWriter.MEDIA_TYPE + ";qs=0.5")
+    @Timed
+    public StreamingOutput getColumnarMeasurements(
+            ResultDescriptorDTO descriptorDTO,
+            @PathParam("resource") Resource resource,
+            @QueryParam("start") Optional<TimestampParam> start,
+            @QueryParam("end") Optional<TimestampParam> end,
+            @QueryParam("resolution") Optional<DurationParam> resolution,
+            @QueryParam("context") Optional<String> contextId) {
+
+        return ColumnarWriter.measurements(select(descriptorDTO, resource, start, end, resolution, contextId));
     }
 
     @GET
     @Path("/{report}/{resource}")
     @Timed
-    public Collection<Collection<MeasurementDTO>> getMeasurements(
+    public StreamingOutput getMeasurements(
             @PathParam("report") String report,
             @PathParam("resource") Resource resource,
             @QueryParam("start") Optional<TimestampParam> start,
@@ -106,4 +313,94 @@ public class MeasurementsResource {
         return getMeasurements(descriptorDTO, resource, start, end, resolution, contextId);
     }
 
+    @GET
+    @Path("/{report}/{resource}")
+    @Produces(ColumnarWriter.MEDIA_TYPE + ";qs=0.5")
+    @Timed
+    public StreamingOutput getColumnarMeasurements(
+            @PathParam("report") String report,
+            @PathParam("resource") Resource resource,
+            @QueryParam("start") Optional<TimestampParam> start,
+            @QueryParam("end") Optional<TimestampParam> end,
+            @QueryParam("resolution") Optional<DurationParam> resolution,
+            @QueryParam("context") Optional<String> contextId) {
+
+        ResultDescriptorDTO descriptorDTO = m_reports.get(report);
+
+        // Report not found; 404
+        if (descriptorDTO == null) {
+            return null;
+        }
+
+        return getColumnarMeasurements(descriptorDTO, resource, start, end, resolution, contextId);
+    }
+
+    private Results<Measurement> select(
+            ResultDescriptorDTO descriptorDTO,
+            Resource resource,
+            Optional<TimestampParam> start,
+            Optional<TimestampParam> end,
+            Optional<DurationParam> resolution,
+            Optional<String> contextId) {
+
+        Optional<Timestamp> lower = Transform.toTimestamp(start);
+        Optional<Timestamp> upper = Transform.toTimestamp(end);
+        Optional<Duration> step = Transform.toDuration(resolution);
+        Context context = contextId.isPresent() ? new Context(contextId.get()) : Context.DEFAULT_CONTEXT;
+
+        LOG.debug(
+                "Retrieving measurements for resource {}, from {} to {} w/ resolution {} and w/ report {}",
+                resource,
+                lower,
+                upper,
+                step,
+                descriptorDTO);
+
+        ResultDescriptor rDescriptor = Transform.resultDescriptor(descriptorDTO);
+
+        return m_repository.select(context, resource, lower, upper, rDescriptor, step);
+    }
+
+    private ResultDescriptorDTO getResultDescriptorDTO(MeasurementsQueryDTO queryDTO) {
+        checkArgument(queryDTO.getReport() == null ^ queryDTO.getDescriptor() == null, "exactly one of report or descriptor is required");
+
+        if (queryDTO.getReport() == null) {
+            return queryDTO.getDescriptor();
+        }
+
+        ResultDescriptorDTO descriptorDTO = m_reports.get(queryDTO.getReport());
+
+        // Report not found; 404
+        if (descriptorDTO == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+
+        return descriptorDTO;
+    }
+
+    private Collection<Resource> getResources(Context context, MeasurementsQueryDTO queryDTO) {
+        Set<Resource> resources = Sets.newLinkedHashSet();
+
+        for (String id : queryDTO.getResources()) {
+            resources.add(new Resource(id));
+        }
+
+        if (queryDTO.getQuery() != null) {
+            checkArgument(m_searcher.isPresent(), "search is not enabled");
+
+            Query parsedQuery;
+            try {
+                parsedQuery = new QueryParser().parse(queryDTO.getQuery());
+            } catch (ParseException e) {
+                throw new WebApplicationException(e, Response.status(Status.BAD_REQUEST).entity("Invalid query " + queryDTO.getQuery()).build());
+            }
+
+            for (SearchResults.Result result : m_searcher.get().search(context, parsedQuery, false)) {
+                resources.add(new Resource(result.getResource().getId()));
+            }
+        }
+
+        return resources;
+    }
+
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.setup.Bootstrap;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.cassandra.CassandraSession;
+import org.opennms.newts.cassandra.CassandraSessionImpl;
+import org.opennms.newts.cassandra.ContextConfigurations;
+import org.opennms.newts.persistence.cassandra.ChunkMigrator;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class MigrateChunksCommand extends ConfiguredCommand<NewtsConfig> {
+
+    protected MigrateChunksCommand() {
+        super("migrate-chunks", "Copy the samples of a context from rows to compressed chunks");
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("--context").dest("context").setDefault(Context.DEFAULT_CONTEXT.getId())
+                .help("Context to migrate");
+        subparser.addArgument("--delete").dest("delete").action(Arguments.storeTrue())
+                .help("Delete the rows of each partition once migrated");
+    }
+
+    @Override
+    protected void run(Bootstrap<NewtsConfig> bootstrap, Namespace namespace, NewtsConfig config) throws Exception {
+        Context context = new Context(namespace.getString("context"));
+
+        ContextConfigurations contextConfigurations = new ContextConfigurations();
+        for (ContextConfig contextConfig : config.getContextConfigs().values()) {
+            contextConfigurations.addContextConfig(contextConfig.getContext(), contextConfig.getResourceShard(),
+                    contextConfig.getReadConsistency(), contextConfig.getWriteConsistency(), contextConfig.getStorageEngine());
+        }
+
+        CassandraSession session = new CassandraSessionImpl(config.getCassandraKeyspace(), config.getCassandraHost(),
+                config.getCassandraPort(), config.getCassandraCompression(), config.getCassandraUsername(),
+                config.getCassandraPassword(), config.getCassandraSsl());
+
+        try (ChunkMigrator migrator = new ChunkMigrator(session, config.getCassandraColumnTTL(), contextConfigurations,
+                config.getCassandraChunkConfiguration(), new MetricRegistry())) {
+            long count = migrator.migrate(context, namespace.getBoolean("delete"));
+            System.out.printf("Migrated %d samples of context %s%n", count, context.getId());
+        }
+        finally {
+            session.shutdown().get();
+        }
+    }
+
+}
@@ -22,8 +22,18 @@ import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 
+import org.opennms.newts.persistence.cassandra.BatchSelectConfiguration;
+import org.opennms.newts.persistence.cassandra.ChunkConfiguration;
+import org.opennms.newts.persistence.cassandra.PartitionIndexConfiguration;
+import org.opennms.newts.persistence.cassandra.QueryCoalescingConfiguration;
+import org.opennms.newts.persistence.cassandra.ResultCacheConfiguration;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration;
+import org.opennms.newts.persistence.cassandra.TailCacheConfiguration;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
+import io.dropwizard.validation.ValidationMethod;
 
 public class NewtsConfig extends Configuration {
 
@@ -56,6 +66,18 @@ public class NewtsConfig extends Configuration {
     @JsonProperty("graphite")
     private GraphiteConfig m_graphiteConfig = new GraphiteConfig();
 
+    @Valid
+    @JsonProperty("coalescer")
+    private CoalescerConfig m_coalescerConfig = new CoalescerConfig();
+
+    @Valid
+    @JsonProperty("journal")
+    private JournalConfig m_journalConfig = new JournalConfig();
+
+    @Valid
+    @JsonProperty("bulk-ingest")
+    private BulkIngestConfig m_bulkIngestConfig = new BulkIngestConfig();
+
     public int getMaxSampleProcessorThreads() {
         return m_maxThreads;
     }
@@ -96,6 +118,50 @@ public class NewtsConfig extends Configuration {
         return m_cassandraConfig.getSsl();
     }
 
+    public int getCassandraMaxBatchSize() {
+        return m_cassandraConfig.getMaxBatchSize();
+    }
+
+    public int getCassandraSelectWindow() {
+        return m_cassandraConfig.getSelectWindow();
+    }
+
+    public int getCassandraFetchSize() {
+        return m_cassandraConfig.getFetchSize();
+    }
+
+    public ChunkConfiguration getCassandraChunkConfiguration() {
+        return m_cassandraConfig.getChunkConfiguration();
+    }
+
+    public PartitionIndexConfiguration getCassandraPartitionIndexConfiguration() {
+        return m_cassandraConfig.getPartitionIndexConfiguration();
+    }
+
+    public RollupConfiguration getCassandraRollupConfiguration() {
+        return m_cassandraConfig.getRollupConfig().getRollupConfiguration();
+    }
+
+    public TailCacheConfiguration getCassandraTailCacheConfiguration() {
+        return m_cassandraConfig.getTailCacheConfig().getTailCacheConfiguration();
+    }
+
+    public ResultCacheConfiguration getCassandraResultCacheConfiguration() {
+        return m_cassandraConfig.getResultCacheConfig().getResultCacheConfiguration();
+    }
+
+    public QueryCoalescingConfiguration getCassandraQueryCoalescingConfiguration() {
+        return m_cassandraConfig.getQueryCoalescingConfig().getQueryCoalescingConfiguration();
+    }
+
+    public BatchSelectConfiguration getCassandraBatchSelectConfiguration() {
+        return m_cassandraConfig.getBatchSelectConfig().getBatchSelectConfiguration();
+    }
+
+    public ConcurrencyLimiterConfig getCassandraConcurrencyLimiterConfig() {
+        return m_cassandraConfig.getConcurrencyLimiterConfig();
+    }
+
     public Map<String, ResultDescriptorDTO> getReports() {
         return m_reports;
     }
@@ -112,4 +178,31 @@ public class NewtsConfig extends Configuration {
         return m_graphiteConfig;
     }
 
+    public CoalescerConfig getCoalescerConfig() {
+        return m_coalescerConfig;
+    }
+
+    public JournalConfig getJournalConfig() {
+        return m_journalConfig;
+    }
+
+    public BulkIngestConfig getBulkIngestConfig() {
+        return m_bulkIngestConfig;
+    }
+
+    /** Inserts are either journaled or coalesced, so at most one of the two may be enabled. */
+    @JsonIgnore
+    @ValidationMethod(message = "journal and coalescer cannot both be enabled")
+    public boolean isJournalOrCoalescer() {
+        return !(m_journalConfig.isEnabled() && m_coalescerConfig.isEnabled());
+    }
+
+    /** The tail cache misses samples written through other instances, so requires a single writer. */
+    @JsonIgnore
+    @ValidationMethod(message = "tail-cache requires single-writer")
+    public boolean isTailCacheSingleWriter() {
+        TailCacheConfig tailCacheConfig = m_cassandraConfig.getTailCacheConfig();
+        return !tailCacheConfig.isEnabled() || tailCacheConfig.isSingleWriter();
+    }
+
 }
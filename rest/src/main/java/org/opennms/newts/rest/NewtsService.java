@@ -42,11 +42,16 @@ import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
 import org.opennms.newts.api.search.Searcher;
 import org.opennms.newts.graphite.GraphiteListener;
+import org.opennms.newts.persistence.cassandra.CassandraSampleRepository;
+import org.opennms.newts.persistence.cassandra.CoalescingSampleRepository;
+import org.opennms.newts.persistence.cassandra.JournalingSampleRepository;
+import org.opennms.newts.persistence.cassandra.RollupSampleProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
@@ -68,6 +73,7 @@ public class NewtsService extends Application<NewtsConfig> {
     @Override
     public void initialize(Bootstrap<NewtsConfig> bootstrap) {
         bootstrap.addCommand(new InitCommand());
+        bootstrap.addCommand(new MigrateChunksCommand());
         bootstrap.addBundle(new AssetsBundle("/app", UI_URL_PATH, "index.html"));
     }
 
@@ -92,6 +98,20 @@ public class NewtsService extends Application<NewtsConfig> {
         environment.lifecycle().manage(new Managed() {
             @Override
             public void stop() throws Exception {
+                // Stop replaying journaled samples (the remainder are replayed on restart)
+                if (config.getJournalConfig().isEnabled()) {
+                    injector.getInstance(JournalingSampleRepository.class).shutdown();
+                }
+                // Flush any coalesced samples before going away
+                else if (config.getCoalescerConfig().isEnabled()) {
+                    injector.getInstance(CoalescingSampleRepository.class).shutdown();
+                }
+                // ...and any samples buffered for chunked contexts
+                injector.getInstance(CassandraSampleRepository.class).shutdown();
+                // ...and any buffered rollups
+                if (config.getCassandraRollupConfiguration().isEnabled()) {
+                    injector.getInstance(RollupSampleProcessor.class).shutdown();
+                }
                 reporter.stop();
             }
 
@@ -107,13 +127,16 @@ public class NewtsService extends Application<NewtsConfig> {
         SampleRepository repository = injector.getInstance(SampleRepository.class);
         Indexer indexer = injector.getInstance(Indexer.class);
 
+        // Search only if enabled
+        Optional<Searcher> searcher = config.getSearchConfig().isEnabled() ? Optional.of(injector.getInstance(Searcher.class)) : Optional.<Searcher> absent();
+
         // Rest resources
-        environment.jersey().register(new MeasurementsResource(repository, config.getReports()));
-        environment.jersey().register(new SamplesResource(repository, indexer));
+        environment.jersey().register(new MeasurementsResource(repository, config.getReports(), searcher, environment.getObjectMapper()));
+        environment.jersey().register(new SamplesResource(repository, indexer, environment.getObjectMapper(), config.getBulkIngestConfig().getBatchSize()));
 
         // Add search resource only if search is enabled
-        if (config.getSearchConfig().isEnabled()) {
-            environment.jersey().register(new SearchResource(injector.getInstance(Searcher.class)));
+        if (searcher.isPresent()) {
+            environment.jersey().register(new SearchResource(searcher.get()));
         }
 
         // Health checks
@@ -121,6 +144,8 @@ public class NewtsService extends Application<NewtsConfig> {
 
         // Mapped exceptions
         environment.jersey().register(IllegalArgumentExceptionMapper.class);
+        environment.jersey().register(ConcurrencyLimitExceededExceptionMapper.class);
+        environment.jersey().register(JournalFullExceptionMapper.class);
 
     }
 
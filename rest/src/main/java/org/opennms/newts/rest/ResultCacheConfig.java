@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.persistence.cassandra.ResultCacheConfiguration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class ResultCacheConfig {
+
+    @JsonProperty("enabled")
+    private boolean m_isEnabled = false;
+
+    @Min(value = 1)
+    @JsonProperty("bucket-rows")
+    private int m_bucketRows = 60;
+
+    @Min(value = 1)
+    @JsonProperty("max-measurements")
+    private long m_maxMeasurements = 10000000;
+
+    @JsonProperty("max-age")
+    private String m_maxAge = "5m";
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    public int getBucketRows() {
+        return m_bucketRows;
+    }
+
+    public long getMaxMeasurements() {
+        return m_maxMeasurements;
+    }
+
+    public Duration getMaxAge() {
+        return Duration.parse(m_maxAge);
+    }
+
+    public ResultCacheConfiguration getResultCacheConfiguration() {
+        return new ResultCacheConfiguration(isEnabled(), getBucketRows(), getMaxMeasurements(), getMaxAge());
+    }
+}
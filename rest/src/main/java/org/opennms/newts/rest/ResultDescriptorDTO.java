@@ -17,14 +17,18 @@ package org.opennms.newts.rest;
 
 
 import java.util.Arrays;
+import java.util.regex.Pattern;
 
 import javax.validation.Valid;
-import javax.validation.constraints.NotNull;
+import javax.validation.constraints.AssertTrue;
 
 import org.hibernate.validator.constraints.NotEmpty;
 import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.query.AggregationFunction;
+import org.opennms.newts.api.query.PercentileFunction;
 import org.opennms.newts.api.query.StandardAggregationFunctions;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 
@@ -32,6 +36,8 @@ public class ResultDescriptorDTO {
 
     public static class Datasource {
 
+        private static final Pattern PERCENTILE = Pattern.compile("[pP](100(\\.0+)?|\\d{1,2}(\\.\\d+)?)");
+
         @NotEmpty
         @JsonProperty("label")
         private String m_label;
@@ -40,9 +46,10 @@ public class ResultDescriptorDTO {
         @JsonProperty("source")
         private String m_source;
 
-        @NotNull
+        // The name of one of the StandardAggregationFunctions, or a percentile (P95, P99.9), in any case
+        @NotEmpty
         @JsonProperty("function")
-        private StandardAggregationFunctions m_function;
+        private String m_function;
 
         @JsonProperty("heartbeat")
         private String m_heartbeat;
@@ -55,14 +62,43 @@ public class ResultDescriptorDTO {
             return m_source;
         }
 
-        public StandardAggregationFunctions getFunction() {
-            return m_function;
+        /**
+         * @throws IllegalArgumentException
+         *             if the function is neither one of the {@link StandardAggregationFunctions}, nor
+         *             a percentile
+         */
+        public AggregationFunction getFunction() {
+            for (StandardAggregationFunctions function : StandardAggregationFunctions.values()) {
+                if (function.name().equalsIgnoreCase(m_function)) {
+                    return function;
+                }
+            }
+
+            if (m_function != null && PERCENTILE.matcher(m_function).matches()) {
+                return new PercentileFunction(Double.parseDouble(m_function.substring(1)));
+            }
+
+            throw new IllegalArgumentException(String.format(
+                    "unknown function %s (expected a percentile, e.g. P95, or one of %s)",
+                    m_function,
+                    Arrays.toString(StandardAggregationFunctions.values())));
         }
 
         public Duration getHeartbeat() {
             return Duration.parse(m_heartbeat);
         }
 
+        @JsonIgnore
+        @AssertTrue(message = "unknown function")
+        public boolean isFunctionValid() {
+            try {
+                return m_function == null || getFunction() != null;
+            }
+            catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
         @Override
         public String toString() {
             return String.format(
@@ -70,7 +106,7 @@ public class ResultDescriptorDTO {
                     getClass().getSimpleName(),
                     getLabel(),
                     getSource(),
-                    getFunction(),
+                    m_function,
                     getHeartbeat());
         }
 
@@ -119,6 +155,10 @@ public class ResultDescriptorDTO {
     @JsonProperty("exports")
     private String[] m_exports;
 
+    // Whether aggregates may be read from rollups, (see ResultDescriptor#allowRollups(boolean))
+    @JsonProperty("rollups")
+    private boolean m_rollups = false;
+
     public Duration getInterval() {
         return Duration.parse(m_interval);
     }
@@ -135,15 +175,20 @@ public class ResultDescriptorDTO {
         return m_exports;
     }
 
+    public boolean isRollups() {
+        return m_rollups;
+    }
+
     @Override
     public String toString() {
         return String.format(
-                "%s[interval=%s, datasources=%s, expressions=%s, exports=%s]",
+                "%s[interval=%s, datasources=%s, expressions=%s, exports=%s, rollups=%s]",
                 getClass().getSimpleName(),
                 getInterval(),
                 Arrays.asList(getDatasources()),
                 Arrays.asList(getExpressions()),
-                Arrays.asList(getExports()));
+                Arrays.asList(getExports()),
+                isRollups());
     }
 
 }
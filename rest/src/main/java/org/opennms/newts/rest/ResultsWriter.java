@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opennms.newts.api.ColumnarResults;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+
+/**
+ * Writes results as JSON, a row at a time as they are iterated, (rather than first copying them to
+ * DTOs); The JSON is that of {@link MeasurementDTOSerializer} and {@link SampleDTOSerializer}, an
+ * array of rows, each an array of their measurements or samples.
+ */
+class ResultsWriter {
+
+    private ResultsWriter() {}
+
+    static StreamingOutput measurements(final ObjectMapper mapper, final Results<Measurement> measurements) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                JsonGenerator json = mapper.getFactory().createGenerator(output);
+                writeMeasurements(json, measurements);
+                json.flush();
+            }
+        };
+    }
+
+    static StreamingOutput samples(final ObjectMapper mapper, final Results<Sample> samples) {
+        return new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                JsonGenerator json = mapper.getFactory().createGenerator(output);
+                writeSamples(json, samples);
+                json.flush();
+            }
+        };
+    }
+
+    static void writeMeasurements(JsonGenerator json, Results<Measurement> measurements) throws IOException {
+        // Added rows are only in the row view
+        if (measurements instanceof ColumnarResults && !((ColumnarResults) measurements).isModified()) {
+            writeMeasurements(json, (ColumnarResults) measurements);
+            return;
+        }
+
+        json.writeStartArray();
+
+        for (Row<Measurement> row : measurements) {
+            json.writeStartArray();
+
+            for (Measurement measurement : row.getElements()) {
+                writeMeasurement(json, measurement.getName(), measurement.getTimestamp().asMillis(), measurement.getValue(), measurement.getAttributes());
+            }
+
+            json.writeEndArray();
+        }
+
+        json.writeEndArray();
+    }
+
+    /** Writes columnar measurements from the columns, (without building their rows). */
+    private static void writeMeasurements(JsonGenerator json, ColumnarResults measurements) throws IOException {
+        List<String> labels = measurements.getLabels();
+
+        json.writeStartArray();
+
+        for (int row = 0; row < measurements.size(); row++) {
+            json.writeStartArray();
+
+            for (int column = 0; column < labels.size(); column++) {
+                writeMeasurement(json, labels.get(column), measurements.getTimestamp(row), measurements.getValue(column, row), measurements.getAttributes(column, row));
+            }
+
+            json.writeEndArray();
+        }
+
+        json.writeEndArray();
+    }
+
+    private static void writeMeasurement(JsonGenerator json, String name, long timestamp, double value, Map<String, String> attributes) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("name", name);
+        json.writeNumberField("timestamp", timestamp);
+        json.writeNumberField("value", value);
+
+        // Since attributes is optional, be compact and omit from JSON output when unused.
+        if (attributes != null && !attributes.isEmpty()) {
+            json.writeObjectField("attributes", attributes);
+        }
+
+        json.writeEndObject();
+    }
+
+    static void writeSamples(JsonGenerator json, Results<Sample> samples) throws IOException {
+        json.writeStartArray();
+
+        for (Row<Sample> row : samples) {
+            json.writeStartArray();
+
+            for (Sample sample : row.getElements()) {
+                json.writeStartObject();
+                json.writeStringField("name", sample.getName());
+                json.writeNumberField("timestamp", sample.getTimestamp().asMillis());
+                json.writeStringField("type", sample.getType().toString());
+                json.writeObjectField("value", sample.getValue());
+
+                // Since attributes is optional, be compact and omit from JSON output when unused.
+                if (sample.getAttributes() != null && !sample.getAttributes().isEmpty()) {
+                    json.writeObjectField("attributes", sample.getAttributes());
+                }
+
+                // Omit the context field when it is set to the default
+                if (!Context.DEFAULT_CONTEXT.equals(sample.getContext())) {
+                    json.writeStringField("context", sample.getContext().getId());
+                }
+
+                json.writeEndObject();
+            }
+
+            json.writeEndArray();
+        }
+
+        json.writeEndArray();
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration;
+import org.opennms.newts.persistence.cassandra.RollupConfiguration.Rollup;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.Lists;
+
+
+public class RollupConfig {
+
+    public static class StepConfig {
+
+        @NotNull
+        @JsonProperty("step")
+        private String m_step;
+
+        @Min(value = 0)
+        @JsonProperty("time-to-live")
+        private int m_ttl = 0;
+
+        public Duration getStep() {
+            return Duration.parse(m_step);
+        }
+
+        public int getTimeToLive() {
+            return m_ttl;
+        }
+    }
+
+    @JsonProperty("flush-delay")
+    private String m_flushDelay = "5m";
+
+    @Min(value = 1)
+    @JsonProperty("max-buffered")
+    private int m_maxBuffered = 1000000;
+
+    @Valid
+    @JsonProperty("steps")
+    private List<StepConfig> m_steps = Collections.emptyList();
+
+    public Duration getFlushDelay() {
+        return Duration.parse(m_flushDelay);
+    }
+
+    public int getMaxBuffered() {
+        return m_maxBuffered;
+    }
+
+    public List<StepConfig> getSteps() {
+        return m_steps;
+    }
+
+    public RollupConfiguration getRollupConfiguration() {
+        List<Rollup> rollups = Lists.newArrayList();
+
+        for (StepConfig step : m_steps) {
+            rollups.add(new Rollup(step.getStep(), step.getTimeToLive()));
+        }
+
+        return new RollupConfiguration(rollups, getFlushDelay(), getMaxBuffered());
+    }
+}
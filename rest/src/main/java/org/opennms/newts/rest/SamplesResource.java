@@ -16,9 +16,15 @@
 package org.opennms.newts.rest;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -28,16 +34,29 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.Timestamp;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import org.opennms.newts.api.search.Indexer;
 
 
@@ -46,26 +65,129 @@ import org.opennms.newts.api.search.Indexer;
 @Consumes(MediaType.APPLICATION_JSON)
 public class SamplesResource {
 
+    static final int DEFAULT_BULK_BATCH_SIZE = 1000;
+
     private final SampleRepository m_sampleRepository;
     private final Indexer m_indexer;
+    private final ObjectMapper m_mapper;
+    private final int m_bulkBatchSize;
 
     public SamplesResource(SampleRepository sampleRepository,
                            Indexer indexer) {
+        this(sampleRepository, indexer, new ObjectMapper(), DEFAULT_BULK_BATCH_SIZE);
+    }
+
+    /**
+     * @param mapper
+     *            serializes and parses samples
+     * @param bulkBatchSize
+     *            the number of samples inserted at a time by bulk ingest
+     */
+    public SamplesResource(SampleRepository sampleRepository,
+                           Indexer indexer,
+                           ObjectMapper mapper,
+                           int bulkBatchSize) {
+        checkArgument(bulkBatchSize > 0, "bulk batch size must be greater than zero");
+
         m_sampleRepository = checkNotNull(sampleRepository, "sample repository");
         m_indexer = checkNotNull(indexer, "indexer");
+        m_mapper = checkNotNull(mapper, "mapper");
+        m_bulkBatchSize = bulkBatchSize;
+    }
+
+    /**
+     * Inserts samples asynchronously; The request is resumed once they have been written, (rather
+     * than holding a server thread while they are).
+     */
+    @POST
+    @Timed
+    public void writeSamples(Collection<SampleDTO> samples, @Suspended final AsyncResponse response) {
+        Futures.addCallback(m_sampleRepository.insertAsync(Transform.samples(samples)), new FutureCallback<Void>() {
+
+            @Override
+            public void onSuccess(Void result) {
+                response.resume(Response.status(Response.Status.CREATED).build());
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                response.resume(t);
+            }
+        });
     }
 
+    /**
+     * Inserts the samples of a request body of any size, (a JSON array of samples, as that of
+     * {@link #writeSamples(Collection, AsyncResponse)}, and optionally gzip compressed); The body is parsed as it
+     * is read, and its samples inserted in batches of the bulk batch size, so that at most one batch
+     * is held in memory.
+     * <p>
+     * The samples of the batches preceding any invalid sample have already been inserted when the
+     * request fails, (the response says how many).
+     * </p>
+     */
     @POST
     @Timed
-    public Response writeSamples(Collection<SampleDTO> samples) {
-        m_sampleRepository.insert(Transform.samples(samples));
+    @Path("/bulk")
+    public Response writeBulkSamples(InputStream body) throws IOException {
+        int inserted = 0;
+
+        try (JsonParser json = m_mapper.getFactory().createParser(decompress(body))) {
+            if (json.nextToken() != JsonToken.START_ARRAY) {
+                throw badRequest("Expected an array of samples", inserted);
+            }
+
+            List<Sample> batch = Lists.newArrayListWithCapacity(m_bulkBatchSize);
+
+            while (json.nextToken() == JsonToken.START_OBJECT) {
+                batch.add(Transform.sample(json.readValueAs(SampleDTO.class)));
+
+                if (batch.size() == m_bulkBatchSize) {
+                    m_sampleRepository.insert(batch);
+                    inserted += batch.size();
+                    // A new batch, (the repository may retain the last)
+                    batch = Lists.newArrayListWithCapacity(m_bulkBatchSize);
+                }
+            }
+
+            if (json.getCurrentToken() != JsonToken.END_ARRAY) {
+                throw badRequest("Expected a sample", inserted);
+            }
+
+            if (!batch.isEmpty()) {
+                m_sampleRepository.insert(batch);
+            }
+        }
+        catch (JsonProcessingException e) {
+            throw badRequest(e.getOriginalMessage(), inserted);
+        }
+
         return Response.status(Response.Status.CREATED).build();
     }
 
+    private static WebApplicationException badRequest(String message, int inserted) {
+        String entity = String.format("Invalid samples (%d inserted): %s", inserted, message);
+        return new WebApplicationException(Response.status(Status.BAD_REQUEST).entity(entity).build());
+    }
+
+    /**
+     * Decompresses gzip'd bodies, (those that were not already decompressed by the server, being
+     * sent without a gzip <code>Content-Encoding</code>).
+     */
+    private static InputStream decompress(InputStream body) throws IOException {
+        InputStream input = new BufferedInputStream(body);
+
+        input.mark(2);
+        int magic = input.read() | (input.read() << 8);
+        input.reset();
+
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(input) : input;
+    }
+
     @GET
     @Timed
     @Path("/{resource}")
-    public Collection<Collection<SampleDTO>> getSamples(@PathParam("resource") Resource resource,
+    public StreamingOutput getSamples(@PathParam("resource") Resource resource,
             @QueryParam("start") Optional<TimestampParam> start, @QueryParam("end") Optional<TimestampParam> end,
             @QueryParam("context") Optional<String> contextId) {
 
@@ -73,7 +195,7 @@ public class SamplesResource {
         Optional<Timestamp> upper = Transform.toTimestamp(end);
         Context context = contextId.isPresent() ? new Context(contextId.get()) : Context.DEFAULT_CONTEXT;
 
-        return Transform.sampleDTOs(m_sampleRepository.select(context, resource, lower, upper));
+        return ResultsWriter.samples(m_mapper, m_sampleRepository.select(context, resource, lower, upper));
     }
 
     @DELETE
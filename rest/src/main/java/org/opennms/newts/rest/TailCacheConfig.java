@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016, The OpenNMS Group
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opennms.newts.rest;
+
+
+import javax.validation.constraints.Min;
+
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.persistence.cassandra.TailCacheConfiguration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+public class TailCacheConfig {
+
+    @JsonProperty("enabled")
+    private boolean m_isEnabled = false;
+
+    @JsonProperty("single-writer")
+    private boolean m_isSingleWriter = false;
+
+    @JsonProperty("horizon")
+    private String m_horizon = "6h";
+
+    @Min(value = 1)
+    @JsonProperty("max-samples-per-metric")
+    private int m_maxSamplesPerMetric = 1024;
+
+    @Min(value = 1)
+    @JsonProperty("max-samples")
+    private long m_maxSamples = 5000000;
+
+    public boolean isEnabled() {
+        return m_isEnabled;
+    }
+
+    public boolean isSingleWriter() {
+        return m_isSingleWriter;
+    }
+
+    public Duration getHorizon() {
+        return Duration.parse(m_horizon);
+    }
+
+    public int getMaxSamplesPerMetric() {
+        return m_maxSamplesPerMetric;
+    }
+
+    public long getMaxSamples() {
+        return m_maxSamples;
+    }
+
+    public TailCacheConfiguration getTailCacheConfiguration() {
+        return new TailCacheConfiguration(isEnabled(), isSingleWriter(), getHorizon(), getMaxSamplesPerMetric(), getMaxSamples());
+    }
+}
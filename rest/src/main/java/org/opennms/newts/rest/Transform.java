@@ -21,10 +21,7 @@ import java.util.Collections;
 import java.util.Map;
 
 import org.opennms.newts.api.Duration;
-import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
-import org.opennms.newts.api.Results;
-import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.ValueType;
@@ -76,7 +73,7 @@ class Transform {
      */
     static ResultDescriptor resultDescriptor(ResultDescriptorDTO rDescriptorDTO) {
 
-        ResultDescriptor rDescriptor = new ResultDescriptor(rDescriptorDTO.getInterval());
+        ResultDescriptor rDescriptor = new ResultDescriptor(rDescriptorDTO.getInterval()).allowRollups(rDescriptorDTO.isRollups());
 
         for (ResultDescriptorDTO.Datasource ds : rDescriptorDTO.getDatasources()) {
             if (ds.getHeartbeat() != null) {
@@ -97,72 +94,25 @@ class Transform {
     }
 
     /**
-     * Convert {@link SampleDTO}s to {@link Sample}s.
+     * Convert a {@link SampleDTO} to a {@link Sample}.
      *
-     * @param samples
-     *            samples to convert
-     * @return converted samples
+     * @param sample
+     *            the DTO to convert
+     * @return the converted sample
      */
-    static Collection<Sample> samples(Collection<SampleDTO> samples) {
-        return Collections2.transform(samples, DTO_TO_SAMPLE);
+    static Sample sample(SampleDTO sample) {
+        return DTO_TO_SAMPLE.apply(sample);
     }
 
     /**
-     * Convert samples to {@link SampleDTO}s.
+     * Convert {@link SampleDTO}s to {@link Sample}s.
      *
      * @param samples
-     *            samples to convert.
-     * @return converted samples.
-     */
-    static Collection<Collection<SampleDTO>> sampleDTOs(Results<Sample> samples) {
-        return Lists.newArrayList(Iterables.transform(samples, new Function<Results.Row<Sample>, Collection<SampleDTO>>() {
-
-            @Override
-            public Collection<SampleDTO> apply(Row<Sample> input) {
-                return Collections2.transform(input.getElements(), new Function<Sample, SampleDTO>() {
-
-                    @Override
-                    public SampleDTO apply(Sample input) {
-                        return new SampleDTO(
-                                input.getTimestamp().asMillis(),
-                                new ResourceDTO(input.getResource().getId(), unwrapMap(input.getResource().getAttributes())),
-                                input.getName(),
-                                input.getType(),
-                                input.getValue(),
-                                input.getAttributes(),
-                                input.getContext().getId());
-                    }
-                });
-            }
-        }));
-    }
-
-    /**
-     * Convert measurements to {@link MeasurementDTO}s.
-     *
-     * @param measurements
-     *            measurements to convert.
-     * @return converted measurements.
+     *            samples to convert
+     * @return converted samples, (each converted once, rather than a view of the DTOs)
      */
-    static Collection<Collection<MeasurementDTO>> measurementDTOs(Results<Measurement> measurements) {
-        return Lists.newArrayList(Iterables.transform(measurements, new Function<Results.Row<Measurement>, Collection<MeasurementDTO>>() {
-
-            @Override
-            public Collection<MeasurementDTO> apply(Row<Measurement> input) {
-                return Collections2.transform(input.getElements(), new Function<Measurement, MeasurementDTO>() {
-
-                    @Override
-                    public MeasurementDTO apply(Measurement input) {
-                        return new MeasurementDTO(
-                                input.getTimestamp().asMillis(),
-                                new ResourceDTO(input.getResource().getId(), unwrapMap(input.getResource().getAttributes())),
-                                input.getName(),
-                                input.getValue(),
-                                input.getAttributes());
-                    }
-                });
-            }
-        }));
+    static Collection<Sample> samples(Collection<SampleDTO> samples) {
+        return Lists.newArrayList(Collections2.transform(samples, DTO_TO_SAMPLE));
     }
 
     /**
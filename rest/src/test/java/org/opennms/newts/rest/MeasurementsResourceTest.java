@@ -16,33 +16,46 @@
 package org.opennms.newts.rest;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
+import javax.ws.rs.core.StreamingOutput;
+
 import org.hamcrest.CoreMatchers;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Duration;
 import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.RankedResource;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.query.SeriesAggregation;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 
 public class MeasurementsResourceTest {
@@ -82,7 +95,7 @@ public class MeasurementsResourceTest {
                         Optional.of(new TimestampParam("1998-07-09T12:00:00-0500")),
                         Optional.of(new DurationParam("15m")),
                         Optional.<String>absent()),
-                CoreMatchers.instanceOf(Collection.class));
+                CoreMatchers.instanceOf(StreamingOutput.class));
 
         // Include the report in the request
         assertThat(
@@ -93,7 +106,135 @@ public class MeasurementsResourceTest {
                         Optional.of(new TimestampParam("1998-07-09T12:00:00-0500")),
                         Optional.of(new DurationParam("15m")),
                         Optional.<String>absent()),
-                CoreMatchers.instanceOf(Collection.class));
+                CoreMatchers.instanceOf(StreamingOutput.class));
+
+        // Columnar encoding
+        assertThat(
+                m_resource.getColumnarMeasurements(
+                        "temps",
+                        new Resource("localhost"),
+                        Optional.of(new TimestampParam("1998-07-09T11:00:00-0500")),
+                        Optional.of(new TimestampParam("1998-07-09T12:00:00-0500")),
+                        Optional.of(new DurationParam("15m")),
+                        Optional.<String>absent()),
+                CoreMatchers.instanceOf(StreamingOutput.class));
+    }
+
+    @Test
+    public void testGetMeasurementsOfManyResources() throws Exception {
+
+        final Results<Measurement> results = new Results<>();
+        results.addElement(new Measurement(Timestamp.fromEpochSeconds(900000000), new Resource("a"), "temp", 1.0d, null));
+
+        final SettableFuture<Results<Measurement>> pending = SettableFuture.create();
+
+        when(
+                m_repository.selectAsync(
+                        eq(Context.DEFAULT_CONTEXT),
+                        anyCollectionOf(Resource.class),
+                        eq(Optional.of(Timestamp.fromEpochSeconds(900000000))),
+                        eq(Optional.of(Timestamp.fromEpochSeconds(900003600))),
+                        any(ResultDescriptor.class),
+                        eq(Optional.of(Duration.seconds(900))))
+        ).thenReturn(ImmutableMap.<Resource, ListenableFuture<Results<Measurement>>> of(
+                new Resource("a"), pending,
+                new Resource("b"), Futures.<Results<Measurement>> immediateFailedFuture(new RuntimeException("failed")),
+                new Resource("c"), Futures.immediateFuture(results)));
+
+        MeasurementsQueryDTO queryDTO = new ObjectMapper().reader(MeasurementsQueryDTO.class).readValue("{\"resources\": [\"a\", \"b\", \"c\"], \"report\": \"temps\"}");
+
+        StreamingOutput streamed = m_resource.getMeasurements(
+                queryDTO,
+                Optional.of(new TimestampParam("1998-07-09T11:00:00-0500")),
+                Optional.of(new TimestampParam("1998-07-09T12:00:00-0500")),
+                Optional.of(new DurationParam("15m")),
+                Optional.<String>absent());
+
+        // Completes after the others
+        pending.set(results);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        streamed.write(output);
+
+        // Written in the order completed
+        List<JsonNode> nodes = Lists.newArrayList(new ObjectMapper().readTree(output.toByteArray()));
+
+        assertEquals(3, nodes.size());
+        assertEquals("b", nodes.get(0).get("resource").asText());
+        assertEquals("failed", nodes.get(0).get("error").asText());
+        assertEquals("c", nodes.get(1).get("resource").asText());
+        assertEquals(1.0d, nodes.get(1).get("measurements").get(0).get(0).get("value").asDouble(), 0.0d);
+        assertEquals("a", nodes.get(2).get("resource").asText());
+    }
+
+    @Test
+    public void testGetAggregateMeasurements() throws Exception {
+
+        when(
+                m_repository.selectAsync(
+                        eq(Context.DEFAULT_CONTEXT),
+                        anyCollectionOf(Resource.class),
+                        eq(Optional.<Timestamp>absent()),
+                        eq(Optional.<Timestamp>absent()),
+                        any(ResultDescriptor.class),
+                        eq(Optional.<Duration>absent()))
+        ).thenReturn(ImmutableMap.<Resource, ListenableFuture<Results<Measurement>>> of(
+                new Resource("a"), Futures.immediateFuture(results(new Resource("a"), 1.0d)),
+                new Resource("b"), Futures.immediateFuture(results(new Resource("b"), 2.0d))));
+
+        MeasurementsQueryDTO queryDTO = new ObjectMapper().reader(MeasurementsQueryDTO.class).readValue("{\"resources\": [\"a\", \"b\"], \"report\": \"temps\", \"aggregate\": \"sum\"}");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        m_resource.getMeasurements(queryDTO, Optional.<TimestampParam>absent(), Optional.<TimestampParam>absent(), Optional.<DurationParam>absent(), Optional.<String>absent()).write(output);
+
+        // Merged into the measurements of one resource
+        JsonNode rows = new ObjectMapper().readTree(output.toByteArray());
+
+        assertEquals(1, rows.size());
+        assertEquals("temp", rows.get(0).get(0).get("name").asText());
+        assertEquals(3.0d, rows.get(0).get(0).get("value").asDouble(), 0.0d);
+    }
+
+    @Test
+    public void testGetTopMeasurements() throws Exception {
+
+        when(
+                m_repository.selectTopAsync(
+                        eq(Context.DEFAULT_CONTEXT),
+                        anyCollectionOf(Resource.class),
+                        eq(Optional.<Timestamp>absent()),
+                        eq(Optional.<Timestamp>absent()),
+                        any(ResultDescriptor.class),
+                        eq(Optional.<Duration>absent()),
+                        eq("temp"),
+                        eq(SeriesAggregation.MAX),
+                        eq(1))
+        ).thenReturn(Futures.<List<RankedResource>> immediateFuture(Lists.newArrayList(new RankedResource(new Resource("b"), 2.0d, results(new Resource("b"), 2.0d)))));
+
+        MeasurementsQueryDTO queryDTO = new ObjectMapper().reader(MeasurementsQueryDTO.class).readValue("{\"resources\": [\"a\", \"b\"], \"report\": \"temps\", \"top\": {\"count\": 1, \"metric\": \"temp\", \"aggregate\": \"max\"}}");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        m_resource.getMeasurements(queryDTO, Optional.<TimestampParam>absent(), Optional.<TimestampParam>absent(), Optional.<DurationParam>absent(), Optional.<String>absent()).write(output);
+
+        JsonNode top = new ObjectMapper().readTree(output.toByteArray());
+
+        assertEquals(1, top.size());
+        assertEquals("b", top.get(0).get("resource").asText());
+        assertEquals(2.0d, top.get(0).get("value").asDouble(), 0.0d);
+        assertEquals(2.0d, top.get(0).get("measurements").get(0).get(0).get("value").asDouble(), 0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetMeasurementsOfSearchWithoutSearch() throws Exception {
+        MeasurementsQueryDTO queryDTO = new ObjectMapper().reader(MeasurementsQueryDTO.class).readValue("{\"query\": \"a\", \"report\": \"temps\"}");
+
+        m_resource.getMeasurements(queryDTO, Optional.<TimestampParam>absent(), Optional.<TimestampParam>absent(), Optional.<DurationParam>absent(), Optional.<String>absent());
+    }
+
+    private static Results<Measurement> results(Resource resource, double value) {
+        Results<Measurement> results = new Results<>();
+        results.addElement(new Measurement(Timestamp.fromEpochSeconds(900000000), resource, "temp", value, null));
+        return results;
     }
 
     private static ResultDescriptorDTO getResultDescriptorDTO() throws JsonProcessingException, IOException {
@@ -4,14 +4,23 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.opennms.newts.api.MetricType.COUNTER;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
+import javax.ws.rs.core.StreamingOutput;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opennms.newts.api.ColumnarResults;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
+import org.opennms.newts.api.Results.Row;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.ValueType;
@@ -33,7 +42,7 @@ public class ResultSerializationTest {
     }
 
     @Test
-    public void testMeasurements() throws JsonProcessingException {
+    public void testMeasurements() throws IOException {
         
         Results<Measurement> data = new Results<>();
         data.addElement(new Measurement(Timestamp.fromEpochSeconds(900000000), new Resource("localhost"), "ifInOctets", 5000));
@@ -68,12 +77,60 @@ public class ResultSerializationTest {
                 + "  ]"
                 + "]";
 
-        assertThat(new ObjectMapper().writeValueAsString(Transform.measurementDTOs(data)), is(normalize(json)));
+        assertThat(write(ResultsWriter.measurements(new ObjectMapper(), data)), is(normalize(json)));
         
     }
 
     @Test
-    public void testSamples() throws JsonProcessingException {
+    public void testColumnarMeasurements() throws IOException {
+
+        Map<String, String> attributes = Maps.newHashMap();
+        attributes.put("units", "bytes");
+
+        Resource resource = new Resource("localhost");
+        Results<Measurement> rows = new Results<>();
+        rows.addElement(new Measurement(Timestamp.fromEpochSeconds(900000000), resource, "ifInOctets", 5000, attributes));
+        rows.addElement(new Measurement(Timestamp.fromEpochSeconds(900000300), resource, "ifInOctets", 6000));
+
+        ColumnarResults.Builder builder = new ColumnarResults.Builder(resource, Lists.newArrayList("ifInOctets", "ifOutOctets"));
+        for (Row<Measurement> row : rows) {
+            builder.row(row);
+        }
+
+        String json = "["
+                + "  ["
+                + "    {"
+                + "      \"name\": \"ifInOctets\","
+                + "      \"timestamp\":900000000000,"
+                + "      \"value\":5000.0,"
+                + "      \"attributes\":{\"units\":\"bytes\"}"
+                + "    },"
+                + "    {"
+                + "      \"name\": \"ifOutOctets\","
+                + "      \"timestamp\":900000000000,"
+                + "      \"value\":\"NaN\""
+                + "    }"
+                + "  ],"
+                + "  ["
+                + "    {"
+                + "      \"name\": \"ifInOctets\","
+                + "      \"timestamp\":900000300000,"
+                + "      \"value\":6000.0"
+                + "    },"
+                + "    {"
+                + "      \"name\": \"ifOutOctets\","
+                + "      \"timestamp\":900000300000,"
+                + "      \"value\":\"NaN\""
+                + "    }"
+                + "  ]"
+                + "]";
+
+        assertThat(write(ResultsWriter.measurements(new ObjectMapper(), builder.build())), is(normalize(json)));
+
+    }
+
+    @Test
+    public void testSamples() throws IOException {
 
         // Use the optional attributes map at least once.
         Map<String, String> attributes = Maps.newHashMap();
@@ -138,10 +195,83 @@ public class ResultSerializationTest {
                 + "  ]"
                 + "]";
 
-        assertThat(new ObjectMapper().writeValueAsString(Transform.sampleDTOs(data)), is(normalize(json)));
+        assertThat(write(ResultsWriter.samples(new ObjectMapper(), data)), is(normalize(json)));
 
     }
 
+    @Test
+    public void testColumnarEncoding() throws IOException {
+        Resource resource = new Resource("localhost");
+        int size = ColumnarWriter.BLOCK_ROWS + 10;
+
+        Results<Measurement> data = new Results<>();
+
+        for (int i = 0; i < size; i++) {
+            Timestamp timestamp = Timestamp.fromEpochSeconds(900000000 + i * 300);
+            data.addElement(new Measurement(timestamp, resource, "ifInOctets", i));
+
+            // A row without one of the measurements
+            if (i != 1) {
+                data.addElement(new Measurement(timestamp, resource, "ifOutOctets", i * 2));
+            }
+        }
+
+        List<String> labels = Lists.newArrayList();
+
+        for (Measurement measurement : data.iterator().next().getElements()) {
+            labels.add(measurement.getName());
+        }
+
+        ColumnarResults.Builder builder = new ColumnarResults.Builder(resource, labels);
+
+        for (Row<Measurement> row : data) {
+            builder.row(row);
+        }
+
+        byte[] encoded = encode(ColumnarWriter.measurements(data));
+
+        // Encoded alike, whether by row or by column
+        assertThat(encode(ColumnarWriter.measurements(builder.build())), is(encoded));
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+
+        assertThat(input.readInt(), is(ColumnarWriter.MAGIC));
+        assertThat(input.readShort(), is(ColumnarWriter.VERSION));
+        assertThat(input.readInt(), is(2));
+        assertThat(Lists.newArrayList(input.readUTF(), input.readUTF()), is(labels));
+
+        int in = labels.indexOf("ifInOctets");
+        int offset = 0;
+
+        for (int length = input.readInt(); length > 0; length = input.readInt()) {
+            for (int i = 0; i < length; i++) {
+                assertThat(input.readLong(), is((900000000L + (offset + i) * 300) * 1000));
+            }
+
+            for (int column = 0; column < 2; column++) {
+                for (int i = 0; i < length; i++) {
+                    int row = offset + i;
+                    double expected = column == in ? row : (row == 1 ? Double.NaN : row * 2);
+                    assertThat(input.readDouble(), is(expected));
+                }
+            }
+
+            offset += length;
+        }
+
+        assertThat(offset, is(size));
+        assertThat(input.read(), is(-1));
+
+        // No measurements, no labels
+        input = new DataInputStream(new ByteArrayInputStream(encode(ColumnarWriter.measurements(new Results<Measurement>()))));
+
+        assertThat(input.readInt(), is(ColumnarWriter.MAGIC));
+        assertThat(input.readShort(), is(ColumnarWriter.VERSION));
+        assertThat(input.readInt(), is(0));
+        assertThat(input.readInt(), is(0));
+        assertThat(input.read(), is(-1));
+    }
+
     @Test
     public void testSearchResults() throws JsonProcessingException {
         SearchResults results = new SearchResults();
@@ -164,6 +294,16 @@ public class ResultSerializationTest {
 
     }
 
+    private static String write(StreamingOutput streamed) throws IOException {
+        return new String(encode(streamed), "UTF-8");
+    }
+
+    private static byte[] encode(StreamingOutput streamed) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        streamed.write(output);
+        return output.toByteArray();
+    }
+
     private String normalize(String input) {
         return input.replaceAll("\\n", "").replaceAll("\\s", "");
     }
@@ -17,20 +17,33 @@ package org.opennms.newts.rest;
 
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.hamcrest.CoreMatchers;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results;
@@ -38,7 +51,10 @@ import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.Timestamp;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import org.opennms.newts.cassandra.search.CassandraIndexer;
 
 
@@ -51,12 +67,84 @@ public class SamplesResourceTest {
     @Test
     public void testWriteSamples() {
 
-        Response response = m_resource.writeSamples(Collections.<SampleDTO> emptyList());
+        AsyncResponse response = mock(AsyncResponse.class);
+        when(m_repository.insertAsync(anyCollectionOf(Sample.class))).thenReturn(Futures.<Void> immediateFuture(null));
 
-        assertThat(response.getStatus(), equalTo(Response.Status.CREATED.getStatusCode()));
+        m_resource.writeSamples(Collections.<SampleDTO> emptyList(), response);
 
+        ArgumentCaptor<Response> resumed = ArgumentCaptor.forClass(Response.class);
+        verify(response).resume(resumed.capture());
+        assertThat(resumed.getValue().getStatus(), equalTo(Response.Status.CREATED.getStatusCode()));
+
+        verify(m_repository).insertAsync(anyCollectionOf(Sample.class));
+
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteBulkSamples() throws IOException {
+        SamplesResource resource = new SamplesResource(m_repository, m_indexer, new ObjectMapper(), 2);
+        byte[] body = samples(5).getBytes("UTF-8");
+
+        assertThat(resource.writeBulkSamples(new ByteArrayInputStream(body)).getStatus(), equalTo(Response.Status.CREATED.getStatusCode()));
+
+        // Gzip'd
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+
+        assertThat(resource.writeBulkSamples(new ByteArrayInputStream(compressed.toByteArray())).getStatus(), equalTo(Response.Status.CREATED.getStatusCode()));
+
+        ArgumentCaptor<Collection<Sample>> batches = (ArgumentCaptor<Collection<Sample>>) (ArgumentCaptor<?>) ArgumentCaptor.forClass(Collection.class);
+        verify(m_repository, times(6)).insert(batches.capture());
+
+        List<Integer> sizes = Lists.newArrayList();
+        long timestamp = 900000000000L;
+
+        for (Collection<Sample> batch : batches.getAllValues()) {
+            sizes.add(batch.size());
+
+            for (Sample sample : batch) {
+                assertThat(sample.getTimestamp().asMillis(), equalTo(timestamp));
+                assertThat(sample.getResource().getId(), equalTo("localhost"));
+                timestamp = timestamp == 900001200000L ? 900000000000L : timestamp + 300000;
+            }
+        }
+
+        assertThat(sizes, equalTo(Arrays.asList(2, 2, 1, 2, 2, 1)));
+    }
+
+    @Test
+    public void testWriteInvalidBulkSamples() throws IOException {
+        SamplesResource resource = new SamplesResource(m_repository, m_indexer, new ObjectMapper(), 2);
+        String body = samples(3).replaceFirst("\\]$", ",{\"timestamp\":900000900000,\"name\":\"inlet\"}]");
+
+        try {
+            resource.writeBulkSamples(new ByteArrayInputStream(body.getBytes("UTF-8")));
+            fail("Expected failure");
+        }
+        catch (WebApplicationException e) {
+            assertThat(e.getResponse().getStatus(), equalTo(Response.Status.BAD_REQUEST.getStatusCode()));
+            assertThat((String) e.getResponse().getEntity(), startsWith("Invalid samples (2 inserted)"));
+        }
+
+        // The first batch was inserted
         verify(m_repository).insert(anyCollectionOf(Sample.class));
+    }
+
+    private static String samples(int count) {
+        StringBuilder json = new StringBuilder("[");
+
+        for (int i = 0; i < count; i++) {
+            json.append(i > 0 ? "," : "").append(String.format(
+                    "{\"timestamp\":%d,\"resource\":{\"id\":\"localhost\"},\"name\":\"inlet\",\"type\":\"GAUGE\",\"value\":%d}",
+                    900000000000L + i * 300000,
+                    100 + i));
+        }
 
+        return json.append("]").toString();
     }
 
     @Test
@@ -78,7 +166,7 @@ public class SamplesResourceTest {
                         Optional.of(new TimestampParam("1998-07-09T11:00:00-0500")),
                         Optional.of(new TimestampParam("1998-07-09T12:00:00-0500")),
                         Optional.<String>absent()),
-                CoreMatchers.instanceOf(Collection.class));
+                CoreMatchers.instanceOf(StreamingOutput.class));
 
     }
 
@@ -141,7 +141,7 @@
         var vm = this, end, start;
         
         vm.showGraph = false;
-        vm.availableFunctions = [ 'MIN', 'AVERAGE', 'MAX' ];
+        vm.availableFunctions = [ 'MIN', 'AVERAGE', 'MAX', 'SUM', 'COUNT', 'FIRST', 'LAST', 'STDDEV', 'RANGE', 'P50', 'P95', 'P99' ];
         vm.selectedMetrics = [];
         
         vm.getSelectedFunction = getSelectedFunction;